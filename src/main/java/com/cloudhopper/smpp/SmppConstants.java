@@ -50,13 +50,29 @@ public class SmppConstants {
     public static final int DEFAULT_WINDOW_SIZE = 1;
     public static final long DEFAULT_WINDOW_WAIT_TIMEOUT = 60000;
     public static final long DEFAULT_WRITE_TIMEOUT = 0; // For backwards compatibility, default to no timeout
+    public static final boolean DEFAULT_WRITE_AGGREGATION_ENABLED = false;
+    public static final int DEFAULT_WRITE_AGGREGATION_MAX_BYTES = 16384;
+    public static final int DEFAULT_WRITE_AGGREGATION_MAX_COUNT = 64;
+    public static final long DEFAULT_WRITE_AGGREGATION_MAX_DELAY = 1000;   // in microseconds
+    public static final boolean DEFAULT_HANDLER_DISPATCH_ENABLED = false;
+    public static final int DEFAULT_HANDLER_QUEUE_HIGH_WATERMARK = 1000;
+    public static final int DEFAULT_HANDLER_QUEUE_LOW_WATERMARK = 500;
+    public static final int DEFAULT_HANDLER_QUEUE_MAX_SIZE = 5000;
+    public static final int DEFAULT_HANDLER_THREAD_COUNT = Runtime.getRuntime().availableProcessors() * 2;
+    public static final int DEFAULT_ENCODE_BUFFER_POOL_SIZE = 0;    // disabled
+    public static final boolean DEFAULT_LAZY_DECODE_ENABLED = false;
+    public static final boolean DEFAULT_HEADER_ONLY_DECODE_ENABLED = false;
     public static final long DEFAULT_CONNECT_TIMEOUT = 10000;
     public static final long DEFAULT_BIND_TIMEOUT = 5000;
     public static final long DEFAULT_REQUEST_EXPIRY_TIMEOUT = -1;   // disabled
     public static final long DEFAULT_WINDOW_MONITOR_INTERVAL = -1;  // disabled
+    // tick duration of the timer shared by all sessions of a server or client for request expiry
+    public static final long DEFAULT_REQUEST_EXPIRY_TIMER_TICK_DURATION = 10;   // ms
     public static final int DEFAULT_SERVER_MAX_CONNECTION_SIZE = 100;
     public static final boolean DEFAULT_SERVER_NON_BLOCKING_SOCKETS_ENABLED = true;
     public static final boolean DEFAULT_SERVER_REUSE_ADDRESS = true;
+    public static final boolean DEFAULT_SERVER_TRAFFIC_COUNTERS_ENABLED = true;
+    public static final boolean DEFAULT_SERVER_SESSIONS_MBEAN_ENABLED = false;  // one mbean per session
 
     //
     // SUBMIT_MULTI destination type flags
@@ -21,6 +21,8 @@ package com.cloudhopper.smpp;
  */
 
 import com.cloudhopper.smpp.ssl.SslConfiguration;
+import com.cloudhopper.smpp.transcoder.PduFactoryRegistry;
+import com.cloudhopper.smpp.util.COctetStringCache;
 
 /**
  * Configuration of an SMPP server.
@@ -31,6 +33,8 @@ public class SmppServerConfiguration {
 
     private String name;
     private int port;
+    // name of a local (in-VM) address to listen on instead of the port
+    private String localAddress;
     // SSL
     private boolean useSsl = false;
     private SslConfiguration sslConfiguration;
@@ -52,12 +56,23 @@ public class SmppServerConfiguration {
     // jmx options
     private boolean jmxEnabled;
     private String jmxDomain;
+    // a single mbean for every session (instead of one mbean per session)
+    private boolean sessionsMBeanEnabled;
     // default request expiry timeout on server sessions
     private int defaultWindowSize = SmppConstants.DEFAULT_WINDOW_SIZE;
     private long defaultWindowWaitTimeout = SmppConstants.DEFAULT_WINDOW_WAIT_TIMEOUT;
     private long defaultRequestExpiryTimeout = SmppConstants.DEFAULT_REQUEST_EXPIRY_TIMEOUT;
     private long defaultWindowMonitorInterval = SmppConstants.DEFAULT_WINDOW_MONITOR_INTERVAL;
     private boolean defaultSessionCountersEnabled = false;
+    // count the traffic of every session in the server counters
+    private boolean trafficCountersEnabled = SmppConstants.DEFAULT_SERVER_TRAFFIC_COUNTERS_ENABLED;
+    // decode received pdus lazily (fields parsed on first access)
+    private boolean lazyDecodeEnabled = SmppConstants.DEFAULT_LAZY_DECODE_ENABLED;
+    // decode only the header of received pdus (body kept as-is)
+    private boolean headerOnlyDecodeEnabled = SmppConstants.DEFAULT_HEADER_ONLY_DECODE_ENABLED;
+
+    private PduFactoryRegistry pduFactoryRegistry;
+    private COctetStringCache internCache;
 
     public SmppServerConfiguration() {
         this.name = "SmppServer";
@@ -71,6 +86,7 @@ public class SmppServerConfiguration {
         this.reuseAddress = SmppConstants.DEFAULT_SERVER_REUSE_ADDRESS;
         this.jmxEnabled = false;
         this.jmxDomain = "com.cloudhopper.smpp";
+        this.sessionsMBeanEnabled = SmppConstants.DEFAULT_SERVER_SESSIONS_MBEAN_ENABLED;
         this.defaultWindowSize = SmppConstants.DEFAULT_WINDOW_SIZE;
         this.defaultWindowWaitTimeout = SmppConstants.DEFAULT_WINDOW_WAIT_TIMEOUT;
         this.defaultRequestExpiryTimeout = SmppConstants.DEFAULT_REQUEST_EXPIRY_TIMEOUT;
@@ -89,6 +105,27 @@ public class SmppServerConfiguration {
         return jmxEnabled;
     }
 
+    public boolean isSessionsMBeanEnabled() {
+        return sessionsMBeanEnabled;
+    }
+
+    /**
+     * Sets whether the sessions of the server are managed through a single
+     * DefaultSmppServerSessionsMXBean (registered as "name=" + name +
+     * "Sessions" in the jmx domain) rather than by registering a
+     * DefaultSmppSessionMXBean per session.  Registering an mbean on every
+     * bind (and unregistering it on every unbind) slows down binds and takes
+     * memory once there are thousands of (short-lived) sessions, which also
+     * overwhelms most JMX clients.  The single mbean pages and filters the
+     * sessions by system id and resets the counters of or closes sessions in
+     * bulk.  Only used if JMX is enabled.  Disabled by default.
+     * @param sessionsMBeanEnabled True to register a single mbean for every
+     *      session instead of one mbean per session
+     */
+    public void setSessionsMBeanEnabled(boolean sessionsMBeanEnabled) {
+        this.sessionsMBeanEnabled = sessionsMBeanEnabled;
+    }
+
     public void setJmxEnabled(boolean jmxEnabled) {
         this.jmxEnabled = jmxEnabled;
     }
@@ -152,6 +189,30 @@ public class SmppServerConfiguration {
         this.port = port;
     }
 
+    public String getLocalAddress() {
+        return localAddress;
+    }
+
+    /**
+     * Sets the name of a local (in-VM) address this server listens on
+     * instead of its port.  Only clients in the same JVM can then connect to
+     * it (see SmppConnectionConfiguration.setLocalAddress()), with PDUs passed
+     * between the client and server sessions without any socket -- e.g. to
+     * embed a server in a test or measure the cost of the protocol and
+     * session handlers alone.  Non-blocking sockets and the max connection
+     * size don't apply.
+     * <br>
+     * A buffer written by one side is delivered as-is to the other, so
+     * sessions on a local channel never pool their encode buffers (see
+     * SmppSessionConfiguration.setEncodeBufferPoolSize()) -- a session
+     * decoding lazily or header-only keeps slices of the received buffer.
+     * @param localAddress The name of the local address or null to listen on
+     *      the port
+     */
+    public void setLocalAddress(String localAddress) {
+        this.localAddress = localAddress;
+    }
+
     public void setUseSsl(boolean value) {
 	this.useSsl = value;
     }
@@ -258,4 +319,79 @@ public class SmppServerConfiguration {
         this.defaultSessionCountersEnabled = defaultSessionCountersEnabled;
     }
 
+    public boolean isTrafficCountersEnabled() {
+        return trafficCountersEnabled;
+    }
+
+    /**
+     * Sets whether every session of the server counts its traffic (requests,
+     * responses and statuses of submit_sm, deliver_sm, data_sm and
+     * enquire_link) into counters aggregated over the server, in addition to
+     * its own counters (if enabled).  The aggregated counters and the rates
+     * derived from them are available from DefaultSmppServerCounters and
+     * DefaultSmppServerMXBean.  Enabled by default.
+     * @param trafficCountersEnabled True to count the traffic of every session
+     */
+    public void setTrafficCountersEnabled(boolean trafficCountersEnabled) {
+        this.trafficCountersEnabled = trafficCountersEnabled;
+    }
+
+    public boolean isLazyDecodeEnabled() {
+        return lazyDecodeEnabled;
+    }
+
+    /**
+     * Set whether PDUs received by every server session are decoded lazily.
+     * See SmppSessionConfiguration.setLazyDecodeEnabled() for details.
+     * Defaults to false.
+     * @param lazyDecodeEnabled True to enable lazy decoding
+     */
+    public void setLazyDecodeEnabled(boolean lazyDecodeEnabled) {
+        this.lazyDecodeEnabled = lazyDecodeEnabled;
+    }
+
+    public boolean isHeaderOnlyDecodeEnabled() {
+        return headerOnlyDecodeEnabled;
+    }
+
+    /**
+     * Set whether only the header of PDUs received by every server session
+     * is decoded. See SmppSessionConfiguration.setHeaderOnlyDecodeEnabled()
+     * for details.  Defaults to false.
+     * @param headerOnlyDecodeEnabled True to only decode the header
+     */
+    public void setHeaderOnlyDecodeEnabled(boolean headerOnlyDecodeEnabled) {
+        this.headerOnlyDecodeEnabled = headerOnlyDecodeEnabled;
+    }
+
+    public PduFactoryRegistry getPduFactoryRegistry() {
+        return pduFactoryRegistry;
+    }
+
+    /**
+     * Set the registry of factories used to create PDUs received by every
+     * server session. See SmppSessionConfiguration.setPduFactoryRegistry()
+     * for details.  Defaults to null (a new registry of every PDU supported
+     * by this library).
+     * @param pduFactoryRegistry The registry of PDU factories
+     */
+    public void setPduFactoryRegistry(PduFactoryRegistry pduFactoryRegistry) {
+        this.pduFactoryRegistry = pduFactoryRegistry;
+    }
+
+    public COctetStringCache getInternCache() {
+        return internCache;
+    }
+
+    /**
+     * Set the cache that low cardinality fields of PDUs received by every
+     * server session are read through. See
+     * SmppSessionConfiguration.setInternCache() for details.  Defaults to
+     * null (no interning).
+     * @param internCache The cache or null to disable interning
+     */
+    public void setInternCache(COctetStringCache internCache) {
+        this.internCache = internCache;
+    }
+
 }
@@ -30,8 +30,10 @@ import com.cloudhopper.smpp.pdu.PduRequest;
 import com.cloudhopper.smpp.pdu.PduResponse;
 import com.cloudhopper.smpp.pdu.SubmitSm;
 import com.cloudhopper.smpp.pdu.SubmitSmResp;
+import com.cloudhopper.smpp.pdu.SubmitSmTemplate;
 import com.cloudhopper.smpp.type.RecoverablePduException;
 import com.cloudhopper.smpp.type.UnrecoverablePduException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Defines a common interface for either a Client (ESME) or Server (SMSC) SMPP
@@ -277,6 +279,56 @@ public interface SmppSession {
      */
     public SubmitSmResp submit(SubmitSm request, long timeoutMillis) throws RecoverablePduException, UnrecoverablePduException, SmppTimeoutException, SmppChannelException, InterruptedException;
 
+    /**
+     * Asynchronously sends a "submit" request to the remote endpoint.  This
+     * method only waits for an open slot in the request "window" and never
+     * for the bytes to be written to the socket/channel.  The returned future
+     * completes with the response or fails with an exception if the response
+     * type did not match the request (e.g. "Generic_Nack"), the request expired,
+     * or the channel failed.
+     * @param request The request to send to the remote endpoint
+     * @param timeoutMillis The number of milliseconds to wait for a slot to
+     *      open in the underlying window.
+     * @return A future that completes with the response
+     * @throws RecoverablePduException Thrown when a recoverable PDU error occurs
+     *      while encoding the request.
+     * @throws UnrecoverablePduException Thrown when an unrecoverable PDU error
+     *      occurs while encoding the request or adding it to the window.
+     * @throws SmppTimeoutException A slot in the window did not open up in time.
+     * @throws SmppChannelException Thrown when the underlying socket/channel
+     *      is not usable.
+     * @throws InterruptedException The calling thread was interrupted while waiting
+     *      for a slot in the window.
+     * @see #sendRequestAsync(com.cloudhopper.smpp.pdu.PduRequest, long)
+     */
+    public CompletableFuture<SubmitSmResp> submitAsync(SubmitSm request, long timeoutMillis) throws RecoverablePduException, UnrecoverablePduException, SmppTimeoutException, SmppChannelException, InterruptedException;
+
+    /**
+     * Asynchronously sends a "submit" request pre-encoded from a template to
+     * the remote endpoint.  Only the destination address and short message
+     * are encoded per request; the next sequence number is assigned to it.
+     * A SubmitSm standing for the request (see SubmitSmTemplate.createSubmitSm())
+     * is added to the request "window" like any other request.  Otherwise this
+     * behaves just like submitAsync(SubmitSm, long).
+     * @param template The template to encode the request from
+     * @param destAddress The destination_addr of the request
+     * @param shortMessage The short_message of the request
+     * @param timeoutMillis The number of milliseconds to wait for a slot to
+     *      open in the underlying window.
+     * @return A future that completes with the response
+     * @throws RecoverablePduException Thrown when a recoverable PDU error occurs
+     *      while encoding the request (e.g. the short message is too long).
+     * @throws UnrecoverablePduException Thrown when an unrecoverable PDU error
+     *      occurs while adding the request to the window.
+     * @throws SmppTimeoutException A slot in the window did not open up in time.
+     * @throws SmppChannelException Thrown when the underlying socket/channel
+     *      is not usable.
+     * @throws InterruptedException The calling thread was interrupted while waiting
+     *      for a slot in the window.
+     * @see #submitAsync(com.cloudhopper.smpp.pdu.SubmitSm, long)
+     */
+    public CompletableFuture<SubmitSmResp> submitAsync(SubmitSmTemplate template, String destAddress, byte[] shortMessage, long timeoutMillis) throws RecoverablePduException, UnrecoverablePduException, SmppTimeoutException, SmppChannelException, InterruptedException;
+
     /**
      * Main underlying method for sending a request PDU to the remote endpoint.
      * If no sequence number was assigned to the PDU, this method will assign one.
@@ -320,6 +372,36 @@ public interface SmppSession {
      */
     public WindowFuture<Integer,PduRequest,PduResponse> sendRequestPdu(PduRequest request, long timeoutMillis, boolean synchronous) throws RecoverablePduException, UnrecoverablePduException, SmppTimeoutException, SmppChannelException, InterruptedException;
 
+    /**
+     * Non-blocking variant of sendRequestPdu.  If no sequence number was assigned
+     * to the PDU, this method will assign one.  The request is added to the
+     * underlying request "window" (waiting up to timeoutMillis for an open slot)
+     * and then written to the socket/channel without waiting for the write
+     * to finish.  The eventual response is routed to the returned future rather
+     * than to the "fireExpectedPduResponseReceived" method on the session handler.
+     * The returned future completes when a response is received, or fails with
+     * an SmppTimeoutException if the request expired (see requestExpiryTimeout
+     * and windowMonitorInterval) or an SmppChannelException if the write
+     * failed or the channel was closed.  Cancelling the returned future
+     * cancels the request in the window.  Please note that its possible the
+     * response PDU really isn't the correct PDU we were waiting for, so the
+     * caller should verify it.
+     * @param request The request PDU to send
+     * @param timeoutMillis The time to wait for a slot to open in the
+     *      underlying window.
+     * @return A future that completes with the response
+     * @throws RecoverablePduException Thrown when a recoverable PDU error occurs
+     *      while encoding the request.
+     * @throws UnrecoverablePduException Thrown when an unrecoverable PDU error
+     *      occurs while encoding the request or adding it to the window.
+     * @throws SmppTimeoutException A slot in the window did not open up in time.
+     * @throws SmppChannelException Thrown when the underlying socket/channel
+     *      is not usable.
+     * @throws InterruptedException The calling thread was interrupted while waiting
+     *      for a slot in the window.
+     */
+    public CompletableFuture<PduResponse> sendRequestAsync(PduRequest request, long timeoutMillis) throws RecoverablePduException, UnrecoverablePduException, SmppTimeoutException, SmppChannelException, InterruptedException;
+
     /**
      * Main underlying method for sending a response PDU to the remote endpoint.
      * The PDU will be converted into a sequence of bytes by the underlying transcoder.
@@ -0,0 +1,57 @@
+package com.cloudhopper.smpp;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.pdu.PduRequest;
+import com.cloudhopper.smpp.pdu.PduResponse;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Session handler that is able to respond to received requests asynchronously.
+ * If the session handler implements this interface, the session calls
+ * firePduRequestReceivedAsync() instead of firePduRequestReceived() for every
+ * request received.  The thread that delivered the request (usually a Netty
+ * I/O thread) is never held while the application processes the request, so
+ * any number of inbound requests can be "in-flight" at once on a session.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public interface SmppSessionAsyncHandler extends SmppSessionHandler {
+
+    /**
+     * Called when a request PDU such as a "SubmitSM" has been received on a
+     * session.  Once the returned stage completes with a non-null response PDU
+     * (from any thread), the response is sent back on the session's channel
+     * and counted just like a response returned by firePduRequestReceived().
+     * The response time is measured from when this method was called until
+     * the stage completed.  If the stage completes with null, no response is
+     * sent back and its up to the implementation to send back the response
+     * instead.  If the stage completes exceptionally, a response with a
+     * command status of STATUS_SYSERR is sent back and the exception is
+     * passed to the appropriate exception method of this handler.  Nothing
+     * is sent (or called) if the session was destroyed in the meantime.
+     * @param pduRequest The request PDU received on this session
+     * @return The stage that completes with the response PDU to send back OR
+     *      null if no response should be returned.
+     */
+    public CompletionStage<PduResponse> firePduRequestReceivedAsync(PduRequest pduRequest);
+
+}
@@ -21,9 +21,11 @@ package com.cloudhopper.smpp;
  */
 
 import com.cloudhopper.smpp.ssl.SslConfiguration;
+import com.cloudhopper.smpp.transcoder.PduFactoryRegistry;
 import com.cloudhopper.smpp.type.SmppConnectionConfiguration;
 import com.cloudhopper.smpp.type.LoggingOptions;
 import com.cloudhopper.smpp.type.Address;
+import com.cloudhopper.smpp.util.COctetStringCache;
 
 /**
  * Configuration to bind an SmppSession as an ESME to an SMSC.
@@ -54,6 +56,20 @@ public class SmppSessionConfiguration extends SmppConnectionConfiguration {
     private long windowMonitorInterval;
     private long writeTimeout;
     private boolean countersEnabled;
+    // coalescing of outbound PDUs into fewer writes
+    private boolean writeAggregationEnabled;
+    private int writeAggregationMaxBytes;
+    private int writeAggregationMaxCount;
+    private long writeAggregationMaxDelay;
+    private boolean handlerDispatchEnabled;
+    private int handlerQueueHighWatermark;
+    private int handlerQueueLowWatermark;
+    private int handlerQueueMaxSize;
+    private int encodeBufferPoolSize;
+    private boolean lazyDecodeEnabled;
+    private boolean headerOnlyDecodeEnabled;
+    private PduFactoryRegistry pduFactoryRegistry;
+    private COctetStringCache internCache;
 
     public SmppSessionConfiguration() {
         this(SmppBindType.TRANSCEIVER, null, null, null);
@@ -77,6 +93,17 @@ public class SmppSessionConfiguration extends SmppConnectionConfiguration {
         this.windowMonitorInterval = SmppConstants.DEFAULT_WINDOW_MONITOR_INTERVAL;
         this.writeTimeout = SmppConstants.DEFAULT_WRITE_TIMEOUT;
         this.countersEnabled = false;
+        this.writeAggregationEnabled = SmppConstants.DEFAULT_WRITE_AGGREGATION_ENABLED;
+        this.writeAggregationMaxBytes = SmppConstants.DEFAULT_WRITE_AGGREGATION_MAX_BYTES;
+        this.writeAggregationMaxCount = SmppConstants.DEFAULT_WRITE_AGGREGATION_MAX_COUNT;
+        this.writeAggregationMaxDelay = SmppConstants.DEFAULT_WRITE_AGGREGATION_MAX_DELAY;
+        this.handlerDispatchEnabled = SmppConstants.DEFAULT_HANDLER_DISPATCH_ENABLED;
+        this.handlerQueueHighWatermark = SmppConstants.DEFAULT_HANDLER_QUEUE_HIGH_WATERMARK;
+        this.handlerQueueLowWatermark = SmppConstants.DEFAULT_HANDLER_QUEUE_LOW_WATERMARK;
+        this.handlerQueueMaxSize = SmppConstants.DEFAULT_HANDLER_QUEUE_MAX_SIZE;
+        this.encodeBufferPoolSize = SmppConstants.DEFAULT_ENCODE_BUFFER_POOL_SIZE;
+        this.lazyDecodeEnabled = SmppConstants.DEFAULT_LAZY_DECODE_ENABLED;
+        this.headerOnlyDecodeEnabled = SmppConstants.DEFAULT_HEADER_ONLY_DECODE_ENABLED;
     }
 
     public void setName(String value) {
@@ -238,4 +265,216 @@ public class SmppSessionConfiguration extends SmppConnectionConfiguration {
         this.countersEnabled = countersEnabled;
     }
 
+    public boolean isWriteAggregationEnabled() {
+        return writeAggregationEnabled;
+    }
+
+    /**
+     * Enables coalescing of outbound PDUs into fewer, larger writes on the
+     * underlying channel.  Pending PDUs are flushed when any of the max bytes,
+     * max count, or max delay thresholds is reached.  Mostly useful along with
+     * the non-blocking request api since a caller waiting for its write to
+     * finish may wait up to the max delay.  The responses returned by a
+     * session handler for the PDUs of one read are flushed together once the
+     * read is done.  Defaults to disabled.
+     * @param writeAggregationEnabled True to enable write aggregation
+     */
+    public void setWriteAggregationEnabled(boolean writeAggregationEnabled) {
+        this.writeAggregationEnabled = writeAggregationEnabled;
+    }
+
+    public int getWriteAggregationMaxBytes() {
+        return writeAggregationMaxBytes;
+    }
+
+    /**
+     * Set the number of pending bytes that triggers a flush of aggregated
+     * writes. Defaults to 16384.
+     * @param writeAggregationMaxBytes The number of bytes
+     */
+    public void setWriteAggregationMaxBytes(int writeAggregationMaxBytes) {
+        this.writeAggregationMaxBytes = writeAggregationMaxBytes;
+    }
+
+    public int getWriteAggregationMaxCount() {
+        return writeAggregationMaxCount;
+    }
+
+    /**
+     * Set the number of pending PDUs that triggers a flush of aggregated
+     * writes. Defaults to 64.
+     * @param writeAggregationMaxCount The number of PDUs
+     */
+    public void setWriteAggregationMaxCount(int writeAggregationMaxCount) {
+        this.writeAggregationMaxCount = writeAggregationMaxCount;
+    }
+
+    public long getWriteAggregationMaxDelay() {
+        return writeAggregationMaxDelay;
+    }
+
+    /**
+     * Set the max amount of time a pending PDU waits before aggregated writes
+     * are flushed. The effective resolution is the 1 ms tick of the timer
+     * shared by the client or server. Defaults to 1000.
+     * @param writeAggregationMaxDelay The amount of time (in microseconds)
+     */
+    public void setWriteAggregationMaxDelay(long writeAggregationMaxDelay) {
+        this.writeAggregationMaxDelay = writeAggregationMaxDelay;
+    }
+
+    public boolean isHandlerDispatchEnabled() {
+        return handlerDispatchEnabled;
+    }
+
+    /**
+     * Enables processing of received PDUs (and calls to the session handler)
+     * on the handler executor of the client or server rather than on the
+     * Netty I/O thread.  PDUs of a session are still processed one at a time
+     * and in order.  A slow session handler then only delays its own
+     * session.  Responses returned by the handler are written without
+     * waiting for the write to complete.  Defaults to disabled.
+     * @param handlerDispatchEnabled True to enable handler dispatch
+     */
+    public void setHandlerDispatchEnabled(boolean handlerDispatchEnabled) {
+        this.handlerDispatchEnabled = handlerDispatchEnabled;
+    }
+
+    public int getHandlerQueueHighWatermark() {
+        return handlerQueueHighWatermark;
+    }
+
+    /**
+     * Set the number of received PDUs queued for the session handler that
+     * suspends reading from the channel (only if handler dispatch is enabled).
+     * Defaults to 1000.
+     * @param handlerQueueHighWatermark The number of queued PDUs
+     */
+    public void setHandlerQueueHighWatermark(int handlerQueueHighWatermark) {
+        this.handlerQueueHighWatermark = handlerQueueHighWatermark;
+    }
+
+    public int getHandlerQueueLowWatermark() {
+        return handlerQueueLowWatermark;
+    }
+
+    /**
+     * Set the number of received PDUs queued for the session handler that
+     * resumes reading from the channel once it was suspended (only if handler
+     * dispatch is enabled).  Defaults to 500.
+     * @param handlerQueueLowWatermark The number of queued PDUs
+     */
+    public void setHandlerQueueLowWatermark(int handlerQueueLowWatermark) {
+        this.handlerQueueLowWatermark = handlerQueueLowWatermark;
+    }
+
+    public int getHandlerQueueMaxSize() {
+        return handlerQueueMaxSize;
+    }
+
+    /**
+     * Set the max number of received requests queued for the session handler
+     * (only if handler dispatch is enabled).  Suspending reads at the high
+     * watermark doesn't stop PDUs already read (or a local channel, which
+     * can't suspend reads) from being queued.  A request received while the
+     * queue is full is answered right away with a throttling error
+     * (STATUS_THROTTLED) and never reaches the session handler.  Must be at
+     * least the high watermark.  Defaults to 5000.
+     * @param handlerQueueMaxSize The max number of queued PDUs
+     */
+    public void setHandlerQueueMaxSize(int handlerQueueMaxSize) {
+        this.handlerQueueMaxSize = handlerQueueMaxSize;
+    }
+
+    public int getEncodeBufferPoolSize() {
+        return encodeBufferPoolSize;
+    }
+
+    /**
+     * Set the max number of buffers the session retains for encoding PDUs.
+     * If > 0, outbound PDUs are encoded in a single pass into pooled buffers
+     * that are reused once their write finished, rather than into a newly
+     * created buffer of the exact size.  A value close to the window size is
+     * a good start.  Ignored on a local channel (see setLocalAddress()),
+     * where the buffer written is the one the peer receives.  Defaults to 0
+     * (disabled).
+     * @param encodeBufferPoolSize The max number of pooled buffers
+     */
+    public void setEncodeBufferPoolSize(int encodeBufferPoolSize) {
+        this.encodeBufferPoolSize = encodeBufferPoolSize;
+    }
+
+    public boolean isLazyDecodeEnabled() {
+        return lazyDecodeEnabled;
+    }
+
+    /**
+     * Set whether received PDUs are decoded lazily (only applies to client
+     * sessions -- server sessions are configured on the server). A lazily
+     * decoded submit_sm or deliver_sm keeps a reference to the buffer it was
+     * read from and only parses a field (e.g. dest address, short message, or
+     * optional parameters) the first time it's accessed.  Received requests
+     * are released once the session handler returns (or its async response
+     * completes) -- a handler that keeps a request around longer MUST call
+     * detach() on it first.  NOTE: logging of PDUs parses every field.
+     * Defaults to false.
+     * @param lazyDecodeEnabled True to enable lazy decoding
+     */
+    public void setLazyDecodeEnabled(boolean lazyDecodeEnabled) {
+        this.lazyDecodeEnabled = lazyDecodeEnabled;
+    }
+
+    public boolean isHeaderOnlyDecodeEnabled() {
+        return headerOnlyDecodeEnabled;
+    }
+
+    /**
+     * Set whether only the header of received PDUs is decoded (only applies
+     * to client sessions -- server sessions are configured on the server).
+     * The body and optional parameters of a PDU are kept as-is and written
+     * back out without being copied when the PDU is sent on another session,
+     * which is what a proxy relaying PDUs between sessions wants (see
+     * SmppRelaySessionHandler).  None of the fields of the body are available
+     * until Pdu.decodeRawBody() is called.  Received requests are released
+     * just like lazily decoded ones.  Takes precedence over lazy decoding.
+     * Defaults to false.
+     * @param headerOnlyDecodeEnabled True to only decode the header
+     */
+    public void setHeaderOnlyDecodeEnabled(boolean headerOnlyDecodeEnabled) {
+        this.headerOnlyDecodeEnabled = headerOnlyDecodeEnabled;
+    }
+
+    public PduFactoryRegistry getPduFactoryRegistry() {
+        return pduFactoryRegistry;
+    }
+
+    /**
+     * Set the registry of factories used to create received PDUs (only
+     * applies to client sessions -- server sessions are configured on the
+     * server).  Register any additional (e.g. vendor specific) PDUs with it
+     * before binding.  A registry may be shared by many sessions.  Defaults
+     * to null (a new registry of every PDU supported by this library).
+     * @param pduFactoryRegistry The registry of PDU factories
+     */
+    public void setPduFactoryRegistry(PduFactoryRegistry pduFactoryRegistry) {
+        this.pduFactoryRegistry = pduFactoryRegistry;
+    }
+
+    public COctetStringCache getInternCache() {
+        return internCache;
+    }
+
+    /**
+     * Set the cache that low cardinality fields of received PDUs (service_type,
+     * system_type and the source_addr of submit_sm/deliver_sm) are read
+     * through, so repeated values share one String (only applies to client
+     * sessions -- server sessions are configured on the server).  Destination
+     * addresses are never interned.  A cache may be shared by many sessions.
+     * Defaults to null (no interning).
+     * @param internCache The cache or null to disable interning
+     */
+    public void setInternCache(COctetStringCache internCache) {
+        this.internCache = internCache;
+    }
+
 }
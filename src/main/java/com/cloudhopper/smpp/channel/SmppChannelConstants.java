@@ -39,5 +39,7 @@ public class SmppChannelConstants {
     public static final String PIPELINE_SESSION_WRAPPER_NAME = "smppSessionWrapper";
     public static final String PIPELINE_SESSION_SSL_NAME = "smppSessionSSL"; 
     public static final String PIPELINE_SESSION_WRITE_TIMEOUT_NAME = "smppSessionWriteTimeout";
+    public static final String PIPELINE_SESSION_WRITE_AGGREGATOR_NAME = "smppSessionWriteAggregator";
+    public static final String PIPELINE_SESSION_HANDLER_DISPATCHER_NAME = "smppSessionHandlerDispatcher";
 
 }
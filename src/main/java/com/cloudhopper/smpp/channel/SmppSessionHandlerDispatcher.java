@@ -0,0 +1,231 @@
+package com.cloudhopper.smpp.channel;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.impl.SmppSessionChannelListener;
+import com.cloudhopper.smpp.pdu.PduRequest;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Channel handler that moves all upstream events of a session (received PDUs,
+ * exceptions, and channel state changes) off the Netty I/O thread and onto
+ * an executor shared by many sessions.  Events of a single session are
+ * processed serially and in the order they were received -- at most one
+ * thread of the executor ever works on a session at a time.  A slow session
+ * handler will therefore only delay its own session, not every other session
+ * sharing the same I/O worker.
+ * 
+ * The queue of received PDUs is bounded by watermarks.  Once the number of
+ * queued PDUs reaches the high watermark, reading from the channel is
+ * suspended via channel.setReadable(false).  Reading is resumed once the
+ * queue drains to the low watermark.  Since a single read may contain
+ * more than one PDU, the queue may temporarily exceed the high watermark
+ * by the number of PDUs in the last read.  A local channel can't suspend
+ * reading at all.  The queue is therefore also bounded by a hard max size: a
+ * request received while the queue is full is never queued, it's handed to
+ * the listener of the session (firePduRequestRejected) to be answered right
+ * away with a throttling error.  Responses are always queued since they're
+ * bounded by the send window of the session.
+ * 
+ * Since responses are also processed in order, a synchronous request sent
+ * from a session handler will not see its response until the handler returns.
+ * Handlers should use the non-blocking request api instead.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@ChannelPipelineCoverage("one")
+public class SmppSessionHandlerDispatcher implements ChannelUpstreamHandler {
+    private static final Logger logger = LoggerFactory.getLogger(SmppSessionHandlerDispatcher.class);
+
+    // max number of events processed per run before yielding to other sessions
+    private static final int MAX_EVENTS_PER_RUN = 64;
+
+    private final Executor executor;
+    private final String threadName;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final int maxQueueSize;
+    // answers requests that don't fit in the queue (null if unbounded)
+    private final SmppSessionChannelListener listener;
+    private final Queue<ChannelEvent> queue;
+    // context of this handler (the same for every event)
+    private volatile ChannelHandlerContext ctx;
+    // number of queued MessageEvents (the only ones that count against the watermarks)
+    private final AtomicInteger queuedMessages;
+    private final AtomicBoolean scheduled;
+    private final AtomicBoolean readSuspended;
+    private final Runnable drainTask;
+
+    /**
+     * Creates a new dispatcher for a session.
+     * @param executor The executor shared by sessions that events will be
+     *      processed on
+     * @param threadName The name the executing thread will be renamed to
+     *      while processing events or null to not rename it
+     * @param highWatermark The number of queued PDUs that suspends reading
+     *      from the channel
+     * @param lowWatermark The number of queued PDUs that resumes reading
+     *      from the channel (once it had been suspended)
+     */
+    public SmppSessionHandlerDispatcher(Executor executor, String threadName, int highWatermark, int lowWatermark) {
+        this(executor, threadName, highWatermark, lowWatermark, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates a new dispatcher for a session with a hard bound on its queue.
+     * @param executor The executor shared by sessions that events will be
+     *      processed on
+     * @param threadName The name the executing thread will be renamed to
+     *      while processing events or null to not rename it
+     * @param highWatermark The number of queued PDUs that suspends reading
+     *      from the channel
+     * @param lowWatermark The number of queued PDUs that resumes reading
+     *      from the channel (once it had been suspended)
+     * @param maxQueueSize The number of queued PDUs past which received
+     *      requests are rejected
+     * @param listener The listener of the session that rejected requests
+     *      are passed to (on the I/O thread)
+     */
+    public SmppSessionHandlerDispatcher(Executor executor, String threadName, int highWatermark, int lowWatermark, int maxQueueSize, SmppSessionChannelListener listener) {
+        if (highWatermark <= 0) {
+            throw new IllegalArgumentException("highWatermark must be > 0");
+        }
+        if (lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("lowWatermark must be >= 0 and < highWatermark");
+        }
+        if (maxQueueSize < highWatermark) {
+            throw new IllegalArgumentException("maxQueueSize must be >= highWatermark");
+        }
+        this.executor = executor;
+        this.threadName = threadName;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.maxQueueSize = maxQueueSize;
+        this.listener = listener;
+        this.queue = new ConcurrentLinkedQueue<ChannelEvent>();
+        this.queuedMessages = new AtomicInteger(0);
+        this.scheduled = new AtomicBoolean(false);
+        this.readSuspended = new AtomicBoolean(false);
+        this.drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    public int getQueueSize() {
+        return this.queuedMessages.get();
+    }
+
+    public int getMaxQueueSize() {
+        return this.maxQueueSize;
+    }
+
+    public boolean isReadSuspended() {
+        return this.readSuspended.get();
+    }
+
+    @Override
+    public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+        this.ctx = ctx;
+        if (e instanceof MessageEvent) {
+            int size = this.queuedMessages.incrementAndGet();
+            // counted before queueing so concurrent deliveries can't overshoot the bound
+            if (this.listener != null && size > this.maxQueueSize && ((MessageEvent)e).getMessage() instanceof PduRequest) {
+                this.queuedMessages.decrementAndGet();
+                logger.debug("Handler queue reached max size [{}], rejecting request", this.maxQueueSize);
+                this.listener.firePduRequestRejected((PduRequest)((MessageEvent)e).getMessage());
+                return;
+            }
+            this.queue.add(e);
+            if (size >= this.highWatermark && this.readSuspended.compareAndSet(false, true)) {
+                logger.debug("Handler queue reached high watermark [{}], suspending reads", size);
+                e.getChannel().setReadable(false);
+            }
+        } else {
+            this.queue.add(e);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this.drainTask);
+            } catch (RejectedExecutionException ex) {
+                // executor was shutdown -- process the events on this thread instead
+                logger.warn("Handler executor rejected task, processing events on current thread");
+                drain();
+            }
+        }
+    }
+
+    private void drain() {
+        String currentThreadName = null;
+        if (this.threadName != null) {
+            currentThreadName = Thread.currentThread().getName();
+            Thread.currentThread().setName(this.threadName);
+        }
+        try {
+            for (int i = 0; i < MAX_EVENTS_PER_RUN; i++) {
+                ChannelEvent event = this.queue.poll();
+                if (event == null) {
+                    break;
+                }
+                try {
+                    this.ctx.sendUpstream(event);
+                } catch (Throwable t) {
+                    logger.error("Unable to cleanly process upstream event: {}", t);
+                }
+                if (event instanceof MessageEvent) {
+                    int size = this.queuedMessages.decrementAndGet();
+                    if (size <= this.lowWatermark && this.readSuspended.compareAndSet(true, false)) {
+                        logger.debug("Handler queue drained to low watermark [{}], resuming reads", size);
+                        event.getChannel().setReadable(true);
+                    }
+                }
+            }
+        } finally {
+            if (currentThreadName != null) {
+                Thread.currentThread().setName(currentThreadName);
+            }
+            this.scheduled.set(false);
+            // events may have been queued after the last poll
+            if (!this.queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+}
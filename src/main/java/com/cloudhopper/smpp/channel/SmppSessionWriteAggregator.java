@@ -0,0 +1,285 @@
+package com.cloudhopper.smpp.channel;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Channel handler responsible for coalescing the encoded PDUs written on an
+ * SmppSession into fewer, larger writes.  Pending buffers are gathered into
+ * a composite buffer and flushed once the number of pending PDUs reaches
+ * maxCount, the number of pending bytes reaches maxBytes, or the first pending
+ * PDU has waited maxDelay microseconds (rounded up to the tick of the timer).
+ * The future of every individual write is completed once the aggregated write
+ * completes.
+ * <br><br>
+ * Writes issued by the thread reading from the channel (e.g. the responses
+ * returned by a session handler for the PDUs of one read) are flushed along
+ * with anything pending once the read is done.  A writer that waits on such
+ * a write must call flushIfReading() first, since the read would never be
+ * done otherwise.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@ChannelPipelineCoverage("one")
+public class SmppSessionWriteAggregator extends SimpleChannelHandler {
+    private static final Logger logger = LoggerFactory.getLogger(SmppSessionWriteAggregator.class);
+
+    private final Timer timer;
+    private final int maxBytes;
+    private final int maxCount;
+    private final long maxDelay;
+    // all access to the pending writes is guarded by this lock -- it's also
+    // held while flushing so that PDUs always hit the wire in the order written
+    private final Object lock;
+    private ArrayList<MessageEvent> pendingWrites;
+    private int pendingBytes;
+    private Timeout flushTimeout;
+    // the thread passing a read upstream (null if none is in progress) and
+    // whether it issued a write since the read began
+    private volatile Thread readingThread;
+    private ChannelHandlerContext readingContext;
+    private boolean flushAfterRead;
+
+    /**
+     * Creates a new write aggregator.
+     * @param timer The timer used to flush pending writes after maxDelay
+     * @param maxBytes The number of pending bytes that triggers a flush
+     * @param maxCount The number of pending PDUs that triggers a flush
+     * @param maxDelay The max number of microseconds a PDU will wait before
+     *      being flushed
+     */
+    public SmppSessionWriteAggregator(Timer timer, int maxBytes, int maxCount, long maxDelay) {
+        this.timer = timer;
+        this.maxBytes = maxBytes;
+        this.maxCount = maxCount;
+        this.maxDelay = maxDelay;
+        this.lock = new Object();
+        this.pendingWrites = new ArrayList<MessageEvent>(maxCount);
+        this.pendingBytes = 0;
+    }
+
+    public int getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public int getMaxCount() {
+        return this.maxCount;
+    }
+
+    public long getMaxDelay() {
+        return this.maxDelay;
+    }
+
+    @Override
+    public void writeRequested(final ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof ChannelBuffer)) {
+            // unknown message type -- let it pass, but keep the ordering intact
+            synchronized (lock) {
+                flush(ctx);
+                ctx.sendDownstream(e);
+            }
+            return;
+        }
+
+        synchronized (lock) {
+            this.pendingWrites.add(e);
+            this.pendingBytes += ((ChannelBuffer)e.getMessage()).readableBytes();
+            
+            if (this.pendingWrites.size() >= this.maxCount || this.pendingBytes >= this.maxBytes) {
+                flush(ctx);
+            } else if (Thread.currentThread() == this.readingThread) {
+                // flushed once the read is done
+                this.flushAfterRead = true;
+            } else if (this.flushTimeout == null) {
+                this.flushTimeout = this.timer.newTimeout(new TimerTask() {
+                    @Override
+                    public void run(Timeout timeout) throws Exception {
+                        synchronized (lock) {
+                            // only flush if this is still the active deadline
+                            if (flushTimeout == timeout) {
+                                flush(ctx);
+                            }
+                        }
+                    }
+                }, this.maxDelay, TimeUnit.MICROSECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        // only one read is tracked at a time: a local channel may deliver on
+        // several threads at once, and a nested read is part of the outer one
+        boolean tracked;
+        synchronized (lock) {
+            tracked = (this.readingThread == null);
+            if (tracked) {
+                this.readingThread = Thread.currentThread();
+                this.readingContext = ctx;
+            }
+        }
+        try {
+            super.messageReceived(ctx, e);
+        } finally {
+            if (tracked) {
+                synchronized (lock) {
+                    this.readingThread = null;
+                    this.readingContext = null;
+                    if (this.flushAfterRead) {
+                        this.flushAfterRead = false;
+                        flush(ctx);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes all pending writes right away if called by the thread reading
+     * from the channel.  Must be called before waiting on a write issued while
+     * reading (e.g. by a session handler sending a response itself), whose
+     * flush would otherwise only happen once the read is done.
+     */
+    public void flushIfReading() {
+        if (Thread.currentThread() == this.readingThread) {
+            synchronized (lock) {
+                this.flushAfterRead = false;
+                flush(this.readingContext);
+            }
+        }
+    }
+
+    @Override
+    public void closeRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        // make sure anything pending goes out before the channel is closed
+        synchronized (lock) {
+            flush(ctx);
+        }
+        super.closeRequested(ctx, e);
+    }
+
+    @Override
+    public void disconnectRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (lock) {
+            flush(ctx);
+        }
+        super.disconnectRequested(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        ArrayList<MessageEvent> failedWrites = null;
+        synchronized (lock) {
+            cancelFlushTimeout();
+            if (!this.pendingWrites.isEmpty()) {
+                failedWrites = this.pendingWrites;
+                this.pendingWrites = new ArrayList<MessageEvent>(this.maxCount);
+                this.pendingBytes = 0;
+            }
+        }
+        if (failedWrites != null) {
+            Throwable cause = new ClosedChannelException();
+            for (MessageEvent write : failedWrites) {
+                write.getFuture().setFailure(cause);
+            }
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    private void cancelFlushTimeout() {
+        if (this.flushTimeout != null) {
+            this.flushTimeout.cancel();
+            this.flushTimeout = null;
+        }
+    }
+
+    /**
+     * Flushes all pending writes.  Must be called while holding the lock.
+     */
+    private void flush(ChannelHandlerContext ctx) {
+        cancelFlushTimeout();
+
+        int size = this.pendingWrites.size();
+        if (size == 0) {
+            return;
+        }
+
+        ArrayList<MessageEvent> writes = this.pendingWrites;
+        this.pendingWrites = new ArrayList<MessageEvent>(this.maxCount);
+        this.pendingBytes = 0;
+
+        // nothing to gain by wrapping a single buffer
+        if (size == 1) {
+            ctx.sendDownstream(writes.get(0));
+            return;
+        }
+
+        ChannelBuffer[] buffers = new ChannelBuffer[size];
+        final ChannelFuture[] futures = new ChannelFuture[size];
+        for (int i = 0; i < size; i++) {
+            MessageEvent write = writes.get(i);
+            buffers[i] = (ChannelBuffer)write.getMessage();
+            futures[i] = write.getFuture();
+        }
+
+        ChannelFuture future = Channels.future(ctx.getChannel());
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture f) throws Exception {
+                if (f.isSuccess()) {
+                    for (ChannelFuture future : futures) {
+                        future.setSuccess();
+                    }
+                } else if (f.isCancelled()) {
+                    for (ChannelFuture future : futures) {
+                        future.cancel();
+                    }
+                } else {
+                    Throwable cause = f.getCause();
+                    for (ChannelFuture future : futures) {
+                        future.setFailure(cause);
+                    }
+                }
+            }
+        });
+
+        logger.trace("Flushing [{}] aggregated PDUs", size);
+        Channels.write(ctx, future, ChannelBuffers.wrappedBuffer(buffers));
+    }
+}
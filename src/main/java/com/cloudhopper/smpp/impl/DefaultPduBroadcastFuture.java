@@ -0,0 +1,109 @@
+package com.cloudhopper.smpp.impl;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.SmppServerSession;
+import com.cloudhopper.smpp.pdu.PduRequest;
+import com.cloudhopper.smpp.pdu.PduResponse;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * A CompletableFuture returned by DefaultSmppServer.broadcastAsync() that
+ * aggregates the future of the request sent to each session.  It completes
+ * once every one of them is done (never exceptionally) with the number of
+ * sessions that returned a response.  A session whose request failed (e.g.
+ * its window was full, the request expired or the channel was closed) has
+ * a future that completed exceptionally.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class DefaultPduBroadcastFuture extends CompletableFuture<Integer> {
+
+    private final PduRequest request;
+    // read-only and fully built before this is created
+    private final Map<SmppServerSession,CompletableFuture<PduResponse>> futures;
+    private final AtomicInteger pending;
+    private final AtomicInteger responses;
+    private final BiConsumer<PduResponse,Throwable> listener;
+
+    /**
+     * Creates a new broadcast future.  Call listen() once created.
+     * @param request The request broadcast to every session
+     * @param futures The future of each session (never modified afterwards)
+     */
+    DefaultPduBroadcastFuture(PduRequest request, Map<SmppServerSession,CompletableFuture<PduResponse>> futures) {
+        this.request = request;
+        this.futures = Collections.unmodifiableMap(futures);
+        this.pending = new AtomicInteger(futures.size());
+        this.responses = new AtomicInteger(0);
+        this.listener = new BiConsumer<PduResponse,Throwable>() {
+            @Override
+            public void accept(PduResponse response, Throwable t) {
+                if (response != null) {
+                    responses.incrementAndGet();
+                }
+                if (pending.decrementAndGet() == 0) {
+                    complete(responses.get());
+                }
+            }
+        };
+    }
+
+    public PduRequest getRequest() {
+        return this.request;
+    }
+
+    /**
+     * Gets the future of the request sent to each session (in the order the
+     * sessions were broadcast to).
+     * @return The future of each session
+     */
+    public Map<SmppServerSession,CompletableFuture<PduResponse>> getFutures() {
+        return this.futures;
+    }
+
+    /**
+     * Gets the future of the request sent to a session.
+     * @param session The session
+     * @return The future or null if nothing was broadcast to the session
+     */
+    public CompletableFuture<PduResponse> getFuture(SmppServerSession session) {
+        return this.futures.get(session);
+    }
+
+    /**
+     * Starts listening for the future of every session to complete.
+     */
+    void listen() {
+        if (this.futures.isEmpty()) {
+            complete(0);
+            return;
+        }
+        for (CompletableFuture<PduResponse> future : this.futures.values()) {
+            future.whenComplete(this.listener);
+        }
+    }
+}
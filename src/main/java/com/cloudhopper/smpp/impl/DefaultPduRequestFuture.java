@@ -0,0 +1,80 @@
+package com.cloudhopper.smpp.impl;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.commons.util.windowing.WindowFuture;
+import com.cloudhopper.smpp.pdu.PduRequest;
+import com.cloudhopper.smpp.pdu.PduResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A CompletableFuture returned by the non-blocking request API of an
+ * SmppSession.  It wraps the underlying send window future so the window
+ * timestamps are still available.  Cancelling this future will also cancel
+ * the request in the send window (freeing up its slot) and stop tracking it
+ * in the session, so a late response is handled as unexpected.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class DefaultPduRequestFuture extends CompletableFuture<PduResponse> {
+
+    private final WindowFuture<Integer,PduRequest,PduResponse> windowFuture;
+    // the requests of the session this future is tracked in (by sequence #)
+    private final ConcurrentMap<Integer,DefaultPduRequestFuture> requests;
+
+    public DefaultPduRequestFuture(WindowFuture<Integer,PduRequest,PduResponse> windowFuture) {
+        this(windowFuture, null);
+    }
+
+    DefaultPduRequestFuture(WindowFuture<Integer,PduRequest,PduResponse> windowFuture, ConcurrentMap<Integer,DefaultPduRequestFuture> requests) {
+        this.windowFuture = windowFuture;
+        this.requests = requests;
+    }
+
+    /**
+     * Gets the future of the request in the send window.
+     * @return The underlying send window future
+     */
+    public WindowFuture<Integer,PduRequest,PduResponse> getWindowFuture() {
+        return this.windowFuture;
+    }
+
+    public PduRequest getRequest() {
+        return this.windowFuture.getRequest();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            // only removed if still mapped to this future (the sequence number
+            // may have been reused since)
+            if (this.requests != null) {
+                this.requests.remove(this.windowFuture.getKey(), this);
+            }
+            // free up the slot in the send window
+            this.windowFuture.cancel();
+        }
+        return cancelled;
+    }
+
+}
@@ -23,6 +23,7 @@ package com.cloudhopper.smpp.impl;
 import com.cloudhopper.smpp.SmppClient;
 import com.cloudhopper.smpp.util.DaemonExecutors;
 import com.cloudhopper.smpp.SmppBindType;
+import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.type.SmppChannelException;
 import com.cloudhopper.smpp.SmppSession;
 import com.cloudhopper.smpp.SmppSessionConfiguration;
@@ -34,6 +35,8 @@ import com.cloudhopper.smpp.channel.SmppSessionPduDecoder;
 import com.cloudhopper.smpp.channel.SmppSessionLogger;
 import com.cloudhopper.smpp.channel.SmppSessionWrapper;
 import com.cloudhopper.smpp.channel.SmppSessionThreadRenamer;
+import com.cloudhopper.smpp.channel.SmppSessionHandlerDispatcher;
+import com.cloudhopper.smpp.channel.SmppSessionWriteAggregator;
 import com.cloudhopper.smpp.pdu.BaseBind;
 import com.cloudhopper.smpp.pdu.BaseBindResp;
 import com.cloudhopper.smpp.pdu.BindReceiver;
@@ -47,6 +50,7 @@ import com.cloudhopper.smpp.type.SmppChannelConnectException;
 import com.cloudhopper.smpp.type.SmppChannelConnectTimeoutException;
 import com.cloudhopper.smpp.type.UnrecoverablePduException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -56,10 +60,13 @@ import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.local.DefaultLocalClientChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
 import org.jboss.netty.channel.socket.ClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.handler.ssl.SslHandler;
 import org.jboss.netty.handler.timeout.WriteTimeoutHandler;
+import org.jboss.netty.util.HashedWheelTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,9 +83,18 @@ public class DefaultSmppClient implements SmppClient {
     private ExecutorService executors;
     private ClientSocketChannelFactory channelFactory;
     private ClientBootstrap clientBootstrap;
+    // bootstrap for in-VM channels to servers listening on a local address
+    private ClientBootstrap localClientBootstrap;
     private ScheduledExecutorService monitorExecutor;
     // shared instance of a timer for writeTimeout timing
     private final org.jboss.netty.util.Timer writeTimeoutTimer;
+    // shared instance of a fine-grained timer for flushing aggregated writes
+    private final org.jboss.netty.util.Timer writeAggregationTimer;
+    // shared instance of a timer that every session window registers request expiry with
+    private final org.jboss.netty.util.Timer requestExpiryTimer;
+    // shared executor for sessions that dispatch their handler off the I/O threads
+    private Executor handlerExecutor;
+    private ExecutorService createdHandlerExecutor;
 
     /**
      * Creates a new default SmppClient. Window monitoring and automatic
@@ -142,23 +158,61 @@ public class DefaultSmppClient implements SmppClient {
         // we use the same default pipeline for all new channels - no need for a factory
         this.clientConnector = new SmppClientConnector(this.channels);
         this.clientBootstrap.getPipeline().addLast(SmppChannelConstants.PIPELINE_CLIENT_CONNECTOR_NAME, this.clientConnector);
+        this.localClientBootstrap = new ClientBootstrap(new DefaultLocalClientChannelFactory());
+        this.localClientBootstrap.getPipeline().addLast(SmppChannelConstants.PIPELINE_CLIENT_CONNECTOR_NAME, this.clientConnector);
         this.monitorExecutor = monitorExecutor;
 	// a shared instance of a timer for session writeTimeout timing
 	this.writeTimeoutTimer = new org.jboss.netty.util.HashedWheelTimer();
+        // a shared instance of a timer for flushing aggregated writes (only started if used)
+        this.writeAggregationTimer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS);
+        // a shared instance of a timer for expiring requests in every session window (only started if used)
+        this.requestExpiryTimer = new HashedWheelTimer(SmppConstants.DEFAULT_REQUEST_EXPIRY_TIMER_TICK_DURATION, TimeUnit.MILLISECONDS);
     }
     
     public int getConnectionSize() {
         return this.channels.size();
     }
 
+    /**
+     * Sets the executor shared by all sessions of this client that have handler
+     * dispatch enabled (see SmppSessionConfiguration.setHandlerDispatchEnabled).
+     * Received PDUs of those sessions are processed on this executor rather
+     * than on the I/O threads.  Only one thread works on a session at a time
+     * and a session only takes a thread while it has PDUs queued, so a pool
+     * far smaller than the number of sessions is enough.  If not set, a fixed
+     * pool of daemon threads (twice the number of processors) is created the
+     * first time it's needed and shutdown on destroy().
+     * @param handlerExecutor The executor to process session events on
+     */
+    public synchronized void setHandlerExecutor(Executor handlerExecutor) {
+        this.handlerExecutor = handlerExecutor;
+    }
+
+    public synchronized Executor getHandlerExecutor() {
+        if (this.handlerExecutor == null) {
+            this.createdHandlerExecutor = DaemonExecutors.newFixedDaemonThreadPool(SmppConstants.DEFAULT_HANDLER_THREAD_COUNT);
+            this.handlerExecutor = this.createdHandlerExecutor;
+        }
+        return this.handlerExecutor;
+    }
+
     @Override
     public void destroy() {
         // close all channels still open within this session "bootstrap"
         this.channels.close().awaitUninterruptibly();
         // clean up all external resources
         this.clientBootstrap.releaseExternalResources();
+        this.localClientBootstrap.releaseExternalResources();
 	// stop the writeTimeout timer 
 	this.writeTimeoutTimer.stop();
+        this.writeAggregationTimer.stop();
+        this.requestExpiryTimer.stop();
+        synchronized (this) {
+            if (this.createdHandlerExecutor != null) {
+                this.createdHandlerExecutor.shutdown();
+                this.createdHandlerExecutor = null;
+            }
+        }
     }
 
     protected BaseBind createBindRequest(SmppSessionConfiguration config) throws UnrecoverablePduException {
@@ -220,14 +274,19 @@ public class DefaultSmppClient implements SmppClient {
     }
 
     protected DefaultSmppSession doOpen(SmppSessionConfiguration config, SmppSessionHandler sessionHandler) throws SmppTimeoutException, SmppChannelException, InterruptedException {
-        // create and connect a channel to the remote host
-        Channel channel = createConnectedChannel(config.getHost(), config.getPort(), config.getConnectTimeout());
+        // create and connect a channel to the remote host (or local server)
+        Channel channel = null;
+        if (config.getLocalAddress() != null) {
+            channel = createConnectedLocalChannel(config.getLocalAddress());
+        } else {
+            channel = createConnectedChannel(config.getHost(), config.getPort(), config.getConnectTimeout());
+        }
         // tie this new opened channel with a new session
         return createSession(channel, config, sessionHandler);
     }
 
     protected DefaultSmppSession createSession(Channel channel, SmppSessionConfiguration config, SmppSessionHandler sessionHandler) throws SmppTimeoutException, SmppChannelException, InterruptedException {
-        DefaultSmppSession session = new DefaultSmppSession(SmppSession.Type.CLIENT, config, channel, sessionHandler, monitorExecutor);
+        DefaultSmppSession session = new DefaultSmppSession(SmppSession.Type.CLIENT, config, channel, sessionHandler, monitorExecutor, requestExpiryTimer);
 
 	// add SSL handler 
         if (config.isUseSsl()) {
@@ -243,6 +302,13 @@ public class DefaultSmppClient implements SmppClient {
 	    }
 	}
 
+        // add a write aggregator ahead of the logger and writeTimeout handlers
+        // (so they still see each individual PDU)
+        if (config.isWriteAggregationEnabled()) {
+            SmppSessionWriteAggregator writeAggregator = new SmppSessionWriteAggregator(writeAggregationTimer, config.getWriteAggregationMaxBytes(), config.getWriteAggregationMaxCount(), config.getWriteAggregationMaxDelay());
+            channel.getPipeline().addLast(SmppChannelConstants.PIPELINE_SESSION_WRITE_AGGREGATOR_NAME, writeAggregator);
+        }
+
         // add the thread renamer portion to the pipeline
         if (config.getName() != null) {
             channel.getPipeline().addLast(SmppChannelConstants.PIPELINE_SESSION_THREAD_RENAMER_NAME, new SmppSessionThreadRenamer(config.getName()));
@@ -263,6 +329,12 @@ public class DefaultSmppClient implements SmppClient {
         // add a new instance of a decoder (that takes care of handling frames)
         channel.getPipeline().addLast(SmppChannelConstants.PIPELINE_SESSION_PDU_DECODER_NAME, new SmppSessionPduDecoder(session.getTranscoder()));
 
+        // process session events on the handler executor rather than the I/O thread
+        if (config.isHandlerDispatchEnabled()) {
+            SmppSessionHandlerDispatcher dispatcher = new SmppSessionHandlerDispatcher(getHandlerExecutor(), config.getName(), config.getHandlerQueueHighWatermark(), config.getHandlerQueueLowWatermark(), config.getHandlerQueueMaxSize(), session);
+            channel.getPipeline().addLast(SmppChannelConstants.PIPELINE_SESSION_HANDLER_DISPATCHER_NAME, dispatcher);
+        }
+
         // create a new wrapper around a session to pass the pdu up the chain
         channel.getPipeline().addLast(SmppChannelConstants.PIPELINE_SESSION_WRAPPER_NAME, new SmppSessionWrapper(session));
 
@@ -300,4 +372,18 @@ public class DefaultSmppClient implements SmppClient {
         return connectFuture.getChannel();
     }
 
+    protected Channel createConnectedLocalChannel(String localAddress) throws SmppChannelException, InterruptedException {
+        // connecting to a local server never blocks on the network
+        ChannelFuture connectFuture = this.localClientBootstrap.connect(new LocalAddress(localAddress));
+        connectFuture.awaitUninterruptibly();
+
+        if (connectFuture.isCancelled()) {
+            throw new InterruptedException("connectFuture cancelled by user");
+        } else if (!connectFuture.isSuccess()) {
+            throw new SmppChannelConnectException("Unable to connect to local address [" + localAddress + "]: " + connectFuture.getCause().getMessage(), connectFuture.getCause());
+        }
+
+        return connectFuture.getChannel();
+    }
+
 }
@@ -20,30 +20,43 @@ package com.cloudhopper.smpp.impl;
  * #L%
  */
 
+import com.cloudhopper.commons.util.windowing.PendingOfferAbortedException;
 import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.SmppServer;
 import com.cloudhopper.smpp.SmppServerConfiguration;
 import com.cloudhopper.smpp.SmppServerHandler;
+import com.cloudhopper.smpp.SmppServerSession;
 import com.cloudhopper.smpp.SmppSession;
 import com.cloudhopper.smpp.SmppSessionConfiguration;
 import com.cloudhopper.smpp.channel.SmppChannelConstants;
 import com.cloudhopper.smpp.channel.SmppServerConnector;
 import com.cloudhopper.smpp.channel.SmppSessionLogger;
 import com.cloudhopper.smpp.channel.SmppSessionThreadRenamer;
+import com.cloudhopper.smpp.channel.SmppSessionHandlerDispatcher;
+import com.cloudhopper.smpp.channel.SmppSessionWriteAggregator;
 import com.cloudhopper.smpp.channel.SmppSessionWrapper;
 import com.cloudhopper.smpp.jmx.DefaultSmppServerMXBean;
 import com.cloudhopper.smpp.pdu.BaseBind;
 import com.cloudhopper.smpp.pdu.BaseBindResp;
+import com.cloudhopper.smpp.pdu.PduRequest;
+import com.cloudhopper.smpp.pdu.PduResponse;
 import com.cloudhopper.smpp.tlv.Tlv;
 import com.cloudhopper.smpp.transcoder.DefaultPduTranscoder;
 import com.cloudhopper.smpp.transcoder.DefaultPduTranscoderContext;
 import com.cloudhopper.smpp.transcoder.PduTranscoder;
+import com.cloudhopper.smpp.type.RecoverablePduException;
 import com.cloudhopper.smpp.type.SmppChannelException;
 import com.cloudhopper.smpp.type.SmppProcessingException;
+import com.cloudhopper.smpp.type.UnrecoverablePduException;
 import com.cloudhopper.smpp.util.DaemonExecutors;
 import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Timer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -51,14 +64,18 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.management.ObjectName;
 import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelException;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.local.DefaultLocalServerChannelFactory;
+import org.jboss.netty.channel.local.LocalAddress;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.jboss.netty.channel.socket.oio.OioServerSocketChannelFactory;
 import org.jboss.netty.handler.timeout.WriteTimeoutHandler;
+import org.jboss.netty.util.HashedWheelTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -81,6 +98,13 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
     private Channel serverChannel; 
     // shared instance of a timer for session writeTimeout timing
     private final org.jboss.netty.util.Timer writeTimeoutTimer;
+    // shared instance of a fine-grained timer for flushing aggregated writes
+    private final org.jboss.netty.util.Timer writeAggregationTimer;
+    // shared instance of a timer that every session window registers request expiry with
+    private final org.jboss.netty.util.Timer requestExpiryTimer;
+    // shared executor for sessions that dispatch their handler off the I/O threads
+    private Executor handlerExecutor;
+    private ExecutorService createdHandlerExecutor;
     // shared instance of a timer background thread to close unbound channels
     private final Timer bindTimer;
    // shared instance of a session id generator (an atomic long)
@@ -88,6 +112,8 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
     // shared instance for monitor executors
     private final ScheduledExecutorService monitorExecutor;
     private DefaultSmppServerCounters counters;
+    // single mbean for every session (null if one mbean per session)
+    private DefaultSmppServerSessions sessionsMBean;
     
     /**
      * Creates a new default SmppServer. Window monitoring and automatic
@@ -138,7 +164,10 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
         this.bossThreadPool = Executors.newCachedThreadPool();
         
         // a factory for creating channels (connections)
-        if (configuration.isNonBlockingSocketsEnabled()) {
+        if (configuration.getLocalAddress() != null) {
+            // in-VM channels only (no sockets, boss or worker threads)
+            this.channelFactory = new DefaultLocalServerChannelFactory();
+        } else if (configuration.isNonBlockingSocketsEnabled()) {
             this.channelFactory = new NioServerSocketChannelFactory(this.bossThreadPool, executor, configuration.getMaxConnectionSize());
         } else {
             this.channelFactory = new OioServerSocketChannelFactory(this.bossThreadPool, executor);
@@ -155,13 +184,20 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
         this.serverBootstrap.getPipeline().addLast(SmppChannelConstants.PIPELINE_SERVER_CONNECTOR_NAME, this.serverConnector);
 	// a shared instance of a timer for session writeTimeout timing
 	this.writeTimeoutTimer = new org.jboss.netty.util.HashedWheelTimer();
+        // a shared instance of a timer for flushing aggregated writes (only started if used)
+        this.writeAggregationTimer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS);
+        // a shared instance of a timer for expiring requests in every session window (only started if used)
+        this.requestExpiryTimer = new HashedWheelTimer(SmppConstants.DEFAULT_REQUEST_EXPIRY_TIMER_TICK_DURATION, TimeUnit.MILLISECONDS);
         // a shared timer used to make sure new channels are bound within X milliseconds
         this.bindTimer = new Timer(configuration.getName() + "-BindTimer0", true);
         // NOTE: this would permit us to customize the "transcoding" context for a server if needed
-        this.transcoder = new DefaultPduTranscoder(new DefaultPduTranscoderContext());
+        this.transcoder = new DefaultPduTranscoder(new DefaultPduTranscoderContext(), null, configuration.isLazyDecodeEnabled(), configuration.isHeaderOnlyDecodeEnabled(), configuration.getPduFactoryRegistry(), configuration.getInternCache());
         this.sessionIdSequence = new AtomicLong(0);        
         this.monitorExecutor = monitorExecutor;
         this.counters = new DefaultSmppServerCounters();
+        if (configuration.isJmxEnabled() && configuration.isSessionsMBeanEnabled()) {
+            this.sessionsMBean = new DefaultSmppServerSessions();
+        }
         if (configuration.isJmxEnabled()) {
             registerMBean();
         }
@@ -180,6 +216,14 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
                 // log the error, but don't throw an exception for this datasource
                 logger.error("Unable to register DefaultSmppServerMXBean [{}]", configuration.getName(), e);
             }
+            if (this.sessionsMBean != null) {
+                try {
+                    ObjectName name = new ObjectName(configuration.getJmxDomain() + ":name=" + configuration.getName() + "Sessions");
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(this.sessionsMBean, name);
+                } catch (Exception e) {
+                    logger.error("Unable to register DefaultSmppServerSessionsMXBean [{}]", configuration.getName(), e);
+                }
+            }
         }
     }
     
@@ -196,6 +240,14 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
                 // log the error, but don't throw an exception for this datasource
                 logger.error("Unable to unregister DefaultSmppServerMXBean [{}]", configuration.getName(), e);
             }
+            if (this.sessionsMBean != null) {
+                try {
+                    ObjectName name = new ObjectName(configuration.getJmxDomain() + ":name=" + configuration.getName() + "Sessions");
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+                } catch (Exception e) {
+                    logger.error("Unable to unregister DefaultSmppServerSessionsMXBean [{}]", configuration.getName(), e);
+                }
+            }
         }
     }
 
@@ -217,6 +269,15 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
         return this.counters;
     }
 
+    /**
+     * Gets the single mbean managing every session of this server.
+     * @return The mbean or null if JMX is disabled or an mbean is registered
+     *      per session (see SmppServerConfiguration.setSessionsMBeanEnabled())
+     */
+    public DefaultSmppServerSessions getSessionsMBean() {
+        return this.sessionsMBean;
+    }
+
     public Timer getBindTimer() {
         return this.bindTimer;
     }
@@ -242,8 +303,13 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
             throw new SmppChannelException("Unable to start: server is destroyed");
         }
         try {
-            serverChannel = this.serverBootstrap.bind(new InetSocketAddress(configuration.getPort()));
-            logger.info("{} started on SMPP port [{}]", configuration.getName(), configuration.getPort());
+            if (configuration.getLocalAddress() != null) {
+                serverChannel = this.serverBootstrap.bind(new LocalAddress(configuration.getLocalAddress()));
+                logger.info("{} started on local address [{}]", configuration.getName(), configuration.getLocalAddress());
+            } else {
+                serverChannel = this.serverBootstrap.bind(new InetSocketAddress(configuration.getPort()));
+                logger.info("{} started on SMPP port [{}]", configuration.getName(), configuration.getPort());
+            }
         } catch (ChannelException e) {
             throw new SmppChannelException(e.getMessage(), e);
         }
@@ -264,6 +330,87 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
         logger.info("{} stopped on SMPP port [{}]", configuration.getName(), configuration.getPort());
     }
     
+    /**
+     * Sets the executor shared by all sessions of this server that have handler
+     * dispatch enabled (see SmppSessionConfiguration.setHandlerDispatchEnabled).
+     * Received PDUs of those sessions are processed on this executor rather
+     * than on the I/O threads.  Only one thread works on a session at a time
+     * and a session only takes a thread while it has PDUs queued, so a pool
+     * far smaller than the number of sessions is enough.  If not set, a fixed
+     * pool of daemon threads (twice the number of processors) is created the
+     * first time it's needed and shutdown on destroy().
+     * @param handlerExecutor The executor to process session events on
+     */
+    public synchronized void setHandlerExecutor(Executor handlerExecutor) {
+        this.handlerExecutor = handlerExecutor;
+    }
+
+    public synchronized Executor getHandlerExecutor() {
+        if (this.handlerExecutor == null) {
+            this.createdHandlerExecutor = DaemonExecutors.newFixedDaemonThreadPool(SmppConstants.DEFAULT_HANDLER_THREAD_COUNT);
+            this.handlerExecutor = this.createdHandlerExecutor;
+        }
+        return this.handlerExecutor;
+    }
+
+    /**
+     * Sends the same request (e.g. a deliver_sm to many receivers) to every
+     * session without waiting for the writes or responses.  The request is
+     * encoded once; each session only writes a copy of the 16 byte header with
+     * its next sequence number, followed by the shared body.  The request is
+     * added to the window of each session under that sequence number (the
+     * sequence number of the request itself is never used), so responses,
+     * expiry and counters work as they do for sendRequestAsync().  A failure
+     * to send to one session (e.g. its window is full or its channel is
+     * closed) fails the future of that session only.
+     * @param request The request to send to every session
+     * @param sessions The sessions to send to (created by this server)
+     * @param timeoutMillis The time to wait for slots to open in the windows of
+     *      all sessions together -- one deadline bounds the whole call, so a
+     *      full window only waits for what's left of it and once it passed,
+     *      a session whose window is full fails right away with an
+     *      SmppTimeoutException.  If the calling thread is interrupted while
+     *      waiting, nothing is sent to the remaining sessions (their futures
+     *      fail) and the interrupt flag is kept.
+     * @return A future that completes once the request to every session is done
+     * @throws RecoverablePduException Thrown if the request can't be encoded
+     * @throws UnrecoverablePduException Thrown if the request can't be encoded
+     */
+    public DefaultPduBroadcastFuture broadcastAsync(PduRequest request, Collection<? extends SmppServerSession> sessions, long timeoutMillis) throws RecoverablePduException, UnrecoverablePduException {
+        ChannelBuffer encoded = this.transcoder.encode(request);
+        // built entirely before the broadcast future is created (and published)
+        Map<SmppServerSession,CompletableFuture<PduResponse>> futures = new LinkedHashMap<SmppServerSession,CompletableFuture<PduResponse>>(sessions.size() * 4 / 3 + 1);
+        InterruptedException interrupted = null;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (SmppServerSession session : sessions) {
+            CompletableFuture<PduResponse> future;
+            if (interrupted != null) {
+                // once interrupted, nothing else is sent
+                future = new CompletableFuture<PduResponse>();
+                future.completeExceptionally(interrupted);
+                futures.put(session, future);
+                continue;
+            }
+            try {
+                future = ((DefaultSmppSession)session).sendBroadcastRequestAsync(request, encoded, Math.max(0, deadline - System.currentTimeMillis()));
+            } catch (Exception e) {
+                // an aborted offer only fails the session whose window it was
+                if (e instanceof InterruptedException && !(e instanceof PendingOfferAbortedException)) {
+                    interrupted = (InterruptedException)e;
+                }
+                future = new CompletableFuture<PduResponse>();
+                future.completeExceptionally(e);
+            }
+            futures.put(session, future);
+        }
+        if (interrupted != null) {
+            Thread.currentThread().interrupt();
+        }
+        DefaultPduBroadcastFuture broadcastFuture = new DefaultPduBroadcastFuture(request, futures);
+        broadcastFuture.listen();
+        return broadcastFuture;
+    }
+
     @Override
     public void destroy() {
         this.bindTimer.cancel();
@@ -271,6 +418,14 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
         this.serverBootstrap.releaseExternalResources();
         this.serverBootstrap = null;
 	this.writeTimeoutTimer.stop();
+        this.writeAggregationTimer.stop();
+        this.requestExpiryTimer.stop();
+        synchronized (this) {
+            if (this.createdHandlerExecutor != null) {
+                this.createdHandlerExecutor.shutdown();
+                this.createdHandlerExecutor = null;
+            }
+        }
         unregisterMBean();
         logger.info("{} destroyed on SMPP port [{}]", configuration.getName(), configuration.getPort());
     }
@@ -330,7 +485,7 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
         byte interfaceVersion = this.autoNegotiateInterfaceVersion(config.getInterfaceVersion());
 
         // create a new server session associated with this server
-        DefaultSmppSession session = new DefaultSmppSession(SmppSession.Type.SERVER, config, channel, this, sessionId, preparedBindResponse, interfaceVersion, monitorExecutor);
+        DefaultSmppSession session = new DefaultSmppSession(SmppSession.Type.SERVER, config, channel, this, sessionId, preparedBindResponse, interfaceVersion, monitorExecutor, requestExpiryTimer);
 
         // replace name of thread used for renaming
         SmppSessionThreadRenamer threadRenamer = (SmppSessionThreadRenamer)channel.getPipeline().get(SmppChannelConstants.PIPELINE_SESSION_THREAD_RENAMER_NAME);
@@ -346,11 +501,24 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
 	    channel.getPipeline().addAfter(SmppChannelConstants.PIPELINE_SESSION_LOGGER_NAME, SmppChannelConstants.PIPELINE_SESSION_WRITE_TIMEOUT_NAME, writeTimeoutHandler);
 	}
 
+        // add a write aggregator before the thread renamer (so the logger and
+        // writeTimeout handlers still see each individual PDU)
+        if (config.isWriteAggregationEnabled()) {
+            SmppSessionWriteAggregator writeAggregator = new SmppSessionWriteAggregator(writeAggregationTimer, config.getWriteAggregationMaxBytes(), config.getWriteAggregationMaxCount(), config.getWriteAggregationMaxDelay());
+            channel.getPipeline().addBefore(SmppChannelConstants.PIPELINE_SESSION_THREAD_RENAMER_NAME, SmppChannelConstants.PIPELINE_SESSION_WRITE_AGGREGATOR_NAME, writeAggregator);
+        }
+
         // decoder in pipeline is ok (keep it)
 
         // create a new wrapper around a session to pass the pdu up the chain
         channel.getPipeline().remove(SmppChannelConstants.PIPELINE_SESSION_WRAPPER_NAME);
         channel.getPipeline().addLast(SmppChannelConstants.PIPELINE_SESSION_WRAPPER_NAME, new SmppSessionWrapper(session));
+
+        // process session events on the handler executor rather than the I/O thread
+        if (config.isHandlerDispatchEnabled()) {
+            SmppSessionHandlerDispatcher dispatcher = new SmppSessionHandlerDispatcher(getHandlerExecutor(), config.getName(), config.getHandlerQueueHighWatermark(), config.getHandlerQueueLowWatermark(), config.getHandlerQueueMaxSize(), session);
+            channel.getPipeline().addBefore(SmppChannelConstants.PIPELINE_SESSION_WRAPPER_NAME, SmppChannelConstants.PIPELINE_SESSION_HANDLER_DISPATCHER_NAME, dispatcher);
+        }
         
         // check if the # of channels exceeds maxConnections
         if (this.channels.size() > this.configuration.getMaxConnectionSize()) {
@@ -362,8 +530,10 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
         incrementSessionSizeCounters(session);
         this.serverHandler.sessionCreated(sessionId, session, preparedBindResponse);
         
-        // register this session as an mbean
-        if (configuration.isJmxEnabled()) {
+        // register this session as an mbean (or add it to the single mbean)
+        if (this.sessionsMBean != null) {
+            this.sessionsMBean.add(sessionId, session);
+        } else if (configuration.isJmxEnabled()) {
             session.registerMBean(configuration.getJmxDomain() + ":type=" + configuration.getName() + "Sessions,name=" + sessionId);
         }
     }
@@ -375,8 +545,10 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
         decrementSessionSizeCounters(session);
         serverHandler.sessionDestroyed(sessionId, session);
         
-        // unregister this session as an mbean
-        if (configuration.isJmxEnabled()) {
+        // unregister this session as an mbean (or remove it from the single mbean)
+        if (this.sessionsMBean != null) {
+            this.sessionsMBean.remove(sessionId);
+        } else if (configuration.isJmxEnabled()) {
             session.unregisterMBean(configuration.getJmxDomain() + ":type=" + configuration.getName() + "Sessions,name=" + sessionId);
         }
     }
@@ -492,4 +664,89 @@ public class DefaultSmppServer implements SmppServer, DefaultSmppServerMXBean {
     public int getSessionDestroyed() {
         return this.getCounters().getSessionDestroyed();
     }
+
+    @Override
+    public boolean isTrafficCountersEnabled() {
+        return this.configuration.isTrafficCountersEnabled();
+    }
+
+    @Override
+    public String getRxDataSMCounter() {
+        return this.getCounters().getSessionCounters().getRxDataSM().toString();
+    }
+
+    @Override
+    public String getRxDeliverSMCounter() {
+        return this.getCounters().getSessionCounters().getRxDeliverSM().toString();
+    }
+
+    @Override
+    public String getRxEnquireLinkCounter() {
+        return this.getCounters().getSessionCounters().getRxEnquireLink().toString();
+    }
+
+    @Override
+    public String getRxSubmitSMCounter() {
+        return this.getCounters().getSessionCounters().getRxSubmitSM().toString();
+    }
+
+    @Override
+    public String getTxDataSMCounter() {
+        return this.getCounters().getSessionCounters().getTxDataSM().toString();
+    }
+
+    @Override
+    public String getTxDeliverSMCounter() {
+        return this.getCounters().getSessionCounters().getTxDeliverSM().toString();
+    }
+
+    @Override
+    public String getTxEnquireLinkCounter() {
+        return this.getCounters().getSessionCounters().getTxEnquireLink().toString();
+    }
+
+    @Override
+    public String getTxSubmitSMCounter() {
+        return this.getCounters().getSessionCounters().getTxSubmitSM().toString();
+    }
+
+    @Override
+    public String getRxDataSMRate() {
+        return this.getCounters().getRxDataSMRate().toString();
+    }
+
+    @Override
+    public String getRxDeliverSMRate() {
+        return this.getCounters().getRxDeliverSMRate().toString();
+    }
+
+    @Override
+    public String getRxEnquireLinkRate() {
+        return this.getCounters().getRxEnquireLinkRate().toString();
+    }
+
+    @Override
+    public String getRxSubmitSMRate() {
+        return this.getCounters().getRxSubmitSMRate().toString();
+    }
+
+    @Override
+    public String getTxDataSMRate() {
+        return this.getCounters().getTxDataSMRate().toString();
+    }
+
+    @Override
+    public String getTxDeliverSMRate() {
+        return this.getCounters().getTxDeliverSMRate().toString();
+    }
+
+    @Override
+    public String getTxEnquireLinkRate() {
+        return this.getCounters().getTxEnquireLinkRate().toString();
+    }
+
+    @Override
+    public String getTxSubmitSMRate() {
+        return this.getCounters().getTxSubmitSMRate().toString();
+    }
 }
@@ -21,6 +21,7 @@ package com.cloudhopper.smpp.impl;
  */
 
 import com.cloudhopper.smpp.SmppServerCounters;
+import com.cloudhopper.smpp.util.ConcurrentCommandRate;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -40,6 +41,17 @@ public class DefaultSmppServerCounters implements SmppServerCounters {
     private AtomicInteger transceiverSessionSize;
     private AtomicInteger receiverSessionSize;
     private AtomicInteger transmitterSessionSize;
+    // traffic of every session of the server (counted by each session in
+    // addition to its own counters)
+    private DefaultSmppSessionCounters sessionCounters;
+    private ConcurrentCommandRate txSubmitSMRate;
+    private ConcurrentCommandRate txDeliverSMRate;
+    private ConcurrentCommandRate txEnquireLinkRate;
+    private ConcurrentCommandRate txDataSMRate;
+    private ConcurrentCommandRate rxSubmitSMRate;
+    private ConcurrentCommandRate rxDeliverSMRate;
+    private ConcurrentCommandRate rxEnquireLinkRate;
+    private ConcurrentCommandRate rxDataSMRate;
     
     public DefaultSmppServerCounters() {
         this.channelConnects = new AtomicInteger(0);
@@ -52,6 +64,17 @@ public class DefaultSmppServerCounters implements SmppServerCounters {
         this.transceiverSessionSize = new AtomicInteger(0);
         this.receiverSessionSize = new AtomicInteger(0);
         this.transmitterSessionSize = new AtomicInteger(0);
+        // every session shares these: no histograms (their buckets would be
+        // contended), the counts and sums are striped
+        this.sessionCounters = new DefaultSmppSessionCounters(false);
+        this.txSubmitSMRate = new ConcurrentCommandRate(this.sessionCounters.getTxSubmitSM());
+        this.txDeliverSMRate = new ConcurrentCommandRate(this.sessionCounters.getTxDeliverSM());
+        this.txEnquireLinkRate = new ConcurrentCommandRate(this.sessionCounters.getTxEnquireLink());
+        this.txDataSMRate = new ConcurrentCommandRate(this.sessionCounters.getTxDataSM());
+        this.rxSubmitSMRate = new ConcurrentCommandRate(this.sessionCounters.getRxSubmitSM());
+        this.rxDeliverSMRate = new ConcurrentCommandRate(this.sessionCounters.getRxDeliverSM());
+        this.rxEnquireLinkRate = new ConcurrentCommandRate(this.sessionCounters.getRxEnquireLink());
+        this.rxDataSMRate = new ConcurrentCommandRate(this.sessionCounters.getRxDataSM());
     }
     
     @Override
@@ -62,6 +85,15 @@ public class DefaultSmppServerCounters implements SmppServerCounters {
         this.bindRequested.set(0);
         this.sessionCreated.set(0);
         this.sessionDestroyed.set(0);
+        this.sessionCounters.reset();
+        this.txSubmitSMRate.reset();
+        this.txDeliverSMRate.reset();
+        this.txEnquireLinkRate.reset();
+        this.txDataSMRate.reset();
+        this.rxSubmitSMRate.reset();
+        this.rxDeliverSMRate.reset();
+        this.rxEnquireLinkRate.reset();
+        this.rxDataSMRate.reset();
     }
     
     @Override
@@ -179,6 +211,49 @@ public class DefaultSmppServerCounters implements SmppServerCounters {
         return this.transmitterSessionSize.decrementAndGet();
     }
     
+    /**
+     * Gets the traffic counters aggregated over every session of the server
+     * (only counted if traffic counters are enabled in the configuration of
+     * the server).  Unlike the counters of a session, they don't keep any
+     * latency histograms.
+     * @return The aggregated counters
+     */
+    public DefaultSmppSessionCounters getSessionCounters() {
+        return this.sessionCounters;
+    }
+
+    public ConcurrentCommandRate getTxSubmitSMRate() {
+        return this.txSubmitSMRate;
+    }
+
+    public ConcurrentCommandRate getTxDeliverSMRate() {
+        return this.txDeliverSMRate;
+    }
+
+    public ConcurrentCommandRate getTxEnquireLinkRate() {
+        return this.txEnquireLinkRate;
+    }
+
+    public ConcurrentCommandRate getTxDataSMRate() {
+        return this.txDataSMRate;
+    }
+
+    public ConcurrentCommandRate getRxSubmitSMRate() {
+        return this.rxSubmitSMRate;
+    }
+
+    public ConcurrentCommandRate getRxDeliverSMRate() {
+        return this.rxDeliverSMRate;
+    }
+
+    public ConcurrentCommandRate getRxEnquireLinkRate() {
+        return this.rxEnquireLinkRate;
+    }
+
+    public ConcurrentCommandRate getRxDataSMRate() {
+        return this.rxDataSMRate;
+    }
+    
     @Override
     public String toString() {
         StringBuilder to = new StringBuilder();
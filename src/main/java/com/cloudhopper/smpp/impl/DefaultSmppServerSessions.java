@@ -0,0 +1,228 @@
+package com.cloudhopper.smpp.impl;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.jmx.DefaultSmppServerSessionsMXBean;
+import com.cloudhopper.smpp.pdu.PduResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Default implementation of a DefaultSmppServerSessionsMXBean interface.  The
+ * server adds every session it creates (and removes it once destroyed)
+ * instead of registering an mbean per session.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class DefaultSmppServerSessions implements DefaultSmppServerSessionsMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(DefaultSmppServerSessions.class);
+
+    static private final String[] ITEM_NAMES = new String[] {
+        "id", "name", "systemId", "bindType", "state", "interfaceVersion",
+        "localAddressAndPort", "remoteAddressAndPort", "boundDuration",
+        "windowSize", "maxWindowSize",
+        "rxSubmitSMCounter", "txSubmitSMCounter", "rxDeliverSMCounter", "txDeliverSMCounter",
+        "rxDataSMCounter", "txDataSMCounter", "rxEnquireLinkCounter", "txEnquireLinkCounter"
+    };
+    static private final CompositeType SESSION_TYPE;
+    static private final TabularType SESSIONS_TYPE;
+
+    static {
+        OpenType<?>[] itemTypes = new OpenType<?>[ITEM_NAMES.length];
+        itemTypes[0] = SimpleType.LONG;
+        for (int i = 1; i < itemTypes.length; i++) {
+            itemTypes[i] = SimpleType.STRING;
+        }
+        itemTypes[9] = SimpleType.INTEGER;
+        itemTypes[10] = SimpleType.INTEGER;
+        try {
+            SESSION_TYPE = new CompositeType("SmppSession", "A session of the server", ITEM_NAMES, ITEM_NAMES, itemTypes);
+            SESSIONS_TYPE = new TabularType("SmppSessions", "Sessions of the server", SESSION_TYPE, new String[] { "id" });
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ordered by id so pages are stable
+    private final ConcurrentSkipListMap<Long,DefaultSmppSession> sessions;
+
+    public DefaultSmppServerSessions() {
+        this.sessions = new ConcurrentSkipListMap<Long,DefaultSmppSession>();
+    }
+
+    protected void add(Long sessionId, DefaultSmppSession session) {
+        this.sessions.put(sessionId, session);
+    }
+
+    protected void remove(Long sessionId) {
+        this.sessions.remove(sessionId);
+    }
+
+    public DefaultSmppSession get(long sessionId) {
+        return this.sessions.get(sessionId);
+    }
+
+    static private boolean matches(DefaultSmppSession session, String systemId) {
+        return (systemId == null || systemId.isEmpty() || systemId.equals(session.getSystemId()));
+    }
+
+    private List<DefaultSmppSession> find(String systemId) {
+        List<DefaultSmppSession> matches = new ArrayList<DefaultSmppSession>();
+        for (DefaultSmppSession session : this.sessions.values()) {
+            if (matches(session, systemId)) {
+                matches.add(session);
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public int getSessionSize() {
+        return this.sessions.size();
+    }
+
+    @Override
+    public Map<String,Integer> getSessionSizeBySystemId() {
+        Map<String,Integer> sizes = new TreeMap<String,Integer>();
+        for (DefaultSmppSession session : this.sessions.values()) {
+            String systemId = (session.getSystemId() == null ? "" : session.getSystemId());
+            Integer size = sizes.get(systemId);
+            sizes.put(systemId, (size == null ? 1 : size + 1));
+        }
+        return sizes;
+    }
+
+    @Override
+    public TabularData listSessions(String systemId, int offset, int limit) {
+        TabularData data = new TabularDataSupport(SESSIONS_TYPE);
+        int skipped = 0;
+        for (Map.Entry<Long,DefaultSmppSession> entry : this.sessions.entrySet()) {
+            if (limit > 0 && data.size() >= limit) {
+                break;
+            }
+            if (!matches(entry.getValue(), systemId)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            data.put(toCompositeData(entry.getKey(), entry.getValue()));
+        }
+        return data;
+    }
+
+    @Override
+    public CompositeData findSession(long sessionId) {
+        DefaultSmppSession session = this.sessions.get(sessionId);
+        if (session == null) {
+            return null;
+        }
+        return toCompositeData(sessionId, session);
+    }
+
+    @Override
+    public int resetCounters(String systemId) {
+        List<DefaultSmppSession> matches = find(systemId);
+        for (DefaultSmppSession session : matches) {
+            session.resetCounters();
+        }
+        return matches.size();
+    }
+
+    @Override
+    public int closeSessions(String systemId) {
+        // closing a session removes it from the map
+        List<DefaultSmppSession> matches = find(systemId);
+        for (DefaultSmppSession session : matches) {
+            session.close();
+        }
+        logger.info("Closed [{}] sessions with systemId [{}]", matches.size(), systemId);
+        return matches.size();
+    }
+
+    @Override
+    public int unbindSessions(String systemId, long timeoutInMillis) {
+        List<DefaultSmppSession> matches = find(systemId);
+        // every unbind is sent before waiting for any response, so the
+        // timeout bounds the whole call rather than each session
+        long deadline = System.currentTimeMillis() + timeoutInMillis;
+        List<CompletableFuture<PduResponse>> futures = new ArrayList<CompletableFuture<PduResponse>>(matches.size());
+        for (DefaultSmppSession session : matches) {
+            futures.add(session.unbindAsync(remaining(deadline)));
+        }
+        for (int i = 0; i < matches.size(); i++) {
+            CompletableFuture<PduResponse> future = futures.get(i);
+            if (future != null) {
+                try {
+                    future.get(remaining(deadline), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // stop waiting, the sessions are still closed below
+                    Thread.currentThread().interrupt();
+                    deadline = 0;
+                } catch (Exception e) {
+                    logger.warn("Did not cleanly receive an unbind response to our unbind request, safe to ignore: " + e.getMessage());
+                }
+            }
+        }
+        for (DefaultSmppSession session : matches) {
+            session.close(remaining(deadline));
+        }
+        logger.info("Unbound [{}] sessions with systemId [{}]", matches.size(), systemId);
+        return matches.size();
+    }
+
+    static private long remaining(long deadline) {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    static private CompositeData toCompositeData(Long sessionId, DefaultSmppSession session) {
+        Object[] values = new Object[] {
+            sessionId, session.getName(), session.getSystemId(), session.getBindTypeName(),
+            session.getStateName(), session.getInterfaceVersionName(),
+            session.getLocalAddressAndPort(), session.getRemoteAddressAndPort(), session.getBoundDuration(),
+            session.getWindowSize(), session.getMaxWindowSize(),
+            session.getRxSubmitSMCounter(), session.getTxSubmitSMCounter(), session.getRxDeliverSMCounter(), session.getTxDeliverSMCounter(),
+            session.getRxDataSMCounter(), session.getTxDataSMCounter(), session.getRxEnquireLinkCounter(), session.getTxEnquireLinkCounter()
+        };
+        try {
+            return new CompositeDataSupport(SESSION_TYPE, ITEM_NAMES, values);
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
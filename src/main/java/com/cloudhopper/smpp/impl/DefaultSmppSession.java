@@ -21,7 +21,10 @@ package com.cloudhopper.smpp.impl;
  */
 
 import com.cloudhopper.commons.util.PeriodFormatterUtil;
+import com.cloudhopper.smpp.jfr.SmppFlightRecorder;
 import com.cloudhopper.smpp.jmx.DefaultSmppSessionMXBean;
+import com.cloudhopper.smpp.channel.SmppChannelConstants;
+import com.cloudhopper.smpp.channel.SmppSessionWriteAggregator;
 import com.cloudhopper.commons.util.windowing.DuplicateKeyException;
 import com.cloudhopper.commons.util.windowing.OfferTimeoutException;
 import com.cloudhopper.commons.util.windowing.Window;
@@ -30,6 +33,7 @@ import com.cloudhopper.commons.util.windowing.WindowListener;
 import com.cloudhopper.smpp.SmppBindType;
 import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.SmppServerSession;
+import com.cloudhopper.smpp.SmppSessionAsyncHandler;
 import com.cloudhopper.smpp.type.SmppChannelException;
 import com.cloudhopper.smpp.SmppSessionConfiguration;
 import com.cloudhopper.smpp.SmppSessionCounters;
@@ -45,6 +49,7 @@ import com.cloudhopper.smpp.pdu.PduRequest;
 import com.cloudhopper.smpp.pdu.PduResponse;
 import com.cloudhopper.smpp.pdu.SubmitSm;
 import com.cloudhopper.smpp.pdu.SubmitSmResp;
+import com.cloudhopper.smpp.pdu.SubmitSmTemplate;
 import com.cloudhopper.smpp.pdu.Unbind;
 import com.cloudhopper.smpp.tlv.Tlv;
 import com.cloudhopper.smpp.tlv.TlvConvertException;
@@ -54,20 +59,35 @@ import com.cloudhopper.smpp.transcoder.PduTranscoder;
 import com.cloudhopper.smpp.type.RecoverablePduException;
 import com.cloudhopper.smpp.type.SmppBindException;
 import com.cloudhopper.smpp.type.UnrecoverablePduException;
+import com.cloudhopper.smpp.util.ChannelBufferPool;
+import com.cloudhopper.smpp.util.PooledChannelBuffer;
 import com.cloudhopper.smpp.util.SequenceNumber;
 import com.cloudhopper.smpp.util.SmppSessionUtil;
 import com.cloudhopper.smpp.util.SmppUtil;
 import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.channels.ClosedChannelException;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import javax.management.ObjectName;
+import org.jboss.netty.buffer.BigEndianHeapChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.local.LocalChannel;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -90,7 +110,10 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
     private SmppSessionHandler sessionHandler;
     private final SequenceNumber sequenceNumber;
     private final PduTranscoder transcoder;
-    private final Window<Integer,PduRequest,PduResponse> sendWindow;
+    private final ChannelBufferPool encodeBufferPool;
+    private final SendWindow sendWindow;
+    // requests sent via the non-blocking api that are still awaiting a response
+    private final ConcurrentHashMap<Integer,DefaultPduRequestFuture> asyncRequests;
     private byte interfaceVersion;
     // only for server sessions
     private DefaultSmppServer server;
@@ -100,18 +123,32 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
     private BaseBindResp preparedBindResponse;
     private ScheduledExecutorService monitorExecutor;
     private DefaultSmppSessionCounters counters;
+    // traffic counters of the server aggregated over every session (only for
+    // server sessions and if enabled on the server)
+    private DefaultSmppSessionCounters serverCounters;
 
     /**
      * Creates an SmppSession for a server-based session.
      */
     public DefaultSmppSession(Type localType, SmppSessionConfiguration configuration, Channel channel, DefaultSmppServer server, Long serverSessionId, BaseBindResp preparedBindResponse, byte interfaceVersion, ScheduledExecutorService monitorExecutor) {
-        this(localType, configuration, channel, (SmppSessionHandler)null, monitorExecutor);
+        this(localType, configuration, channel, server, serverSessionId, preparedBindResponse, interfaceVersion, monitorExecutor, null);
+    }
+
+    /**
+     * Creates an SmppSession for a server-based session where the expiry of
+     * requests is registered with a timer shared by all sessions.
+     */
+    public DefaultSmppSession(Type localType, SmppSessionConfiguration configuration, Channel channel, DefaultSmppServer server, Long serverSessionId, BaseBindResp preparedBindResponse, byte interfaceVersion, ScheduledExecutorService monitorExecutor, Timer requestExpiryTimer) {
+        this(localType, configuration, channel, (SmppSessionHandler)null, monitorExecutor, requestExpiryTimer);
         // default state for a server session is that it's binding
         this.state.set(STATE_BINDING);
         this.server = server;
         this.serverSessionId = serverSessionId;
         this.preparedBindResponse = preparedBindResponse;
         this.interfaceVersion = interfaceVersion;
+        if (server != null && server.getConfiguration().isTrafficCountersEnabled()) {
+            this.serverCounters = server.getCounters().getSessionCounters();
+        }
     }
 
     /**
@@ -145,6 +182,28 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
      *      will be disabled.
      */
     public DefaultSmppSession(Type localType, SmppSessionConfiguration configuration, Channel channel, SmppSessionHandler sessionHandler, ScheduledExecutorService monitorExecutor) {
+        this(localType, configuration, channel, sessionHandler, monitorExecutor, null);
+    }
+
+    /**
+     * Creates an SmppSession for a client-based session. It is <b>NOT</b> 
+     * recommended that this constructor is called directly.  The recommended
+     * way to construct a session is either via a DefaultSmppClient or
+     * DefaultSmppServer. 
+     * @param localType The type of local endpoint (ESME vs. SMSC)
+     * @param configuration The session configuration
+     * @param channel The channel associated with this session. The channel
+     *      needs to already be opened.
+     * @param sessionHandler The handler for session events
+     * @param executor The executor that window monitoring and potentially
+     *      statistics will be periodically executed under.  If null, monitoring
+     *      will be disabled.
+     * @param requestExpiryTimer The timer (shared by all sessions) that each
+     *      request registers its expiry deadline with if monitoring is enabled.
+     *      If null, the window will be periodically scanned on the executor
+     *      for expired requests instead.
+     */
+    public DefaultSmppSession(Type localType, SmppSessionConfiguration configuration, Channel channel, SmppSessionHandler sessionHandler, ScheduledExecutorService monitorExecutor, Timer requestExpiryTimer) {
         this.localType = localType;
         this.state = new AtomicInteger(STATE_OPEN);
         this.configuration = configuration;
@@ -153,17 +212,30 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
         this.sessionHandler = (sessionHandler == null ? new DefaultSmppSessionHandler(logger) : sessionHandler);
         this.sequenceNumber = new SequenceNumber();
         // always "wrap" the custom pdu transcoder context with a default one
-        this.transcoder = new DefaultPduTranscoder(new DefaultPduTranscoderContext(this.sessionHandler));
+        // encode in a single pass into buffers reused once written (if enabled)
+        // -- never on a local channel since the peer gets the written buffer
+        // itself and may keep slices of it (lazy or header-only decoding)
+        if (configuration.getEncodeBufferPoolSize() > 0 && !(channel instanceof LocalChannel)) {
+            this.encodeBufferPool = new ChannelBufferPool(configuration.getEncodeBufferPoolSize());
+        } else {
+            this.encodeBufferPool = null;
+        }
+        this.transcoder = new DefaultPduTranscoder(new DefaultPduTranscoderContext(this.sessionHandler), this.encodeBufferPool, configuration.isLazyDecodeEnabled(), configuration.isHeaderOnlyDecodeEnabled(), configuration.getPduFactoryRegistry(), configuration.getInternCache());
         this.monitorExecutor = monitorExecutor;
         
         // different ways to construct the window if monitoring is enabled
-        if (monitorExecutor != null && configuration.getWindowMonitorInterval() > 0) {
+        if (monitorExecutor != null && configuration.getWindowMonitorInterval() > 0 && requestExpiryTimer != null) {
+            // each request registers its expiry with the shared timer (no scans of the window)
+            this.sendWindow = new SendWindow(configuration.getWindowSize(), requestExpiryTimer, monitorExecutor, this, configuration.getName() + ".Monitor");
+        } else if (monitorExecutor != null && configuration.getWindowMonitorInterval() > 0) {
             // enable send window monitoring, verify if the monitoringInterval has been set
-            this.sendWindow = new Window<Integer,PduRequest,PduResponse>(configuration.getWindowSize(), monitorExecutor, configuration.getWindowMonitorInterval(), this, configuration.getName() + ".Monitor");
+            this.sendWindow = new SendWindow(configuration.getWindowSize(), monitorExecutor, configuration.getWindowMonitorInterval(), this, configuration.getName() + ".Monitor");
         } else {
-            this.sendWindow = new Window<Integer,PduRequest,PduResponse>(configuration.getWindowSize());
+            this.sendWindow = new SendWindow(configuration.getWindowSize());
         }
         
+        this.asyncRequests = new ConcurrentHashMap<Integer,DefaultPduRequestFuture>();
+        
         // these server-only items are null
         this.server = null;
         this.serverSessionId = null;
@@ -295,6 +367,14 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
         return getSendWindow();
     }
 
+    /**
+     * Gets the number of requests sent via the non-blocking api still waiting
+     * for a response.
+     */
+    int getAsyncRequestSize() {
+        return this.asyncRequests.size();
+    }
+
     @Override
     public Window<Integer,PduRequest,PduResponse> getSendWindow() {
         return this.sendWindow;
@@ -400,6 +480,32 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
         close(timeoutInMillis);
     }
 
+    /**
+     * Sends an unbind request without waiting for its response, so many
+     * sessions can be unbound at once (see
+     * DefaultSmppServerSessions.unbindSessions()).  The session must still be
+     * closed once the response was received (or the wait for it timed out).
+     * @param timeoutInMillis The time to wait for a slot to open in the window
+     * @return A future that completes with the unbind response or null if the
+     *      channel is already closed or the unbind could not be sent
+     */
+    CompletableFuture<PduResponse> unbindAsync(long timeoutInMillis) {
+        if (!this.channel.isConnected()) {
+            logger.info("Session channel is already closed, not going to unbind");
+            return null;
+        }
+        this.state.set(STATE_UNBINDING);
+        try {
+            return sendRequestAsync(new Unbind(), timeoutInMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            logger.warn("Unable to send an unbind request, safe to ignore: " + e.getMessage());
+            return null;
+        }
+    }
+
     @Override
     public void close() {
         close(5000);
@@ -424,6 +530,7 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
     public void destroy() {
         close();
         this.sendWindow.destroy();
+        failAsyncRequests(new SmppChannelException("Session was destroyed"));
         if (this.counters != null) {
             this.counters.reset();
         }
@@ -449,6 +556,52 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
         return (SubmitSmResp)response;
     }
     
+    @Override
+    public CompletableFuture<SubmitSmResp> submitAsync(final SubmitSm request, long timeoutMillis) throws RecoverablePduException, UnrecoverablePduException, SmppTimeoutException, SmppChannelException, InterruptedException {
+        assertValidRequest(request);
+        return expectSubmitSmResp(request, sendRequestAsync(request, timeoutMillis));
+    }
+
+    @Override
+    public CompletableFuture<SubmitSmResp> submitAsync(SubmitSmTemplate template, String destAddress, byte[] shortMessage, long timeoutMillis) throws RecoverablePduException, UnrecoverablePduException, SmppTimeoutException, SmppChannelException, InterruptedException {
+        if (template == null) {
+            throw new NullPointerException("Template cannot be null");
+        }
+        if (!this.channel.isConnected()) {
+            throw new SmppChannelException("Unable to send request: channel is not connected");
+        }
+
+        int sequenceNumber = this.sequenceNumber.next();
+        SubmitSm request = template.createSubmitSm(sequenceNumber, destAddress, shortMessage);
+
+        // only the varying fields are encoded around the pre-encoded ones
+        ChannelBuffer buffer;
+        if (this.encodeBufferPool != null && request.getCommandLength() <= this.encodeBufferPool.getBufferCapacity()) {
+            buffer = this.encodeBufferPool.acquire();
+        } else {
+            buffer = new BigEndianHeapChannelBuffer(request.getCommandLength());
+        }
+        template.encode(sequenceNumber, destAddress, shortMessage, buffer);
+
+        return expectSubmitSmResp(request, sendEncodedRequestAsync(request, sequenceNumber, buffer, timeoutMillis));
+    }
+
+    private CompletableFuture<SubmitSmResp> expectSubmitSmResp(final SubmitSm request, CompletableFuture<PduResponse> future) {
+        return future.thenApply(new Function<PduResponse,SubmitSmResp>() {
+            @Override
+            public SubmitSmResp apply(PduResponse response) {
+                try {
+                    SmppSessionUtil.assertExpectedResponse(request, response);
+                } catch (RecoverablePduException e) {
+                    throw new CompletionException(e);
+                } catch (UnrecoverablePduException e) {
+                    throw new CompletionException(e);
+                }
+                return (SubmitSmResp)response;
+            }
+        });
+    }
+    
     protected void assertValidRequest(PduRequest request) throws NullPointerException, RecoverablePduException, UnrecoverablePduException {
         if (request == null) {
             throw new NullPointerException("PDU request cannot be null");
@@ -500,17 +653,27 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
         ChannelBuffer buffer = transcoder.encode(pdu);
 
         WindowFuture<Integer,PduRequest,PduResponse> future = null;
+        Object offeredEvent = SmppFlightRecorder.beginWindowOffered();
         try {
             future = sendWindow.offer(pdu.getSequenceNumber(), pdu, timeoutMillis, configuration.getRequestExpiryTimeout(), synchronous);
         } catch (DuplicateKeyException e) {
+            releaseBuffer(buffer);
             throw new UnrecoverablePduException(e.getMessage(), e);
         } catch (OfferTimeoutException e) {
+            releaseBuffer(buffer);
             throw new SmppTimeoutException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            releaseBuffer(buffer);
+            throw e;
+        }
+        if (offeredEvent != null) {
+            SmppFlightRecorder.commitWindowOffered(offeredEvent, configuration.getName(), pdu.getCommandId(), pdu.getSequenceNumber(), sendWindow.getSize());
         }
         
         if(this.sessionHandler instanceof SmppSessionListener) {
             if(!((SmppSessionListener)this.sessionHandler).firePduDispatch(pdu)) {
                 logger.info("dispatched request PDU discarded: {}", pdu);
+                releaseBuffer(buffer);
                 future.cancel(); //@todo probably throwing exception here is better solution?
                 return future;
             }
@@ -527,7 +690,7 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
         }
 
         // write the pdu out & wait timeout amount of time
-	ChannelFuture channelFuture = this.channel.write(buffer).await();
+	ChannelFuture channelFuture = writeBufferAndWait(pdu.getCommandId(), pdu.getSequenceNumber(), buffer);
 
         // check if the write was a success
         if (!channelFuture.isSuccess()) {
@@ -540,6 +703,122 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
         return future;
     }
 
+    @Override
+    public CompletableFuture<PduResponse> sendRequestAsync(final PduRequest pdu, long timeoutMillis) throws RecoverablePduException, UnrecoverablePduException, SmppTimeoutException, SmppChannelException, InterruptedException {
+        if (!this.channel.isConnected()) {
+            throw new SmppChannelException("Unable to send request: channel is not connected");
+        }
+        
+        // assign the next PDU sequence # if its not yet assigned
+        if (!pdu.hasSequenceNumberAssigned()) {
+            pdu.setSequenceNumber(this.sequenceNumber.next());
+        }
+
+        // encode the pdu into a buffer
+        ChannelBuffer buffer = transcoder.encode(pdu);
+
+        return sendEncodedRequestAsync(pdu, pdu.getSequenceNumber(), buffer, timeoutMillis);
+    }
+
+    /**
+     * Sends a request encoded once for many sessions (see
+     * DefaultSmppServer.broadcastAsync()).  The next sequence number of this
+     * session is written into a copy of the header, which is written out
+     * together with a slice of the shared body.  The request itself is added to
+     * the window under that sequence number (its own sequence number is not
+     * changed, so it's not the one sent to this session).
+     * @param pdu The request shared by every session
+     * @param encoded The request encoded once (not modified)
+     * @param timeoutMillis The time to wait for a slot to open in the window
+     * @return A future that completes with the response
+     */
+    CompletableFuture<PduResponse> sendBroadcastRequestAsync(PduRequest pdu, ChannelBuffer encoded, long timeoutMillis) throws UnrecoverablePduException, SmppTimeoutException, SmppChannelException, InterruptedException {
+        if (!this.channel.isConnected()) {
+            throw new SmppChannelException("Unable to send request: channel is not connected");
+        }
+
+        int sequenceNumber = this.sequenceNumber.next();
+
+        // only the 16 byte header is copied per session, the body is shared
+        int index = encoded.readerIndex();
+        ChannelBuffer header = ChannelBuffers.buffer(SmppConstants.PDU_HEADER_LENGTH);
+        header.writeBytes(encoded, index, SmppConstants.PDU_HEADER_LENGTH - 4);
+        header.writeInt(sequenceNumber);
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(header, encoded.slice(index + SmppConstants.PDU_HEADER_LENGTH, encoded.readableBytes() - SmppConstants.PDU_HEADER_LENGTH));
+
+        return sendEncodedRequestAsync(pdu, sequenceNumber, buffer, timeoutMillis);
+    }
+
+    /**
+     * Adds an already encoded request to the window and writes it out without
+     * waiting for the write to finish.
+     */
+    private CompletableFuture<PduResponse> sendEncodedRequestAsync(final PduRequest pdu, final int sequenceNumber, ChannelBuffer buffer, long timeoutMillis) throws UnrecoverablePduException, SmppTimeoutException, InterruptedException {
+        // the caller is never waiting on the window future itself -- responses
+        // are routed to the returned future instead of the session handler
+        final WindowFuture<Integer,PduRequest,PduResponse> windowFuture;
+        Object offeredEvent = SmppFlightRecorder.beginWindowOffered();
+        try {
+            windowFuture = sendWindow.offer(sequenceNumber, pdu, timeoutMillis, configuration.getRequestExpiryTimeout(), false);
+        } catch (DuplicateKeyException e) {
+            releaseBuffer(buffer);
+            throw new UnrecoverablePduException(e.getMessage(), e);
+        } catch (OfferTimeoutException e) {
+            releaseBuffer(buffer);
+            throw new SmppTimeoutException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            releaseBuffer(buffer);
+            throw e;
+        }
+        if (offeredEvent != null) {
+            SmppFlightRecorder.commitWindowOffered(offeredEvent, configuration.getName(), pdu.getCommandId(), sequenceNumber, sendWindow.getSize());
+        }
+        
+        final DefaultPduRequestFuture future = new DefaultPduRequestFuture(windowFuture, this.asyncRequests);
+        this.asyncRequests.put(sequenceNumber, future);
+        
+        // the window may have expired the request before it was tracked above
+        if (windowFuture.isDone()) {
+            this.asyncRequests.remove(sequenceNumber, future);
+            releaseBuffer(buffer);
+            future.completeExceptionally(new SmppTimeoutException("Request expired before it was sent"));
+            return future;
+        }
+        
+        if(this.sessionHandler instanceof SmppSessionListener) {
+            if(!((SmppSessionListener)this.sessionHandler).firePduDispatch(pdu)) {
+                logger.info("dispatched request PDU discarded: {}", pdu);
+                this.asyncRequests.remove(sequenceNumber, future);
+                releaseBuffer(buffer);
+                future.cancel(false);
+                return future;
+            }
+        }
+
+        // we need to log the PDU after encoding since some things only happen
+        // during the encoding process such as looking up the result message
+        if (configuration.getLoggingOptions().isLogPduEnabled()) {
+            logger.info("async send PDU: {}", pdu);
+        }
+
+        // write the pdu out, but never wait for it on the calling thread
+        writeBuffer(pdu.getCommandId(), sequenceNumber, buffer).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture channelFuture) throws Exception {
+                if (channelFuture.isSuccess()) {
+                    countSendRequestPdu(pdu);
+                } else {
+                    Throwable cause = channelFuture.getCause();
+                    asyncRequests.remove(sequenceNumber, future);
+                    windowFuture.fail(cause);
+                    future.completeExceptionally(new SmppChannelException(cause == null ? "Unable to write request" : cause.getMessage(), cause));
+                }
+            }
+        });
+
+        return future;
+    }
+
     /**
      * Asynchronously sends a PDU and does not wait for a response PDU.
      * This method will wait for the PDU to be written to the underlying channel.
@@ -556,6 +835,7 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
             pdu.setSequenceNumber(this.sequenceNumber.next());
         }
         
+        // checked before encoding so a discarded response never holds a pooled buffer
         if(this.sessionHandler instanceof SmppSessionListener) {
             if(!((SmppSessionListener)this.sessionHandler).firePduDispatch(pdu)) {
                 logger.info("dispatched response PDU discarded: {}", pdu);
@@ -573,7 +853,7 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
         }
 
         // write the pdu out & wait timeout amount of time
-        ChannelFuture channelFuture = this.channel.write(buffer).await();
+        ChannelFuture channelFuture = writeBufferAndWait(pdu.getCommandId(), pdu.getSequenceNumber(), buffer);
 
         // check if the write was a success
         if (!channelFuture.isSuccess()) {
@@ -582,6 +862,110 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
         }
     }
 
+    /**
+     * Sends a response PDU without waiting for the write to finish.  Used for
+     * responses completed by an SmppSessionAsyncHandler, which may happen on
+     * any thread (including an I/O thread), and for responses returned by a
+     * handler running on a dispatcher thread.  Any failure is logged.
+     * @param pdu The response PDU to send
+     */
+    private void sendResponsePduWithoutWaiting(final PduResponse pdu) {
+        try {
+            // assign the next PDU sequence # if its not yet assigned
+            if (!pdu.hasSequenceNumberAssigned()) {
+                pdu.setSequenceNumber(this.sequenceNumber.next());
+            }
+
+            // checked before encoding so a discarded response never holds a pooled buffer
+            SmppSessionHandler handler = this.sessionHandler;
+            if (handler instanceof SmppSessionListener) {
+                if (!((SmppSessionListener)handler).firePduDispatch(pdu)) {
+                    logger.info("dispatched response PDU discarded: {}", pdu);
+                    return;
+                }
+            }
+
+            // encode the pdu into a buffer
+            ChannelBuffer buffer = transcoder.encode(pdu);
+
+            if (configuration.getLoggingOptions().isLogPduEnabled()) {
+                logger.info("send PDU: {}", pdu);
+            }
+
+            writeBuffer(pdu.getCommandId(), pdu.getSequenceNumber(), buffer).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture channelFuture) throws Exception {
+                    if (!channelFuture.isSuccess()) {
+                        logger.error("Unable to cleanly return response PDU [{}]: {}", pdu, channelFuture.getCause());
+                    }
+                }
+            });
+        } catch (Exception e) {
+            logger.error("Unable to cleanly return response PDU: {}", e);
+        }
+    }
+
+    /**
+     * Writes an encoded PDU to the channel and waits for the write to finish.
+     * A write aggregator only flushes the writes issued while reading from the
+     * channel once the read is done, so it's asked to flush right away in case
+     * this is the reading thread.
+     */
+    private ChannelFuture writeBufferAndWait(int commandId, int sequenceNumber, ChannelBuffer buffer) throws InterruptedException {
+        ChannelFuture channelFuture = writeBuffer(commandId, sequenceNumber, buffer);
+        if (this.configuration.isWriteAggregationEnabled()) {
+            SmppSessionWriteAggregator writeAggregator = (SmppSessionWriteAggregator)this.channel.getPipeline().get(SmppChannelConstants.PIPELINE_SESSION_WRITE_AGGREGATOR_NAME);
+            if (writeAggregator != null) {
+                writeAggregator.flushIfReading();
+            }
+        }
+        return channelFuture.await();
+    }
+
+    /**
+     * Returns a buffer acquired from a pool to it if the PDU it holds won't be
+     * written after all (e.g. the request didn't fit in the window).
+     */
+    static private void releaseBuffer(ChannelBuffer buffer) {
+        if (buffer instanceof PooledChannelBuffer) {
+            ((PooledChannelBuffer)buffer).release();
+        }
+    }
+
+    /**
+     * Writes an encoded PDU to the channel.  If the buffer was acquired from
+     * a pool, it's returned to the pool once the write finished.
+     */
+    private ChannelFuture writeBuffer(final int commandId, final int sequenceNumber, ChannelBuffer buffer) {
+        final Object writtenEvent = SmppFlightRecorder.beginPduWritten();
+        final int size = (writtenEvent != null ? buffer.readableBytes() : 0);
+        ChannelFuture channelFuture = this.channel.write(buffer);
+        if (buffer instanceof PooledChannelBuffer) {
+            channelFuture.addListener((PooledChannelBuffer)buffer);
+        }
+        if (writtenEvent != null) {
+            channelFuture.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    SmppFlightRecorder.commitPduWritten(writtenEvent, configuration.getName(), commandId, sequenceNumber, size, future.isSuccess());
+                }
+            });
+        }
+        return channelFuture;
+    }
+
+    @Override
+    public void firePduRequestRejected(PduRequest pdu) {
+        logger.debug("Handler queue full, answering request with a throttling error: {}", pdu);
+        this.countReceiveRequestPdu(pdu);
+        PduResponse responsePdu = pdu.createResponse();
+        responsePdu.setCommandStatus(SmppConstants.STATUS_THROTTLED);
+        pdu.release();
+        this.countSendResponsePdu(responsePdu, 0, 0);
+        // called on the I/O thread -- never wait for the write
+        this.sendResponsePduWithoutWaiting(responsePdu);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public void firePduReceived(Pdu pdu) {
@@ -598,20 +982,75 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
 
         if (pdu instanceof PduRequest) {
             // process this request and allow the handler to return a result
-            PduRequest requestPdu = (PduRequest)pdu;
+            final PduRequest requestPdu = (PduRequest)pdu;
             
             this.countReceiveRequestPdu(requestPdu);
             
-            long startTime = System.currentTimeMillis();
+            final long startTime = System.currentTimeMillis();
+
+            // an async handler completes the response later (from any thread)
+            Object invokedEvent = SmppFlightRecorder.beginHandlerInvoked();
+            if (this.sessionHandler instanceof SmppSessionAsyncHandler) {
+                CompletionStage<PduResponse> responseStage = ((SmppSessionAsyncHandler)this.sessionHandler).firePduRequestReceivedAsync(requestPdu);
+                if (invokedEvent != null) {
+                    SmppFlightRecorder.commitHandlerInvoked(invokedEvent, configuration.getName(), requestPdu.getCommandId(), requestPdu.getSequenceNumber(), true);
+                }
+                if (responseStage != null) {
+                    responseStage.whenComplete(new BiConsumer<PduResponse,Throwable>() {
+                        @Override
+                        public void accept(PduResponse responsePdu, Throwable t) {
+                            if (t != null) {
+                                // the peer is still waiting -- the request fails with a system error
+                                responsePdu = requestPdu.createResponse();
+                                responsePdu.setCommandStatus(SmppConstants.STATUS_SYSERR);
+                            }
+                            requestPdu.release();
+                            // may complete on any thread after the session was destroyed
+                            if (sessionHandler == null) {
+                                logger.debug("Session destroyed before async handler completed request: {}", requestPdu);
+                                return;
+                            }
+                            if (t != null) {
+                                fireExceptionThrown((t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t);
+                            }
+                            if (responsePdu != null) {
+                                long responseTime = System.currentTimeMillis() - startTime;
+                                SmppFlightRecorder.handlerCompleted(configuration.getName(), responsePdu.getCommandId(), responsePdu.getSequenceNumber(), responsePdu.getCommandStatus(), responseTime);
+                                countSendResponsePdu(responsePdu, responseTime, responseTime);
+                                sendResponsePduWithoutWaiting(responsePdu);
+                            }
+                        }
+                    });
+                } else {
+                    requestPdu.release();
+                }
+                return;
+            }
+
             PduResponse responsePdu = this.sessionHandler.firePduRequestReceived(requestPdu);
+            if (invokedEvent != null) {
+                SmppFlightRecorder.commitHandlerInvoked(invokedEvent, configuration.getName(), requestPdu.getCommandId(), requestPdu.getSequenceNumber(), false);
+            }
+
+            // the handler is done with the request (a noop unless lazily decoded)
+            requestPdu.release();
             
             // if the handler returned a non-null object, then we need to send it back on the channel
             if (responsePdu != null) {
                 try {
                     long responseTime = System.currentTimeMillis() - startTime;
+                    SmppFlightRecorder.handlerCompleted(configuration.getName(), responsePdu.getCommandId(), responsePdu.getSequenceNumber(), responsePdu.getCommandStatus(), responseTime);
                     this.countSendResponsePdu(responsePdu, responseTime, responseTime);
                     
-                    this.sendResponsePdu(responsePdu);
+                    if (this.configuration.isHandlerDispatchEnabled() || this.configuration.isWriteAggregationEnabled()) {
+                        // waiting for the write would hold up the next request of
+                        // this session until a write aggregator flushed (on the I/O
+                        // thread that's once the read is done) -- writes are still
+                        // issued in order by this thread
+                        this.sendResponsePduWithoutWaiting(responsePdu);
+                    } else {
+                        this.sendResponsePdu(responsePdu);
+                    }
                 } catch (Exception e) {
                     logger.error("Unable to cleanly return response PDU: {}", e);
                 }
@@ -621,56 +1060,64 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
             PduResponse responsePdu = (PduResponse)pdu;
             int receivedPduSeqNum = pdu.getSequenceNumber();
             
-            try {
-                // see if a correlating request exists in the window
-                WindowFuture<Integer,PduRequest,PduResponse> future = this.sendWindow.complete(receivedPduSeqNum, responsePdu);
-                if (future != null) {
-                    logger.trace("Found a future in the window for seqNum [{}]", receivedPduSeqNum);
-                    this.countReceiveResponsePdu(responsePdu, future.getOfferToAcceptTime(), future.getAcceptToDoneTime(), (future.getAcceptToDoneTime() / future.getWindowSize()));
-                    
-                    // if this isn't null, we found a match to a request
-                    int callerStateHint = future.getCallerStateHint();
-                    //logger.trace("IsCallerWaiting? " + future.isCallerWaiting() + " callerStateHint=" + callerStateHint);
-                    if (callerStateHint == WindowFuture.CALLER_WAITING) {
-                        logger.trace("Caller waiting for request: {}", future.getRequest()); 
-                        // if a caller is waiting, nothing extra needs done as calling thread will handle the response
-                        return;
-                    } else if (callerStateHint == WindowFuture.CALLER_NOT_WAITING) {
-                        logger.trace("Caller not waiting for request: {}", future.getRequest()); 
-                        // this was an "expected" response - wrap it into an async response
-                        this.sessionHandler.fireExpectedPduResponseReceived(new DefaultPduAsyncResponse(future));
+            // see if a correlating request exists in the window
+            WindowFuture<Integer,PduRequest,PduResponse> future = this.sendWindow.complete(receivedPduSeqNum, responsePdu);
+            if (future != null) {
+                logger.trace("Found a future in the window for seqNum [{}]", receivedPduSeqNum);
+                this.countReceiveResponsePdu(responsePdu, future.getOfferToAcceptTime(), future.getAcceptToDoneTime(), (future.getAcceptToDoneTime() / future.getWindowSize()));
+                SmppFlightRecorder.responseMatched(configuration.getName(), responsePdu.getCommandId(), receivedPduSeqNum, responsePdu.getCommandStatus(), future.getOfferToAcceptTime(), future.getAcceptToDoneTime());
+                
+                // if this isn't null, we found a match to a request
+                int callerStateHint = future.getCallerStateHint();
+                //logger.trace("IsCallerWaiting? " + future.isCallerWaiting() + " callerStateHint=" + callerStateHint);
+                if (callerStateHint == WindowFuture.CALLER_WAITING) {
+                    logger.trace("Caller waiting for request: {}", future.getRequest()); 
+                    // if a caller is waiting, nothing extra needs done as calling thread will handle the response
+                    return;
+                } else if (callerStateHint == WindowFuture.CALLER_NOT_WAITING) {
+                    logger.trace("Caller not waiting for request: {}", future.getRequest()); 
+                    // was this request sent via the non-blocking api?
+                    DefaultPduRequestFuture requestFuture = this.asyncRequests.remove(receivedPduSeqNum);
+                    if (requestFuture != null) {
+                        requestFuture.complete(responsePdu);
                         return;
-                    } else {
-                        logger.trace("Caller timed out waiting for request: {}", future.getRequest());
-                        // we send the request, but caller gave up on it awhile ago
-                        this.sessionHandler.fireUnexpectedPduResponseReceived(responsePdu);
                     }
+                    // this was an "expected" response - wrap it into an async response
+                    this.sessionHandler.fireExpectedPduResponseReceived(new DefaultPduAsyncResponse(future));
+                    return;
                 } else {
-                    this.countReceiveResponsePdu(responsePdu, 0, 0, 0);
-                    
-                    // original request either expired OR was completely unexpected
+                    logger.trace("Caller timed out waiting for request: {}", future.getRequest());
+                    // we send the request, but caller gave up on it awhile ago
                     this.sessionHandler.fireUnexpectedPduResponseReceived(responsePdu);
                 }
-            } catch (InterruptedException e) {
-                logger.warn("Interrupted while attempting to process response PDU and match it to a request via requesWindow: ", e);
-                // do nothing, continue processing
+            } else {
+                this.countReceiveResponsePdu(responsePdu, 0, 0, 0);
+                
+                // original request either expired OR was completely unexpected
+                this.sessionHandler.fireUnexpectedPduResponseReceived(responsePdu);
             }
         }
     }
 
     @Override
     public void fireExceptionThrown(Throwable t) {
+        // null once the session was destroyed
+        SmppSessionHandler handler = this.sessionHandler;
+        if (handler == null) {
+            logger.debug("Session was destroyed, ignoring exception thrown: {}", t);
+            return;
+        }
         if (t instanceof UnrecoverablePduException) {
-            this.sessionHandler.fireUnrecoverablePduException((UnrecoverablePduException)t);
+            handler.fireUnrecoverablePduException((UnrecoverablePduException)t);
         } else if (t instanceof RecoverablePduException) {
-            this.sessionHandler.fireRecoverablePduException((RecoverablePduException)t);
+            handler.fireRecoverablePduException((RecoverablePduException)t);
         } else {
             // during testing under high load -- java.io.IOException: Connection reset by peer
             // let's check to see if this session was requested to be closed
             if (isUnbinding() || isClosed()) {
                 logger.debug("Unbind/close was requested, ignoring exception thrown: {}", t);
             } else {
-                this.sessionHandler.fireUnknownThrowable(t);
+                handler.fireUnknownThrowable(t);
             }
         }
     }
@@ -701,6 +1148,9 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
                 }
             }
         }
+        
+        // requests sent via the non-blocking api never have a waiting caller
+        failAsyncRequests(new SmppChannelException("Channel was closed after sending request, but before receiving response", new ClosedChannelException()));
 
         // we need to check if this "unexpected" or "expected" based on whether
         // this session's unbind() or close() methods triggered a close request
@@ -715,147 +1165,189 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
     @Override
     public void expired(WindowFuture<Integer, PduRequest, PduResponse> future) {
         this.countSendRequestPduExpired(future.getRequest());
+        SmppFlightRecorder.requestExpired(configuration.getName(), future.getRequest().getCommandId(), future.getKey(), configuration.getRequestExpiryTimeout());
+        DefaultPduRequestFuture requestFuture = this.asyncRequests.remove(future.getKey());
+        if (requestFuture != null) {
+            requestFuture.completeExceptionally(new SmppTimeoutException("Request expired without receiving a response within [" + configuration.getRequestExpiryTimeout() + " ms]"));
+        }
         this.sessionHandler.firePduRequestExpired(future.getRequest());
     }
+    
+    private void failAsyncRequests(Throwable cause) {
+        Iterator<DefaultPduRequestFuture> it = this.asyncRequests.values().iterator();
+        while (it.hasNext()) {
+            DefaultPduRequestFuture requestFuture = it.next();
+            it.remove();
+            try {
+                requestFuture.getWindowFuture().fail(cause);
+            } catch (Exception e) { }
+            requestFuture.completeExceptionally(cause);
+        }
+    }
 
     private void countSendRequestPdu(PduRequest pdu) {
-        if (this.counters == null) {
-            return;     // noop
+        if (this.counters != null) {
+            countSendRequestPdu(this.counters, pdu);
         }
-        
+        if (this.serverCounters != null) {
+            countSendRequestPdu(this.serverCounters, pdu);
+        }
+    }
+
+    static private void countSendRequestPdu(DefaultSmppSessionCounters counters, PduRequest pdu) {
         if (pdu.isRequest()) {
             switch (pdu.getCommandId()) {
                 case SmppConstants.CMD_ID_SUBMIT_SM:
-                    this.counters.getTxSubmitSM().incrementRequestAndGet();
+                    counters.getTxSubmitSM().incrementRequest();
                     break;
                 case SmppConstants.CMD_ID_DELIVER_SM:
-                    this.counters.getTxDeliverSM().incrementRequestAndGet();
+                    counters.getTxDeliverSM().incrementRequest();
                     break;
                 case SmppConstants.CMD_ID_DATA_SM:
-                    this.counters.getTxDataSM().incrementRequestAndGet();
+                    counters.getTxDataSM().incrementRequest();
                     break;
                 case SmppConstants.CMD_ID_ENQUIRE_LINK:
-                    this.counters.getTxEnquireLink().incrementRequestAndGet();
+                    counters.getTxEnquireLink().incrementRequest();
                     break;
             }
         }
     }
     
     private void countSendResponsePdu(PduResponse pdu, long responseTime, long estimatedProcessingTime) {
-        if (this.counters == null) {
-            return;     // noop
+        if (this.counters != null) {
+            countSendResponsePdu(this.counters, pdu, responseTime, estimatedProcessingTime);
         }
-        
+        if (this.serverCounters != null) {
+            countSendResponsePdu(this.serverCounters, pdu, responseTime, estimatedProcessingTime);
+        }
+    }
+
+    static private void countSendResponsePdu(DefaultSmppSessionCounters counters, PduResponse pdu, long responseTime, long estimatedProcessingTime) {
         if (pdu.isResponse()) {
             switch (pdu.getCommandId()) {
                 case SmppConstants.CMD_ID_SUBMIT_SM_RESP:
-                    this.counters.getRxSubmitSM().incrementResponseAndGet();
-                    this.counters.getRxSubmitSM().addRequestResponseTimeAndGet(responseTime);
-                    this.counters.getRxSubmitSM().addRequestEstimatedProcessingTimeAndGet(estimatedProcessingTime);
-                    this.counters.getRxSubmitSM().getResponseCommandStatusCounter().incrementAndGet(pdu.getCommandStatus());
+                    counters.getRxSubmitSM().incrementResponse();
+                    counters.getRxSubmitSM().addRequestResponseTime(responseTime);
+                    counters.getRxSubmitSM().addRequestEstimatedProcessingTime(estimatedProcessingTime);
+                    counters.getRxSubmitSM().getResponseCommandStatusCounter().increment(pdu.getCommandStatus());
                     break;
                 case SmppConstants.CMD_ID_DELIVER_SM_RESP:
-                    this.counters.getRxDeliverSM().incrementResponseAndGet();
-                    this.counters.getRxDeliverSM().addRequestResponseTimeAndGet(responseTime);
-                    this.counters.getRxDeliverSM().addRequestEstimatedProcessingTimeAndGet(estimatedProcessingTime);
-                    this.counters.getRxDeliverSM().getResponseCommandStatusCounter().incrementAndGet(pdu.getCommandStatus());
+                    counters.getRxDeliverSM().incrementResponse();
+                    counters.getRxDeliverSM().addRequestResponseTime(responseTime);
+                    counters.getRxDeliverSM().addRequestEstimatedProcessingTime(estimatedProcessingTime);
+                    counters.getRxDeliverSM().getResponseCommandStatusCounter().increment(pdu.getCommandStatus());
                     break;
                 case SmppConstants.CMD_ID_DATA_SM_RESP:
-                    this.counters.getRxDataSM().incrementResponseAndGet();
-                    this.counters.getRxDataSM().addRequestResponseTimeAndGet(responseTime);
-                    this.counters.getRxDataSM().addRequestEstimatedProcessingTimeAndGet(estimatedProcessingTime);
-                    this.counters.getRxDataSM().getResponseCommandStatusCounter().incrementAndGet(pdu.getCommandStatus());
+                    counters.getRxDataSM().incrementResponse();
+                    counters.getRxDataSM().addRequestResponseTime(responseTime);
+                    counters.getRxDataSM().addRequestEstimatedProcessingTime(estimatedProcessingTime);
+                    counters.getRxDataSM().getResponseCommandStatusCounter().increment(pdu.getCommandStatus());
                     break;
                 case SmppConstants.CMD_ID_ENQUIRE_LINK_RESP:
-                    this.counters.getRxEnquireLink().incrementResponseAndGet();
-                    this.counters.getRxEnquireLink().addRequestResponseTimeAndGet(responseTime);
-                    this.counters.getRxEnquireLink().addRequestEstimatedProcessingTimeAndGet(estimatedProcessingTime);
-                    this.counters.getRxEnquireLink().getResponseCommandStatusCounter().incrementAndGet(pdu.getCommandStatus());
+                    counters.getRxEnquireLink().incrementResponse();
+                    counters.getRxEnquireLink().addRequestResponseTime(responseTime);
+                    counters.getRxEnquireLink().addRequestEstimatedProcessingTime(estimatedProcessingTime);
+                    counters.getRxEnquireLink().getResponseCommandStatusCounter().increment(pdu.getCommandStatus());
                     break;
             }
         }
     }
     
     private void countSendRequestPduExpired(PduRequest pdu) {
-        if (this.counters == null) {
-            return;     // noop
+        if (this.counters != null) {
+            countSendRequestPduExpired(this.counters, pdu);
         }
-        
+        if (this.serverCounters != null) {
+            countSendRequestPduExpired(this.serverCounters, pdu);
+        }
+    }
+
+    static private void countSendRequestPduExpired(DefaultSmppSessionCounters counters, PduRequest pdu) {
         if (pdu.isRequest()) {
             switch (pdu.getCommandId()) {
                 case SmppConstants.CMD_ID_SUBMIT_SM:
-                    this.counters.getTxSubmitSM().incrementRequestExpiredAndGet();
+                    counters.getTxSubmitSM().incrementRequestExpired();
                     break;
                 case SmppConstants.CMD_ID_DELIVER_SM:
-                    this.counters.getTxDeliverSM().incrementRequestExpiredAndGet();
+                    counters.getTxDeliverSM().incrementRequestExpired();
                     break;
                 case SmppConstants.CMD_ID_DATA_SM:
-                    this.counters.getTxDataSM().incrementRequestExpiredAndGet();
+                    counters.getTxDataSM().incrementRequestExpired();
                     break;
                 case SmppConstants.CMD_ID_ENQUIRE_LINK:
-                    this.counters.getTxEnquireLink().incrementRequestExpiredAndGet();
+                    counters.getTxEnquireLink().incrementRequestExpired();
                     break;
             }
         }
     }
     
     private void countReceiveRequestPdu(PduRequest pdu) {
-        if (this.counters == null) {
-            return;     // noop
+        if (this.counters != null) {
+            countReceiveRequestPdu(this.counters, pdu);
         }
-        
+        if (this.serverCounters != null) {
+            countReceiveRequestPdu(this.serverCounters, pdu);
+        }
+    }
+
+    static private void countReceiveRequestPdu(DefaultSmppSessionCounters counters, PduRequest pdu) {
         if (pdu.isRequest()) {
             switch (pdu.getCommandId()) {
                 case SmppConstants.CMD_ID_SUBMIT_SM:
-                    this.counters.getRxSubmitSM().incrementRequestAndGet();
+                    counters.getRxSubmitSM().incrementRequest();
                     break;
                 case SmppConstants.CMD_ID_DELIVER_SM:
-                    this.counters.getRxDeliverSM().incrementRequestAndGet();
+                    counters.getRxDeliverSM().incrementRequest();
                     break;
                 case SmppConstants.CMD_ID_DATA_SM:
-                    this.counters.getRxDataSM().incrementRequestAndGet();
+                    counters.getRxDataSM().incrementRequest();
                     break;
                 case SmppConstants.CMD_ID_ENQUIRE_LINK:
-                    this.counters.getRxEnquireLink().incrementRequestAndGet();
+                    counters.getRxEnquireLink().incrementRequest();
                     break;
             }
         }
     }
     
     private void countReceiveResponsePdu(PduResponse pdu, long waitTime, long responseTime, long estimatedProcessingTime) {
-        if (this.counters == null) {
-            return;     // noop
+        if (this.counters != null) {
+            countReceiveResponsePdu(this.counters, pdu, waitTime, responseTime, estimatedProcessingTime);
         }
-        
+        if (this.serverCounters != null) {
+            countReceiveResponsePdu(this.serverCounters, pdu, waitTime, responseTime, estimatedProcessingTime);
+        }
+    }
+
+    static private void countReceiveResponsePdu(DefaultSmppSessionCounters counters, PduResponse pdu, long waitTime, long responseTime, long estimatedProcessingTime) {
         if (pdu.isResponse()) {
             switch (pdu.getCommandId()) {
                 case SmppConstants.CMD_ID_SUBMIT_SM_RESP:
-                    this.counters.getTxSubmitSM().incrementResponseAndGet();
-                    this.counters.getTxSubmitSM().addRequestWaitTimeAndGet(waitTime);
-                    this.counters.getTxSubmitSM().addRequestResponseTimeAndGet(responseTime);
-                    this.counters.getTxSubmitSM().addRequestEstimatedProcessingTimeAndGet(estimatedProcessingTime);
-                    this.counters.getTxSubmitSM().getResponseCommandStatusCounter().incrementAndGet(pdu.getCommandStatus());
+                    counters.getTxSubmitSM().incrementResponse();
+                    counters.getTxSubmitSM().addRequestWaitTime(waitTime);
+                    counters.getTxSubmitSM().addRequestResponseTime(responseTime);
+                    counters.getTxSubmitSM().addRequestEstimatedProcessingTime(estimatedProcessingTime);
+                    counters.getTxSubmitSM().getResponseCommandStatusCounter().increment(pdu.getCommandStatus());
                     break;
                 case SmppConstants.CMD_ID_DELIVER_SM_RESP:
-                    this.counters.getTxDeliverSM().incrementResponseAndGet();
-                    this.counters.getTxDeliverSM().addRequestWaitTimeAndGet(waitTime);
-                    this.counters.getTxDeliverSM().addRequestResponseTimeAndGet(responseTime);
-                    this.counters.getTxDeliverSM().addRequestEstimatedProcessingTimeAndGet(estimatedProcessingTime);
-                    this.counters.getTxDeliverSM().getResponseCommandStatusCounter().incrementAndGet(pdu.getCommandStatus());
+                    counters.getTxDeliverSM().incrementResponse();
+                    counters.getTxDeliverSM().addRequestWaitTime(waitTime);
+                    counters.getTxDeliverSM().addRequestResponseTime(responseTime);
+                    counters.getTxDeliverSM().addRequestEstimatedProcessingTime(estimatedProcessingTime);
+                    counters.getTxDeliverSM().getResponseCommandStatusCounter().increment(pdu.getCommandStatus());
                     break;
                 case SmppConstants.CMD_ID_DATA_SM_RESP:
-                    this.counters.getTxDataSM().incrementResponseAndGet();
-                    this.counters.getTxDataSM().addRequestWaitTimeAndGet(waitTime);
-                    this.counters.getTxDataSM().addRequestResponseTimeAndGet(responseTime);
-                    this.counters.getTxDataSM().addRequestEstimatedProcessingTimeAndGet(estimatedProcessingTime);
-                    this.counters.getTxDataSM().getResponseCommandStatusCounter().incrementAndGet(pdu.getCommandStatus());
+                    counters.getTxDataSM().incrementResponse();
+                    counters.getTxDataSM().addRequestWaitTime(waitTime);
+                    counters.getTxDataSM().addRequestResponseTime(responseTime);
+                    counters.getTxDataSM().addRequestEstimatedProcessingTime(estimatedProcessingTime);
+                    counters.getTxDataSM().getResponseCommandStatusCounter().increment(pdu.getCommandStatus());
                     break;
                 case SmppConstants.CMD_ID_ENQUIRE_LINK_RESP:
-                    this.counters.getTxEnquireLink().incrementResponseAndGet();
-                    this.counters.getTxEnquireLink().addRequestWaitTimeAndGet(waitTime);
-                    this.counters.getTxEnquireLink().addRequestResponseTimeAndGet(responseTime);
-                    this.counters.getTxEnquireLink().addRequestEstimatedProcessingTimeAndGet(estimatedProcessingTime);
-                    this.counters.getTxEnquireLink().getResponseCommandStatusCounter().incrementAndGet(pdu.getCommandStatus());
+                    counters.getTxEnquireLink().incrementResponse();
+                    counters.getTxEnquireLink().addRequestWaitTime(waitTime);
+                    counters.getTxEnquireLink().addRequestResponseTime(responseTime);
+                    counters.getTxEnquireLink().addRequestEstimatedProcessingTime(estimatedProcessingTime);
+                    counters.getTxEnquireLink().getResponseCommandStatusCounter().increment(pdu.getCommandStatus());
                     break;
             }
         }
@@ -903,7 +1395,12 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
     @Override
     public String getLocalAddressAndPort() {
         if (this.channel != null) {
-            InetSocketAddress addr = (InetSocketAddress)this.channel.getLocalAddress();
+            SocketAddress address = this.channel.getLocalAddress();
+            if (!(address instanceof InetSocketAddress)) {
+                // e.g. a local (in-VM) address
+                return String.valueOf(address);
+            }
+            InetSocketAddress addr = (InetSocketAddress)address;
             return addr.getAddress().getHostAddress() + ":" + addr.getPort();
         } else {
             return null;
@@ -913,7 +1410,12 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
     @Override
     public String getRemoteAddressAndPort() {
         if (this.channel != null) {
-            InetSocketAddress addr = (InetSocketAddress)this.channel.getRemoteAddress();
+            SocketAddress address = this.channel.getRemoteAddress();
+            if (!(address instanceof InetSocketAddress)) {
+                // e.g. a local (in-VM) address
+                return String.valueOf(address);
+            }
+            InetSocketAddress addr = (InetSocketAddress)address;
             return addr.getAddress().getHostAddress() + ":" + addr.getPort();
         } else {
             return null;
@@ -1021,6 +1523,69 @@ public class DefaultSmppSession implements SmppServerSession, SmppSessionChannel
     public String getTxSubmitSMCounter() {
         return hasCounters() ? this.counters.getTxSubmitSM().toString() : null;
     }
+
+    @Override
+    public String getRxDataSMLatency() {
+        return hasCounters() ? this.counters.getRxDataSM().toLatencyString(false) : null;
+    }
+
+    @Override
+    public String getRxDeliverSMLatency() {
+        return hasCounters() ? this.counters.getRxDeliverSM().toLatencyString(false) : null;
+    }
+
+    @Override
+    public String getRxEnquireLinkLatency() {
+        return hasCounters() ? this.counters.getRxEnquireLink().toLatencyString(false) : null;
+    }
+
+    @Override
+    public String getRxSubmitSMLatency() {
+        return hasCounters() ? this.counters.getRxSubmitSM().toLatencyString(false) : null;
+    }
+
+    @Override
+    public String getTxDataSMLatency() {
+        return hasCounters() ? this.counters.getTxDataSM().toLatencyString(false) : null;
+    }
+
+    @Override
+    public String getTxDeliverSMLatency() {
+        return hasCounters() ? this.counters.getTxDeliverSM().toLatencyString(false) : null;
+    }
+
+    @Override
+    public String getTxEnquireLinkLatency() {
+        return hasCounters() ? this.counters.getTxEnquireLink().toLatencyString(false) : null;
+    }
+
+    @Override
+    public String getTxSubmitSMLatency() {
+        return hasCounters() ? this.counters.getTxSubmitSM().toLatencyString(false) : null;
+    }
+
+    /**
+     * Dumps the latency percentiles of every command type since the last
+     * dump (or reset) and resets the histograms, e.g. to poll the latencies
+     * of each interval over JMX.
+     * @return The latencies of each command type
+     */
+    @Override
+    public String[] dumpLatencyAndReset() {
+        if (!hasCounters()) {
+            return new String[0];
+        }
+        return new String[] {
+            "rxDataSM=" + this.counters.getRxDataSM().toLatencyString(true),
+            "rxDeliverSM=" + this.counters.getRxDeliverSM().toLatencyString(true),
+            "rxEnquireLink=" + this.counters.getRxEnquireLink().toLatencyString(true),
+            "rxSubmitSM=" + this.counters.getRxSubmitSM().toLatencyString(true),
+            "txDataSM=" + this.counters.getTxDataSM().toLatencyString(true),
+            "txDeliverSM=" + this.counters.getTxDeliverSM().toLatencyString(true),
+            "txEnquireLink=" + this.counters.getTxEnquireLink().toLatencyString(true),
+            "txSubmitSM=" + this.counters.getTxSubmitSM().toLatencyString(true)
+        };
+    }
     
     @Override
     public void enableLogBytes() {
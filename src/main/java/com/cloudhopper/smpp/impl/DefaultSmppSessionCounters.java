@@ -41,14 +41,23 @@ public class DefaultSmppSessionCounters implements SmppSessionCounters {
     private ConcurrentCommandCounter rxDataSM;
     
     public DefaultSmppSessionCounters() {
-        this.txSubmitSM = new ConcurrentCommandCounter();
-        this.txDeliverSM = new ConcurrentCommandCounter();
-        this.txEnquireLink = new ConcurrentCommandCounter();
-        this.txDataSM = new ConcurrentCommandCounter();
-        this.rxSubmitSM = new ConcurrentCommandCounter();
-        this.rxDeliverSM = new ConcurrentCommandCounter();
-        this.rxEnquireLink = new ConcurrentCommandCounter();
-        this.rxDataSM = new ConcurrentCommandCounter();
+        this(true);
+    }
+
+    /**
+     * Creates new counters.
+     * @param latencyHistogramsEnabled False to only count and sum the times
+     *      of each command (see ConcurrentCommandCounter)
+     */
+    public DefaultSmppSessionCounters(boolean latencyHistogramsEnabled) {
+        this.txSubmitSM = new ConcurrentCommandCounter(latencyHistogramsEnabled);
+        this.txDeliverSM = new ConcurrentCommandCounter(latencyHistogramsEnabled);
+        this.txEnquireLink = new ConcurrentCommandCounter(latencyHistogramsEnabled);
+        this.txDataSM = new ConcurrentCommandCounter(latencyHistogramsEnabled);
+        this.rxSubmitSM = new ConcurrentCommandCounter(latencyHistogramsEnabled);
+        this.rxDeliverSM = new ConcurrentCommandCounter(latencyHistogramsEnabled);
+        this.rxEnquireLink = new ConcurrentCommandCounter(latencyHistogramsEnabled);
+        this.rxDataSM = new ConcurrentCommandCounter(latencyHistogramsEnabled);
     }
     
     @Override
@@ -0,0 +1,606 @@
+package com.cloudhopper.smpp.impl;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.commons.util.windowing.DuplicateKeyException;
+import com.cloudhopper.commons.util.windowing.OfferTimeoutException;
+import com.cloudhopper.commons.util.windowing.PendingOfferAbortedException;
+import com.cloudhopper.commons.util.windowing.Window;
+import com.cloudhopper.commons.util.windowing.WindowFuture;
+import com.cloudhopper.commons.util.windowing.WindowListener;
+import com.cloudhopper.smpp.pdu.PduRequest;
+import com.cloudhopper.smpp.pdu.PduResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.jboss.netty.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SMPP-specific send window keyed directly by the int sequence number of a
+ * request.  Futures are stored in an open-addressed slot array (at least twice
+ * the window size, rounded up to a power of 2) indexed by the sequence number.
+ * Since sequence numbers are handed out sequentially, a request will nearly
+ * always land in its "home" slot and lookups are a single array read.
+ * 
+ * Slots are claimed and released with a CAS and the window size is enforced
+ * with a semaphore, so senders and the I/O thread completing responses never
+ * share a lock.  The thread that removes a future from its slot is the only
+ * one allowed to mark it done.  Concurrent offers of the same sequence number
+ * are resolved while claiming a slot, so only one of them is ever accepted.
+ * 
+ * Expiry of requests is either done by a periodic monitor that scans the
+ * window or, if an expiry timer is provided, by registering each request's
+ * deadline with the timer (usually a HashedWheelTimer shared by every session
+ * of a server or client).  With a timer, each request is expired in O(1)
+ * without any scans of the window.
+ * 
+ * This class extends Window so it can be returned from
+ * SmppSession.getSendWindow() without changing its signature.  All public
+ * methods of Window are overridden -- none of the state in the superclass is
+ * used.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class SendWindow extends Window<Integer,PduRequest,PduResponse> {
+    private static final Logger logger = LoggerFactory.getLogger(SendWindow.class);
+
+    // how often a pending offer re-checks whether it was aborted
+    private static final long ABORT_CHECK_INTERVAL_MILLIS = 100;
+
+    private final int maxSize;
+    private final int mask;
+    private final AtomicReferenceArray<SendWindowFuture> slots;
+    // largest distance from its home slot any future was ever stored at
+    private final AtomicInteger maxProbe;
+    private final AtomicInteger size;
+    private final Semaphore permits;
+    private final AtomicInteger pendingOffers;
+    private final AtomicInteger abortEpoch;
+    private final CopyOnWriteArrayList<WindowListener<Integer,PduRequest,PduResponse>> listeners;
+    // monitoring
+    private final ScheduledExecutorService executor;
+    private final long monitorInterval;
+    private final Timer expiryTimer;
+    private final String monitorThreadName;
+    private ScheduledFuture<?> monitorHandle;
+
+    /**
+     * Creates a new send window with the specified max window size.  This
+     * constructor does not enable any automatic expiry of requests.
+     * @param size The maximum number of requests permitted to be outstanding
+     *      in this window at any given time.
+     */
+    public SendWindow(int size) {
+        this(size, null, 0, null, null, null);
+    }
+
+    /**
+     * Creates a new send window with the specified max window size.  If the
+     * executor is not null, requests with an expiry timestamp will be
+     * periodically checked and cancelled, with each listener notified of
+     * the expired request.
+     * @param size The maximum number of requests permitted to be outstanding
+     *      in this window at any given time.
+     * @param executor The scheduled executor service to execute the monitor
+     *      on or null to disable monitoring.
+     * @param monitorInterval The number of milliseconds between executions
+     *      of the monitor.
+     * @param listener A listener to add to this window or null.
+     * @param monitorThreadName The name the executing thread will be renamed
+     *      to while the monitor is running or null to not rename it.
+     */
+    public SendWindow(int size, ScheduledExecutorService executor, long monitorInterval, WindowListener<Integer,PduRequest,PduResponse> listener, String monitorThreadName) {
+        this(size, executor, monitorInterval, null, listener, monitorThreadName);
+    }
+
+    /**
+     * Creates a new send window with the specified max window size where
+     * requests with an expiry timeout register their deadline with the timer.
+     * Each listener is notified of expired requests on the executor so that
+     * slow listeners never delay the timer.
+     * @param size The maximum number of requests permitted to be outstanding
+     *      in this window at any given time.
+     * @param expiryTimer The timer to register expiry deadlines with
+     * @param executor The executor to notify listeners of expired requests
+     *      on or null to notify them on the timer thread.
+     * @param listener A listener to add to this window or null.
+     * @param monitorThreadName The name the executing thread will be renamed
+     *      to while listeners are notified or null to not rename it.
+     */
+    public SendWindow(int size, Timer expiryTimer, ScheduledExecutorService executor, WindowListener<Integer,PduRequest,PduResponse> listener, String monitorThreadName) {
+        this(size, executor, 0, expiryTimer, listener, monitorThreadName);
+    }
+
+    private SendWindow(int size, ScheduledExecutorService executor, long monitorInterval, Timer expiryTimer, WindowListener<Integer,PduRequest,PduResponse> listener, String monitorThreadName) {
+        // superclass is only created to satisfy the type of getSendWindow()
+        super(1);
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be > 0");
+        }
+        this.maxSize = size;
+        int capacity = 2;
+        while (capacity < (size * 2) && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<SendWindowFuture>(capacity);
+        this.maxProbe = new AtomicInteger(0);
+        this.size = new AtomicInteger(0);
+        this.permits = new Semaphore(size);
+        this.pendingOffers = new AtomicInteger(0);
+        this.abortEpoch = new AtomicInteger(0);
+        this.listeners = new CopyOnWriteArrayList<WindowListener<Integer,PduRequest,PduResponse>>();
+        if (listener != null) {
+            this.listeners.add(listener);
+        }
+        this.executor = executor;
+        this.monitorInterval = monitorInterval;
+        this.expiryTimer = expiryTimer;
+        this.monitorThreadName = monitorThreadName;
+        this.monitorHandle = null;
+        if (this.executor != null && this.monitorInterval > 0) {
+            startMonitor();
+        }
+    }
+
+    @Override
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    @Override
+    public int getSize() {
+        return this.size.get();
+    }
+
+    @Override
+    public int getFreeSize() {
+        return this.maxSize - this.size.get();
+    }
+
+    @Override
+    public boolean containsKey(Integer key) {
+        return (find(key.intValue()) != null);
+    }
+
+    @Override
+    public WindowFuture<Integer,PduRequest,PduResponse> get(Integer key) {
+        return find(key.intValue());
+    }
+
+    /**
+     * Gets the future of an outstanding request by its sequence number.
+     * @param key The sequence number of the request
+     * @return The future or null if not in the window
+     */
+    public SendWindowFuture get(int key) {
+        return find(key);
+    }
+
+    @Override
+    public void addListener(WindowListener<Integer,PduRequest,PduResponse> listener) {
+        this.listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void removeListener(WindowListener<Integer,PduRequest,PduResponse> listener) {
+        this.listeners.remove(listener);
+    }
+
+    @Override
+    public synchronized boolean startMonitor() {
+        if (this.executor != null && this.monitorInterval > 0) {
+            if (this.monitorHandle == null) {
+                this.monitorHandle = this.executor.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        monitor();
+                    }
+                }, this.monitorInterval, this.monitorInterval, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void stopMonitor() {
+        if (this.monitorHandle != null) {
+            this.monitorHandle.cancel(true);
+            this.monitorHandle = null;
+        }
+    }
+
+    private void monitor() {
+        String currentThreadName = null;
+        if (this.monitorThreadName != null) {
+            currentThreadName = Thread.currentThread().getName();
+            Thread.currentThread().setName(this.monitorThreadName);
+        }
+        try {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Monitor running... (current window.size [" + getSize() + "])");
+            }
+            List<WindowFuture<Integer,PduRequest,PduResponse>> expired = cancelAllExpired();
+            if (expired != null && expired.size() > 0) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Monitor found [" + expired.size() + "] requests expired");
+                }
+                for (WindowFuture<Integer,PduRequest,PduResponse> future : expired) {
+                    notifyExpired(future);
+                }
+            }
+        } finally {
+            if (currentThreadName != null) {
+                Thread.currentThread().setName(currentThreadName);
+            }
+        }
+    }
+
+    private void notifyExpired(WindowFuture<Integer,PduRequest,PduResponse> future) {
+        for (WindowListener<Integer,PduRequest,PduResponse> listener : this.listeners) {
+            try {
+                listener.expired(future);
+            } catch (Throwable t) {
+                logger.error("Unable to cleanly notify listener of expired request: {}", t);
+            }
+        }
+    }
+
+    /**
+     * Expires the request if it's still in the window.  Called by the expiry
+     * timer once the deadline of a request is reached.
+     */
+    void expire(final SendWindowFuture future) {
+        if (!future.done(SendWindowFuture.STATE_CANCELLED, null, null, System.currentTimeMillis())) {
+            // already completed, nothing to do
+            return;
+        }
+        if (this.listeners.isEmpty()) {
+            return;
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                String currentThreadName = null;
+                if (monitorThreadName != null) {
+                    currentThreadName = Thread.currentThread().getName();
+                    Thread.currentThread().setName(monitorThreadName);
+                }
+                try {
+                    notifyExpired(future);
+                } finally {
+                    if (currentThreadName != null) {
+                        Thread.currentThread().setName(currentThreadName);
+                    }
+                }
+            }
+        };
+        Executor listenerExecutor = this.executor;
+        if (listenerExecutor != null) {
+            try {
+                listenerExecutor.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                // executor was shutdown -- notify on this thread instead
+            }
+        }
+        task.run();
+    }
+
+    @Override
+    public void destroy() {
+        abortPendingOffers();
+        cancelAll();
+        this.listeners.clear();
+        stopMonitor();
+    }
+
+    @Override
+    public Map<Integer,WindowFuture<Integer,PduRequest,PduResponse>> createSortedSnapshot() {
+        Map<Integer,WindowFuture<Integer,PduRequest,PduResponse>> sortedRequests = new TreeMap<Integer,WindowFuture<Integer,PduRequest,PduResponse>>();
+        for (int i = 0; i < this.slots.length(); i++) {
+            SendWindowFuture future = this.slots.get(i);
+            if (future != null && future.claim == SendWindowFuture.CLAIM_CONFIRMED) {
+                sortedRequests.put(future.getKey(), future);
+            }
+        }
+        return sortedRequests;
+    }
+
+    @Override
+    public WindowFuture<Integer,PduRequest,PduResponse> offer(Integer key, PduRequest request, long offerTimeoutMillis) throws DuplicateKeyException, OfferTimeoutException, InterruptedException {
+        return offer(key.intValue(), request, offerTimeoutMillis, -1, false);
+    }
+
+    @Override
+    public WindowFuture<Integer,PduRequest,PduResponse> offer(Integer key, PduRequest request, long offerTimeoutMillis, long expireTimeoutMillis) throws DuplicateKeyException, OfferTimeoutException, InterruptedException {
+        return offer(key.intValue(), request, offerTimeoutMillis, expireTimeoutMillis, false);
+    }
+
+    @Override
+    public WindowFuture<Integer,PduRequest,PduResponse> offer(Integer key, PduRequest request, long offerTimeoutMillis, long expireTimeoutMillis, boolean callerWaitingHint) throws DuplicateKeyException, OfferTimeoutException, PendingOfferAbortedException, InterruptedException {
+        return offer(key.intValue(), request, offerTimeoutMillis, expireTimeoutMillis, callerWaitingHint);
+    }
+
+    /**
+     * Offers a request for acceptance into the window, waiting up to
+     * offerTimeoutMillis for a free slot if the window is full.
+     * @param key The sequence number of the request
+     * @param request The request
+     * @param offerTimeoutMillis The amount of time to wait for the request to
+     *      be accepted into the window
+     * @param expireTimeoutMillis The amount of time after acceptance the
+     *      request will expire (if monitoring is enabled) or -1 to never expire
+     * @param callerWaitingHint True if the caller will wait on the future
+     * @return The future of the request
+     * @throws DuplicateKeyException Thrown if a request with the same sequence
+     *      number is already in the window
+     * @throws OfferTimeoutException Thrown if the window stayed full for the
+     *      entire offerTimeoutMillis
+     * @throws PendingOfferAbortedException Thrown if abortPendingOffers() was
+     *      called while waiting for a free slot
+     * @throws InterruptedException Thrown if interrupted while waiting
+     */
+    public SendWindowFuture offer(int key, PduRequest request, long offerTimeoutMillis, long expireTimeoutMillis, boolean callerWaitingHint) throws DuplicateKeyException, OfferTimeoutException, PendingOfferAbortedException, InterruptedException {
+        if (offerTimeoutMillis < 0) {
+            throw new IllegalArgumentException("offerTimeoutMillis must be >= 0 [actual=" + offerTimeoutMillis + "]");
+        }
+
+        // does this key already exist? (cheap check -- claim() still catches
+        // a concurrent offer of the same key)
+        if (find(key) != null) {
+            throw new DuplicateKeyException("The key [" + key + "] already exists in the window");
+        }
+
+        long offerTimestamp = System.currentTimeMillis();
+
+        // fast path: a permit is available without waiting
+        if (!this.permits.tryAcquire()) {
+            acquirePermit(offerTimestamp, offerTimeoutMillis);
+        }
+
+        long acceptTimestamp = System.currentTimeMillis();
+        long expireTimestamp = (expireTimeoutMillis > 0 ? (acceptTimestamp + expireTimeoutMillis) : -1);
+        int callerStateHint = (callerWaitingHint ? WindowFuture.CALLER_WAITING : WindowFuture.CALLER_NOT_WAITING);
+        int windowSize = this.size.incrementAndGet();
+        SendWindowFuture future = new SendWindowFuture(this, key, request, callerStateHint, offerTimeoutMillis, windowSize, offerTimestamp, acceptTimestamp, expireTimestamp);
+        if (!claim(future)) {
+            // frees the slot, the size and the permit
+            remove(future);
+            throw new DuplicateKeyException("The key [" + key + "] already exists in the window");
+        }
+
+        // register the deadline with the expiry timer (if one exists)
+        if (this.expiryTimer != null && expireTimeoutMillis > 0) {
+            try {
+                future.setExpiryTimeout(this.expiryTimer.newTimeout(future, expireTimeoutMillis, TimeUnit.MILLISECONDS));
+            } catch (IllegalStateException e) {
+                // timer was stopped (server or client destroyed)
+                logger.warn("Unable to register request expiry with a stopped timer: {}", e.getMessage());
+            }
+        }
+        return future;
+    }
+
+    private void acquirePermit(long offerTimestamp, long offerTimeoutMillis) throws OfferTimeoutException, PendingOfferAbortedException, InterruptedException {
+        int epoch = this.abortEpoch.get();
+        this.pendingOffers.incrementAndGet();
+        try {
+            while (true) {
+                // check if there time remaining to wait
+                long currentOfferTime = System.currentTimeMillis() - offerTimestamp;
+                if (currentOfferTime >= offerTimeoutMillis) {
+                    throw new OfferTimeoutException("Unable to accept offer within [" + offerTimeoutMillis + " ms] (window full)");
+                }
+                // check if slow waiting was canceled (terminate early)
+                if (this.abortEpoch.get() != epoch) {
+                    throw new PendingOfferAbortedException("Pending offer aborted (by an explicit call to abortPendingOffers())");
+                }
+                long remainingOfferTime = Math.min(offerTimeoutMillis - currentOfferTime, ABORT_CHECK_INTERVAL_MILLIS);
+                if (this.permits.tryAcquire(remainingOfferTime, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } finally {
+            this.pendingOffers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Claims a free slot for the future and makes sure it's the only future
+     * in the window with its key.  The probe limit is raised before a slot is
+     * published, so of two concurrent claims of the same key the later one
+     * always sees the earlier one when it scans the key's probe chain.  A
+     * confirmed future always wins, otherwise the lower slot index does and
+     * the winner rejects the loser with a CAS -- exactly one of them is ever
+     * confirmed, just like the duplicate check done under the lock of the
+     * original Window.
+     * @return True if the future was claimed, otherwise false if another
+     *      future with the same key won (the slot is still held)
+     */
+    private boolean claim(SendWindowFuture future) {
+        // a permit was acquired and the slot array is at least twice the size
+        // of the window, so a free slot is always found
+        int key = future.getSequenceNumber();
+        int home = key & this.mask;
+        for (int probe = 0; ; probe++) {
+            int index = (home + probe) & this.mask;
+            if (this.slots.get(index) == null) {
+                raiseMaxProbe(probe);
+                // slot must be set before the future is published
+                future.slot = index;
+                if (this.slots.compareAndSet(index, null, future)) {
+                    break;
+                }
+            }
+        }
+
+        int limit = this.maxProbe.get();
+        for (int probe = 0; probe <= limit; probe++) {
+            SendWindowFuture other = this.slots.get((home + probe) & this.mask);
+            if (other == null || other == future || other.getSequenceNumber() != key || other.claim == SendWindowFuture.CLAIM_REJECTED) {
+                continue;
+            }
+            if (other.claim == SendWindowFuture.CLAIM_CONFIRMED || other.slot < future.slot || !other.rejectClaim()) {
+                future.rejectClaim();
+                break;
+            }
+        }
+        return future.confirmClaim();
+    }
+
+    private void raiseMaxProbe(int probe) {
+        int currentMaxProbe = this.maxProbe.get();
+        while (probe > currentMaxProbe && !this.maxProbe.compareAndSet(currentMaxProbe, probe)) {
+            currentMaxProbe = this.maxProbe.get();
+        }
+    }
+
+    private SendWindowFuture find(int key) {
+        int home = key & this.mask;
+        int limit = this.maxProbe.get();
+        for (int probe = 0; probe <= limit; probe++) {
+            SendWindowFuture future = this.slots.get((home + probe) & this.mask);
+            // futures still being claimed (or rejected) by an offer aren't in the window yet
+            if (future != null && future.getSequenceNumber() == key && future.claim == SendWindowFuture.CLAIM_CONFIRMED) {
+                return future;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the future from its slot.  Only one thread will ever succeed.
+     */
+    boolean remove(SendWindowFuture future) {
+        if (this.slots.compareAndSet(future.slot, future, null)) {
+            this.size.decrementAndGet();
+            this.permits.release();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int getPendingOfferCount() {
+        return this.pendingOffers.get();
+    }
+
+    /**
+     * Aborts any offers currently waiting for a free slot.  Each will throw
+     * a PendingOfferAbortedException within a short period of time.
+     * @return True if any offers were pending, otherwise false.
+     */
+    @Override
+    public boolean abortPendingOffers() {
+        if (this.pendingOffers.get() > 0) {
+            this.abortEpoch.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public WindowFuture<Integer,PduRequest,PduResponse> complete(Integer key, PduResponse response) {
+        return complete(key.intValue(), response);
+    }
+
+    /**
+     * Completes (successfully) a request in the window by its sequence number.
+     * @param key The sequence number of the request
+     * @param response The response to the request
+     * @return The future of the request or null if no request was found
+     */
+    public SendWindowFuture complete(int key, PduResponse response) {
+        SendWindowFuture future = find(key);
+        if (future != null && future.done(SendWindowFuture.STATE_SUCCESS, response, null, System.currentTimeMillis())) {
+            return future;
+        }
+        return null;
+    }
+
+    @Override
+    public WindowFuture<Integer,PduRequest,PduResponse> fail(Integer key, Throwable t) {
+        SendWindowFuture future = find(key.intValue());
+        if (future != null && future.done(SendWindowFuture.STATE_FAILED, null, t, System.currentTimeMillis())) {
+            return future;
+        }
+        return null;
+    }
+
+    @Override
+    public List<WindowFuture<Integer,PduRequest,PduResponse>> failAll(Throwable t) {
+        return doneAll(SendWindowFuture.STATE_FAILED, t, false);
+    }
+
+    @Override
+    public WindowFuture<Integer,PduRequest,PduResponse> cancel(Integer key) {
+        SendWindowFuture future = find(key.intValue());
+        if (future != null && future.done(SendWindowFuture.STATE_CANCELLED, null, null, System.currentTimeMillis())) {
+            return future;
+        }
+        return null;
+    }
+
+    @Override
+    public List<WindowFuture<Integer,PduRequest,PduResponse>> cancelAll() {
+        return doneAll(SendWindowFuture.STATE_CANCELLED, null, false);
+    }
+
+    @Override
+    public List<WindowFuture<Integer,PduRequest,PduResponse>> cancelAllExpired() {
+        return doneAll(SendWindowFuture.STATE_CANCELLED, null, true);
+    }
+
+    private List<WindowFuture<Integer,PduRequest,PduResponse>> doneAll(int state, Throwable t, boolean expiredOnly) {
+        if (this.size.get() <= 0) {
+            return null;
+        }
+        List<WindowFuture<Integer,PduRequest,PduResponse>> futures = new ArrayList<WindowFuture<Integer,PduRequest,PduResponse>>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < this.slots.length(); i++) {
+            SendWindowFuture future = this.slots.get(i);
+            if (future == null || future.claim != SendWindowFuture.CLAIM_CONFIRMED) {
+                continue;
+            }
+            if (expiredOnly && !(future.hasExpireTimestamp() && now >= future.getExpireTimestamp())) {
+                continue;
+            }
+            if (future.done(state, null, t, now)) {
+                futures.add(future);
+            }
+        }
+        return (futures.size() > 0 ? futures : null);
+    }
+}
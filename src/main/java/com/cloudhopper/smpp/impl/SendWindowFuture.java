@@ -0,0 +1,339 @@
+package com.cloudhopper.smpp.impl;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.commons.util.windowing.WindowFuture;
+import com.cloudhopper.smpp.pdu.PduRequest;
+import com.cloudhopper.smpp.pdu.PduResponse;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Future of a request offered to a SendWindow.  The sequence number is kept
+ * as a primitive int and only boxed if getKey() is called.  The future is
+ * "owned" by its slot in the window -- whichever thread removes it from its
+ * slot is the only one permitted to mark it done.  Callers waiting on the
+ * future are parked on its own monitor, which is only touched if a caller
+ * actually waited.  If the window has an expiry timer, the future is also
+ * the task registered with the timer for its expiry deadline.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class SendWindowFuture implements WindowFuture<Integer,PduRequest,PduResponse>, TimerTask {
+
+    static final int STATE_PENDING = 0;
+    static final int STATE_SUCCESS = 1;
+    static final int STATE_FAILED = 2;
+    static final int STATE_CANCELLED = 3;
+
+    static final int CLAIM_PENDING = 0;
+    static final int CLAIM_CONFIRMED = 1;
+    static final int CLAIM_REJECTED = 2;
+
+    private static final AtomicIntegerFieldUpdater<SendWindowFuture> CLAIM_UPDATER = AtomicIntegerFieldUpdater.newUpdater(SendWindowFuture.class, "claim");
+
+    private final SendWindow window;
+    private final int key;
+    private final PduRequest request;
+    private final long originalOfferTimeoutMillis;
+    private final int windowSize;
+    private final long offerTimestamp;
+    private final long acceptTimestamp;
+    private final long expireTimestamp;
+    // index of the slot in the window (written before the slot is published)
+    int slot;
+    // whether this future won its slot against concurrent offers of the same key
+    volatile int claim;
+    // registered deadline with the expiry timer (if one exists)
+    private volatile Timeout expiryTimeout;
+    private volatile int callerStateHint;
+    private volatile boolean waiting;
+    private volatile int state;
+    private PduResponse response;
+    private Throwable cause;
+    private long doneTimestamp;
+
+    SendWindowFuture(SendWindow window, int key, PduRequest request, int callerStateHint, long originalOfferTimeoutMillis, int windowSize, long offerTimestamp, long acceptTimestamp, long expireTimestamp) {
+        this.window = window;
+        this.key = key;
+        this.request = request;
+        this.callerStateHint = callerStateHint;
+        this.originalOfferTimeoutMillis = originalOfferTimeoutMillis;
+        this.windowSize = windowSize;
+        this.offerTimestamp = offerTimestamp;
+        this.acceptTimestamp = acceptTimestamp;
+        this.expireTimestamp = expireTimestamp;
+        this.doneTimestamp = 0;
+        this.state = STATE_PENDING;
+    }
+
+    /**
+     * Gets the sequence number of the request without boxing it.
+     * @return The sequence number of the request
+     */
+    public int getSequenceNumber() {
+        return this.key;
+    }
+
+    @Override
+    public Integer getKey() {
+        return Integer.valueOf(this.key);
+    }
+
+    @Override
+    public PduRequest getRequest() {
+        return this.request;
+    }
+
+    @Override
+    public PduResponse getResponse() {
+        return (this.state != STATE_PENDING ? this.response : null);
+    }
+
+    @Override
+    public boolean isDone() {
+        return (this.state != STATE_PENDING);
+    }
+
+    @Override
+    public boolean isSuccess() {
+        return (this.state == STATE_SUCCESS);
+    }
+
+    @Override
+    public Throwable getCause() {
+        return (this.state != STATE_PENDING ? this.cause : null);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return (this.state == STATE_CANCELLED);
+    }
+
+    @Override
+    public int getCallerStateHint() {
+        return this.callerStateHint;
+    }
+
+    @Override
+    public boolean isCallerWaiting() {
+        return (this.callerStateHint == CALLER_WAITING);
+    }
+
+    @Override
+    public int getWindowSize() {
+        return this.windowSize;
+    }
+
+    @Override
+    public boolean hasExpireTimestamp() {
+        return (this.expireTimestamp > 0);
+    }
+
+    @Override
+    public long getExpireTimestamp() {
+        return this.expireTimestamp;
+    }
+
+    @Override
+    public long getOfferTimestamp() {
+        return this.offerTimestamp;
+    }
+
+    @Override
+    public long getAcceptTimestamp() {
+        return this.acceptTimestamp;
+    }
+
+    @Override
+    public long getOfferToAcceptTime() {
+        return (this.acceptTimestamp - this.offerTimestamp);
+    }
+
+    @Override
+    public boolean hasDoneTimestamp() {
+        return (this.state != STATE_PENDING);
+    }
+
+    @Override
+    public long getDoneTimestamp() {
+        return (this.state != STATE_PENDING ? this.doneTimestamp : 0);
+    }
+
+    @Override
+    public long getOfferToDoneTime() {
+        if (this.state == STATE_PENDING) {
+            return -1;
+        }
+        return (this.doneTimestamp - this.offerTimestamp);
+    }
+
+    @Override
+    public long getAcceptToDoneTime() {
+        if (this.state == STATE_PENDING) {
+            return -1;
+        }
+        return (this.doneTimestamp - this.acceptTimestamp);
+    }
+
+    @Override
+    public void complete(PduResponse response) {
+        complete(response, System.currentTimeMillis());
+    }
+
+    @Override
+    public void complete(PduResponse response, long doneTimestamp) {
+        if (response == null) {
+            throw new IllegalArgumentException("A response cannot be null if trying to complete()");
+        }
+        if (doneTimestamp <= 0) {
+            throw new IllegalArgumentException("A valid doneTimestamp must be > 0");
+        }
+        done(STATE_SUCCESS, response, null, doneTimestamp);
+    }
+
+    @Override
+    public void fail(Throwable t) {
+        fail(t, System.currentTimeMillis());
+    }
+
+    @Override
+    public void fail(Throwable t, long doneTimestamp) {
+        if (t == null) {
+            throw new IllegalArgumentException("A throwable cannot be null if trying to fail()");
+        }
+        if (doneTimestamp <= 0) {
+            throw new IllegalArgumentException("A valid doneTimestamp must be > 0");
+        }
+        done(STATE_FAILED, null, t, doneTimestamp);
+    }
+
+    @Override
+    public void cancel() {
+        cancel(System.currentTimeMillis());
+    }
+
+    @Override
+    public void cancel(long doneTimestamp) {
+        if (doneTimestamp <= 0) {
+            throw new IllegalArgumentException("A valid doneTimestamp must be > 0");
+        }
+        done(STATE_CANCELLED, null, null, doneTimestamp);
+    }
+
+    /**
+     * Removes this future from its slot in the window and, if this thread won
+     * the race to do so, marks it done and wakes up any waiting caller.
+     * @return True if this call completed the future, otherwise false if it
+     *      had already been completed by another thread.
+     */
+    boolean done(int state, PduResponse response, Throwable cause, long doneTimestamp) {
+        if (!this.window.remove(this)) {
+            return false;
+        }
+        this.response = response;
+        this.cause = cause;
+        this.doneTimestamp = doneTimestamp;
+        // volatile write publishes the fields above
+        this.state = state;
+        Timeout timeout = this.expiryTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        if (this.waiting) {
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Confirms this future is the one request in the window with its key.
+     * @return True if confirmed, otherwise false if a concurrent offer of the
+     *      same key rejected it first.
+     */
+    boolean confirmClaim() {
+        return CLAIM_UPDATER.compareAndSet(this, CLAIM_PENDING, CLAIM_CONFIRMED);
+    }
+
+    /**
+     * Rejects this future as a duplicate of a concurrent offer of the same key.
+     * @return True if rejected, otherwise false if it was already confirmed.
+     */
+    boolean rejectClaim() {
+        return (CLAIM_UPDATER.compareAndSet(this, CLAIM_PENDING, CLAIM_REJECTED) || this.claim == CLAIM_REJECTED);
+    }
+
+    void setExpiryTimeout(Timeout timeout) {
+        this.expiryTimeout = timeout;
+        // if completed while being registered, unregister right away
+        if (isDone()) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Called by the expiry timer once the expire timestamp is reached.
+     */
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        this.window.expire(this);
+    }
+
+    @Override
+    public boolean await() throws InterruptedException {
+        // wait for only whatever time is remaining from the original offer
+        return this.await(this.originalOfferTimeoutMillis - this.getOfferToAcceptTime());
+    }
+
+    @Override
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        // k, if someone actually calls this method -- make sure to set the flag
+        // this may have already been set by the window, but just make sure it is
+        this.callerStateHint = CALLER_WAITING;
+        if (isDone()) {
+            return true;
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            // volatile write must happen before re-checking the state so the
+            // completing thread either sees it or we see the completion
+            this.waiting = true;
+            while (!isDone()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    this.callerStateHint = CALLER_WAITING_TIMEOUT;
+                    return false;
+                }
+                this.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SendWindowFuture[key=" + this.key + ", state=" + this.state + ", callerStateHint=" + this.callerStateHint + "]";
+    }
+}
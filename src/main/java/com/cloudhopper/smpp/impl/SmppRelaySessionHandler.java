@@ -0,0 +1,208 @@
+package com.cloudhopper.smpp.impl;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.commons.util.windowing.OfferTimeoutException;
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.SmppSession;
+import com.cloudhopper.smpp.SmppSessionAsyncHandler;
+import com.cloudhopper.smpp.pdu.PduRequest;
+import com.cloudhopper.smpp.pdu.PduResponse;
+import com.cloudhopper.smpp.type.SmppTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Session handler of a proxy that relays every request received on its
+ * session to a peer session (e.g. from a customer's server session to the
+ * client session of an upstream SMSC and back) and relays the response back.
+ * Meant for sessions that only decode the header of PDUs (see
+ * setHeaderOnlyDecodeEnabled() on SmppSessionConfiguration and
+ * SmppServerConfiguration): the body of a request or response is then never
+ * parsed nor copied, only a new header is written in front of it.
+ * <br>
+ * A request is sent on the peer session with the next sequence number of
+ * that session (and added to its window), the response is sent back with
+ * the sequence number of the original request.  If the request can't be
+ * relayed (e.g. the window of the peer is full, the request expired, or the
+ * channel of the peer was closed), a response with an error status is sent
+ * back instead (see createErrorResponse()).  A generic_nack returned by the
+ * peer is sent back as the response of the request with the same status.
+ * <br>
+ * Requests that only concern the session they were received on are never
+ * relayed: an enquire_link or unbind is answered right away and a bind (the
+ * session is already bound) is rejected with "already bound" (see
+ * createLocalResponse()).
+ * <br>
+ * Subclasses may override route() to pick the peer session per request.
+ * A request can be fully decoded there with Pdu.decodeRawBody() (e.g. to
+ * route on its destination address), in which case it's encoded from its
+ * fields when relayed.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class SmppRelaySessionHandler extends DefaultSmppSessionHandler implements SmppSessionAsyncHandler {
+    private static final Logger logger = LoggerFactory.getLogger(SmppRelaySessionHandler.class);
+
+    private volatile SmppSession peerSession;
+    private final long windowWaitTimeout;
+
+    /**
+     * Creates a new handler without a peer session yet.
+     * @param windowWaitTimeout The time to wait for a slot to open in the
+     *      window of the peer session (0 to respond right away with a
+     *      throttling error if its full)
+     */
+    public SmppRelaySessionHandler(long windowWaitTimeout) {
+        this(null, windowWaitTimeout);
+    }
+
+    /**
+     * Creates a new handler that relays every request to the peer session.
+     * @param peerSession The session to relay requests to
+     * @param windowWaitTimeout The time to wait for a slot to open in the
+     *      window of the peer session (0 to respond right away with a
+     *      throttling error if its full)
+     */
+    public SmppRelaySessionHandler(SmppSession peerSession, long windowWaitTimeout) {
+        super(logger);
+        this.peerSession = peerSession;
+        this.windowWaitTimeout = windowWaitTimeout;
+    }
+
+    public SmppSession getPeerSession() {
+        return this.peerSession;
+    }
+
+    public void setPeerSession(SmppSession peerSession) {
+        this.peerSession = peerSession;
+    }
+
+    public long getWindowWaitTimeout() {
+        return this.windowWaitTimeout;
+    }
+
+    /**
+     * Picks the session to relay a request to.  By default, always the peer
+     * session.
+     * @param request The request received on this session
+     * @return The session to relay the request to or null if it can't be
+     *      relayed
+     */
+    protected SmppSession route(PduRequest request) {
+        return this.peerSession;
+    }
+
+    /**
+     * Creates the response sent back for a request that couldn't be relayed.
+     * By default, a "throttling error" if no slot opened in the window of the
+     * peer session in time, otherwise a "system error".
+     * @param request The request that couldn't be relayed
+     * @param t The reason or null if there was no session to relay it to
+     * @return The response to send back (null to not send any)
+     */
+    protected PduResponse createErrorResponse(PduRequest request, Throwable t) {
+        PduResponse response = request.createResponse();
+        if (t instanceof SmppTimeoutException && t.getCause() instanceof OfferTimeoutException) {
+            response.setCommandStatus(SmppConstants.STATUS_THROTTLED);
+        } else {
+            response.setCommandStatus(SmppConstants.STATUS_SYSERR);
+        }
+        return response;
+    }
+
+    /**
+     * Creates the response for a request that is answered by this session
+     * itself rather than relayed.  By default, an enquire_link or unbind is
+     * answered with "ok" and a bind with "already bound".
+     * @param request The request received on this session
+     * @return The response to send back or null to relay the request
+     */
+    protected PduResponse createLocalResponse(PduRequest request) {
+        switch (request.getCommandId()) {
+            case SmppConstants.CMD_ID_ENQUIRE_LINK:
+            case SmppConstants.CMD_ID_UNBIND:
+                return request.createResponse();
+            case SmppConstants.CMD_ID_BIND_RECEIVER:
+            case SmppConstants.CMD_ID_BIND_TRANSMITTER:
+            case SmppConstants.CMD_ID_BIND_TRANSCEIVER:
+                PduResponse response = request.createResponse();
+                response.setCommandStatus(SmppConstants.STATUS_ALYBND);
+                return response;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public CompletionStage<PduResponse> firePduRequestReceivedAsync(final PduRequest pduRequest) {
+        PduResponse localResponse = createLocalResponse(pduRequest);
+        if (localResponse != null) {
+            return CompletableFuture.completedFuture(localResponse);
+        }
+
+        final int sequenceNumber = pduRequest.getSequenceNumber();
+        SmppSession session = route(pduRequest);
+        if (session == null) {
+            return CompletableFuture.completedFuture(createErrorResponse(pduRequest, null));
+        }
+
+        CompletableFuture<PduResponse> relayed;
+        // the peer session assigns its own sequence number
+        pduRequest.removeSequenceNumber();
+        try {
+            relayed = session.sendRequestAsync(pduRequest, this.windowWaitTimeout);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            relayed = new CompletableFuture<PduResponse>();
+            relayed.completeExceptionally(e);
+        }
+
+        return relayed.handle(new BiFunction<PduResponse,Throwable,PduResponse>() {
+            @Override
+            public PduResponse apply(PduResponse response, Throwable t) {
+                if (t != null) {
+                    Throwable cause = (t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                    logger.debug("Unable to relay request [{}]: {}", pduRequest, cause);
+                    response = createErrorResponse(pduRequest, cause);
+                    if (response == null) {
+                        return null;
+                    }
+                } else if (response.getCommandId() == SmppConstants.CMD_ID_GENERIC_NACK) {
+                    // the peer couldn't even parse it -- never relay a generic_nack
+                    int commandStatus = response.getCommandStatus();
+                    response = pduRequest.createResponse();
+                    response.setCommandStatus(commandStatus);
+                }
+                // back to the sequence number the request was received with
+                response.setSequenceNumber(sequenceNumber);
+                return response;
+            }
+        });
+    }
+
+}
@@ -21,6 +21,7 @@ package com.cloudhopper.smpp.impl;
  */
 
 import com.cloudhopper.smpp.pdu.Pdu;
+import com.cloudhopper.smpp.pdu.PduRequest;
 
 /**
  * Interface for listening for events on an SmppSessionChannelHandler.
@@ -35,6 +36,15 @@ public interface SmppSessionChannelListener {
      */
     public void firePduReceived(Pdu pdu);
 
+    /**
+     * Fired instead of firePduReceived() when a received request could not be
+     * queued for the session handler since its queue was full (see
+     * SmppSessionHandlerDispatcher).  The request should be answered right
+     * away, e.g. with a throttling error.
+     * @param pdu The request decoded from the Channel
+     */
+    public void firePduRequestRejected(PduRequest pdu);
+
     /**
      * Fired when an exception was raised by an I/O thread or an upstream handler.
      * @param t The exception thrown
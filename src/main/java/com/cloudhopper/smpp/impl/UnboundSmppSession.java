@@ -30,6 +30,7 @@ import com.cloudhopper.smpp.pdu.BindReceiver;
 import com.cloudhopper.smpp.pdu.BindTransceiver;
 import com.cloudhopper.smpp.pdu.BindTransmitter;
 import com.cloudhopper.smpp.pdu.Pdu;
+import com.cloudhopper.smpp.pdu.PduRequest;
 import com.cloudhopper.smpp.pdu.PduResponse;
 import com.cloudhopper.smpp.type.LoggingOptions;
 import com.cloudhopper.smpp.type.SmppChannelException;
@@ -136,6 +137,12 @@ public class UnboundSmppSession implements SmppSessionChannelListener {
         this.channel.close();
     }
 
+    @Override
+    public void firePduRequestRejected(PduRequest pdu) {
+        // requests are never dispatched before the session is bound
+        firePduReceived(pdu);
+    }
+
     @Override
     public void fireExceptionThrown(Throwable t) {
         logger.warn("Exception thrown, closing connection [{}]: {}", channelName, t);
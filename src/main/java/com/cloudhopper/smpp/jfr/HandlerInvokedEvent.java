@@ -0,0 +1,53 @@
+package com.cloudhopper.smpp.jfr;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A request received by a session passed to its session handler.  Its
+ * duration is the time spent in the handler (for an async handler, only the
+ * time until it returned the stage completing the response).
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@Name("com.cloudhopper.smpp.HandlerInvoked")
+@Label("Handler Invoked")
+@Category({ "SMPP" })
+@Description("A request received passed to the session handler")
+final class HandlerInvokedEvent extends Event {
+
+    @Label("Session")
+    String session;
+
+    @Label("Command Id")
+    int commandId;
+
+    @Label("Sequence Number")
+    int sequenceNumber;
+
+    @Label("Async")
+    boolean async;
+}
@@ -0,0 +1,50 @@
+package com.cloudhopper.smpp.jfr;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A PDU encoded by the transcoder.  Its duration is the time encoding it.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@Name("com.cloudhopper.smpp.PduEncoded")
+@Label("PDU Encoded")
+@Category({ "SMPP" })
+@Description("A PDU encoded by the transcoder")
+final class PduEncodedEvent extends Event {
+
+    @Label("Command Id")
+    int commandId;
+
+    @Label("Sequence Number")
+    int sequenceNumber;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+}
@@ -0,0 +1,62 @@
+package com.cloudhopper.smpp.jfr;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A response received by a session that matched a request in its window.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@Name("com.cloudhopper.smpp.ResponseMatched")
+@Label("Response Matched")
+@Category({ "SMPP" })
+@Description("A response received that matched a request in the window")
+final class ResponseMatchedEvent extends Event {
+
+    @Label("Session")
+    String session;
+
+    @Label("Command Id")
+    int commandId;
+
+    @Label("Sequence Number")
+    int sequenceNumber;
+
+    @Label("Command Status")
+    int commandStatus;
+
+    @Label("Wait Time")
+    @Description("The time the request waited for a slot in the window")
+    @Timespan(Timespan.MILLISECONDS)
+    long waitTime;
+
+    @Label("Response Time")
+    @Description("The time from the request being added to the window to the response")
+    @Timespan(Timespan.MILLISECONDS)
+    long responseTime;
+}
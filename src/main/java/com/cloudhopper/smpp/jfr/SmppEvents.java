@@ -0,0 +1,159 @@
+package com.cloudhopper.smpp.jfr;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Creates and commits the events.  Only loaded by SmppFlightRecorder if the
+ * JVM has JFR (this class and the events reference the jdk.jfr API).  Each
+ * check of whether an event is enabled creates an instance that never
+ * escapes, so the JIT eliminates it when nothing is recorded.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+final class SmppEvents {
+
+    private SmppEvents() {
+        // only static methods
+    }
+
+    static Object beginPduEncoded() {
+        if (!new PduEncodedEvent().isEnabled()) {
+            return null;
+        }
+        PduEncodedEvent event = new PduEncodedEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitPduEncoded(Object e, int commandId, int sequenceNumber, int size) {
+        PduEncodedEvent event = (PduEncodedEvent)e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.commandId = commandId;
+            event.sequenceNumber = sequenceNumber;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    static Object beginWindowOffered() {
+        if (!new WindowOfferedEvent().isEnabled()) {
+            return null;
+        }
+        WindowOfferedEvent event = new WindowOfferedEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitWindowOffered(Object e, String session, int commandId, int sequenceNumber, int windowSize) {
+        WindowOfferedEvent event = (WindowOfferedEvent)e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.session = session;
+            event.commandId = commandId;
+            event.sequenceNumber = sequenceNumber;
+            event.windowSize = windowSize;
+            event.commit();
+        }
+    }
+
+    static Object beginPduWritten() {
+        if (!new PduWrittenEvent().isEnabled()) {
+            return null;
+        }
+        PduWrittenEvent event = new PduWrittenEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitPduWritten(Object e, String session, int commandId, int sequenceNumber, int size, boolean success) {
+        PduWrittenEvent event = (PduWrittenEvent)e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.session = session;
+            event.commandId = commandId;
+            event.sequenceNumber = sequenceNumber;
+            event.size = size;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    static Object beginHandlerInvoked() {
+        if (!new HandlerInvokedEvent().isEnabled()) {
+            return null;
+        }
+        HandlerInvokedEvent event = new HandlerInvokedEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitHandlerInvoked(Object e, String session, int commandId, int sequenceNumber, boolean async) {
+        HandlerInvokedEvent event = (HandlerInvokedEvent)e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.session = session;
+            event.commandId = commandId;
+            event.sequenceNumber = sequenceNumber;
+            event.async = async;
+            event.commit();
+        }
+    }
+
+    static void responseMatched(String session, int commandId, int sequenceNumber, int commandStatus, long waitTime, long responseTime) {
+        if (!new ResponseMatchedEvent().isEnabled()) {
+            return;
+        }
+        ResponseMatchedEvent event = new ResponseMatchedEvent();
+        event.session = session;
+        event.commandId = commandId;
+        event.sequenceNumber = sequenceNumber;
+        event.commandStatus = commandStatus;
+        event.waitTime = waitTime;
+        event.responseTime = responseTime;
+        event.commit();
+    }
+
+    static void requestExpired(String session, int commandId, int sequenceNumber, long requestExpiryTimeout) {
+        if (!new RequestExpiredEvent().isEnabled()) {
+            return;
+        }
+        RequestExpiredEvent event = new RequestExpiredEvent();
+        event.session = session;
+        event.commandId = commandId;
+        event.sequenceNumber = sequenceNumber;
+        event.requestExpiryTimeout = requestExpiryTimeout;
+        event.commit();
+    }
+
+    static void handlerCompleted(String session, int commandId, int sequenceNumber, int commandStatus, long processingTime) {
+        if (!new HandlerCompletedEvent().isEnabled()) {
+            return;
+        }
+        HandlerCompletedEvent event = new HandlerCompletedEvent();
+        event.session = session;
+        event.commandId = commandId;
+        event.sequenceNumber = sequenceNumber;
+        event.commandStatus = commandStatus;
+        event.processingTime = processingTime;
+        event.commit();
+    }
+}
@@ -0,0 +1,134 @@
+package com.cloudhopper.smpp.jfr;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Emits JDK Flight Recorder events along the lifecycle of a PDU, so the
+ * SMPP path of a production JVM can be profiled with standard JFR tooling
+ * (e.g. "jcmd <pid> JFR.start" and JDK Mission Control) instead of debug
+ * logging.  Every event is in the "SMPP" category and named
+ * com.cloudhopper.smpp.*:
+ * <ul>
+ * <li>PduEncoded - the transcoder encoding a PDU (duration, size)</li>
+ * <li>WindowOffered - a request added to the window (duration of the wait
+ *      for a slot)</li>
+ * <li>PduWritten - a PDU written to the channel (duration of the write)</li>
+ * <li>ResponseMatched - a response matched to a request in the window
+ *      (wait and response time)</li>
+ * <li>RequestExpired - a request expired in the window</li>
+ * <li>HandlerInvoked - the session handler processing a request received
+ *      (duration)</li>
+ * <li>HandlerCompleted - the response returned by the session handler
+ *      (processing time)</li>
+ * </ul>
+ * Events with a duration are begun by a begin*() method, which returns null
+ * unless the event is enabled in a running recording (callers then skip the
+ * matching commit*() altogether).  On a JVM without JFR (before 8u272) this
+ * class does nothing.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public final class SmppFlightRecorder {
+
+    static private final boolean AVAILABLE = isJfrAvailable();
+
+    private SmppFlightRecorder() {
+        // only static methods
+    }
+
+    static private boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            // makes sure the events can be loaded too
+            Class.forName("com.cloudhopper.smpp.jfr.SmppEvents");
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets whether the JVM has JFR and the events are emitted (if enabled in
+     * a recording).
+     * @return True if the events can be recorded
+     */
+    static public boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    static public Object beginPduEncoded() {
+        return (AVAILABLE ? SmppEvents.beginPduEncoded() : null);
+    }
+
+    static public void commitPduEncoded(Object event, int commandId, int sequenceNumber, int size) {
+        if (event != null) {
+            SmppEvents.commitPduEncoded(event, commandId, sequenceNumber, size);
+        }
+    }
+
+    static public Object beginWindowOffered() {
+        return (AVAILABLE ? SmppEvents.beginWindowOffered() : null);
+    }
+
+    static public void commitWindowOffered(Object event, String session, int commandId, int sequenceNumber, int windowSize) {
+        if (event != null) {
+            SmppEvents.commitWindowOffered(event, session, commandId, sequenceNumber, windowSize);
+        }
+    }
+
+    static public Object beginPduWritten() {
+        return (AVAILABLE ? SmppEvents.beginPduWritten() : null);
+    }
+
+    static public void commitPduWritten(Object event, String session, int commandId, int sequenceNumber, int size, boolean success) {
+        if (event != null) {
+            SmppEvents.commitPduWritten(event, session, commandId, sequenceNumber, size, success);
+        }
+    }
+
+    static public Object beginHandlerInvoked() {
+        return (AVAILABLE ? SmppEvents.beginHandlerInvoked() : null);
+    }
+
+    static public void commitHandlerInvoked(Object event, String session, int commandId, int sequenceNumber, boolean async) {
+        if (event != null) {
+            SmppEvents.commitHandlerInvoked(event, session, commandId, sequenceNumber, async);
+        }
+    }
+
+    static public void responseMatched(String session, int commandId, int sequenceNumber, int commandStatus, long waitTime, long responseTime) {
+        if (AVAILABLE) {
+            SmppEvents.responseMatched(session, commandId, sequenceNumber, commandStatus, waitTime, responseTime);
+        }
+    }
+
+    static public void requestExpired(String session, int commandId, int sequenceNumber, long requestExpiryTimeout) {
+        if (AVAILABLE) {
+            SmppEvents.requestExpired(session, commandId, sequenceNumber, requestExpiryTimeout);
+        }
+    }
+
+    static public void handlerCompleted(String session, int commandId, int sequenceNumber, int commandStatus, long processingTime) {
+        if (AVAILABLE) {
+            SmppEvents.handlerCompleted(session, commandId, sequenceNumber, commandStatus, processingTime);
+        }
+    }
+}
@@ -75,4 +75,40 @@ public interface DefaultSmppServerMXBean {
     
     public int getSessionDestroyed();
     
+    // traffic of every session aggregated over the server
+    public boolean isTrafficCountersEnabled();
+    
+    public String getRxDataSMCounter();
+    
+    public String getRxDeliverSMCounter();
+    
+    public String getRxEnquireLinkCounter();
+    
+    public String getRxSubmitSMCounter();
+    
+    public String getTxDataSMCounter();
+    
+    public String getTxDeliverSMCounter();
+    
+    public String getTxEnquireLinkCounter();
+    
+    public String getTxSubmitSMCounter();
+    
+    // rates of requests (1, 10 and 60 second moving averages)
+    public String getRxDataSMRate();
+    
+    public String getRxDeliverSMRate();
+    
+    public String getRxEnquireLinkRate();
+    
+    public String getRxSubmitSMRate();
+    
+    public String getTxDataSMRate();
+    
+    public String getTxDeliverSMRate();
+    
+    public String getTxEnquireLinkRate();
+    
+    public String getTxSubmitSMRate();
+    
 }
@@ -0,0 +1,82 @@
+package com.cloudhopper.smpp.jmx;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+/**
+ * Defines the interface for managing every session of an SmppServer through
+ * a single managed bean (see SmppServerConfiguration.setSessionsMBeanEnabled()).
+ * Each session is a row (CompositeData) with its id, name, system id, bind
+ * type, state, addresses, window and counters.  Operations taking a system id
+ * apply to every session if it's null or empty.
+ * 
+ * @author joelauer
+ */
+public interface DefaultSmppServerSessionsMXBean {
+    
+    public int getSessionSize();
+    
+    public Map<String,Integer> getSessionSizeBySystemId();
+    
+    /**
+     * Lists a page of the sessions (ordered by session id).
+     * @param systemId The system id of the sessions to list
+     * @param offset The number of (matching) sessions to skip
+     * @param limit The max number of sessions to list (0 for no limit)
+     * @return The sessions
+     */
+    public TabularData listSessions(String systemId, int offset, int limit);
+    
+    /**
+     * Finds a session by its id.
+     * @param sessionId The id of the session
+     * @return The session or null if there's no such session
+     */
+    public CompositeData findSession(long sessionId);
+    
+    /**
+     * Resets the counters of sessions.
+     * @param systemId The system id of the sessions
+     * @return The number of sessions whose counters were reset
+     */
+    public int resetCounters(String systemId);
+    
+    /**
+     * Closes sessions (without unbinding first).
+     * @param systemId The system id of the sessions
+     * @return The number of sessions closed
+     */
+    public int closeSessions(String systemId);
+    
+    /**
+     * Unbinds sessions, sending every unbind request at once, then closes
+     * them.
+     * @param systemId The system id of the sessions
+     * @param timeoutInMillis The time to wait for all unbind responses (and
+     *      the channels to close)
+     * @return The number of sessions unbound
+     */
+    public int unbindSessions(String systemId, long timeoutInMillis);
+    
+}
@@ -106,6 +106,25 @@ public interface DefaultSmppSessionMXBean {
     public String getTxEnquireLinkCounter();
 
     public String getTxSubmitSMCounter();
+
+    // percentiles of the wait, response and estimated processing time
+    public String getRxDataSMLatency();
+
+    public String getRxDeliverSMLatency();
+
+    public String getRxEnquireLinkLatency();
+
+    public String getRxSubmitSMLatency();
+
+    public String getTxDataSMLatency();
+
+    public String getTxDeliverSMLatency();
+
+    public String getTxEnquireLinkLatency();
+
+    public String getTxSubmitSMLatency();
+
+    public String[] dumpLatencyAndReset();
     
     public void enableLogBytes();
     
@@ -27,6 +27,7 @@ import com.cloudhopper.smpp.type.NotEnoughDataInBufferException;
 import com.cloudhopper.commons.util.HexUtil;
 import com.cloudhopper.commons.util.StringUtil;
 import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.util.COctetStringCodec;
 import com.cloudhopper.smpp.util.ChannelBufferUtil;
 import com.cloudhopper.smpp.util.PduUtil;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -91,7 +92,7 @@ public abstract class BaseBind<R extends PduResponse> extends PduRequest<R> {
     public void readBody(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
         this.systemId = ChannelBufferUtil.readNullTerminatedString(buffer);
         this.password = ChannelBufferUtil.readNullTerminatedString(buffer);
-        this.systemType = ChannelBufferUtil.readNullTerminatedString(buffer);
+        this.systemType = COctetStringCodec.read(buffer, getInternCache());
         // at this point, we should have at least 3 bytes left
         if (buffer.readableBytes() < 3) {
             throw new NotEnoughDataInBufferException("After parsing systemId, password, and systemType", buffer.readableBytes(), 3);
@@ -25,7 +25,9 @@ import com.cloudhopper.smpp.type.Address;
 import com.cloudhopper.smpp.type.UnrecoverablePduException;
 import com.cloudhopper.smpp.type.RecoverablePduException;
 import com.cloudhopper.commons.util.StringUtil;
+import com.cloudhopper.smpp.type.NotEnoughDataInBufferException;
 import com.cloudhopper.smpp.type.SmppInvalidArgumentException;
+import com.cloudhopper.smpp.util.COctetStringCodec;
 import com.cloudhopper.smpp.util.ChannelBufferUtil;
 import com.cloudhopper.smpp.util.PduUtil;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -53,16 +55,37 @@ public abstract class BaseSm<R extends PduResponse> extends PduRequest<R> {
     protected byte dataCoding;
     private byte defaultMsgId;                  // not present in data_sm, not used in deliver_sm
     private byte[] shortMessage;                // not present in data_sm         
+    // if lazily decoded: the buffer, index of each field, and bits of the
+    // fields that haven't been parsed yet
+    private ChannelBuffer lazyBody;
+    private int[] lazyIndexes;
+    private int lazyFields;
+
+    private static final int LAZY_SERVICE_TYPE = 0;
+    private static final int LAZY_SOURCE_ADDRESS = 1;
+    private static final int LAZY_DEST_ADDRESS = 2;
+    private static final int LAZY_SCHEDULE_DELIVERY_TIME = 3;
+    private static final int LAZY_VALIDITY_PERIOD = 4;
+    private static final int LAZY_SHORT_MESSAGE = 5;
+    private static final int LAZY_ALL_FIELDS = 0x3F;
 
     public BaseSm(int commandId, String name) {
         super(commandId, name);
     }
 
     public int getShortMessageLength() {
+        if (isLazy(LAZY_SHORT_MESSAGE)) {
+            return getLazyBody().getUnsignedByte(this.lazyIndexes[LAZY_SHORT_MESSAGE]);
+        }
         return (this.shortMessage == null ? 0 : this.shortMessage.length);
     }
 
     public byte[] getShortMessage() {
+        if (isLazy(LAZY_SHORT_MESSAGE)) {
+            ChannelBuffer buffer = lazyField(LAZY_SHORT_MESSAGE);
+            this.shortMessage = new byte[buffer.readUnsignedByte()];
+            buffer.readBytes(this.shortMessage);
+        }
         return this.shortMessage;
     }
 
@@ -71,6 +94,7 @@ public abstract class BaseSm<R extends PduResponse> extends PduRequest<R> {
             throw new SmppInvalidArgumentException("A short message in a PDU can only be a max of 255 bytes [actual=" + value.length + "]; use optional parameter message_payload as an alternative");
         }
         this.shortMessage = value;
+        this.lazyFields &= ~(1 << LAZY_SHORT_MESSAGE);
     }
 
     public byte getReplaceIfPresent() {
@@ -106,19 +130,27 @@ public abstract class BaseSm<R extends PduResponse> extends PduRequest<R> {
     }
 
     public String getValidityPeriod() {
+        if (isLazy(LAZY_VALIDITY_PERIOD)) {
+            this.validityPeriod = lazyString(LAZY_VALIDITY_PERIOD, false);
+        }
         return this.validityPeriod;
     }
 
     public void setValidityPeriod(String value) {
         this.validityPeriod = value;
+        this.lazyFields &= ~(1 << LAZY_VALIDITY_PERIOD);
     }
 
     public String getScheduleDeliveryTime() {
+        if (isLazy(LAZY_SCHEDULE_DELIVERY_TIME)) {
+            this.scheduleDeliveryTime = lazyString(LAZY_SCHEDULE_DELIVERY_TIME, false);
+        }
         return this.scheduleDeliveryTime;
     }
 
     public void setScheduleDeliveryTime(String value) {
         this.scheduleDeliveryTime = value;
+        this.lazyFields &= ~(1 << LAZY_SCHEDULE_DELIVERY_TIME);
     }
 
     public byte getPriority() {
@@ -146,33 +178,45 @@ public abstract class BaseSm<R extends PduResponse> extends PduRequest<R> {
     }
 
     public String getServiceType() {
+        if (isLazy(LAZY_SERVICE_TYPE)) {
+            this.serviceType = lazyString(LAZY_SERVICE_TYPE, true);
+        }
         return this.serviceType;
     }
 
     public void setServiceType(String value) {
         this.serviceType = value;
+        this.lazyFields &= ~(1 << LAZY_SERVICE_TYPE);
     }
 
     public Address getSourceAddress() {
+        if (isLazy(LAZY_SOURCE_ADDRESS)) {
+            this.sourceAddress = lazyAddress(LAZY_SOURCE_ADDRESS, true);
+        }
         return this.sourceAddress;
     }
 
     public void setSourceAddress(Address value) {
         this.sourceAddress = value;
+        this.lazyFields &= ~(1 << LAZY_SOURCE_ADDRESS);
     }
 
     public Address getDestAddress() {
+        if (isLazy(LAZY_DEST_ADDRESS)) {
+            this.destAddress = lazyAddress(LAZY_DEST_ADDRESS, false);
+        }
         return this.destAddress;
     }
 
     public void setDestAddress(Address value) {
         this.destAddress = value;
+        this.lazyFields &= ~(1 << LAZY_DEST_ADDRESS);
     }
 
     @Override
     public void readBody(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
-        this.serviceType = ChannelBufferUtil.readNullTerminatedString(buffer);
-        this.sourceAddress = ChannelBufferUtil.readAddress(buffer);
+        this.serviceType = COctetStringCodec.read(buffer, getInternCache());
+        this.sourceAddress = ChannelBufferUtil.readAddress(buffer, getInternCache());
         this.destAddress = ChannelBufferUtil.readAddress(buffer);
         this.esmClass = buffer.readByte();
         this.protocolId = buffer.readByte();
@@ -189,15 +233,118 @@ public abstract class BaseSm<R extends PduResponse> extends PduRequest<R> {
         buffer.readBytes(this.shortMessage);
     }
 
+    @Override
+    public void readBodyLazily(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
+        // only the index of each variable length field is recorded (and the
+        // field validated) -- the single byte fields are simply read
+        int[] indexes = new int[6];
+        indexes[LAZY_SERVICE_TYPE] = buffer.readerIndex();
+        ChannelBufferUtil.skipNullTerminatedString(buffer);
+        indexes[LAZY_SOURCE_ADDRESS] = buffer.readerIndex();
+        ChannelBufferUtil.skipAddress(buffer);
+        indexes[LAZY_DEST_ADDRESS] = buffer.readerIndex();
+        ChannelBufferUtil.skipAddress(buffer);
+        this.esmClass = buffer.readByte();
+        this.protocolId = buffer.readByte();
+        this.priority = buffer.readByte();
+        indexes[LAZY_SCHEDULE_DELIVERY_TIME] = buffer.readerIndex();
+        ChannelBufferUtil.skipNullTerminatedString(buffer);
+        indexes[LAZY_VALIDITY_PERIOD] = buffer.readerIndex();
+        ChannelBufferUtil.skipNullTerminatedString(buffer);
+        this.registeredDelivery = buffer.readByte();
+        this.replaceIfPresent = buffer.readByte();
+        this.dataCoding = buffer.readByte();
+        this.defaultMsgId = buffer.readByte();
+        indexes[LAZY_SHORT_MESSAGE] = buffer.readerIndex();
+        short shortMessageLength = buffer.readUnsignedByte();
+        if (buffer.readableBytes() < shortMessageLength) {
+            throw new NotEnoughDataInBufferException("Parsing short message", buffer.readableBytes(), shortMessageLength);
+        }
+        buffer.skipBytes(shortMessageLength);
+        this.lazyBody = buffer;
+        this.lazyIndexes = indexes;
+        this.lazyFields = LAZY_ALL_FIELDS;
+    }
+
+    @Override
+    public void detach() {
+        getServiceType();
+        getSourceAddress();
+        getDestAddress();
+        getScheduleDeliveryTime();
+        getValidityPeriod();
+        getShortMessage();
+        super.detach();
+    }
+
+    @Override
+    public void release() {
+        this.lazyBody = null;
+        super.release();
+    }
+
+    @Override
+    public boolean isReleased() {
+        return ((this.lazyBody == null && this.lazyFields != 0) || super.isReleased());
+    }
+
+    private boolean isLazy(int field) {
+        return ((this.lazyFields & (1 << field)) != 0);
+    }
+
+    private ChannelBuffer getLazyBody() {
+        if (this.lazyBody == null) {
+            throw new IllegalStateException("Field of lazily decoded PDU accessed after it was released");
+        }
+        return this.lazyBody;
+    }
+
+    /**
+     * Marks the field as parsed and returns a view of the buffer positioned at
+     * the start of the field.  Drops the reference to the buffer once every
+     * field was parsed.
+     */
+    private ChannelBuffer lazyField(int field) {
+        ChannelBuffer buffer = getLazyBody().duplicate();
+        buffer.readerIndex(this.lazyIndexes[field]);
+        this.lazyFields &= ~(1 << field);
+        if (this.lazyFields == 0) {
+            this.lazyBody = null;
+            this.lazyIndexes = null;
+        }
+        return buffer;
+    }
+
+    private String lazyString(int field, boolean interned) {
+        try {
+            if (interned) {
+                return COctetStringCodec.read(lazyField(field), getInternCache());
+            }
+            return ChannelBufferUtil.readNullTerminatedString(lazyField(field));
+        } catch (RecoverablePduException e) {
+            // impossible since the field was already validated
+            throw new IllegalStateException("Unable to parse field of lazily decoded PDU", e);
+        }
+    }
+
+    private Address lazyAddress(int field, boolean interned) {
+        try {
+            return ChannelBufferUtil.readAddress(lazyField(field), (interned ? getInternCache() : null));
+        } catch (Exception e) {
+            // impossible since the field was already validated
+            throw new IllegalStateException("Unable to parse field of lazily decoded PDU", e);
+        }
+    }
+
     @Override
     public int calculateByteSizeOfBody() {
         int bodyLength = 0;
-        bodyLength += PduUtil.calculateByteSizeOfNullTerminatedString(this.serviceType);
-        bodyLength += PduUtil.calculateByteSizeOfAddress(this.sourceAddress);
-        bodyLength += PduUtil.calculateByteSizeOfAddress(this.destAddress);
+        bodyLength += PduUtil.calculateByteSizeOfNullTerminatedString(getServiceType());
+        bodyLength += PduUtil.calculateByteSizeOfAddress(getSourceAddress());
+        bodyLength += PduUtil.calculateByteSizeOfAddress(getDestAddress());
         bodyLength += 3;    // esmClass, priority, protocolId
-        bodyLength += PduUtil.calculateByteSizeOfNullTerminatedString(this.scheduleDeliveryTime);
-        bodyLength += PduUtil.calculateByteSizeOfNullTerminatedString(this.validityPeriod);
+        bodyLength += PduUtil.calculateByteSizeOfNullTerminatedString(getScheduleDeliveryTime());
+        bodyLength += PduUtil.calculateByteSizeOfNullTerminatedString(getValidityPeriod());
         bodyLength += 5;    // regDelivery, replace, dataCoding, defaultMsgId, messageLength bytes
         bodyLength += getShortMessageLength();
         return bodyLength;
@@ -205,20 +352,20 @@ public abstract class BaseSm<R extends PduResponse> extends PduRequest<R> {
 
     @Override
     public void writeBody(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
-        ChannelBufferUtil.writeNullTerminatedString(buffer, this.serviceType);
-        ChannelBufferUtil.writeAddress(buffer, this.sourceAddress);
-        ChannelBufferUtil.writeAddress(buffer, this.destAddress);
+        ChannelBufferUtil.writeNullTerminatedString(buffer, getServiceType());
+        ChannelBufferUtil.writeAddress(buffer, getSourceAddress());
+        ChannelBufferUtil.writeAddress(buffer, getDestAddress());
         buffer.writeByte(this.esmClass);
         buffer.writeByte(this.protocolId);
         buffer.writeByte(this.priority);
-        ChannelBufferUtil.writeNullTerminatedString(buffer, this.scheduleDeliveryTime);
-        ChannelBufferUtil.writeNullTerminatedString(buffer, this.validityPeriod);
+        ChannelBufferUtil.writeNullTerminatedString(buffer, getScheduleDeliveryTime());
+        ChannelBufferUtil.writeNullTerminatedString(buffer, getValidityPeriod());
         buffer.writeByte(this.registeredDelivery);
         buffer.writeByte(this.replaceIfPresent);
         buffer.writeByte(this.dataCoding);
         buffer.writeByte(this.defaultMsgId);
         buffer.writeByte((byte)getShortMessageLength());
-        if (this.shortMessage != null) {
+        if (getShortMessage() != null) {
             buffer.writeBytes(this.shortMessage);
         }
     }
@@ -226,11 +373,11 @@ public abstract class BaseSm<R extends PduResponse> extends PduRequest<R> {
     @Override
     public void appendBodyToString(StringBuilder buffer) {
         buffer.append("(serviceType [");
-        buffer.append(StringUtil.toStringWithNullAsEmpty(this.serviceType));
+        buffer.append(StringUtil.toStringWithNullAsEmpty(getServiceType()));
         buffer.append("] sourceAddr [");
-        buffer.append(StringUtil.toStringWithNullAsEmpty(this.sourceAddress));
+        buffer.append(StringUtil.toStringWithNullAsEmpty(getSourceAddress()));
         buffer.append("] destAddr [");
-        buffer.append(StringUtil.toStringWithNullAsEmpty(this.destAddress));
+        buffer.append(StringUtil.toStringWithNullAsEmpty(getDestAddress()));
 
         buffer.append("] esmCls [0x");
         buffer.append(HexUtil.toHexString(this.esmClass));
@@ -240,7 +387,7 @@ public abstract class BaseSm<R extends PduResponse> extends PduRequest<R> {
         buffer.append("] dcs [0x");
         buffer.append(HexUtil.toHexString(this.dataCoding));
         buffer.append("] message [");
-        HexUtil.appendHexString(buffer, this.shortMessage);
+        HexUtil.appendHexString(buffer, getShortMessage());
         buffer.append("])");
     }
 }
\ No newline at end of file
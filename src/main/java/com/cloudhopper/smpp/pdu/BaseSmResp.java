@@ -20,6 +20,7 @@ package com.cloudhopper.smpp.pdu;
  * #L%
  */
 
+import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.type.UnrecoverablePduException;
 import com.cloudhopper.smpp.type.RecoverablePduException;
 import com.cloudhopper.commons.util.StringUtil;
@@ -68,7 +69,9 @@ public abstract class BaseSmResp extends PduResponse {
         // enough for the headers (and theoretically any optional TLVs). Don't try to
         // write the NULL byte for that case.
         // See special note in 4.4.2 of SMPP 3.4 spec
-        if (!((buffer.writableBytes() == 0) && (this.messageId == null))) {
+        // NOTE: the commandLength is checked rather than the writable bytes of
+        // the buffer since the buffer may not be sized exactly to the PDU
+        if (!((this.messageId == null) && hasCommandLengthCalculated() && (getCommandLength() == SmppConstants.PDU_HEADER_LENGTH))) {
             ChannelBufferUtil.writeNullTerminatedString(buffer, this.messageId);
         }
     }
@@ -55,6 +55,12 @@ public class DataSm extends BaseSm<DataSmResp> {
         this.dataCoding = buffer.readByte();
     }
 
+    @Override
+    public void readBodyLazily(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
+        // data_sm has a different body than the other "short message" pdus
+        readBody(buffer);
+    }
+
     @Override
     public int calculateByteSizeOfBody() {
         int bodyLength = 0;
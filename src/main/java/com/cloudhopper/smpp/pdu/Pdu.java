@@ -25,30 +25,45 @@ import com.cloudhopper.smpp.type.RecoverablePduException;
 import com.cloudhopper.commons.util.HexUtil;
 import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.tlv.Tlv;
+import com.cloudhopper.smpp.tlv.TlvConvertException;
+import com.cloudhopper.smpp.tlv.TlvList;
 import com.cloudhopper.smpp.transcoder.PduTranscoderContext;
-import com.cloudhopper.smpp.util.ChannelBufferUtil;
+import com.cloudhopper.smpp.type.NotEnoughDataInBufferException;
+import com.cloudhopper.smpp.util.COctetStringCache;
 import java.util.ArrayList;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 
 public abstract class Pdu {
     
     private final String name;
     private final boolean isRequest;
-    private Integer commandLength;          // we'll know the size not calculated yet if null
+    private int commandLength;
+    private boolean commandLengthCalculated;    // false if the size isn't calculated yet
     private final int commandId;
     private int commandStatus;
-    private Integer sequenceNumber;         // we'll know its not assigned yet if null
-    // optional parameters (there aren't many, no need for a map)
-    private ArrayList<Tlv> optionalParameters;
+    private int sequenceNumber;
+    private boolean sequenceNumberAssigned;     // false if its not assigned yet
+    // optional parameters (encoded in a single byte array w/ an index by tag)
+    private TlvList optionalParameters;
+    // context of a decoded/encoded pdu, only used to lookup TLV tag names when logging
+    private PduTranscoderContext context;
+    // cache low cardinality fields are read through when decoded (null if none)
+    private COctetStringCache internCache;
+    // optional parameters of a lazily decoded pdu that haven't been parsed yet
+    private ChannelBuffer lazyOptionalParameters;
+    private boolean lazyOptionalParametersReleased;
+    // if only the header was decoded: the body and optional parameters as-is
+    private ChannelBuffer rawBody;
+    private boolean rawBodyDetached;
+    private boolean rawBodyReleased;
     // a reference object that a caller can attach to this pdu
     private Object referenceObject;
 
     public Pdu(int commandId, String name, boolean isRequest) {
         this.name = name;
         this.isRequest = isRequest;
-        this.commandLength = null;
         this.commandId = commandId;
-        this.sequenceNumber = null;
         this.referenceObject = null;
     }
 
@@ -60,6 +75,21 @@ public abstract class Pdu {
         return this.referenceObject;
     }
 
+    /**
+     * Sets the cache that low cardinality fields (e.g. service_type,
+     * system_type and source_addr) are read through when this PDU is decoded
+     * (or a lazily decoded field is parsed).  Set by the transcoder before
+     * the body is read.
+     * @param internCache The cache or null to read every field into a new String
+     */
+    public void setInternCache(COctetStringCache internCache) {
+        this.internCache = internCache;
+    }
+
+    public COctetStringCache getInternCache() {
+        return this.internCache;
+    }
+
     public String getName() {
         return this.name;
     }
@@ -73,23 +103,25 @@ public abstract class Pdu {
     }
 
     public boolean hasCommandLengthCalculated() {
-        return (this.commandLength != null);
+        return this.commandLengthCalculated;
     }
 
     public void removeCommandLength() {
-        this.commandLength = null;
+        this.commandLength = 0;
+        this.commandLengthCalculated = false;
     }
 
     public void setCommandLength(int value) {
-        this.commandLength = new Integer(value);
+        this.commandLength = value;
+        this.commandLengthCalculated = true;
     }
 
+    /**
+     * Gets the command length.
+     * @return The command length or 0 if not calculated yet
+     */
     public int getCommandLength() {
-        if (this.commandLength == null) {
-            return 0;
-        } else {
-            return this.commandLength.intValue();
-        }
+        return this.commandLength;
     }
 
     /**
@@ -116,39 +148,52 @@ public abstract class Pdu {
     }
 
     public boolean hasSequenceNumberAssigned() {
-        return (this.sequenceNumber != null);
+        return this.sequenceNumberAssigned;
     }
 
     public void removeSequenceNumber() {
-        this.sequenceNumber = null;
+        this.sequenceNumber = 0;
+        this.sequenceNumberAssigned = false;
     }
 
     public void setSequenceNumber(int value) {
-        this.sequenceNumber = new Integer(value);
+        this.sequenceNumber = value;
+        this.sequenceNumberAssigned = true;
     }
 
+    /**
+     * Gets the sequence number.
+     * @return The sequence number or 0 if not assigned yet
+     */
     public int getSequenceNumber() {
-        if (this.sequenceNumber == null) {
-            return 0;
-        } else {
-            return this.sequenceNumber.intValue();
-        }
+        return this.sequenceNumber;
     }
 
     public int getOptionalParameterCount() {
+        if (this.lazyOptionalParameters != null) {
+            return countLazyOptionalParameters();
+        }
+        decodeLazyOptionalParameters();
         if (this.optionalParameters == null) {
             return 0;
         }
-        return this.optionalParameters.size();
+        return this.optionalParameters.getCount();
     }
 
     /**
-     * Gets the current list of optional parameters.  If no parameters have been
-     * added, this will return null.
-     * @return Null if no parameters added yet, or the list of optional parameters.
+     * Gets a detached snapshot of the optional parameters.  If no parameters
+     * have been added, this will return null.  The list (and every TLV in it)
+     * is a new copy on every call -- modifying it doesn't change this PDU, use
+     * addOptionalParameter(), setOptionalParameter() or
+     * removeOptionalParameter() instead.
+     * @return Null if no parameters added yet, or a copy of the optional parameters.
      */
     public ArrayList<Tlv> getOptionalParameters() {
-        return this.optionalParameters;
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null || this.optionalParameters.getCount() == 0) {
+            return null;
+        }
+        return this.optionalParameters.toList();
     }
 
     /**
@@ -158,8 +203,9 @@ public abstract class Pdu {
      * @see Pdu#setOptionalParameter(com.cloudhopper.smpp.tlv.Tlv)
      */
     public void addOptionalParameter(Tlv tlv) {
+        decodeLazyOptionalParameters();
         if (this.optionalParameters == null) {
-            this.optionalParameters = new ArrayList<Tlv>();
+            this.optionalParameters = new TlvList();
         }
         this.optionalParameters.add(tlv);
     }
@@ -171,13 +217,11 @@ public abstract class Pdu {
      * @return Null if no TLV removed, or the TLV removed.
      */
     public Tlv removeOptionalParameter(short tag) {
-        // does this parameter exist?
-        int i = this.findOptionalParameter(tag);
-        if (i < 0) {
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
             return null;
-        } else {
-            return this.optionalParameters.remove(i);
         }
+        return this.optionalParameters.remove(tag);
     }
 
     /**
@@ -188,16 +232,11 @@ public abstract class Pdu {
      * @return Null if no TLV was replaced, or the TLV replaced.
      */
     public Tlv setOptionalParameter(Tlv tlv) {
-        // does this parameter already exist?
-        int i = this.findOptionalParameter(tlv.getTag());
-        if (i < 0) {
-            // parameter does not yet exist, add it, not replaced
-            this.addOptionalParameter(tlv);
-            return null;
-        } else {
-            // this parameter already exists, replace it, return old
-            return this.optionalParameters.set(i, tlv);
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
+            this.optionalParameters = new TlvList();
         }
+        return this.optionalParameters.set(tlv);
     }
 
     /**
@@ -206,39 +245,123 @@ public abstract class Pdu {
      * @return True if exists, otherwise false
      */
     public boolean hasOptionalParameter(short tag) {
-        return (this.findOptionalParameter(tag) >= 0);
+        if (this.lazyOptionalParameters != null) {
+            return (findLazyOptionalParameter(tag) >= 0);
+        }
+        return (this.offsetOfOptionalParameter(tag) >= 0);
     }
 
+    /**
+     * Finds an optional parameter by tag.
+     * @param tag The TLV tag to search for
+     * @return The index of the first matching TLV in the list returned by
+     *      getOptionalParameters() or -1 if not found
+     */
     protected int findOptionalParameter(short tag) {
+        decodeLazyOptionalParameters();
         if (this.optionalParameters == null) {
             return -1;
         }
-        int i = 0;
-        for (Tlv tlv : this.optionalParameters) {
-            if (tlv.getTag() == tag) {
-                return i;
-            }
-            i++;
+        return this.optionalParameters.indexOf(tag);
+    }
+
+    /**
+     * Finds an optional parameter by tag without walking the TLVs before it.
+     * @param tag The TLV tag to search for
+     * @return The byte offset of the first matching TLV in the encoded
+     *      optional parameters or -1 if not found
+     */
+    protected int offsetOfOptionalParameter(short tag) {
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
+            return -1;
         }
-        // if we get here, we didn't find the parameter by tag
-        return -1;
+        return this.optionalParameters.offsetOf(tag);
     }
 
     /**
-     * Gets a TLV by tag.
+     * Gets a TLV by tag.  A new TLV is created on every call, the typed
+     * getOptionalParameterAsXXX() methods read the value without creating one.
      * @param tag The TLV tag to search for
      * @return The first matching TLV by tag
      */
     public Tlv getOptionalParameter(short tag) {
+        decodeLazyOptionalParameters();
         if (this.optionalParameters == null) {
             return null;
         }
-        // try to find this parameter's index
-        int i = this.findOptionalParameter(tag);
-        if (i < 0) {
+        return this.optionalParameters.get(tag);
+    }
+
+    public byte getOptionalParameterAsByte(short tag, byte defaultValue) throws TlvConvertException {
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
+            return defaultValue;
+        }
+        return this.optionalParameters.getValueAsByte(tag, defaultValue);
+    }
+
+    public short getOptionalParameterAsUnsignedByte(short tag, short defaultValue) throws TlvConvertException {
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
+            return defaultValue;
+        }
+        return this.optionalParameters.getValueAsUnsignedByte(tag, defaultValue);
+    }
+
+    public short getOptionalParameterAsShort(short tag, short defaultValue) throws TlvConvertException {
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
+            return defaultValue;
+        }
+        return this.optionalParameters.getValueAsShort(tag, defaultValue);
+    }
+
+    public int getOptionalParameterAsUnsignedShort(short tag, int defaultValue) throws TlvConvertException {
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
+            return defaultValue;
+        }
+        return this.optionalParameters.getValueAsUnsignedShort(tag, defaultValue);
+    }
+
+    public int getOptionalParameterAsInt(short tag, int defaultValue) throws TlvConvertException {
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
+            return defaultValue;
+        }
+        return this.optionalParameters.getValueAsInt(tag, defaultValue);
+    }
+
+    public long getOptionalParameterAsUnsignedInt(short tag, long defaultValue) throws TlvConvertException {
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
+            return defaultValue;
+        }
+        return this.optionalParameters.getValueAsUnsignedInt(tag, defaultValue);
+    }
+
+    public long getOptionalParameterAsLong(short tag, long defaultValue) throws TlvConvertException {
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
+            return defaultValue;
+        }
+        return this.optionalParameters.getValueAsLong(tag, defaultValue);
+    }
+
+    /**
+     * Gets the value of a TLV by tag as a string (ISO-8859-1) up to its first
+     * null byte.
+     * @param tag The TLV tag to search for
+     * @return Null if not found, otherwise the value of the first matching TLV
+     * @throws TlvConvertException
+     */
+    public String getOptionalParameterAsString(short tag) throws TlvConvertException {
+        decodeLazyOptionalParameters();
+        if (this.optionalParameters == null) {
             return null;
         }
-        return this.optionalParameters.get(i);
+        return this.optionalParameters.getValueAsString(tag);
     }
 
     //
@@ -258,51 +381,58 @@ public abstract class Pdu {
     //
 
     protected int calculateByteSizeOfOptionalParameters() {
+        // unchanged optional parameters of a lazily decoded pdu are written as-is
+        if (this.lazyOptionalParameters != null) {
+            return this.lazyOptionalParameters.readableBytes();
+        }
+        decodeLazyOptionalParameters();
         if (this.optionalParameters == null) {
             return 0;
         }
-        int optParamLength = 0;
-        // otherwise, add length of each tlv
-        for (Tlv tlv : this.optionalParameters) {
-            optParamLength += tlv.calculateByteSize();
-        }
-        return optParamLength;
+        return this.optionalParameters.getByteSize();
     }
 
     public void readOptionalParameters(ChannelBuffer buffer, PduTranscoderContext context) throws UnrecoverablePduException, RecoverablePduException {
         // if there is any data left, it's part of an optional parameter
-        while (buffer.readableBytes() > 0) {
-            Tlv tlv = ChannelBufferUtil.readTlv(buffer);
-            if (tlv.getTagName() == null) {
-                tlv.setTagName(context.lookupTlvTagName(tlv.getTag()));
+        int readableBytes = buffer.readableBytes();
+        if (readableBytes > 0) {
+            if (this.optionalParameters == null) {
+                this.optionalParameters = new TlvList(readableBytes);
             }
-            this.addOptionalParameter(tlv);
+            this.optionalParameters.read(buffer);
         }
+        // tag names are only looked up if this pdu is logged
+        this.context = context;
     }
 
     public void writeOptionalParameters(ChannelBuffer buffer, PduTranscoderContext context) throws UnrecoverablePduException, RecoverablePduException {
+        if (this.lazyOptionalParameters != null) {
+            buffer.writeBytes(this.lazyOptionalParameters, this.lazyOptionalParameters.readerIndex(), this.lazyOptionalParameters.readableBytes());
+            return;
+        }
+        decodeLazyOptionalParameters();
         if (this.optionalParameters == null) {
             return;
         }
-        for (Tlv tlv : this.optionalParameters) {
-            if (tlv.getTagName() == null) {
-                tlv.setTagName(context.lookupTlvTagName(tlv.getTag()));
-            }
-            ChannelBufferUtil.writeTlv(buffer, tlv);
+        this.optionalParameters.write(buffer);
+        if (this.context == null) {
+            this.context = context;
         }
     }
 
     protected void appendOptionalParameterToString(StringBuilder buffer) {
+        decodeLazyOptionalParameters();
         if (this.optionalParameters == null) {
             return;
         }
         int i = 0;
-        for (Tlv tlv : this.optionalParameters) {
+        for (Tlv tlv : this.optionalParameters.toList()) {
             if (i != 0) {
                 buffer.append(" (");
             } else {
                 buffer.append("(");
             }
+            tlv.setTagName(lookupTlvTagName(tlv.getTag()));
             // format 0x0000 0x0000 [00..]
             buffer.append(tlv.toString());
             buffer.append(")");
@@ -310,10 +440,233 @@ public abstract class Pdu {
         }
     }
 
+    private String lookupTlvTagName(short tag) {
+        if (this.context != null) {
+            return this.context.lookupTlvTagName(tag);
+        }
+        return SmppConstants.TAG_NAME_MAP.get(tag);
+    }
+
+    //
+    // lazy decoding (fields are parsed from the buffer on first access)
+    //
+
+    /**
+     * Reads the body of the PDU lazily.  PDUs that support it only validate
+     * the body and keep a reference to the buffer -- each field is then parsed
+     * on first access.  By default, the body is simply read right away.
+     * @param buffer The buffer to read from (must not be modified afterwards)
+     * @throws UnrecoverablePduException
+     * @throws RecoverablePduException
+     */
+    public void readBodyLazily(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
+        readBody(buffer);
+    }
+
+    /**
+     * Reads the optional parameters lazily.  Every TLV is only validated and a
+     * reference to the buffer is kept.  The TLVs are parsed the first time the
+     * optional parameters are accessed, except for hasOptionalParameter() and
+     * getOptionalParameterCount() which work off the buffer directly.  Optional
+     * parameters that were never parsed are written back out as-is.
+     * @param buffer The buffer to read from (must not be modified afterwards)
+     * @param context The context used to lookup TLV tag names once parsed
+     * @throws UnrecoverablePduException
+     * @throws RecoverablePduException
+     */
+    public void readOptionalParametersLazily(ChannelBuffer buffer, PduTranscoderContext context) throws UnrecoverablePduException, RecoverablePduException {
+        int readableBytes = buffer.readableBytes();
+        if (readableBytes == 0) {
+            return;
+        }
+        // validate the tag and length of every TLV so that parsing later can't fail
+        int index = buffer.readerIndex();
+        int endIndex = index + readableBytes;
+        while (index < endIndex) {
+            if (endIndex - index < 4) {
+                throw new NotEnoughDataInBufferException("Parsing TLV tag and length", endIndex - index, 4);
+            }
+            int length = buffer.getUnsignedShort(index + 2);
+            index += 4;
+            if (endIndex - index < length) {
+                throw new NotEnoughDataInBufferException("Parsing TLV value", endIndex - index, length);
+            }
+            index += length;
+        }
+        this.lazyOptionalParameters = buffer.readSlice(readableBytes);
+        this.context = context;
+    }
+
+    /**
+     * Sets the optional parameters to TLVs that were already encoded and
+     * validated elsewhere (e.g. by a SubmitSmTemplate).  Works just like
+     * readOptionalParametersLazily() except that the buffer is only ever read
+     * from, never sliced or advanced, so it can be shared between PDUs.
+     * @param buffer The encoded optional parameters (must not be modified afterwards)
+     */
+    void setEncodedOptionalParameters(ChannelBuffer buffer) {
+        if (buffer.readable()) {
+            this.lazyOptionalParameters = buffer;
+        }
+    }
+
+    /**
+     * Parses any fields of a lazily decoded PDU that haven't been accessed yet
+     * and drops its reference to the buffer it was decoded from.  A lazily
+     * decoded request MUST be detached if it's used after the session handler
+     * returns (e.g. queued for processing by another thread) since the session
+     * releases it at that point.  The body of a header-only decoded PDU is
+     * copied rather than parsed.  A noop for any other PDU.
+     */
+    public void detach() {
+        if (this.rawBody != null) {
+            if (!this.rawBodyDetached) {
+                this.rawBody = ChannelBuffers.copiedBuffer(this.rawBody);
+                this.rawBodyDetached = true;
+            }
+            return;
+        }
+        decodeLazyOptionalParameters();
+    }
+
+    /**
+     * Drops the reference of a lazily decoded PDU to the buffer it was decoded
+     * from without parsing the fields that haven't been accessed yet.  Accessing
+     * any of those fields afterwards throws an IllegalStateException.  Sessions
+     * call this on a received request once the session handler is done with it.
+     * A noop for any other PDU (or one that was detached).
+     */
+    public void release() {
+        if (this.lazyOptionalParameters != null) {
+            this.lazyOptionalParameters = null;
+            this.lazyOptionalParametersReleased = true;
+        }
+        if (this.rawBody != null && !this.rawBodyDetached) {
+            this.rawBody = null;
+            this.rawBodyReleased = true;
+        }
+    }
+
+    /**
+     * Returns true if this PDU was released before all of its fields were
+     * parsed, i.e. accessing any of the remaining fields would throw an
+     * IllegalStateException.
+     * @return True if any field is no longer available
+     */
+    public boolean isReleased() {
+        return (this.lazyOptionalParametersReleased || this.rawBodyReleased);
+    }
+
+    //
+    // header-only decoding (body and optional parameters are kept as-is)
+    //
+
+    /**
+     * Keeps the remaining bytes of the buffer (the body and optional
+     * parameters) without parsing them.  None of the fields of the body or
+     * optional parameters are available until decodeRawBody() is called --
+     * until then, the PDU is encoded as its header followed by these bytes.
+     * @param buffer The buffer to read from (must not be modified afterwards)
+     * @param context The context used to lookup TLV tag names once parsed
+     */
+    public void readRawBody(ChannelBuffer buffer, PduTranscoderContext context) {
+        this.rawBody = buffer.readSlice(buffer.readableBytes());
+        this.context = context;
+    }
+
+    /**
+     * Returns true if only the header of this PDU was decoded.
+     * @return True if the body and optional parameters haven't been parsed
+     * @see #readRawBody(org.jboss.netty.buffer.ChannelBuffer, com.cloudhopper.smpp.transcoder.PduTranscoderContext)
+     */
+    public boolean hasRawBody() {
+        return (this.rawBody != null);
+    }
+
+    /**
+     * Gets the body and optional parameters of a PDU that only had its header
+     * decoded.
+     * @return A read-only view of the bytes following the header or null if
+     *      the PDU isn't header-only decoded
+     */
+    public ChannelBuffer getRawBody() {
+        if (this.rawBody == null) {
+            if (this.rawBodyReleased) {
+                throw new IllegalStateException("Body of header-only decoded PDU accessed after it was released");
+            }
+            return null;
+        }
+        return this.rawBody.duplicate();
+    }
+
+    /**
+     * Parses the body and optional parameters of a PDU that only had its
+     * header decoded (e.g. to route it on its destination address).  The PDU
+     * is then encoded from its fields like any other PDU and may be changed.
+     * A noop if the PDU isn't header-only decoded.
+     * @throws UnrecoverablePduException
+     * @throws RecoverablePduException
+     */
+    public void decodeRawBody() throws UnrecoverablePduException, RecoverablePduException {
+        ChannelBuffer buffer = getRawBody();
+        if (buffer == null) {
+            return;
+        }
+        readBody(buffer);
+        readOptionalParameters(buffer, this.context);
+        this.rawBody = null;
+    }
+
+    private void decodeLazyOptionalParameters() {
+        if (this.lazyOptionalParameters != null) {
+            // a duplicate since the buffer may be shared between PDUs
+            ChannelBuffer buffer = this.lazyOptionalParameters.duplicate();
+            this.lazyOptionalParameters = null;
+            try {
+                readOptionalParameters(buffer, this.context);
+            } catch (Exception e) {
+                // impossible since every TLV was already validated
+                throw new IllegalStateException("Unable to parse optional parameters of lazily decoded PDU", e);
+            }
+        } else if (this.lazyOptionalParametersReleased) {
+            throw new IllegalStateException("Optional parameters of lazily decoded PDU accessed after it was released");
+        }
+    }
+
+    private int findLazyOptionalParameter(short tag) {
+        ChannelBuffer buffer = this.lazyOptionalParameters;
+        int index = buffer.readerIndex();
+        int endIndex = buffer.writerIndex();
+        int i = 0;
+        while (index < endIndex) {
+            if (buffer.getShort(index) == tag) {
+                return i;
+            }
+            index += 4 + buffer.getUnsignedShort(index + 2);
+            i++;
+        }
+        return -1;
+    }
+
+    private int countLazyOptionalParameters() {
+        ChannelBuffer buffer = this.lazyOptionalParameters;
+        int index = buffer.readerIndex();
+        int endIndex = buffer.writerIndex();
+        int count = 0;
+        while (index < endIndex) {
+            index += 4 + buffer.getUnsignedShort(index + 2);
+            count++;
+        }
+        return count;
+    }
+
     @Override
     public String toString() {
+        // must never throw (e.g. logging a request after it was released)
+        boolean released = isReleased();
+
         // our guess of the optimal "toString" buffer size
-        StringBuilder buffer = new StringBuilder(65 + 300 + (getOptionalParameterCount()*20));
+        StringBuilder buffer = new StringBuilder(65 + 300 + (released ? 0 : getOptionalParameterCount()*20));
 
         // append PDU header
         buffer.append("(");
@@ -342,6 +695,20 @@ public abstract class Pdu {
 
         buffer.append(")");
 
+        // the fields of a released pdu that weren't parsed are gone
+        if (released) {
+            buffer.append(" (released)");
+            return buffer.toString();
+        }
+
+        // a header-only decoded pdu has no fields to append yet
+        if (this.rawBody != null) {
+            buffer.append(" (raw body: ");
+            buffer.append(this.rawBody.readableBytes());
+            buffer.append(" bytes)");
+            return buffer.toString();
+        }
+
         // append PDU body
         buffer.append(" (body: ");
         this.appendBodyToString(buffer);
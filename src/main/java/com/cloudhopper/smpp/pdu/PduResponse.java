@@ -20,9 +20,13 @@ package com.cloudhopper.smpp.pdu;
  * #L%
  */
 
+import com.cloudhopper.smpp.transcoder.PduTranscoderContext;
+
 public abstract class PduResponse extends Pdu {
 
     private String resultMessage;
+    // looks up the result message on first access if none was set
+    private PduTranscoderContext resultMessageContext;
     
     public PduResponse(int commandId, String name) {
         super(commandId, name, false);
@@ -32,7 +36,21 @@ public abstract class PduResponse extends Pdu {
         this.resultMessage = value;
     }
 
+    /**
+     * Sets the context used to lookup the result message of the command
+     * status if none was set by the time getResultMessage() is called.  Lets
+     * transcoders skip the lookup for responses nobody asks the message of.
+     * @param context The context to lookup the result message with
+     */
+    public void setResultMessageContext(PduTranscoderContext context) {
+        this.resultMessageContext = context;
+    }
+
     public String getResultMessage() {
+        if (this.resultMessage == null && this.resultMessageContext != null) {
+            this.resultMessage = this.resultMessageContext.lookupResultMessage(getCommandStatus());
+            this.resultMessageContext = null;
+        }
         return this.resultMessage;
     }
     
@@ -0,0 +1,284 @@
+package com.cloudhopper.smpp.pdu;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.type.Address;
+import com.cloudhopper.smpp.type.RecoverablePduException;
+import com.cloudhopper.smpp.type.SmppInvalidArgumentException;
+import com.cloudhopper.smpp.type.UnrecoverablePduException;
+import com.cloudhopper.smpp.util.COctetStringCodec;
+import com.cloudhopper.smpp.util.ChannelBufferUtil;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Pre-encoded submit_sm for bulk submission where every message shares the
+ * same service_type, source address, esm_class, data_coding, etc. and
+ * optional parameters -- only the destination_addr, short_message and
+ * sequence number vary.  The constant parts are encoded once when the template
+ * is created (from a prototype SubmitSm) and each message is then encoded by
+ * copying them around the varying fields and patching in the command length
+ * and sequence number.  No SubmitSm is populated and calculateAndSetCommandLength()
+ * is never called per message.
+ * <br>
+ * The destination address ton/npi are taken from the prototype, its
+ * destination address and short message are ignored.  Changing the prototype
+ * after creating the template has no effect on the template.  A template is
+ * immutable and safe to share between threads and sessions.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class SubmitSmTemplate {
+
+    // offset of the sequence number in the header
+    static private final int SEQUENCE_NUMBER_OFFSET = 12;
+
+    // header, service_type, source address, dest_addr_ton and dest_addr_npi
+    private final byte[] head;
+    // esm_class thru sm_default_msg_id
+    private final byte[] middle;
+    // optional parameters
+    private final byte[] tail;
+    // the optional parameters shared by every request created from this template
+    private final ChannelBuffer tailBuffer;
+    // the constant fields (only used to create the request added to the window)
+    private final String serviceType;
+    private final Address sourceAddress;
+    private final byte destAddressTon;
+    private final byte destAddressNpi;
+    private final byte esmClass;
+    private final byte protocolId;
+    private final byte priority;
+    private final String scheduleDeliveryTime;
+    private final String validityPeriod;
+    private final byte registeredDelivery;
+    private final byte replaceIfPresent;
+    private final byte dataCoding;
+    private final byte defaultMsgId;
+
+    /**
+     * Creates a new template from the constant fields and optional parameters
+     * of the prototype.
+     * @param prototype The submit_sm to take the constant fields from
+     * @throws UnrecoverablePduException
+     * @throws RecoverablePduException
+     */
+    public SubmitSmTemplate(SubmitSm prototype) throws UnrecoverablePduException, RecoverablePduException {
+        this.serviceType = prototype.getServiceType();
+        this.sourceAddress = copy(prototype.getSourceAddress());
+        Address destAddress = prototype.getDestAddress();
+        this.destAddressTon = (destAddress == null ? 0 : destAddress.getTon());
+        this.destAddressNpi = (destAddress == null ? 0 : destAddress.getNpi());
+        this.esmClass = prototype.getEsmClass();
+        this.protocolId = prototype.getProtocolId();
+        this.priority = prototype.getPriority();
+        this.scheduleDeliveryTime = prototype.getScheduleDeliveryTime();
+        this.validityPeriod = prototype.getValidityPeriod();
+        this.registeredDelivery = prototype.getRegisteredDelivery();
+        this.replaceIfPresent = prototype.getReplaceIfPresent();
+        this.dataCoding = prototype.getDataCoding();
+        this.defaultMsgId = prototype.getDefaultMsgId();
+
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(SmppConstants.PDU_HEADER_LENGTH + 64);
+        // command length and sequence number are patched in per message
+        buffer.writeInt(0);
+        buffer.writeInt(SmppConstants.CMD_ID_SUBMIT_SM);
+        buffer.writeInt(0);
+        buffer.writeInt(0);
+        ChannelBufferUtil.writeNullTerminatedString(buffer, this.serviceType);
+        ChannelBufferUtil.writeAddress(buffer, this.sourceAddress);
+        buffer.writeByte(this.destAddressTon);
+        buffer.writeByte(this.destAddressNpi);
+        this.head = toByteArray(buffer);
+
+        buffer.writeByte(this.esmClass);
+        buffer.writeByte(this.protocolId);
+        buffer.writeByte(this.priority);
+        ChannelBufferUtil.writeNullTerminatedString(buffer, this.scheduleDeliveryTime);
+        ChannelBufferUtil.writeNullTerminatedString(buffer, this.validityPeriod);
+        buffer.writeByte(this.registeredDelivery);
+        buffer.writeByte(this.replaceIfPresent);
+        buffer.writeByte(this.dataCoding);
+        buffer.writeByte(this.defaultMsgId);
+        this.middle = toByteArray(buffer);
+
+        prototype.writeOptionalParameters(buffer, null);
+        this.tail = toByteArray(buffer);
+        this.tailBuffer = ChannelBuffers.wrappedBuffer(this.tail);
+    }
+
+    /**
+     * Gets the length of a submit_sm encoded from this template.
+     * @param destAddress The destination_addr (may be null)
+     * @param shortMessage The short_message (may be null)
+     * @return The command length of the encoded PDU
+     */
+    public int getEncodedLength(String destAddress, byte[] shortMessage) {
+        return this.head.length + (destAddress == null ? 0 : destAddress.length()) + 1
+            + this.middle.length + 1 + (shortMessage == null ? 0 : shortMessage.length)
+            + this.tail.length;
+    }
+
+    /**
+     * Encodes a submit_sm into a new buffer of its exact size.
+     * @param sequenceNumber The sequence number of the PDU
+     * @param destAddress The destination_addr (may be null)
+     * @param shortMessage The short_message (may be null)
+     * @return The encoded PDU
+     * @throws SmppInvalidArgumentException Thrown if the short message is
+     *      longer than 255 bytes
+     */
+    public ChannelBuffer encode(int sequenceNumber, String destAddress, byte[] shortMessage) throws SmppInvalidArgumentException {
+        ChannelBuffer buffer = ChannelBuffers.buffer(getEncodedLength(destAddress, shortMessage));
+        encode(sequenceNumber, destAddress, shortMessage, buffer);
+        return buffer;
+    }
+
+    /**
+     * Encodes a submit_sm, appending it to the buffer.  The buffer must be
+     * able to grow (e.g. a dynamic buffer) or have enough writable bytes for
+     * the entire PDU (see getEncodedLength()).
+     * @param sequenceNumber The sequence number of the PDU
+     * @param destAddress The destination_addr (may be null)
+     * @param shortMessage The short_message (may be null)
+     * @param buffer The buffer to append the encoded PDU to
+     * @throws SmppInvalidArgumentException Thrown if the short message is
+     *      longer than 255 bytes
+     */
+    public void encode(int sequenceNumber, String destAddress, byte[] shortMessage, ChannelBuffer buffer) throws SmppInvalidArgumentException {
+        int shortMessageLength = (shortMessage == null ? 0 : shortMessage.length);
+        if (shortMessageLength > 255) {
+            throw new SmppInvalidArgumentException("A short message in a PDU can only be a max of 255 bytes [actual=" + shortMessageLength + "]; use optional parameter message_payload as an alternative");
+        }
+
+        int startIndex = buffer.writerIndex();
+        buffer.writeBytes(this.head);
+        COctetStringCodec.write(buffer, destAddress);
+        buffer.writeBytes(this.middle);
+        buffer.writeByte(shortMessageLength);
+        if (shortMessageLength > 0) {
+            buffer.writeBytes(shortMessage);
+        }
+        buffer.writeBytes(this.tail);
+
+        buffer.setInt(startIndex, buffer.writerIndex() - startIndex);
+        buffer.setInt(startIndex + SEQUENCE_NUMBER_OFFSET, sequenceNumber);
+    }
+
+    /**
+     * Creates the submit_sm a message encoded from this template stands for,
+     * e.g. to add it to the window of a session.  Its command length is set
+     * to the encoded length.  It's cheap to create: the single byte fields are
+     * copied, the string fields and optional parameters are shared with the
+     * template (the TLVs are only parsed if accessed) and the source and
+     * destination addresses are only created once either is accessed.
+     * @param sequenceNumber The sequence number of the PDU
+     * @param destAddress The destination_addr (may be null)
+     * @param shortMessage The short_message (may be null)
+     * @return A new submit_sm
+     * @throws SmppInvalidArgumentException Thrown if the short message is
+     *      longer than 255 bytes
+     */
+    public SubmitSm createSubmitSm(int sequenceNumber, String destAddress, byte[] shortMessage) throws SmppInvalidArgumentException {
+        return new TemplatedSubmitSm(this, sequenceNumber, destAddress, shortMessage);
+    }
+
+    static private Address copy(Address address) {
+        if (address == null) {
+            return null;
+        }
+        return new Address(address.getTon(), address.getNpi(), address.getAddress());
+    }
+
+    /**
+     * A submit_sm created from a template.  Creating its addresses is deferred
+     * until they are accessed, which for most requests is never.
+     */
+    static private final class TemplatedSubmitSm extends SubmitSm {
+
+        // null once the addresses were created
+        private SubmitSmTemplate template;
+        private String destAddressValue;
+
+        TemplatedSubmitSm(SubmitSmTemplate template, int sequenceNumber, String destAddress, byte[] shortMessage) throws SmppInvalidArgumentException {
+            this.template = template;
+            this.destAddressValue = destAddress;
+            setSequenceNumber(sequenceNumber);
+            setCommandLength(template.getEncodedLength(destAddress, shortMessage));
+            setServiceType(template.serviceType);
+            setEsmClass(template.esmClass);
+            setProtocolId(template.protocolId);
+            setPriority(template.priority);
+            setScheduleDeliveryTime(template.scheduleDeliveryTime);
+            setValidityPeriod(template.validityPeriod);
+            setRegisteredDelivery(template.registeredDelivery);
+            setReplaceIfPresent(template.replaceIfPresent);
+            setDataCoding(template.dataCoding);
+            setDefaultMsgId(template.defaultMsgId);
+            setShortMessage(shortMessage);
+            setEncodedOptionalParameters(template.tailBuffer);
+        }
+
+        private void createAddresses() {
+            if (this.template != null) {
+                SubmitSmTemplate t = this.template;
+                this.template = null;
+                // a copy since an address is mutable
+                super.setSourceAddress(copy(t.sourceAddress));
+                super.setDestAddress(new Address(t.destAddressTon, t.destAddressNpi, this.destAddressValue));
+                this.destAddressValue = null;
+            }
+        }
+
+        @Override
+        public Address getSourceAddress() {
+            createAddresses();
+            return super.getSourceAddress();
+        }
+
+        @Override
+        public void setSourceAddress(Address value) {
+            createAddresses();
+            super.setSourceAddress(value);
+        }
+
+        @Override
+        public Address getDestAddress() {
+            createAddresses();
+            return super.getDestAddress();
+        }
+
+        @Override
+        public void setDestAddress(Address value) {
+            createAddresses();
+            super.setDestAddress(value);
+        }
+    }
+
+    // the readable bytes of the buffer, which are then discarded
+    static private byte[] toByteArray(ChannelBuffer buffer) {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.readBytes(bytes);
+        buffer.discardReadBytes();
+        return bytes;
+    }
+}
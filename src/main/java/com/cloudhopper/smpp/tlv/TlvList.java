@@ -0,0 +1,483 @@
+package com.cloudhopper.smpp.tlv;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.type.NotEnoughDataInBufferException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Compact list of TLVs backed by a single byte array holding every TLV in its
+ * encoded form (2 byte tag, 2 byte length, value) back to back, exactly as it
+ * appears on the wire.  A small open-addressed index maps a tag to the offset
+ * of the first TLV with that tag so lookups are O(1).  The typed accessors
+ * read values straight out of the byte array without creating any Tlv objects.
+ * Duplicate tags are allowed, but lookups always return the first one.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class TlvList {
+
+    static private final int DEFAULT_CAPACITY = 64;
+    static private final int MIN_INDEX_SLOTS = 8;
+
+    private byte[] data;
+    private int size;               // number of bytes used in data
+    private int count;              // number of TLVs
+    // open-addressed index of tag -> offset of the first TLV with that tag
+    private short[] slotTags;
+    private int[] slotOffsets;      // -1 if the slot is empty
+    private int slotsUsed;
+
+    public TlvList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new list with an initial capacity in bytes.
+     * @param capacity The initial capacity of the backing array in bytes
+     */
+    public TlvList(int capacity) {
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Gets the number of TLVs in this list.
+     * @return The number of TLVs
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * Gets the size of every TLV in this list once encoded.
+     * @return The size in bytes
+     */
+    public int getByteSize() {
+        return this.size;
+    }
+
+    /**
+     * Gets the offset of the first TLV with the tag in the backing array.
+     * @param tag The TLV tag to search for
+     * @return The offset or -1 if no TLV has that tag
+     */
+    public int offsetOf(short tag) {
+        if (this.slotOffsets == null) {
+            return -1;
+        }
+        int mask = this.slotOffsets.length - 1;
+        int slot = hash(tag) & mask;
+        while (this.slotOffsets[slot] >= 0) {
+            if (this.slotTags[slot] == tag) {
+                return this.slotOffsets[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the position of the first TLV with the tag in this list (as in the
+     * list returned by toList()).  Unlike offsetOf(), this walks every TLV
+     * in front of it.
+     * @param tag The TLV tag to search for
+     * @return The index or -1 if no TLV has that tag
+     */
+    public int indexOf(short tag) {
+        int tagOffset = offsetOf(tag);
+        if (tagOffset < 0) {
+            return -1;
+        }
+        int i = 0;
+        for (int offset = 0; offset < tagOffset; offset += 4 + valueLength(offset)) {
+            i++;
+        }
+        return i;
+    }
+
+    public boolean contains(short tag) {
+        return (offsetOf(tag) >= 0);
+    }
+
+    /**
+     * Gets the length of the value of the first TLV with the tag.
+     * @param tag The TLV tag to search for
+     * @return The length or -1 if no TLV has that tag
+     */
+    public int getValueLength(short tag) {
+        int offset = offsetOf(tag);
+        if (offset < 0) {
+            return -1;
+        }
+        return valueLength(offset);
+    }
+
+    /**
+     * Reads every TLV remaining in the buffer and appends them to this list.
+     * The bytes are copied in one go and each TLV is only validated and indexed.
+     * @param buffer The buffer to read from
+     * @throws NotEnoughDataInBufferException Thrown if the last TLV is truncated
+     */
+    public void read(ChannelBuffer buffer) throws NotEnoughDataInBufferException {
+        int readableBytes = buffer.readableBytes();
+        int startSize = this.size;
+        ensureCapacity(startSize + readableBytes);
+        buffer.readBytes(this.data, startSize, readableBytes);
+        int endIndex = startSize + readableBytes;
+        // validate the tag and length of every TLV before adding any of them
+        int offset = startSize;
+        int added = 0;
+        while (offset < endIndex) {
+            if (endIndex - offset < 4) {
+                throw new NotEnoughDataInBufferException("Parsing TLV tag and length", endIndex - offset, 4);
+            }
+            int length = valueLength(offset);
+            if (endIndex - offset - 4 < length) {
+                throw new NotEnoughDataInBufferException("Parsing TLV value", endIndex - offset - 4, length);
+            }
+            offset += 4 + length;
+            added++;
+        }
+        ensureIndexCapacity(this.slotsUsed + added);
+        for (offset = startSize; offset < endIndex; offset += 4 + valueLength(offset)) {
+            index(tag(offset), offset);
+        }
+        this.size = endIndex;
+        this.count += added;
+    }
+
+    /**
+     * Writes every TLV in this list to the buffer.
+     * @param buffer The buffer to write to
+     */
+    public void write(ChannelBuffer buffer) {
+        buffer.writeBytes(this.data, 0, this.size);
+    }
+
+    /**
+     * Appends a TLV to the end of this list (allows duplicates).
+     * @param tlv The TLV to add
+     */
+    public void add(Tlv tlv) {
+        add(tlv.getTag(), tlv.getValue());
+    }
+
+    /**
+     * Appends a TLV to the end of this list (allows duplicates).
+     * @param tag The tag of the TLV
+     * @param value The value of the TLV (null is the same as empty)
+     */
+    public void add(short tag, byte[] value) {
+        int length = (value == null ? 0 : value.length);
+        int offset = this.size;
+        ensureCapacity(offset + 4 + length);
+        writeHeader(offset, tag, length);
+        if (length > 0) {
+            System.arraycopy(value, 0, this.data, offset + 4, length);
+        }
+        this.size += 4 + length;
+        this.count++;
+        index(tag, offset);
+    }
+
+    /**
+     * Replaces the first TLV with the same tag (keeping its position in the
+     * list) or appends it if no TLV has that tag yet.
+     * @param tlv The TLV to add/set
+     * @return Null if no TLV was replaced, or the TLV replaced.
+     */
+    public Tlv set(Tlv tlv) {
+        short tag = tlv.getTag();
+        int offset = offsetOf(tag);
+        if (offset < 0) {
+            add(tag, tlv.getValue());
+            return null;
+        }
+        Tlv replaced = tlvAt(offset);
+        byte[] value = tlv.getValue();
+        int length = (value == null ? 0 : value.length);
+        int oldLength = valueLength(offset);
+        if (length != oldLength) {
+            splice(offset + 4 + oldLength, length - oldLength);
+        }
+        writeHeader(offset, tag, length);
+        if (length > 0) {
+            System.arraycopy(value, 0, this.data, offset + 4, length);
+        }
+        if (length != oldLength) {
+            rebuildIndex();
+        }
+        return replaced;
+    }
+
+    /**
+     * Removes the first TLV with the tag.
+     * @param tag The tag to remove
+     * @return Null if no TLV removed, or the TLV removed.
+     */
+    public Tlv remove(short tag) {
+        int offset = offsetOf(tag);
+        if (offset < 0) {
+            return null;
+        }
+        Tlv removed = tlvAt(offset);
+        int length = 4 + valueLength(offset);
+        splice(offset + length, -length);
+        this.count--;
+        rebuildIndex();
+        return removed;
+    }
+
+    /**
+     * Gets the first TLV with the tag.  A new Tlv (with a copy of the value) is
+     * created on every call, use the typed accessors to avoid that.
+     * @param tag The TLV tag to search for
+     * @return Null if no TLV has that tag, or the first matching TLV
+     */
+    public Tlv get(short tag) {
+        int offset = offsetOf(tag);
+        if (offset < 0) {
+            return null;
+        }
+        return tlvAt(offset);
+    }
+
+    /**
+     * Creates a list with a Tlv (with a copy of the value) for every TLV in
+     * this list, in order.
+     * @return The new list of TLVs
+     */
+    public ArrayList<Tlv> toList() {
+        ArrayList<Tlv> tlvs = new ArrayList<Tlv>(this.count);
+        int offset = 0;
+        while (offset < this.size) {
+            tlvs.add(tlvAt(offset));
+            offset += 4 + valueLength(offset);
+        }
+        return tlvs;
+    }
+
+    public byte getValueAsByte(short tag, byte defaultValue) throws TlvConvertException {
+        int offset = valueOffset(tag, 1, "byte");
+        if (offset < 0) {
+            return defaultValue;
+        }
+        return this.data[offset];
+    }
+
+    public short getValueAsUnsignedByte(short tag, short defaultValue) throws TlvConvertException {
+        int offset = valueOffset(tag, 1, "unsigned byte");
+        if (offset < 0) {
+            return defaultValue;
+        }
+        return (short)(this.data[offset] & 0xFF);
+    }
+
+    public short getValueAsShort(short tag, short defaultValue) throws TlvConvertException {
+        int offset = valueOffset(tag, 2, "short");
+        if (offset < 0) {
+            return defaultValue;
+        }
+        return (short)readUnsignedShort(offset);
+    }
+
+    public int getValueAsUnsignedShort(short tag, int defaultValue) throws TlvConvertException {
+        int offset = valueOffset(tag, 2, "unsigned short");
+        if (offset < 0) {
+            return defaultValue;
+        }
+        return readUnsignedShort(offset);
+    }
+
+    public int getValueAsInt(short tag, int defaultValue) throws TlvConvertException {
+        int offset = valueOffset(tag, 4, "int");
+        if (offset < 0) {
+            return defaultValue;
+        }
+        return readInt(offset);
+    }
+
+    public long getValueAsUnsignedInt(short tag, long defaultValue) throws TlvConvertException {
+        int offset = valueOffset(tag, 4, "unsigned int");
+        if (offset < 0) {
+            return defaultValue;
+        }
+        return (readInt(offset) & 0xFFFFFFFFL);
+    }
+
+    public long getValueAsLong(short tag, long defaultValue) throws TlvConvertException {
+        int offset = valueOffset(tag, 8, "long");
+        if (offset < 0) {
+            return defaultValue;
+        }
+        return ((long)readInt(offset) << 32) | (readInt(offset + 4) & 0xFFFFFFFFL);
+    }
+
+    public String getValueAsString(short tag) throws TlvConvertException {
+        return getValueAsString(tag, "ISO-8859-1");
+    }
+
+    /**
+     * Gets the value of the first TLV with the tag as a string.  Just like
+     * Tlv.getValueAsString(), the string ends at the first null byte.
+     * @param tag The TLV tag to search for
+     * @param charsetName The charset of the value
+     * @return Null if no TLV has that tag, or the value as a string
+     * @throws TlvConvertException Thrown if the charset is unsupported
+     */
+    public String getValueAsString(short tag, String charsetName) throws TlvConvertException {
+        int offset = offsetOf(tag);
+        if (offset < 0) {
+            return null;
+        }
+        int start = offset + 4;
+        int end = start + valueLength(offset);
+        int len = end - start;
+        for (int i = start; i < end; i++) {
+            if (this.data[i] == 0x00) {
+                len = i - start;
+                break;
+            }
+        }
+        try {
+            return new String(this.data, start, len, charsetName);
+        } catch (UnsupportedEncodingException e) {
+            throw new TlvConvertException("String", "unsupported charset " + e.getMessage());
+        }
+    }
+
+    private int valueOffset(short tag, int expectedLength, String typeName) throws TlvConvertException {
+        int offset = offsetOf(tag);
+        if (offset < 0) {
+            return -1;
+        }
+        int length = valueLength(offset);
+        if (length != expectedLength) {
+            throw new TlvConvertException(typeName, "value must be " + expectedLength + " byte(s) but was " + length);
+        }
+        return offset + 4;
+    }
+
+    private short tag(int offset) {
+        return (short)readUnsignedShort(offset);
+    }
+
+    private int valueLength(int offset) {
+        return readUnsignedShort(offset + 2);
+    }
+
+    private Tlv tlvAt(int offset) {
+        int length = valueLength(offset);
+        byte[] value = new byte[length];
+        System.arraycopy(this.data, offset + 4, value, 0, length);
+        return new Tlv(tag(offset), value);
+    }
+
+    private int readUnsignedShort(int offset) {
+        return ((this.data[offset] & 0xFF) << 8) | (this.data[offset + 1] & 0xFF);
+    }
+
+    private int readInt(int offset) {
+        return ((this.data[offset] & 0xFF) << 24) | ((this.data[offset + 1] & 0xFF) << 16)
+            | ((this.data[offset + 2] & 0xFF) << 8) | (this.data[offset + 3] & 0xFF);
+    }
+
+    private void writeHeader(int offset, short tag, int length) {
+        this.data[offset] = (byte)(tag >> 8);
+        this.data[offset + 1] = (byte)tag;
+        this.data[offset + 2] = (byte)(length >> 8);
+        this.data[offset + 3] = (byte)length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.data.length) {
+            this.data = Arrays.copyOf(this.data, Math.max(capacity, this.data.length * 2));
+        }
+    }
+
+    // shifts every byte from the offset until the end by delta bytes
+    private void splice(int offset, int delta) {
+        ensureCapacity(this.size + delta);
+        System.arraycopy(this.data, offset, this.data, offset + delta, this.size - offset);
+        this.size += delta;
+    }
+
+    static private int hash(short tag) {
+        int h = tag * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void index(short tag, int offset) {
+        ensureIndexCapacity(this.slotsUsed + 1);
+        int mask = this.slotOffsets.length - 1;
+        int slot = hash(tag) & mask;
+        while (this.slotOffsets[slot] >= 0) {
+            if (this.slotTags[slot] == tag) {
+                // duplicate tag, lookups always return the first one
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        this.slotTags[slot] = tag;
+        this.slotOffsets[slot] = offset;
+        this.slotsUsed++;
+    }
+
+    // keeps the index at most half full
+    private void ensureIndexCapacity(int tags) {
+        int slots = (this.slotOffsets == null ? MIN_INDEX_SLOTS : this.slotOffsets.length);
+        while (tags * 2 > slots) {
+            slots *= 2;
+        }
+        if (this.slotOffsets != null && slots == this.slotOffsets.length) {
+            return;
+        }
+        short[] oldTags = this.slotTags;
+        int[] oldOffsets = this.slotOffsets;
+        this.slotTags = new short[slots];
+        this.slotOffsets = new int[slots];
+        Arrays.fill(this.slotOffsets, -1);
+        this.slotsUsed = 0;
+        if (oldOffsets != null) {
+            for (int i = 0; i < oldOffsets.length; i++) {
+                if (oldOffsets[i] >= 0) {
+                    index(oldTags[i], oldOffsets[i]);
+                }
+            }
+        }
+    }
+
+    private void rebuildIndex() {
+        if (this.slotOffsets == null) {
+            return;
+        }
+        Arrays.fill(this.slotOffsets, -1);
+        this.slotsUsed = 0;
+        int offset = 0;
+        while (offset < this.size) {
+            index(tag(offset), offset);
+            offset += 4 + valueLength(offset);
+        }
+    }
+}
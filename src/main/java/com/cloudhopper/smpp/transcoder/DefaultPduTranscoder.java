@@ -25,36 +25,22 @@ import com.cloudhopper.smpp.type.UnknownCommandIdException;
 import com.cloudhopper.smpp.type.RecoverablePduException;
 import com.cloudhopper.commons.util.HexUtil;
 import com.cloudhopper.smpp.SmppConstants;
-import com.cloudhopper.smpp.pdu.BindReceiver;
-import com.cloudhopper.smpp.pdu.BindReceiverResp;
-import com.cloudhopper.smpp.pdu.BindTransceiver;
-import com.cloudhopper.smpp.pdu.BindTransceiverResp;
-import com.cloudhopper.smpp.pdu.BindTransmitter;
-import com.cloudhopper.smpp.pdu.BindTransmitterResp;
-import com.cloudhopper.smpp.pdu.CancelSm;
-import com.cloudhopper.smpp.pdu.CancelSmResp;
-import com.cloudhopper.smpp.pdu.DataSm;
-import com.cloudhopper.smpp.pdu.DataSmResp;
-import com.cloudhopper.smpp.pdu.DeliverSm;
-import com.cloudhopper.smpp.pdu.DeliverSmResp;
-import com.cloudhopper.smpp.pdu.EnquireLink;
-import com.cloudhopper.smpp.pdu.EnquireLinkResp;
-import com.cloudhopper.smpp.pdu.GenericNack;
+import com.cloudhopper.smpp.jfr.SmppFlightRecorder;
+import com.cloudhopper.smpp.pdu.BaseBind;
+import com.cloudhopper.smpp.pdu.BaseBindResp;
 import com.cloudhopper.smpp.pdu.PartialPdu;
 import com.cloudhopper.smpp.pdu.PartialPduResp;
 import com.cloudhopper.smpp.pdu.Pdu;
 import com.cloudhopper.smpp.pdu.PduResponse;
-import com.cloudhopper.smpp.pdu.QuerySm;
-import com.cloudhopper.smpp.pdu.QuerySmResp;
-import com.cloudhopper.smpp.pdu.SubmitSm;
-import com.cloudhopper.smpp.pdu.SubmitSmResp;
-import com.cloudhopper.smpp.pdu.Unbind;
-import com.cloudhopper.smpp.pdu.UnbindResp;
 import com.cloudhopper.smpp.type.NotEnoughDataInBufferException;
+import com.cloudhopper.smpp.util.COctetStringCache;
+import com.cloudhopper.smpp.util.ChannelBufferPool;
+import com.cloudhopper.smpp.util.PooledChannelBuffer;
 import com.cloudhopper.smpp.util.PduUtil;
 import com.cloudhopper.smpp.util.SequenceNumber;
 import org.jboss.netty.buffer.BigEndianHeapChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 
 /**
  * 
@@ -63,18 +49,167 @@ import org.jboss.netty.buffer.ChannelBuffer;
 public class DefaultPduTranscoder implements PduTranscoder {
 
     private final PduTranscoderContext context;
+    private final ChannelBufferPool bufferPool;
+    private final boolean lazyDecode;
+    private final boolean headerOnlyDecode;
+    private final PduFactoryRegistry pduFactoryRegistry;
+    private final COctetStringCache internCache;
 
     public DefaultPduTranscoder(PduTranscoderContext context) {
+        this(context, null);
+    }
+
+    /**
+     * Creates a new transcoder that encodes PDUs in a single pass into buffers
+     * acquired from the pool.  Each encoded buffer is a PooledChannelBuffer
+     * that should be released back to the pool once the write to the channel
+     * finished (e.g. by adding it as a listener to the write future).  The
+     * command length isn't calculated up front -- a PDU that overflows a
+     * pooled buffer while it's written (or whose already assigned command
+     * length is larger) is encoded into a new buffer of its exact size.
+     * @param context The transcoder context
+     * @param bufferPool The pool to acquire buffers from or null to encode
+     *      each PDU into a new buffer of its exact size.
+     */
+    public DefaultPduTranscoder(PduTranscoderContext context, ChannelBufferPool bufferPool) {
+        this(context, bufferPool, false);
+    }
+
+    /**
+     * Creates a new transcoder that optionally decodes PDUs lazily.  A lazily
+     * decoded PDU keeps a reference to the buffer it was decoded from and only
+     * parses its fields (e.g. addresses, short message and optional parameters)
+     * on first access.  Its lifetime is explicit: see Pdu.detach() and
+     * Pdu.release().
+     * @param context The transcoder context
+     * @param bufferPool The pool to acquire buffers from or null to encode
+     *      each PDU into a new buffer of its exact size.
+     * @param lazyDecode True to decode PDUs lazily
+     */
+    public DefaultPduTranscoder(PduTranscoderContext context, ChannelBufferPool bufferPool, boolean lazyDecode) {
+        this(context, bufferPool, lazyDecode, false);
+    }
+
+    /**
+     * Creates a new transcoder that optionally decodes only the header of
+     * PDUs (e.g. for a proxy that relays PDUs between sessions).  The body
+     * and optional parameters of such a PDU are kept as-is and written back
+     * out without being copied unless Pdu.decodeRawBody() was called (see
+     * Pdu.readRawBody()).  Takes precedence over lazy decoding.
+     * @param context The transcoder context
+     * @param bufferPool The pool to acquire buffers from or null to encode
+     *      each PDU into a new buffer of its exact size.
+     * @param lazyDecode True to decode PDUs lazily
+     * @param headerOnlyDecode True to only decode the header of PDUs
+     */
+    public DefaultPduTranscoder(PduTranscoderContext context, ChannelBufferPool bufferPool, boolean lazyDecode, boolean headerOnlyDecode) {
+        this(context, bufferPool, lazyDecode, headerOnlyDecode, null);
+    }
+
+    /**
+     * Creates a new transcoder that creates decoded PDUs with the factories
+     * of a registry, which may be shared with other transcoders.
+     * @param context The transcoder context
+     * @param bufferPool The pool to acquire buffers from or null to encode
+     *      each PDU into a new buffer of its exact size.
+     * @param lazyDecode True to decode PDUs lazily
+     * @param headerOnlyDecode True to only decode the header of PDUs
+     * @param pduFactoryRegistry The registry of PDU factories or null to
+     *      create a new one of every PDU supported by this library
+     */
+    public DefaultPduTranscoder(PduTranscoderContext context, ChannelBufferPool bufferPool, boolean lazyDecode, boolean headerOnlyDecode, PduFactoryRegistry pduFactoryRegistry) {
+        this(context, bufferPool, lazyDecode, headerOnlyDecode, pduFactoryRegistry, null);
+    }
+
+    /**
+     * Creates a new transcoder that reads low cardinality fields of decoded
+     * PDUs (service_type, system_type and source addresses) through an intern
+     * cache, so repeated values share one String.  The cache may be shared
+     * with other transcoders.
+     * @param context The transcoder context
+     * @param bufferPool The pool to acquire buffers from or null to encode
+     *      each PDU into a new buffer of its exact size.
+     * @param lazyDecode True to decode PDUs lazily
+     * @param headerOnlyDecode True to only decode the header of PDUs
+     * @param pduFactoryRegistry The registry of PDU factories or null to
+     *      create a new one of every PDU supported by this library
+     * @param internCache The cache or null to not intern any field
+     */
+    public DefaultPduTranscoder(PduTranscoderContext context, ChannelBufferPool bufferPool, boolean lazyDecode, boolean headerOnlyDecode, PduFactoryRegistry pduFactoryRegistry, COctetStringCache internCache) {
         this.context = context;
+        this.bufferPool = bufferPool;
+        this.lazyDecode = lazyDecode;
+        this.headerOnlyDecode = headerOnlyDecode;
+        this.pduFactoryRegistry = (pduFactoryRegistry != null ? pduFactoryRegistry : new PduFactoryRegistry());
+        this.internCache = internCache;
+    }
+
+    public ChannelBufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
+    public boolean isLazyDecode() {
+        return this.lazyDecode;
+    }
+
+    public boolean isHeaderOnlyDecode() {
+        return this.headerOnlyDecode;
+    }
+
+    public COctetStringCache getInternCache() {
+        return this.internCache;
+    }
+
+    /**
+     * Gets the registry of factories used to create PDUs while decoding.  Each
+     * transcoder has its own registry unless one was passed in (e.g. via
+     * SmppSessionConfiguration.setPduFactoryRegistry()) -- register any
+     * additional (e.g. vendor specific) PDUs with it before the transcoder is
+     * used.
+     * @return The registry of PDU factories
+     */
+    public PduFactoryRegistry getPduFactoryRegistry() {
+        return this.pduFactoryRegistry;
     }
 
     @Override
     public ChannelBuffer encode(Pdu pdu) throws UnrecoverablePduException, RecoverablePduException {
-        // see if we can map the command status into a message
-        if (pdu instanceof PduResponse) {
-            PduResponse response = (PduResponse)pdu;
-            if (response.getResultMessage() == null) {
-                response.setResultMessage(context.lookupResultMessage(pdu.getCommandStatus()));
+        // null unless recorded by JFR
+        Object encodedEvent = SmppFlightRecorder.beginPduEncoded();
+        ChannelBuffer buffer = encodeBuffer(pdu);
+        if (encodedEvent != null) {
+            SmppFlightRecorder.commitPduEncoded(encodedEvent, pdu.getCommandId(), pdu.getSequenceNumber(), buffer.readableBytes());
+        }
+        return buffer;
+    }
+
+    private ChannelBuffer encodeBuffer(Pdu pdu) throws UnrecoverablePduException, RecoverablePduException {
+        // header-only decoded: a new header in front of the untouched body
+        if (pdu.hasRawBody()) {
+            deferResultMessage(pdu);
+            ChannelBuffer rawBody = pdu.getRawBody();
+            ChannelBuffer header = new BigEndianHeapChannelBuffer(SmppConstants.PDU_HEADER_LENGTH);
+            writeRawHeader(pdu, rawBody, header);
+            return ChannelBuffers.wrappedBuffer(header, rawBody);
+        }
+
+        // encoded straight into a pooled buffer without calculating its length
+        // first -- a pdu that doesn't fit is encoded below into a buffer of its
+        // exact size instead
+        if (this.bufferPool != null && (!pdu.hasCommandLengthCalculated() || pdu.getCommandLength() <= this.bufferPool.getBufferCapacity())) {
+            PooledChannelBuffer buffer = this.bufferPool.acquire();
+            boolean encoded = false;
+            try {
+                encode(pdu, buffer);
+                encoded = true;
+                return buffer;
+            } catch (IndexOutOfBoundsException e) {
+                // a pooled buffer never grows -- the first write past its
+                // capacity fails and the pdu is encoded below instead
+            } finally {
+                if (!encoded) {
+                    buffer.release();
+                }
             }
         }
 
@@ -85,6 +220,8 @@ public class DefaultPduTranscoder implements PduTranscoder {
             pdu.calculateAndSetCommandLength();
         }
 
+        deferResultMessage(pdu);
+
         // create the buffer and add the header
         ChannelBuffer buffer = new BigEndianHeapChannelBuffer(pdu.getCommandLength());
 
@@ -107,6 +244,71 @@ public class DefaultPduTranscoder implements PduTranscoder {
 
         return buffer;
     }
+
+    /**
+     * Encodes the PDU in a single pass, appending it to the buffer.  The header,
+     * body and optional parameters are written without calculating the length
+     * of the PDU first -- the commandLength is patched into the header once
+     * the PDU was written.  The buffer must be able to grow (e.g. a dynamic
+     * buffer) or have enough writable bytes for the entire PDU.
+     * @param pdu The PDU to encode
+     * @param buffer The buffer to append the encoded PDU to
+     * @throws UnrecoverablePduException
+     * @throws RecoverablePduException
+     */
+    public void encode(Pdu pdu, ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
+        deferResultMessage(pdu);
+
+        if (pdu.hasRawBody()) {
+            ChannelBuffer rawBody = pdu.getRawBody();
+            writeRawHeader(pdu, rawBody, buffer);
+            buffer.writeBytes(rawBody);
+            return;
+        }
+
+        int startIndex = buffer.writerIndex();
+
+        // command length is patched in below once the entire pdu is written
+        buffer.writeInt(0);
+        buffer.writeInt(pdu.getCommandId());
+        buffer.writeInt(pdu.getCommandStatus());
+        buffer.writeInt(pdu.getSequenceNumber());
+
+        // add mandatory body (a noop if no body exists)
+        pdu.writeBody(buffer);
+
+        // add optional parameters (a noop if none exist)
+        pdu.writeOptionalParameters(buffer, context);
+
+        int commandLength = buffer.writerIndex() - startIndex;
+
+        // a previously assigned commandLength MUST match what was actually written
+        if (pdu.hasCommandLengthCalculated()) {
+            if (commandLength != pdu.getCommandLength()) {
+                throw new NotEnoughDataInBufferException("During PDU encoding the expected commandLength did not match the actual encoded (a serious error with our own encoding process)", pdu.getCommandLength(), commandLength);
+            }
+        } else {
+            pdu.setCommandLength(commandLength);
+        }
+
+        buffer.setInt(startIndex, commandLength);
+    }
+
+    private void writeRawHeader(Pdu pdu, ChannelBuffer rawBody, ChannelBuffer buffer) {
+        int commandLength = SmppConstants.PDU_HEADER_LENGTH + rawBody.readableBytes();
+        pdu.setCommandLength(commandLength);
+        buffer.writeInt(commandLength);
+        buffer.writeInt(pdu.getCommandId());
+        buffer.writeInt(pdu.getCommandStatus());
+        buffer.writeInt(pdu.getSequenceNumber());
+    }
+
+    private void deferResultMessage(Pdu pdu) {
+        // the command status is only mapped into a message if it's asked for
+        if (pdu instanceof PduResponse) {
+            ((PduResponse)pdu).setResultMessageContext(context);
+        }
+    }
     
     @Override
     public Pdu decode(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
@@ -149,56 +351,12 @@ public class DefaultPduTranscoder implements PduTranscoder {
         // this is a major issue if the sequence number is invalid
         SequenceNumber.assertValid(sequenceNumber);
 
-        Pdu pdu = null;
-
-        // any command id with its 31st bit set to true is a response
-        if (PduUtil.isRequestCommandId(commandId)) {
-            if (commandId == SmppConstants.CMD_ID_ENQUIRE_LINK) {
-                pdu = new EnquireLink();
-            } else if (commandId == SmppConstants.CMD_ID_DELIVER_SM) {
-                pdu = new DeliverSm();
-            } else if (commandId == SmppConstants.CMD_ID_SUBMIT_SM) {
-                pdu = new SubmitSm();
-            } else if (commandId == SmppConstants.CMD_ID_DATA_SM) {
-                pdu = new DataSm();
-            } else if (commandId == SmppConstants.CMD_ID_CANCEL_SM) {
-                pdu = new CancelSm();
-            } else if (commandId == SmppConstants.CMD_ID_QUERY_SM) {
-                pdu = new QuerySm();
-            } else if (commandId == SmppConstants.CMD_ID_BIND_TRANSCEIVER) {
-                pdu = new BindTransceiver();
-            } else if (commandId == SmppConstants.CMD_ID_BIND_TRANSMITTER) {
-                pdu = new BindTransmitter();
-            } else if (commandId == SmppConstants.CMD_ID_BIND_RECEIVER) {
-                pdu = new BindReceiver();
-            } else if (commandId == SmppConstants.CMD_ID_UNBIND) {
-                pdu = new Unbind();
-            } else {
+        // create the pdu via its registered factory (a table lookup)
+        Pdu pdu = this.pduFactoryRegistry.newPdu(commandId);
+        if (pdu == null) {
+            // any command id with its 31st bit set to true is a response
+            if (PduUtil.isRequestCommandId(commandId)) {
                 pdu = new PartialPdu(commandId);
-            }
-        } else {
-            if (commandId == SmppConstants.CMD_ID_SUBMIT_SM_RESP) {
-                pdu = new SubmitSmResp();
-            } else if (commandId == SmppConstants.CMD_ID_DELIVER_SM_RESP) {
-                pdu = new DeliverSmResp();
-            } else if (commandId == SmppConstants.CMD_ID_DATA_SM_RESP) {
-                pdu = new DataSmResp();
-            } else if (commandId == SmppConstants.CMD_ID_CANCEL_SM_RESP) {
-                pdu = new CancelSmResp();
-            } else if (commandId == SmppConstants.CMD_ID_QUERY_SM_RESP) {
-                pdu = new QuerySmResp();
-            } else if (commandId == SmppConstants.CMD_ID_ENQUIRE_LINK_RESP) {
-                pdu = new EnquireLinkResp();
-            } else if (commandId == SmppConstants.CMD_ID_BIND_TRANSCEIVER_RESP) {
-                pdu = new BindTransceiverResp();
-            } else if (commandId == SmppConstants.CMD_ID_BIND_RECEIVER_RESP) {
-                pdu = new BindReceiverResp();
-            } else if (commandId == SmppConstants.CMD_ID_BIND_TRANSMITTER_RESP) {
-                pdu = new BindTransmitterResp();
-            } else if (commandId == SmppConstants.CMD_ID_UNBIND_RESP) {
-                pdu = new UnbindResp();
-            } else if (commandId == SmppConstants.CMD_ID_GENERIC_NACK) {
-                pdu = new GenericNack();
             } else {
                 pdu = new PartialPduResp(commandId);
             }
@@ -216,17 +374,27 @@ public class DefaultPduTranscoder implements PduTranscoder {
             throw new UnknownCommandIdException(pdu, "Unsupported or unknown PDU response commandId [0x" + HexUtil.toHexString(commandId) + "]");
         }
 
-        // see if we can map the command status into a message
-        if (pdu instanceof PduResponse) {
-            PduResponse response = (PduResponse)pdu;
-            response.setResultMessage(context.lookupResultMessage(commandStatus));
+        deferResultMessage(pdu);
+
+        if (this.internCache != null) {
+            pdu.setInternCache(this.internCache);
         }
 
         try {
-            // parse pdu body parameters (may throw exception)
-            pdu.readBody(buffer);
-            // parse pdu optional parameters (may throw exception)
-            pdu.readOptionalParameters(buffer, context);
+            if (this.headerOnlyDecode && !(pdu instanceof BaseBind || pdu instanceof BaseBindResp)) {
+                // the body is kept as-is (and written back out as-is) -- binds
+                // are always decoded since the session itself needs their fields
+                pdu.readRawBody(buffer, context);
+            } else if (this.lazyDecode) {
+                // only validate now, fields are parsed on first access
+                pdu.readBodyLazily(buffer);
+                pdu.readOptionalParametersLazily(buffer, context);
+            } else {
+                // parse pdu body parameters (may throw exception)
+                pdu.readBody(buffer);
+                // parse pdu optional parameters (may throw exception)
+                pdu.readOptionalParameters(buffer, context);
+            }
         } catch (RecoverablePduException e) {
             // check if we should add the partial pdu to the exception
             if (e.getPartialPdu() == null) {
@@ -21,6 +21,7 @@ package com.cloudhopper.smpp.transcoder;
  */
 
 import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.util.StringLookupTable;
 
 /**
  * Provides a default context for a PduTranscoder by looking everything up
@@ -28,12 +29,34 @@ import com.cloudhopper.smpp.SmppConstants;
  * supplied in the constructor.  By default, this context will then attempt
  * to call the overridden context and any null value returned will then be
  * looked up using standard rules.
+ * <br>
+ * Lookups use primitive keyed tables copied once from SmppConstants and
+ * shared by every context (nothing is boxed).  The result of the override
+ * context is cached per command status/tag, so the override context is
+ * expected to always return the same value for the same key.
  * 
  * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
  */
 public class DefaultPduTranscoderContext implements PduTranscoderContext {
 
+    // every standard command status fits in the dense part of the table
+    static private final int STATUS_DENSE_SIZE = 0x100;
+    // max number of override results cached per lookup type
+    static private final int MAX_CACHED_OVERRIDES = 256;
+    // cached when the override context returns null (compared by identity)
+    static private final String NOT_OVERRIDDEN = new String("<not-overridden>");
+
+    // tables are immutable, so every context (i.e. every session) shares them
+    static private final StringLookupTable RESULT_MESSAGES = new StringLookupTable(SmppConstants.STATUS_MESSAGE_MAP, STATUS_DENSE_SIZE);
+    static private final StringLookupTable TLV_TAG_NAMES = new StringLookupTable(SmppConstants.TAG_NAME_MAP, 0);
+    static private final StringLookupTable NO_OVERRIDE_RESULT_MESSAGES = new StringLookupTable(STATUS_DENSE_SIZE);
+    static private final StringLookupTable NO_OVERRIDE_TLV_TAG_NAMES = new StringLookupTable(0);
+
     private final PduTranscoderContext overrideContext;
+    // copy-on-write caches of what the override context returned (shared
+    // empty tables until the first lookup)
+    private volatile StringLookupTable overrideResultMessages;
+    private volatile StringLookupTable overrideTlvTagNames;
 
     public DefaultPduTranscoderContext() {
         this(null);
@@ -41,30 +64,44 @@ public class DefaultPduTranscoderContext implements PduTranscoderContext {
 
     public DefaultPduTranscoderContext(PduTranscoderContext overrideContext) {
         this.overrideContext = overrideContext;
+        this.overrideResultMessages = NO_OVERRIDE_RESULT_MESSAGES;
+        this.overrideTlvTagNames = NO_OVERRIDE_TLV_TAG_NAMES;
     }
     
     @Override
     public String lookupResultMessage(int commandStatus) {
-        String resultMessage = null;
         if (overrideContext != null) {
-            resultMessage = overrideContext.lookupResultMessage(commandStatus);
+            StringLookupTable cache = this.overrideResultMessages;
+            String resultMessage = cache.get(commandStatus);
+            if (resultMessage == null) {
+                resultMessage = overrideContext.lookupResultMessage(commandStatus);
+                if (cache.getSize() < MAX_CACHED_OVERRIDES) {
+                    this.overrideResultMessages = cache.with(commandStatus, (resultMessage != null ? resultMessage : NOT_OVERRIDDEN));
+                }
+            }
+            if (resultMessage != null && resultMessage != NOT_OVERRIDDEN) {
+                return resultMessage;
+            }
         }
-        if (resultMessage == null) {
-            resultMessage = SmppConstants.STATUS_MESSAGE_MAP.get(new Integer(commandStatus));
-        }
-        return resultMessage;
+        return RESULT_MESSAGES.get(commandStatus);
     }
 
     @Override
     public String lookupTlvTagName(short tag) {
-        String tagName = null;
         if (overrideContext != null) {
-            tagName = overrideContext.lookupTlvTagName(tag);
-        }
-        if (tagName == null) {
-            tagName = SmppConstants.TAG_NAME_MAP.get(new Short(tag));
+            StringLookupTable cache = this.overrideTlvTagNames;
+            String tagName = cache.get(tag);
+            if (tagName == null) {
+                tagName = overrideContext.lookupTlvTagName(tag);
+                if (cache.getSize() < MAX_CACHED_OVERRIDES) {
+                    this.overrideTlvTagNames = cache.with(tag, (tagName != null ? tagName : NOT_OVERRIDDEN));
+                }
+            }
+            if (tagName != null && tagName != NOT_OVERRIDDEN) {
+                return tagName;
+            }
         }
-        return tagName;
+        return TLV_TAG_NAMES.get(tag);
     }
     
-}
\ No newline at end of file
+}
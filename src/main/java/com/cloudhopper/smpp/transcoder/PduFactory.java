@@ -0,0 +1,43 @@
+package com.cloudhopper.smpp.transcoder;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.pdu.Pdu;
+
+/**
+ * Interface for creating a new (empty) PDU for a command id while decoding.
+ * Registered with a PduFactoryRegistry for one or more command ids.  The PDU
+ * returned must have the same command id and be a PduRequest for a request
+ * command id or a PduResponse for a response command id (31st bit set).
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public interface PduFactory {
+
+    /**
+     * Creates a new PDU for the command id.  The header and body will be read
+     * into it by the transcoder.
+     * @param commandId The command id of the PDU being decoded
+     * @return The new PDU
+     */
+    public Pdu newPdu(int commandId);
+
+}
@@ -0,0 +1,272 @@
+package com.cloudhopper.smpp.transcoder;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.pdu.BindReceiver;
+import com.cloudhopper.smpp.pdu.BindReceiverResp;
+import com.cloudhopper.smpp.pdu.BindTransceiver;
+import com.cloudhopper.smpp.pdu.BindTransceiverResp;
+import com.cloudhopper.smpp.pdu.BindTransmitter;
+import com.cloudhopper.smpp.pdu.BindTransmitterResp;
+import com.cloudhopper.smpp.pdu.CancelSm;
+import com.cloudhopper.smpp.pdu.CancelSmResp;
+import com.cloudhopper.smpp.pdu.DataSm;
+import com.cloudhopper.smpp.pdu.DataSmResp;
+import com.cloudhopper.smpp.pdu.DeliverSm;
+import com.cloudhopper.smpp.pdu.DeliverSmResp;
+import com.cloudhopper.smpp.pdu.EnquireLink;
+import com.cloudhopper.smpp.pdu.EnquireLinkResp;
+import com.cloudhopper.smpp.pdu.GenericNack;
+import com.cloudhopper.smpp.pdu.Pdu;
+import com.cloudhopper.smpp.pdu.QuerySm;
+import com.cloudhopper.smpp.pdu.QuerySmResp;
+import com.cloudhopper.smpp.pdu.SubmitSm;
+import com.cloudhopper.smpp.pdu.SubmitSmResp;
+import com.cloudhopper.smpp.pdu.Unbind;
+import com.cloudhopper.smpp.pdu.UnbindResp;
+import java.util.HashMap;
+
+/**
+ * Registry of the PduFactory to use for each command id while decoding.  The
+ * command ids defined by the SMPP specs all fit into the low 9 bits, so
+ * they're looked up directly in one array for requests and another for
+ * responses (selected by the 31st bit) -- no chain of comparisons.  Any
+ * other command id (e.g. vendor specific) is looked up in a map.
+ * <br><br>
+ * A new registry has every PDU supported by this library registered.  Missing
+ * or vendor specific PDUs can be registered (or the default ones replaced)
+ * without subclassing the transcoder.  Registering is thread-safe, but meant
+ * to be done once during setup since the tables are copied on every change.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class PduFactoryRegistry {
+
+    static private final int INDEX_MASK = 0x1FF;
+    static private final int DIRECT_MASK = SmppConstants.PDU_CMD_ID_RESP_MASK | INDEX_MASK;
+
+    // every pdu supported by this library -- its tables are shared by every
+    // new registry since they're never modified (only copied) on a change
+    static private final PduFactoryRegistry DEFAULT = createDefault();
+
+    private volatile PduFactory[] requestFactories;
+    private volatile PduFactory[] responseFactories;
+    private volatile HashMap<Integer,PduFactory> otherFactories;
+
+    /**
+     * Creates a new registry with every PDU supported by this library
+     * registered.
+     */
+    public PduFactoryRegistry() {
+        this(DEFAULT.requestFactories, DEFAULT.responseFactories, DEFAULT.otherFactories);
+    }
+
+    private PduFactoryRegistry(PduFactory[] requestFactories, PduFactory[] responseFactories, HashMap<Integer,PduFactory> otherFactories) {
+        this.requestFactories = requestFactories;
+        this.responseFactories = responseFactories;
+        this.otherFactories = otherFactories;
+    }
+
+    /**
+     * Registers the factory for a command id.  Replaces any factory that was
+     * previously registered for it.
+     * @param commandId The command id
+     * @param factory The factory or null to unregister the command id
+     */
+    synchronized public void register(int commandId, PduFactory factory) {
+        if ((commandId & ~DIRECT_MASK) == 0) {
+            boolean isResponse = ((commandId & SmppConstants.PDU_CMD_ID_RESP_MASK) != 0);
+            PduFactory[] factories = (isResponse ? this.responseFactories : this.requestFactories).clone();
+            factories[commandId & INDEX_MASK] = factory;
+            if (isResponse) {
+                this.responseFactories = factories;
+            } else {
+                this.requestFactories = factories;
+            }
+        } else {
+            HashMap<Integer,PduFactory> factories = new HashMap<Integer,PduFactory>(this.otherFactories);
+            if (factory == null) {
+                factories.remove(commandId);
+            } else {
+                factories.put(commandId, factory);
+            }
+            this.otherFactories = factories;
+        }
+    }
+
+    /**
+     * Gets the factory registered for a command id.
+     * @param commandId The command id
+     * @return The factory or null if none is registered
+     */
+    public PduFactory get(int commandId) {
+        if ((commandId & ~DIRECT_MASK) == 0) {
+            PduFactory[] factories = (commandId < 0 ? this.responseFactories : this.requestFactories);
+            return factories[commandId & INDEX_MASK];
+        }
+        return this.otherFactories.get(commandId);
+    }
+
+    /**
+     * Creates a new PDU for the command id using its registered factory.
+     * @param commandId The command id
+     * @return The new PDU or null if no factory is registered
+     */
+    public Pdu newPdu(int commandId) {
+        PduFactory factory = get(commandId);
+        if (factory == null) {
+            return null;
+        }
+        return factory.newPdu(commandId);
+    }
+
+    static private PduFactoryRegistry createDefault() {
+        PduFactoryRegistry registry = new PduFactoryRegistry(new PduFactory[INDEX_MASK+1], new PduFactory[INDEX_MASK+1], new HashMap<Integer,PduFactory>());
+        registry.register(SmppConstants.CMD_ID_BIND_RECEIVER, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new BindReceiver();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_BIND_TRANSMITTER, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new BindTransmitter();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_QUERY_SM, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new QuerySm();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_SUBMIT_SM, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new SubmitSm();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_DELIVER_SM, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new DeliverSm();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_UNBIND, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new Unbind();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_CANCEL_SM, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new CancelSm();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_BIND_TRANSCEIVER, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new BindTransceiver();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_ENQUIRE_LINK, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new EnquireLink();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_DATA_SM, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new DataSm();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_GENERIC_NACK, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new GenericNack();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_BIND_RECEIVER_RESP, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new BindReceiverResp();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_BIND_TRANSMITTER_RESP, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new BindTransmitterResp();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_QUERY_SM_RESP, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new QuerySmResp();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_SUBMIT_SM_RESP, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new SubmitSmResp();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_DELIVER_SM_RESP, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new DeliverSmResp();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_UNBIND_RESP, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new UnbindResp();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_CANCEL_SM_RESP, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new CancelSmResp();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_BIND_TRANSCEIVER_RESP, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new BindTransceiverResp();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_ENQUIRE_LINK_RESP, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new EnquireLinkResp();
+            }
+        });
+        registry.register(SmppConstants.CMD_ID_DATA_SM_RESP, new PduFactory() {
+            @Override
+            public Pdu newPdu(int commandId) {
+                return new DataSmResp();
+            }
+        });
+        return registry;
+    }
+}
@@ -22,6 +22,8 @@ package com.cloudhopper.smpp.type;
 
 import com.cloudhopper.commons.util.HexUtil;
 import com.cloudhopper.commons.util.StringUtil;
+import com.cloudhopper.smpp.util.COctetStringCache;
+import com.cloudhopper.smpp.util.COctetStringCodec;
 import com.cloudhopper.smpp.util.ChannelBufferUtil;
 import com.cloudhopper.smpp.util.PduUtil;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -76,9 +78,19 @@ public class Address {
     }
 
     public void read(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
+        read(buffer, null);
+    }
+
+    /**
+     * Reads the address from a buffer.  If a cache is given the address is
+     * read through it -- only worth it for values that repeat across PDUs
+     * such as the source address (sender id), never for destination
+     * addresses which would just churn the cache.
+     */
+    public void read(ChannelBuffer buffer, COctetStringCache cache) throws UnrecoverablePduException, RecoverablePduException {
         this.ton = buffer.readByte();
         this.npi = buffer.readByte();
-        this.address = ChannelBufferUtil.readNullTerminatedString(buffer);
+        this.address = COctetStringCodec.read(buffer, cache);
     }
 
     public void write(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
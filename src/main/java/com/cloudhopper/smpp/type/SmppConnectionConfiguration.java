@@ -32,6 +32,8 @@ public class SmppConnectionConfiguration {
     private String host;
     private int port;
     private long connectTimeout;
+    // name of a local (in-VM) server address to connect to instead
+    private String localAddress;
 
     public SmppConnectionConfiguration() {
         this(null, 0, SmppConstants.DEFAULT_CONNECT_TIMEOUT);
@@ -67,4 +69,21 @@ public class SmppConnectionConfiguration {
         return this.connectTimeout;
     }
 
+    /**
+     * Sets the name of a local (in-VM) address to connect to instead of the
+     * host and port, i.e. of a server in the same JVM that's listening on it
+     * (see SmppServerConfiguration.setLocalAddress()).  PDUs are then passed
+     * between the client and server sessions without any socket.  Encode
+     * buffers are never pooled on a local channel.
+     * @param value The name of the local address or null to connect to the
+     *      host and port over TCP/IP
+     */
+    public void setLocalAddress(String value) {
+        this.localAddress = value;
+    }
+
+    public String getLocalAddress() {
+        return this.localAddress;
+    }
+
 }
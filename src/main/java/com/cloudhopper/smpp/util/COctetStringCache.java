@@ -0,0 +1,109 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Bounded cache of short C-Octet strings for fields with only a handful of
+ * distinct values (service_type, system_type, short codes, etc.).  A decoded
+ * value that matches a cached string returns that string without creating
+ * a new one.  The cache is direct mapped: each string goes into one slot by
+ * the hash of its bytes, replacing whatever was there, so it never grows and
+ * high cardinality values just churn their slot.  Strings longer than the max
+ * length are never cached.  Safe to share between threads without locking
+ * since a slot only ever holds a reference to an immutable String.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class COctetStringCache {
+
+    static public final int DEFAULT_SIZE = 256;
+    static public final int DEFAULT_MAX_LENGTH = 16;
+
+    private final String[] slots;
+    private final int maxLength;
+
+    public COctetStringCache() {
+        this(DEFAULT_SIZE, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Creates a new cache.
+     * @param size The number of slots (rounded up to a power of 2)
+     * @param maxLength The max length of a cached string
+     */
+    public COctetStringCache(int size, int maxLength) {
+        int slotCount = 1;
+        while (slotCount < size) {
+            slotCount *= 2;
+        }
+        this.slots = new String[slotCount];
+        this.maxLength = maxLength;
+    }
+
+    public int getSize() {
+        return this.slots.length;
+    }
+
+    public int getMaxLength() {
+        return this.maxLength;
+    }
+
+    /**
+     * Gets the ISO-8859-1 string of the bytes in the buffer, either from this
+     * cache or by creating (and caching) a new one.  Does not modify the
+     * reader index of the buffer.
+     * @param buffer The buffer to read from
+     * @param index The index of the first byte
+     * @param length The number of bytes
+     * @return The cached or new string
+     */
+    public String get(ChannelBuffer buffer, int index, int length) {
+        if (length > this.maxLength) {
+            return COctetStringCodec.decode(buffer, index, length);
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer.getByte(index + i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (this.slots.length - 1);
+        String value = this.slots[slot];
+        if (value != null && matches(value, buffer, index, length)) {
+            return value;
+        }
+        value = COctetStringCodec.decode(buffer, index, length);
+        this.slots[slot] = value;
+        return value;
+    }
+
+    static private boolean matches(String value, ChannelBuffer buffer, int index, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != (buffer.getByte(index + i) & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.type.TerminatingNullByteNotFoundException;
+import java.nio.charset.StandardCharsets;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Codec for C-Octet strings (null terminated ISO-8859-1 strings) used by
+ * most of the mandatory parameters of SMPP PDUs.  Buffers backed by an array
+ * are scanned and decoded/encoded straight from/into the array with a fixed
+ * ISO-8859-1 charset (no lookup of the charset by name and no intermediate
+ * byte array).
+ * <br>
+ * Low cardinality fields (service_type, system_type and source addresses)
+ * are read through the COctetStringCache of the transcoder that decodes them
+ * (see SmppSessionConfiguration.setInternCache()) -- by default there is none
+ * and they're read just like any other string.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class COctetStringCodec {
+
+    /**
+     * Reads a C-Octet string from a buffer, including the null byte which is
+     * not part of the returned String.
+     * @param buffer The buffer to read from
+     * @return Null if there are no readable bytes, otherwise the string
+     * @throws TerminatingNullByteNotFoundException Thrown if no null byte is
+     *      found before running out of data in the buffer
+     */
+    static public String read(ChannelBuffer buffer) throws TerminatingNullByteNotFoundException {
+        return read(buffer, null);
+    }
+
+    /**
+     * Reads a C-Octet string from a buffer, including the null byte which is
+     * not part of the returned String.
+     * @param buffer The buffer to read from
+     * @param cache The cache to get the string from or null to always create
+     *      a new string
+     * @return Null if there are no readable bytes, otherwise the string
+     * @throws TerminatingNullByteNotFoundException
+     */
+    static public String read(ChannelBuffer buffer, COctetStringCache cache) throws TerminatingNullByteNotFoundException {
+        int maxLength = buffer.readableBytes();
+
+        // if there are no readable bytes, return null
+        if (maxLength == 0) {
+            return null;
+        }
+
+        int index = buffer.readerIndex();
+        int length = indexOfNull(buffer, index, maxLength);
+        if (length < 0) {
+            throw new TerminatingNullByteNotFoundException("Terminating null byte not found after searching [" + maxLength + "] bytes");
+        }
+
+        String result;
+        if (length == 0) {
+            result = "";
+        } else if (cache != null) {
+            result = cache.get(buffer, index, length);
+        } else {
+            result = decode(buffer, index, length);
+        }
+
+        // skip past the null byte too
+        buffer.readerIndex(index + length + 1);
+        return result;
+    }
+
+    /**
+     * Writes a C-Octet string to a buffer.  A null String only writes out the
+     * null byte.  Any char that isn't ISO-8859-1 is written as '?'.
+     * @param buffer The buffer to write to
+     * @param value The string to write
+     */
+    static public void write(ChannelBuffer buffer, String value) {
+        int length = (value == null ? 0 : value.length());
+        if (length > 0) {
+            // throws an IndexOutOfBoundsException if the buffer can't grow
+            buffer.ensureWritableBytes(length + 1);
+            if (buffer.hasArray()) {
+                int writerIndex = buffer.writerIndex();
+                byte[] array = buffer.array();
+                int offset = buffer.arrayOffset() + writerIndex;
+                for (int i = 0; i < length; i++) {
+                    char c = value.charAt(i);
+                    array[offset + i] = (c <= 0xFF ? (byte)c : (byte)'?');
+                }
+                buffer.writerIndex(writerIndex + length);
+            } else {
+                buffer.writeBytes(value.getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+        // always write null byte
+        buffer.writeByte((byte)0x00);
+    }
+
+    /**
+     * Decodes bytes of a buffer as ISO-8859-1 without modifying its reader index.
+     */
+    static String decode(ChannelBuffer buffer, int index, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + index, length, StandardCharsets.ISO_8859_1);
+        }
+        byte[] bytes = new byte[length];
+        buffer.getBytes(index, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    // number of bytes before the first null byte or -1 if not found
+    static private int indexOfNull(ChannelBuffer buffer, int index, int maxLength) {
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset() + index;
+            for (int i = 0; i < maxLength; i++) {
+                if (array[offset + i] == 0x00) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        return buffer.bytesBefore(index, maxLength, (byte)0x00);
+    }
+}
@@ -0,0 +1,124 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe pool of fixed capacity heap buffers used for encoding PDUs.  A
+ * buffer is acquired, written to, and then released back to the pool once it
+ * isn't referenced anymore (usually once the write to the channel finished).
+ * Since the buffers are plain heap buffers, a buffer that is never released is
+ * harmless -- it's simply garbage collected and the pool creates a new one
+ * the next time it's empty.  The buffers intentionally can't grow (a dynamic
+ * buffer delegates every write and is considerably slower), so PDUs larger
+ * than the buffer capacity need to be encoded into a buffer of their own.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class ChannelBufferPool {
+
+    public static final int DEFAULT_BUFFER_CAPACITY = 1024;
+
+    private final int maxPooled;
+    private final int bufferCapacity;
+    // each slot either holds an available buffer or is null; claiming and
+    // returning a buffer is a single CAS and never allocates (unlike a queue)
+    private final AtomicReferenceArray<PooledChannelBuffer> slots;
+
+    /**
+     * Creates a new pool that will retain up to maxPooled buffers.
+     * @param maxPooled The max number of buffers to retain in the pool
+     */
+    public ChannelBufferPool(int maxPooled) {
+        this(maxPooled, DEFAULT_BUFFER_CAPACITY);
+    }
+
+    /**
+     * Creates a new pool that will retain up to maxPooled buffers.
+     * @param maxPooled The max number of buffers to retain in the pool
+     * @param bufferCapacity The capacity of each buffer
+     */
+    public ChannelBufferPool(int maxPooled, int bufferCapacity) {
+        if (maxPooled <= 0) {
+            throw new IllegalArgumentException("maxPooled must be > 0");
+        }
+        this.maxPooled = maxPooled;
+        this.bufferCapacity = bufferCapacity;
+        this.slots = new AtomicReferenceArray<PooledChannelBuffer>(maxPooled);
+    }
+
+    public int getMaxPooled() {
+        return this.maxPooled;
+    }
+
+    public int getBufferCapacity() {
+        return this.bufferCapacity;
+    }
+
+    /**
+     * Gets the number of buffers currently available in the pool.
+     * @return The number of available buffers
+     */
+    public int getSize() {
+        int size = 0;
+        for (int i = 0; i < this.maxPooled; i++) {
+            if (this.slots.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Acquires an empty buffer from the pool or creates a new one if the pool
+     * is empty.
+     * @return An empty buffer (readerIndex and writerIndex are 0)
+     */
+    public PooledChannelBuffer acquire() {
+        for (int i = 0; i < this.maxPooled; i++) {
+            if (this.slots.get(i) != null) {
+                PooledChannelBuffer buffer = this.slots.getAndSet(i, null);
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+        return new PooledChannelBuffer(this, this.bufferCapacity);
+    }
+
+    /**
+     * Returns a buffer to the pool.  The buffer must not be used by the caller
+     * afterwards.  It's dropped if the pool is full.
+     * @param buffer The buffer to return
+     */
+    public void release(PooledChannelBuffer buffer) {
+        if (buffer.getPool() != this) {
+            return;
+        }
+        buffer.clear();
+        for (int i = 0; i < this.maxPooled; i++) {
+            if (this.slots.get(i) == null && this.slots.compareAndSet(i, null, buffer)) {
+                return;
+            }
+        }
+    }
+}
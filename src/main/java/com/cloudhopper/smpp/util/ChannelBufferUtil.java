@@ -27,7 +27,6 @@ import com.cloudhopper.smpp.type.RecoverablePduException;
 import com.cloudhopper.smpp.type.TerminatingNullByteNotFoundException;
 import com.cloudhopper.smpp.type.UnrecoverablePduException;
 import com.cloudhopper.smpp.tlv.Tlv;
-import java.io.UnsupportedEncodingException;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,15 +47,45 @@ public class ChannelBufferUtil {
      * @throws RecoverablePduEncodingException
      */
     static public Address readAddress(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
+        return readAddress(buffer, null);
+    }
+
+    /**
+     * Read and create a new Address from a buffer, optionally reading the
+     * address string through an intern cache.
+     * @param buffer
+     * @param cache The cache to read the address through or null
+     * @return
+     * @throws UnrecoverablePduException
+     * @throws RecoverablePduException
+     */
+    static public Address readAddress(ChannelBuffer buffer, COctetStringCache cache) throws UnrecoverablePduException, RecoverablePduException {
         // an address is at least 3 bytes long (ton, npi, and null byte)
         if (buffer.readableBytes() < 3) {
             throw new NotEnoughDataInBufferException("Parsing address", buffer.readableBytes(), 3);
         }
         Address address = new Address();
-        address.read(buffer);
+        address.read(buffer, cache);
         return address;
     }
 
+    /**
+     * Skips over an address in a buffer without creating it.  Checks if there
+     * is a minimum number of bytes readable from the buffer and whether the
+     * address is null terminated.
+     * @param buffer
+     * @throws UnrecoverablePduException
+     * @throws RecoverablePduException
+     */
+    static public void skipAddress(ChannelBuffer buffer) throws UnrecoverablePduException, RecoverablePduException {
+        // an address is at least 3 bytes long (ton, npi, and null byte)
+        if (buffer.readableBytes() < 3) {
+            throw new NotEnoughDataInBufferException("Parsing address", buffer.readableBytes(), 3);
+        }
+        buffer.skipBytes(2);
+        skipNullTerminatedString(buffer);
+    }
+
     /**
      * Writes an address to a buffer.  If the address is null, this method will
      * safely write out the SmppConstants.EMPTY_ADDRESS instance.
@@ -120,19 +149,10 @@ public class ChannelBufferUtil {
      * this method will only write out the NULL byte (0x00) to the buffer.
      * @param buffer
      * @param value
-     * @throws UnsupportedEncodingException
+     * @see COctetStringCodec#write(org.jboss.netty.buffer.ChannelBuffer, java.lang.String)
      */
     static public void writeNullTerminatedString(ChannelBuffer buffer, String value) throws UnrecoverablePduException {
-        if (value != null) {
-            try {
-                byte[] bytes = value.getBytes("ISO-8859-1");
-                buffer.writeBytes(bytes);
-            } catch (UnsupportedEncodingException e) {
-                throw new UnrecoverablePduException(e.getMessage(), e);
-            }
-        }
-        // always write null byte
-        buffer.writeByte((byte)0x00);
+        COctetStringCodec.write(buffer, value);
     }
 
     /**
@@ -144,53 +164,34 @@ public class ChannelBufferUtil {
      * @param buffer
      * @return
      * @throws TerminatingNullByteNotFoundException
+     * @see COctetStringCodec#read(org.jboss.netty.buffer.ChannelBuffer)
      */
     static public String readNullTerminatedString(ChannelBuffer buffer) throws TerminatingNullByteNotFoundException {
-        // maximum possible length are the readable bytes in buffer
+        return COctetStringCodec.read(buffer);
+    }
+
+    /**
+     * Skips over a C-String (null terminated) in a buffer without creating
+     * the String.  Works exactly like readNullTerminatedString, including
+     * skipping nothing if there are no readable bytes left.
+     * @param buffer
+     * @throws TerminatingNullByteNotFoundException
+     */
+    static public void skipNullTerminatedString(ChannelBuffer buffer) throws TerminatingNullByteNotFoundException {
         int maxLength = buffer.readableBytes();
 
-        // if there are no readable bytes, return null
+        // if there are no readable bytes, it's read as a null String
         if (maxLength == 0) {
-            return null;
-        }
-
-        // the reader index is defaulted to the readerIndex
-        int offset = buffer.readerIndex();
-        int zeroPos = 0;
-
-        // search for NULL byte until we hit end or find it
-        while ((zeroPos < maxLength) && (buffer.getByte(zeroPos+offset) != 0x00)) {
-            zeroPos++;
+            return;
         }
 
-        if (zeroPos >= maxLength) {
+        int zeroIndex = buffer.indexOf(buffer.readerIndex(), buffer.writerIndex(), (byte)0x00);
+        if (zeroIndex < 0) {
             // a NULL byte was not found
             throw new TerminatingNullByteNotFoundException("Terminating null byte not found after searching [" + maxLength + "] bytes");
         }
 
-        // at this point, we found a terminating zero
-        String result = null;
-        if (zeroPos > 0) {
-            // read a new byte array
-            byte[] bytes = new byte[zeroPos];
-            buffer.readBytes(bytes);
-            try {
-                result = new String(bytes, "ISO-8859-1");
-            } catch (UnsupportedEncodingException e) {
-                logger.error("Impossible error", e);
-            }
-        } else {
-            result = "";
-        }
-
-        // at this point, we have just one more byte to skip over (the null byte)
-        byte b = buffer.readByte();
-        if (b != 0x00) {
-            logger.error("Impossible error: last byte read SHOULD have been a null byte, but was [" + b + "]");
-        }
-
-        return result;
+        // skip past the null byte too
+        buffer.readerIndex(zeroIndex + 1);
     }
-
-
 }
@@ -21,137 +21,307 @@ package com.cloudhopper.smpp.util;
  */
 
 import com.cloudhopper.commons.util.DecimalUtil;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Counts the requests and responses of a command and sums their times.
+ * Every count and sum is a striped LongAdder, so threads counting the same
+ * command (e.g. every thread sending a submit_sm on the session) don't
+ * contend on a single field.  The counts are summed when read, so prefer
+ * the methods that don't return the new count when counting.
  *
  * @author joelauer
  */
 public class ConcurrentCommandCounter {
     
-    private AtomicInteger request;
-    private AtomicInteger requestExpired;
-    private AtomicLong requestWaitTime;
-    private AtomicLong requestResponseTime;
-    private AtomicLong requestEstimatedProcessingTime;
-    private AtomicInteger response;
+    private LongAdder request;
+    private LongAdder requestExpired;
+    private LongAdder requestWaitTime;
+    private LongAdder requestResponseTime;
+    private LongAdder requestEstimatedProcessingTime;
+    private LongAdder response;
     private ConcurrentCommandStatusCounter responseCommandStatusCounter;
+    // distribution of the times above (the sums only yield averages), null
+    // if latency histograms are disabled
+    private ConcurrentLatencyHistogram requestWaitTimeHistogram;
+    private ConcurrentLatencyHistogram requestResponseTimeHistogram;
+    private ConcurrentLatencyHistogram requestEstimatedProcessingTimeHistogram;
     
     public ConcurrentCommandCounter() {
-        this.request = new AtomicInteger(0);
-        this.requestExpired = new AtomicInteger(0);
-        this.requestWaitTime = new AtomicLong(0);
-        this.requestResponseTime = new AtomicLong(0);
-        this.requestEstimatedProcessingTime = new AtomicLong(0);
-        this.response = new AtomicInteger(0);
+        this(true);
+    }
+
+    /**
+     * Creates a new counter.
+     * @param latencyHistogramsEnabled False to only count and sum the times
+     *      (e.g. for counters shared by many sessions where threads recording
+     *      into the same histogram bucket would contend)
+     */
+    public ConcurrentCommandCounter(boolean latencyHistogramsEnabled) {
+        this.request = new LongAdder();
+        this.requestExpired = new LongAdder();
+        this.requestWaitTime = new LongAdder();
+        this.requestResponseTime = new LongAdder();
+        this.requestEstimatedProcessingTime = new LongAdder();
+        this.response = new LongAdder();
         this.responseCommandStatusCounter = new ConcurrentCommandStatusCounter();
+        if (latencyHistogramsEnabled) {
+            this.requestWaitTimeHistogram = new ConcurrentLatencyHistogram();
+            this.requestResponseTimeHistogram = new ConcurrentLatencyHistogram();
+            this.requestEstimatedProcessingTimeHistogram = new ConcurrentLatencyHistogram();
+        }
     }
 
     public ConcurrentCommandCounter(int request, int requestExpired, long requestWaitTime, long requestResponseTime, long requestEstimatedProcessingTime, int response, final ConcurrentCommandStatusCounter responseCommandStatusCounter) {
-        this.request = new AtomicInteger(request);
-        this.requestExpired = new AtomicInteger(requestExpired);
-        this.requestWaitTime = new AtomicLong(requestWaitTime);
-        this.requestResponseTime = new AtomicLong(requestResponseTime);
-        this.requestEstimatedProcessingTime = new AtomicLong(requestEstimatedProcessingTime);
-        this.response = new AtomicInteger(response);
+        this.request = createAdder(request);
+        this.requestExpired = createAdder(requestExpired);
+        this.requestWaitTime = createAdder(requestWaitTime);
+        this.requestResponseTime = createAdder(requestResponseTime);
+        this.requestEstimatedProcessingTime = createAdder(requestEstimatedProcessingTime);
+        this.response = createAdder(response);
         this.responseCommandStatusCounter = responseCommandStatusCounter.copy();
+        this.requestWaitTimeHistogram = new ConcurrentLatencyHistogram();
+        this.requestResponseTimeHistogram = new ConcurrentLatencyHistogram();
+        this.requestEstimatedProcessingTimeHistogram = new ConcurrentLatencyHistogram();
+    }
+    
+    static private LongAdder createAdder(long value) {
+        LongAdder adder = new LongAdder();
+        adder.add(value);
+        return adder;
     }
     
     public void reset() {
-        this.request.set(0);
-        this.requestExpired.set(0);
-        this.requestWaitTime.set(0);
-        this.requestResponseTime.set(0);
-        this.requestEstimatedProcessingTime.set(0);
-        this.response.set(0);
+        this.request.reset();
+        this.requestExpired.reset();
+        this.requestWaitTime.reset();
+        this.requestResponseTime.reset();
+        this.requestEstimatedProcessingTime.reset();
+        this.response.reset();
         this.responseCommandStatusCounter.reset();
+        resetLatencyHistograms();
+    }
+
+    /**
+     * Resets only the latency histograms, the counts and sums are left as-is.
+     */
+    public void resetLatencyHistograms() {
+        if (!isLatencyHistogramsEnabled()) {
+            return;
+        }
+        this.requestWaitTimeHistogram.reset();
+        this.requestResponseTimeHistogram.reset();
+        this.requestEstimatedProcessingTimeHistogram.reset();
     }
     
     public ConcurrentCommandCounter createSnapshot() {
-        return new ConcurrentCommandCounter(request.get(), requestExpired.get(), requestWaitTime.get(), requestResponseTime.get(), requestEstimatedProcessingTime.get(), response.get(), responseCommandStatusCounter);
+        // the counts are added as longs, they may be beyond the int range
+        ConcurrentCommandCounter snapshot = new ConcurrentCommandCounter(0, 0, getRequestWaitTime(), getRequestResponseTime(), getRequestEstimatedProcessingTime(), 0, responseCommandStatusCounter);
+        snapshot.request.add(getRequestCount());
+        snapshot.requestExpired.add(getRequestExpiredCount());
+        snapshot.response.add(getResponseCount());
+        if (isLatencyHistogramsEnabled()) {
+            snapshot.requestWaitTimeHistogram = this.requestWaitTimeHistogram.copy();
+            snapshot.requestResponseTimeHistogram = this.requestResponseTimeHistogram.copy();
+            snapshot.requestEstimatedProcessingTimeHistogram = this.requestEstimatedProcessingTimeHistogram.copy();
+        } else {
+            snapshot.requestWaitTimeHistogram = null;
+            snapshot.requestResponseTimeHistogram = null;
+            snapshot.requestEstimatedProcessingTimeHistogram = null;
+        }
+        return snapshot;
     }
 
     public int getRequest() {
-        return this.request.get();
+        return this.request.intValue();
+    }
+
+    /**
+     * Gets the count of requests as a long, which unlike getRequest() never
+     * wraps (e.g. to derive rates from a long-lived counter).
+     * @return The count of requests
+     */
+    public long getRequestCount() {
+        return this.request.sum();
+    }
+    
+    public void incrementRequest() {
+        this.request.increment();
     }
     
     public int incrementRequestAndGet() {
-        return this.request.incrementAndGet();
+        this.request.increment();
+        return this.request.intValue();
     }
 
     public int getRequestExpired() {
-        return this.requestExpired.get();
+        return this.requestExpired.intValue();
+    }
+
+    public long getRequestExpiredCount() {
+        return this.requestExpired.sum();
+    }
+    
+    public void incrementRequestExpired() {
+        this.requestExpired.increment();
     }
     
     public int incrementRequestExpiredAndGet() {
-        return this.requestExpired.incrementAndGet();
+        this.requestExpired.increment();
+        return this.requestExpired.intValue();
     }
 
     public long getRequestWaitTime() {
-        return this.requestWaitTime.get();
+        return this.requestWaitTime.sum();
+    }
+    
+    public void addRequestWaitTime(long waitTime) {
+        if (this.requestWaitTimeHistogram != null) {
+            this.requestWaitTimeHistogram.record(waitTime);
+        }
+        this.requestWaitTime.add(waitTime);
     }
     
     public long addRequestWaitTimeAndGet(long waitTime) {
-        return this.requestWaitTime.addAndGet(waitTime);
+        addRequestWaitTime(waitTime);
+        return this.requestWaitTime.sum();
     }
 
     public long getRequestResponseTime() {
-        return this.requestResponseTime.get();
+        return this.requestResponseTime.sum();
+    }
+    
+    public void addRequestResponseTime(long responseTime) {
+        if (this.requestResponseTimeHistogram != null) {
+            this.requestResponseTimeHistogram.record(responseTime);
+        }
+        this.requestResponseTime.add(responseTime);
     }
     
     public long addRequestResponseTimeAndGet(long responseTime) {
-        return this.requestResponseTime.addAndGet(responseTime);
+        addRequestResponseTime(responseTime);
+        return this.requestResponseTime.sum();
     }
     
     public long getRequestEstimatedProcessingTime() {
-        return this.requestEstimatedProcessingTime.get();
+        return this.requestEstimatedProcessingTime.sum();
+    }
+    
+    public void addRequestEstimatedProcessingTime(long estimatedProcessingTime) {
+        if (this.requestEstimatedProcessingTimeHistogram != null) {
+            this.requestEstimatedProcessingTimeHistogram.record(estimatedProcessingTime);
+        }
+        this.requestEstimatedProcessingTime.add(estimatedProcessingTime);
     }
     
     public long addRequestEstimatedProcessingTimeAndGet(long estimatedProcessingTime) {
-        return this.requestEstimatedProcessingTime.addAndGet(estimatedProcessingTime);
+        addRequestEstimatedProcessingTime(estimatedProcessingTime);
+        return this.requestEstimatedProcessingTime.sum();
     }
 
     public int getResponse() {
-        return this.response.get();
+        return this.response.intValue();
+    }
+
+    public long getResponseCount() {
+        return this.response.sum();
+    }
+    
+    public void incrementResponse() {
+        this.response.increment();
     }
     
     public int incrementResponseAndGet() {
-        return this.response.incrementAndGet();
+        this.response.increment();
+        return this.response.intValue();
     }
 
     public ConcurrentCommandStatusCounter getResponseCommandStatusCounter() {
         return this.responseCommandStatusCounter;
     }
 
+    public boolean isLatencyHistogramsEnabled() {
+        return (this.requestWaitTimeHistogram != null);
+    }
+
+    /**
+     * Gets the histogram of the time requests waited for a slot in the
+     * window.  Only recorded for requests sent.
+     * @return The histogram (in ms) or null if latency histograms are disabled
+     */
+    public ConcurrentLatencyHistogram getRequestWaitTimeHistogram() {
+        return this.requestWaitTimeHistogram;
+    }
+
+    /**
+     * Gets the histogram of the time from a request being sent (or received)
+     * to its response being received (or sent).
+     * @return The histogram (in ms) or null if latency histograms are disabled
+     */
+    public ConcurrentLatencyHistogram getRequestResponseTimeHistogram() {
+        return this.requestResponseTimeHistogram;
+    }
+
+    /**
+     * Gets the histogram of the estimated processing time of requests.
+     * @return The histogram (in ms) or null if latency histograms are disabled
+     */
+    public ConcurrentLatencyHistogram getRequestEstimatedProcessingTimeHistogram() {
+        return this.requestEstimatedProcessingTimeHistogram;
+    }
+
+    /**
+     * Creates a string of the percentiles and max of the wait, response and
+     * estimated processing time of requests.
+     * @param reset True to reset the histograms once read (so the next call
+     *      only covers the requests since this one)
+     * @return The percentiles of each latency (or "[]" if latency histograms
+     *      are disabled)
+     */
+    public String toLatencyString(boolean reset) {
+        if (!isLatencyHistogramsEnabled()) {
+            return "[]";
+        }
+        StringBuilder to = new StringBuilder();
+        to.append("[waitTime=");
+        to.append(reset ? this.requestWaitTimeHistogram.createSnapshotAndReset() : this.requestWaitTimeHistogram.createSnapshot());
+        to.append(" responseTime=");
+        to.append(reset ? this.requestResponseTimeHistogram.createSnapshotAndReset() : this.requestResponseTimeHistogram.createSnapshot());
+        to.append(" estimatedProcessingTime=");
+        to.append(reset ? this.requestEstimatedProcessingTimeHistogram.createSnapshotAndReset() : this.requestEstimatedProcessingTimeHistogram.createSnapshot());
+        to.append("]");
+        return to.toString();
+    }
+
     @Override
     public String toString() {
+        long response = getResponseCount();
         StringBuilder to = new StringBuilder();
         to.append("[request=");
-        to.append(getRequest());
+        to.append(getRequestCount());
         to.append(" expired=");
-        to.append(getRequestExpired());
+        to.append(getRequestExpiredCount());
         to.append(" response=");
-        to.append(getResponse());
+        to.append(response);
         
         to.append(" avgWaitTime=");
         double avgWaitTime = 0;
-        if (getResponse() > 0) {
-            avgWaitTime = (double)getRequestWaitTime()/(double)getResponse();
+        if (response > 0) {
+            avgWaitTime = (double)getRequestWaitTime()/(double)response;
         }
         to.append(DecimalUtil.toString(avgWaitTime, 1));
         
         to.append("ms avgResponseTime=");
         double avgResponseTime = 0;
-        if (getResponse() > 0) {
-            avgResponseTime = (double)getRequestResponseTime()/(double)getResponse();
+        if (response > 0) {
+            avgResponseTime = (double)getRequestResponseTime()/(double)response;
         }
         to.append(DecimalUtil.toString(avgResponseTime, 1));
         
         to.append("ms avgEstimatedProcessingTime=");
         double avgEstimatedProcessingTime = 0;
-        if (getResponse() > 0) {
-            avgEstimatedProcessingTime = (double)getRequestEstimatedProcessingTime()/(double)getResponse();
+        if (response > 0) {
+            avgEstimatedProcessingTime = (double)getRequestEstimatedProcessingTime()/(double)response;
         }
         to.append(DecimalUtil.toString(avgEstimatedProcessingTime, 1));
         
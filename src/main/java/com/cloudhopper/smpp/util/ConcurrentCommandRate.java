@@ -0,0 +1,136 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.commons.util.DecimalUtil;
+
+/**
+ * Rolling rates (per second) of the requests counted by a
+ * ConcurrentCommandCounter as exponentially weighted moving averages over
+ * 1, 10 and 60 seconds.  Nothing is done when a request is counted, the
+ * rates are derived from the request count and brought up to date (one tick
+ * per elapsed second) when read.  The requests counted between two reads are
+ * spread evenly over the seconds in between, so the 1 second rate only
+ * reflects bursts if read (e.g. polled by a monitor) every second or so.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class ConcurrentCommandRate {
+
+    static private final long TICK_INTERVAL_NANOS = 1000000000L;
+    static private final int[] WINDOW_SECONDS = new int[] { 1, 10, 60 };
+
+    private final ConcurrentCommandCounter counter;
+    // guarded by this
+    private final double[] rates;
+    private long lastTick;
+    private long lastCount;
+
+    public ConcurrentCommandRate(ConcurrentCommandCounter counter) {
+        this(counter, System.nanoTime());
+    }
+
+    ConcurrentCommandRate(ConcurrentCommandCounter counter, long now) {
+        this.counter = counter;
+        this.rates = new double[WINDOW_SECONDS.length];
+        this.lastTick = now;
+        this.lastCount = counter.getRequestCount();
+    }
+
+    public ConcurrentCommandCounter getCounter() {
+        return this.counter;
+    }
+
+    /**
+     * Resets the rates to 0 (requests counted from now on only).
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < this.rates.length; i++) {
+            this.rates[i] = 0;
+        }
+        this.lastTick = System.nanoTime();
+        this.lastCount = this.counter.getRequestCount();
+    }
+
+    synchronized void update(long now) {
+        long ticks = (now - this.lastTick) / TICK_INTERVAL_NANOS;
+        if (ticks <= 0) {
+            return;
+        }
+        long count = this.counter.getRequestCount();
+        long delta = count - this.lastCount;
+        if (delta < 0) {
+            // the counter was reset since the last tick
+            delta = count;
+        }
+        double perTick = (double)delta / (double)ticks;
+        for (int i = 0; i < this.rates.length; i++) {
+            // same as ticking each second with a constant rate of perTick
+            double decay = Math.exp(-(double)ticks / (double)WINDOW_SECONDS[i]);
+            this.rates[i] = perTick + (this.rates[i] - perTick) * decay;
+        }
+        this.lastTick += ticks * TICK_INTERVAL_NANOS;
+        this.lastCount = count;
+    }
+
+    private synchronized double getRate(int index) {
+        update(System.nanoTime());
+        return this.rates[index];
+    }
+
+    /**
+     * Gets the rate of requests averaged over the last second.
+     * @return The rate (per second)
+     */
+    public double getOneSecondRate() {
+        return getRate(0);
+    }
+
+    /**
+     * Gets the rate of requests averaged over the last 10 seconds.
+     * @return The rate (per second)
+     */
+    public double getTenSecondRate() {
+        return getRate(1);
+    }
+
+    /**
+     * Gets the rate of requests averaged over the last 60 seconds.
+     * @return The rate (per second)
+     */
+    public double getSixtySecondRate() {
+        return getRate(2);
+    }
+
+    @Override
+    public synchronized String toString() {
+        update(System.nanoTime());
+        StringBuilder to = new StringBuilder();
+        to.append("[1s=");
+        to.append(DecimalUtil.toString(this.rates[0], 1));
+        to.append("/s 10s=");
+        to.append(DecimalUtil.toString(this.rates[1], 1));
+        to.append("/s 60s=");
+        to.append(DecimalUtil.toString(this.rates[2], 1));
+        to.append("/s]");
+        return to.toString();
+    }
+}
@@ -24,68 +24,150 @@ import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Counts responses by their command status.  The statuses of the SMPP spec
+ * (0x00 thru 0xFF) are counted in a dense array indexed by the status, any
+ * other (vendor specific) status in a map.  Each status has its own striped
+ * LongAdder (created the first time the status is counted), so counting
+ * never loses an increment, doesn't contend between threads and, for the
+ * statuses of the spec, never allocates once a status was counted.  A reset
+ * zeroes the adders in place (they're kept), a status with a count of 0 is
+ * treated as never counted.
  *
  * @author joelauer
  */
 public class ConcurrentCommandStatusCounter {
-    
-    private ConcurrentHashMap<Integer,AtomicInteger> map;
+
+    static private final int DENSE_SIZE = 0x100;
+
+    private final AtomicReferenceArray<LongAdder> dense;
+    private final ConcurrentHashMap<Integer,LongAdder> map;
     
     public ConcurrentCommandStatusCounter() {
-        this.map = new ConcurrentHashMap<Integer,AtomicInteger>();
+        this.dense = new AtomicReferenceArray<LongAdder>(DENSE_SIZE);
+        this.map = new ConcurrentHashMap<Integer,LongAdder>();
     }
     
     public void reset() {
-        this.map.clear();
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            LongAdder adder = this.dense.get(i);
+            if (adder != null) {
+                adder.reset();
+            }
+        }
+        for (LongAdder adder : this.map.values()) {
+            adder.reset();
+        }
     }
     
     public ConcurrentCommandStatusCounter copy() {
         ConcurrentCommandStatusCounter copy = new ConcurrentCommandStatusCounter();
-        for (Map.Entry<Integer,AtomicInteger> entry : this.map.entrySet()) {
-            this.map.put(entry.getKey(), new AtomicInteger(entry.getValue().get()));
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            long count = sum(this.dense.get(i));
+            if (count > 0) {
+                copy.adder(i).add(count);
+            }
+        }
+        for (Map.Entry<Integer,LongAdder> entry : this.map.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count > 0) {
+                copy.adder(entry.getKey()).add(count);
+            }
         }
         return copy;
     }
     
+    /**
+     * Gets the count of a command status.
+     * @param commandStatus The command status
+     * @return The count or -1 if the status was never counted (since the
+     *      last reset)
+     */
     public int get(int commandStatus) {
-        Integer key = new Integer(commandStatus);
-        AtomicInteger val = map.get(key);
-        if (val == null) {
-            return -1;
+        LongAdder adder;
+        if (commandStatus >= 0 && commandStatus < DENSE_SIZE) {
+            adder = this.dense.get(commandStatus);
         } else {
-            return val.get();
+            adder = this.map.get(commandStatus);
         }
+        long count = sum(adder);
+        return (count > 0 ? (int)count : -1);
+    }
+
+    /**
+     * Counts a command status.
+     * @param commandStatus The command status
+     */
+    public void increment(int commandStatus) {
+        adder(commandStatus).increment();
     }
     
+    /**
+     * Counts a command status and gets its count.  Prefer increment() since
+     * getting the count sums every stripe of the counter.
+     * @param commandStatus The command status
+     * @return The count of the command status
+     */
     public int incrementAndGet(int commandStatus) {
-        Integer key = new Integer(commandStatus);
-        AtomicInteger val = map.get(key);
-        if (val == null) {
-            val = new AtomicInteger(0);
-            map.put(key, val);
+        LongAdder adder = adder(commandStatus);
+        adder.increment();
+        return (int)adder.sum();
+    }
+
+    private LongAdder adder(int commandStatus) {
+        if (commandStatus >= 0 && commandStatus < DENSE_SIZE) {
+            LongAdder adder = this.dense.get(commandStatus);
+            if (adder == null) {
+                adder = new LongAdder();
+                // another thread may have created it first
+                if (!this.dense.compareAndSet(commandStatus, null, adder)) {
+                    adder = this.dense.get(commandStatus);
+                }
+            }
+            return adder;
+        } else {
+            LongAdder adder = this.map.get(commandStatus);
+            if (adder == null) {
+                LongAdder existing = this.map.putIfAbsent(commandStatus, adder = new LongAdder());
+                if (existing != null) {
+                    adder = existing;
+                }
+            }
+            return adder;
         }
-        return val.incrementAndGet();
     }
     
     public SortedMap<Integer,Integer> createSortedMapSnapshot() {
         SortedMap<Integer,Integer> sortedMap = new TreeMap<Integer,Integer>();
-        for (Map.Entry<Integer,AtomicInteger> entry : this.map.entrySet()) {
-            sortedMap.put(entry.getKey(), new Integer(entry.getValue().get()));
+        for (int i = 0; i < DENSE_SIZE; i++) {
+            long count = sum(this.dense.get(i));
+            if (count > 0) {
+                sortedMap.put(i, (int)count);
+            }
+        }
+        for (Map.Entry<Integer,LongAdder> entry : this.map.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count > 0) {
+                sortedMap.put(entry.getKey(), (int)count);
+            }
         }
         return sortedMap;
     }
+
+    static private long sum(LongAdder adder) {
+        return (adder == null ? 0 : adder.sum());
+    }
     
     @Override
     public String toString() {
-        if (this.map.isEmpty()) {
+        SortedMap<Integer,Integer> sortedMap = createSortedMapSnapshot();
+        if (sortedMap.isEmpty()) {
             return "";
         }
         
-        SortedMap<Integer,Integer> sortedMap = createSortedMapSnapshot();
-        
         StringBuilder to = new StringBuilder();
         for (Map.Entry<Integer,Integer> entry : sortedMap.entrySet()) {
             if (to.length() != 0) {
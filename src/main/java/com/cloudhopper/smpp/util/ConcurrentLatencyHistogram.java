@@ -0,0 +1,185 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free histogram of latencies (e.g. in milliseconds) along the lines of
+ * HdrHistogram.  Values below 32 are counted exactly, every power of 2 above
+ * that is split into 16 buckets -- so any value is within 1/16 (6.25%) of
+ * the value reported for its bucket.  Recording a value is a single atomic
+ * increment with no allocation (plus a CAS if it's a new max); values above
+ * MAX_TRACKABLE_VALUE (about 24 days in milliseconds) are counted in the
+ * last bucket, but the max is tracked exactly.
+ * <br>
+ * The buckets are striped like a LongAdder: each thread records into the
+ * stripe picked by its id, so threads recording the same latency (i.e. the
+ * same bucket) at once rarely contend.  The stripes are summed when a
+ * snapshot is taken.  The buckets of a stripe (3.5 KB) are only allocated
+ * once a thread records into it, so unused histograms (e.g. of commands a
+ * session never sends) are cheap.
+ * A snapshot may be taken at any time; createSnapshotAndReset() moves the
+ * count of every bucket into the snapshot, so consecutive snapshots cover
+ * consecutive intervals without losing or double counting any value.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class ConcurrentLatencyHistogram {
+
+    static private final int SUB_BUCKET_BITS = 4;
+    static private final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // values below this are counted in a bucket of their own
+    static private final int LINEAR_LIMIT = SUB_BUCKET_COUNT << 1;
+    static public final long MAX_TRACKABLE_VALUE = Integer.MAX_VALUE;
+    static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_VALUE) + 1;
+    // a power of 2 of at least the number of processors (at most 8)
+    static final int STRIPE_COUNT = Math.min(8, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+    private final AtomicLong max;
+
+    public ConcurrentLatencyHistogram() {
+        this.stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPE_COUNT);
+        this.max = new AtomicLong(0);
+    }
+
+    /**
+     * Records a value (negative values are recorded as 0).
+     * @param value The value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        stripe(stripeIndex()).incrementAndGet(bucketIndex(Math.min(value, MAX_TRACKABLE_VALUE)));
+        long currentMax = this.max.get();
+        while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+            currentMax = this.max.get();
+        }
+    }
+
+    public void reset() {
+        for (int s = 0; s < STRIPE_COUNT; s++) {
+            AtomicLongArray c = this.stripes.get(s);
+            if (c != null) {
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    c.set(i, 0);
+                }
+            }
+        }
+        this.max.set(0);
+    }
+
+    /**
+     * Creates a snapshot of every value recorded so far (since the last
+     * reset).
+     * @return The snapshot
+     */
+    public LatencyHistogramSnapshot createSnapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Creates a snapshot of every value recorded since the last reset and
+     * resets this histogram, e.g. to report the latencies of each interval.
+     * @return The snapshot
+     */
+    public LatencyHistogramSnapshot createSnapshotAndReset() {
+        return snapshot(true);
+    }
+
+    public ConcurrentLatencyHistogram copy() {
+        ConcurrentLatencyHistogram copy = new ConcurrentLatencyHistogram();
+        for (int s = 0; s < STRIPE_COUNT; s++) {
+            AtomicLongArray c = this.stripes.get(s);
+            if (c != null) {
+                AtomicLongArray copyCounts = copy.stripe(s);
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    copyCounts.set(i, c.get(i));
+                }
+            }
+        }
+        copy.max.set(this.max.get());
+        return copy;
+    }
+
+    private LatencyHistogramSnapshot snapshot(boolean reset) {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long snapshotMax = (reset ? this.max.getAndSet(0) : this.max.get());
+        for (int s = 0; s < STRIPE_COUNT; s++) {
+            AtomicLongArray c = this.stripes.get(s);
+            if (c != null) {
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    snapshotCounts[i] += (reset ? c.getAndSet(i, 0) : c.get(i));
+                }
+            }
+        }
+        return new LatencyHistogramSnapshot(snapshotCounts, snapshotMax);
+    }
+
+    private AtomicLongArray stripe(int index) {
+        AtomicLongArray c = this.stripes.get(index);
+        if (c == null) {
+            c = new AtomicLongArray(BUCKET_COUNT);
+            // another thread may have created it first
+            if (!this.stripes.compareAndSet(index, null, c)) {
+                c = this.stripes.get(index);
+            }
+        }
+        return c;
+    }
+
+    static private int stripeIndex() {
+        // thread ids are handed out sequentially, so the low bits spread well
+        return (int)Thread.currentThread().getId() & (STRIPE_COUNT - 1);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift) - SUB_BUCKET_COUNT;
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int i = index - LINEAR_LIMIT;
+        int shift = i / SUB_BUCKET_COUNT + 1;
+        return (long)(i % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int i = index - LINEAR_LIMIT;
+        int shift = i / SUB_BUCKET_COUNT + 1;
+        return ((long)(i % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT + 1) << shift) - 1;
+    }
+}
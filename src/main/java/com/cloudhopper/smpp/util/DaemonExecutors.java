@@ -46,4 +46,20 @@ public class DaemonExecutors {
         });
     }
 
+    /**
+     * Utility method for creating a fixed size pool of "daemon" threads.
+     * @param threadCount The number of threads in the pool
+     * @return A new fixed size pool of daemon threads
+     */
+    static public ExecutorService newFixedDaemonThreadPool(int threadCount) {
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
 }
@@ -0,0 +1,137 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Immutable snapshot of a ConcurrentLatencyHistogram.  Percentiles are
+ * reported as the highest value of the bucket they fall in (never above the
+ * max), i.e. at most 6.25% above the actual value.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class LatencyHistogramSnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long max;
+
+    LatencyHistogramSnapshot(long[] counts, long max) {
+        this.counts = counts;
+        long total = 0;
+        int highestIndex = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                total += counts[i];
+                highestIndex = i;
+            }
+        }
+        this.count = total;
+        // a value recorded while the histogram was reset may have its max
+        // reported in the next interval only
+        if (highestIndex >= 0) {
+            max = Math.max(max, ConcurrentLatencyHistogram.lowestEquivalentValue(highestIndex));
+        } else {
+            max = 0;
+        }
+        this.max = max;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Gets the mean of the values (each one counted as the middle of its
+     * bucket).
+     * @return The mean or 0 if no value was recorded
+     */
+    public double getMean() {
+        if (this.count == 0) {
+            return 0;
+        }
+        double total = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            if (this.counts[i] > 0) {
+                long low = ConcurrentLatencyHistogram.lowestEquivalentValue(i);
+                long high = Math.min(ConcurrentLatencyHistogram.highestEquivalentValue(i), this.max);
+                total += (double)this.counts[i] * (low + high) / 2.0;
+            }
+        }
+        return total / this.count;
+    }
+
+    /**
+     * Gets the value that the given percentage of the values are less than
+     * or equal to.
+     * @param percentile The percentile (e.g. 99.9)
+     * @return The value or 0 if no value was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(Math.min(percentile, 100.0) / 100.0 * this.count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long total = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            total += this.counts[i];
+            if (total >= rank) {
+                return Math.min(ConcurrentLatencyHistogram.highestEquivalentValue(i), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    public long getMedian() {
+        return getValueAtPercentile(50.0);
+    }
+
+    public long get99thPercentile() {
+        return getValueAtPercentile(99.0);
+    }
+
+    public long get999thPercentile() {
+        return getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder to = new StringBuilder();
+        to.append("[count=");
+        to.append(getCount());
+        to.append(" p50=");
+        to.append(getMedian());
+        to.append("ms p99=");
+        to.append(get99thPercentile());
+        to.append("ms p99.9=");
+        to.append(get999thPercentile());
+        to.append("ms max=");
+        to.append(getMax());
+        to.append("ms]");
+        return to.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.jboss.netty.buffer.BigEndianHeapChannelBuffer;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+
+/**
+ * A fixed capacity heap buffer acquired from a ChannelBufferPool.  It's also a
+ * ChannelFutureListener so that it can be added to the future of the write
+ * it was passed to and returned to its pool once the write finished -- no
+ * other object needs to be created to return it.  The buffer is only returned
+ * if the write succeeded.  A failed write (e.g. a write timeout) may still be
+ * referenced by the channel, so the buffer is simply left for the garbage
+ * collector.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class PooledChannelBuffer extends BigEndianHeapChannelBuffer implements ChannelFutureListener {
+
+    private final ChannelBufferPool pool;
+
+    PooledChannelBuffer(ChannelBufferPool pool, int capacity) {
+        super(capacity);
+        this.pool = pool;
+    }
+
+    public ChannelBufferPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Returns this buffer to its pool.  This buffer must not be used by the
+     * caller afterwards.
+     */
+    public void release() {
+        this.pool.release(this);
+    }
+
+    @Override
+    public void operationComplete(ChannelFuture future) throws Exception {
+        if (future.isSuccess()) {
+            release();
+        }
+    }
+}
@@ -20,10 +20,13 @@ package com.cloudhopper.smpp.util;
  * #L%
  */
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Utility class for atomically generating SMPP PDU sequence numbers.  This
  * implementation will atomically increment the sequence number and wrap it
- * around back to 1 when it hits the max 0x7FFFFFFF.
+ * around back to 1 when it hits the max 0x7FFFFFFF.  It is lock-free, so many
+ * sender threads can share an instance without contending on a monitor.
  * 
  * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
  */
@@ -36,33 +39,56 @@ public class SequenceNumber {
     public static final int DEFAULT_VALUE = 0x00000001;
     public static final int MAX_VALUE = 0x7FFFFFFF;
 
-    private int value;
+    private final AtomicInteger value;
 
     public SequenceNumber() {
-        this.value = DEFAULT_VALUE;
+        this.value = new AtomicInteger(DEFAULT_VALUE);
     }
 
     public SequenceNumber(int initialValue) throws InvalidSequenceNumberException {
         assertValid(initialValue);
-        this.value = initialValue;
+        this.value = new AtomicInteger(initialValue);
     }
 
     /**
-     * Get the next number in this sequence's scheme. This method is synchronized
+     * Get the next number in this sequence's scheme. This method is lock-free
      * so its safe for multiple threads to call.
      */
-    synchronized public int next() {
-        // the next value is the current value
-        int nextValue = this.value;
-
-        if (this.value == MAX_VALUE) {
-            // wrap this around back to 1
-            this.value = DEFAULT_VALUE;
-        } else {
-            this.value++;
+    public int next() {
+        for (;;) {
+            // the next value is the current value
+            int nextValue = this.value.get();
+            // wrap this around back to 1 after the max
+            int newValue = (nextValue == MAX_VALUE ? DEFAULT_VALUE : nextValue + 1);
+            if (this.value.compareAndSet(nextValue, newValue)) {
+                return nextValue;
+            }
         }
+    }
 
-        return nextValue;
+    /**
+     * Reserves a block of consecutive numbers in this sequence's scheme in one
+     * atomic step.  Useful for batch senders that assign sequence numbers to
+     * many PDUs at once.  A block never wraps around: if there isn't enough
+     * room left before the max 0x7FFFFFFF, the block will start back at 1.
+     * @param size The number of sequence numbers to reserve (must be &gt;= 1)
+     * @return The first number of the block.  The caller owns every number
+     *      from this value to (value + size - 1).
+     */
+    public int nextBlock(int size) {
+        if (size < 1 || size > MAX_VALUE - DEFAULT_VALUE) {
+            throw new IllegalArgumentException("Block size [" + size + "] must be between 1 and " + (MAX_VALUE - DEFAULT_VALUE));
+        }
+        for (;;) {
+            int current = this.value.get();
+            // the block would run past the max, start it back at 1
+            int firstValue = ((long)current + size - 1 > MAX_VALUE ? DEFAULT_VALUE : current);
+            int lastValue = firstValue + size - 1;
+            int newValue = (lastValue == MAX_VALUE ? DEFAULT_VALUE : lastValue + 1);
+            if (this.value.compareAndSet(current, newValue)) {
+                return firstValue;
+            }
+        }
     }
 
     /**
@@ -72,16 +98,16 @@ public class SequenceNumber {
      * increasing the sequence. Multiple calls to <code>peek</code> will
      * return the same number until a call to <code>next()</code> is made.
      */
-    synchronized public int peek() {
-        return this.value;
+    public int peek() {
+        return this.value.get();
     }
 
     /**
      * Reset the sequence scheme to the beginning of the sequence (min value
      * which is 1).
      */
-    synchronized public void reset() {
-        this.value = DEFAULT_VALUE;
+    public void reset() {
+        this.value.set(DEFAULT_VALUE);
     }
 
     static public void assertValid(int sequenceNumber) throws InvalidSequenceNumberException {
@@ -95,4 +121,3 @@ public class SequenceNumber {
          */
     }
 }
-
@@ -0,0 +1,165 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+
+/**
+ * Immutable lookup table of primitive int keys to strings.  Keys from 0 up to
+ * the "dense" size are looked up directly in an array, any other key in a
+ * small open-addressed hash -- neither boxes the key.  Used for looking up
+ * things like command status messages and TLV tag names on every PDU.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class StringLookupTable {
+
+    static private final int MIN_HASH_SLOTS = 8;
+
+    private final String[] dense;
+    // open-addressed hash for any other key (a null value is an empty slot)
+    private final int[] keys;
+    private final String[] values;
+    private int size;
+
+    /**
+     * Creates a new empty table.  Entries are added with with().
+     * @param denseSize Keys from 0 up to (not including) this value are
+     *      stored in an array of that size
+     */
+    public StringLookupTable(int denseSize) {
+        this(denseSize, 0);
+    }
+
+    /**
+     * Creates a new table with a copy of every entry in the map.
+     * @param map The map to copy (e.g. SmppConstants.STATUS_MESSAGE_MAP)
+     * @param denseSize Keys from 0 up to (not including) this value are
+     *      stored in an array of that size
+     */
+    public StringLookupTable(Map<? extends Number,String> map, int denseSize) {
+        this(denseSize, map.size());
+        for (Map.Entry<? extends Number,String> entry : map.entrySet()) {
+            put(entry.getKey().intValue(), entry.getValue());
+        }
+    }
+
+    private StringLookupTable(int denseSize, int expectedSize) {
+        this.dense = new String[denseSize];
+        int slots = MIN_HASH_SLOTS;
+        // keep the hash at most half full
+        while (expectedSize * 2 > slots) {
+            slots *= 2;
+        }
+        this.keys = new int[slots];
+        this.values = new String[slots];
+    }
+
+    /**
+     * Gets the number of entries in this table.
+     * @return The number of entries
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Gets the string for a key.
+     * @param key The key to lookup
+     * @return The string or null if the key isn't in this table
+     */
+    public String get(int key) {
+        if (key >= 0 && key < this.dense.length) {
+            return this.dense[key];
+        }
+        int mask = this.values.length - 1;
+        int slot = hash(key) & mask;
+        String value;
+        while ((value = this.values[slot]) != null) {
+            if (this.keys[slot] == key) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Creates a copy of this table with one more (or replaced) entry.  This
+     * table is left unchanged.
+     * @param key The key to add
+     * @param value The string to add (a null value is ignored)
+     * @return The new table
+     */
+    public StringLookupTable with(int key, String value) {
+        StringLookupTable table = new StringLookupTable(this.dense.length, this.size + 1);
+        System.arraycopy(this.dense, 0, table.dense, 0, this.dense.length);
+        table.size = countDense();
+        for (int i = 0; i < this.values.length; i++) {
+            if (this.values[i] != null) {
+                table.put(this.keys[i], this.values[i]);
+            }
+        }
+        table.put(key, value);
+        return table;
+    }
+
+    private int countDense() {
+        int count = 0;
+        for (String value : this.dense) {
+            if (value != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static private int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // only ever called while this table is being constructed
+    private void put(int key, String value) {
+        if (value == null) {
+            return;
+        }
+        if (key >= 0 && key < this.dense.length) {
+            if (this.dense[key] == null) {
+                this.size++;
+            }
+            this.dense[key] = value;
+            return;
+        }
+        int mask = this.values.length - 1;
+        int slot = hash(key) & mask;
+        while (this.values[slot] != null) {
+            if (this.keys[slot] == key) {
+                this.values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        this.size++;
+    }
+}
@@ -0,0 +1,70 @@
+package com.cloudhopper.smpp.benchmark;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.pdu.*;
+import com.cloudhopper.smpp.type.Address;
+
+/**
+ * The PDUs the transcoder benchmarks encode and decode: one of every command
+ * type supported by DefaultPduTranscoder (in a mixed order, like on a busy
+ * transceiver session).
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class BenchmarkPdus {
+
+    static public Pdu[] createAll() {
+        SubmitSm submitSm = new SubmitSm();
+        submitSm.setSourceAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+        submitSm.setDestAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        submitSm.setShortMessage("Hello World".getBytes());
+        DeliverSm deliverSm = new DeliverSm();
+        deliverSm.setSourceAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        deliverSm.setDestAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+        deliverSm.setShortMessage("Hello World".getBytes());
+        DataSm dataSm = new DataSm();
+        dataSm.setSourceAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+        dataSm.setDestAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        SubmitSmResp submitSmResp = new SubmitSmResp();
+        submitSmResp.setMessageId("94258431594");
+        DeliverSmResp deliverSmResp = new DeliverSmResp();
+        deliverSmResp.setMessageId("94258431594");
+        QuerySm querySm = new QuerySm();
+        querySm.setMessageId("94258431594");
+        CancelSm cancelSm = new CancelSm();
+        cancelSm.setMessageId("94258431594");
+        BindTransceiver bindTransceiver = new BindTransceiver();
+        bindTransceiver.setSystemId("systemId");
+        bindTransceiver.setPassword("password");
+
+        Pdu[] pdus = new Pdu[] {
+            submitSm, submitSmResp, deliverSm, deliverSmResp, new EnquireLink(), new EnquireLinkResp(),
+            dataSm, new DataSmResp(), querySm, new QuerySmResp(), cancelSm, new CancelSmResp(),
+            bindTransceiver, new BindTransceiverResp(), new BindTransmitter(), new BindTransmitterResp(),
+            new BindReceiver(), new BindReceiverResp(), new Unbind(), new UnbindResp(), new GenericNack()
+        };
+        for (int i = 0; i < pdus.length; i++) {
+            pdus[i].setSequenceNumber(i+1);
+        }
+        return pdus;
+    }
+}
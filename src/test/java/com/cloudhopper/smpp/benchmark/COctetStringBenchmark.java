@@ -0,0 +1,152 @@
+package com.cloudhopper.smpp.benchmark;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.util.COctetStringCache;
+import com.cloudhopper.smpp.util.COctetStringCodec;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Reads and writes the C-Octet strings of a typical submit_sm (service_type,
+ * source_addr, destination_addr, schedule_delivery_time, validity_period)
+ * with COctetStringCodec, with and without an intern cache, and with the
+ * getByte() scan and charset lookup by name ChannelBufferUtil previously used.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class COctetStringBenchmark {
+
+    static private final String[] VALUES = new String[] { "CMT", "40404", "44951361920", "", "" };
+
+    private ChannelBuffer encoded;
+    private ChannelBuffer output;
+    private COctetStringCache cache;
+
+    @Setup
+    public void setup() throws Exception {
+        this.encoded = ChannelBuffers.buffer(64);
+        for (String value : VALUES) {
+            COctetStringCodec.write(this.encoded, value);
+        }
+        this.output = ChannelBuffers.buffer(64);
+        this.cache = new COctetStringCache();
+    }
+
+    @Benchmark
+    public void readCodec(Blackhole bh) throws Exception {
+        ChannelBuffer buffer = this.encoded.duplicate();
+        while (buffer.readable()) {
+            bh.consume(COctetStringCodec.read(buffer));
+        }
+    }
+
+    @Benchmark
+    public void readCodecInterned(Blackhole bh) throws Exception {
+        ChannelBuffer buffer = this.encoded.duplicate();
+        while (buffer.readable()) {
+            bh.consume(COctetStringCodec.read(buffer, this.cache));
+        }
+    }
+
+    @Benchmark
+    public void readLegacy(Blackhole bh) throws Exception {
+        ChannelBuffer buffer = this.encoded.duplicate();
+        while (buffer.readable()) {
+            bh.consume(legacyRead(buffer));
+        }
+    }
+
+    @Benchmark
+    public void writeCodec(Blackhole bh) throws Exception {
+        this.output.clear();
+        for (String value : VALUES) {
+            COctetStringCodec.write(this.output, value);
+        }
+        bh.consume(this.output);
+    }
+
+    @Benchmark
+    public void writeLegacy(Blackhole bh) throws Exception {
+        this.output.clear();
+        for (String value : VALUES) {
+            legacyWrite(this.output, value);
+        }
+        bh.consume(this.output);
+    }
+
+    /**
+     * What ChannelBufferUtil.readNullTerminatedString() previously did, kept
+     * as the baseline.
+     */
+    static public String legacyRead(ChannelBuffer buffer) throws Exception {
+        int maxLength = buffer.readableBytes();
+        int offset = buffer.readerIndex();
+        int zeroPos = 0;
+        while ((zeroPos < maxLength) && (buffer.getByte(zeroPos+offset) != 0x00)) {
+            zeroPos++;
+        }
+        String result = "";
+        if (zeroPos > 0) {
+            byte[] bytes = new byte[zeroPos];
+            buffer.readBytes(bytes);
+            result = new String(bytes, "ISO-8859-1");
+        }
+        buffer.readByte();
+        return result;
+    }
+
+    static public void legacyWrite(ChannelBuffer buffer, String value) throws UnsupportedEncodingException {
+        if (value != null) {
+            buffer.writeBytes(value.getBytes("ISO-8859-1"));
+        }
+        buffer.writeByte((byte)0x00);
+    }
+
+    static public void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .include(COctetStringBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
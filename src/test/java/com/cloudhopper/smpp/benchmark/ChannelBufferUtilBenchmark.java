@@ -0,0 +1,134 @@
+package com.cloudhopper.smpp.benchmark;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.tlv.Tlv;
+import com.cloudhopper.smpp.type.Address;
+import com.cloudhopper.smpp.util.ChannelBufferUtil;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Reads and writes the addresses (source_addr and destination_addr) and the
+ * TLVs of a typical delivery receipt with ChannelBufferUtil.  The C-Octet
+ * strings on their own are covered by COctetStringBenchmark.  Running main()
+ * adds the GC profiler so allocation rates are reported too.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelBufferUtilBenchmark {
+
+    private Address[] addresses;
+    private Tlv[] tlvs;
+    private ChannelBuffer addressBuffer;
+    private ChannelBuffer tlvBuffer;
+    private ChannelBuffer writeBuffer;
+
+    @Setup
+    public void setup() throws Exception {
+        this.addresses = new Address[] {
+            new Address((byte)0x01, (byte)0x01, "44951361920"),
+            new Address((byte)0x03, (byte)0x00, "40404")
+        };
+        this.tlvs = new Tlv[] {
+            new Tlv(SmppConstants.TAG_RECEIPTED_MSG_ID, "94258431594\0".getBytes()),
+            new Tlv(SmppConstants.TAG_MSG_STATE, new byte[] { SmppConstants.STATE_DELIVERED }),
+            new Tlv(SmppConstants.TAG_SAR_MSG_REF_NUM, new byte[] { 0x12, 0x34 }),
+            new Tlv(SmppConstants.TAG_SAR_TOTAL_SEGMENTS, new byte[] { 0x02 }),
+            new Tlv(SmppConstants.TAG_SAR_SEGMENT_SEQNUM, new byte[] { 0x01 })
+        };
+
+        this.addressBuffer = ChannelBuffers.buffer(64);
+        for (Address address : this.addresses) {
+            ChannelBufferUtil.writeAddress(this.addressBuffer, address);
+        }
+        this.tlvBuffer = ChannelBuffers.buffer(64);
+        for (Tlv tlv : this.tlvs) {
+            ChannelBufferUtil.writeTlv(this.tlvBuffer, tlv);
+        }
+        this.writeBuffer = ChannelBuffers.buffer(64);
+    }
+
+    @Benchmark
+    public void readAddresses(Blackhole bh) throws Exception {
+        this.addressBuffer.readerIndex(0);
+        for (int i = 0; i < this.addresses.length; i++) {
+            bh.consume(ChannelBufferUtil.readAddress(this.addressBuffer));
+        }
+    }
+
+    @Benchmark
+    public ChannelBuffer writeAddresses() throws Exception {
+        this.writeBuffer.clear();
+        for (Address address : this.addresses) {
+            ChannelBufferUtil.writeAddress(this.writeBuffer, address);
+        }
+        return this.writeBuffer;
+    }
+
+    @Benchmark
+    public void readTlvs(Blackhole bh) throws Exception {
+        this.tlvBuffer.readerIndex(0);
+        for (int i = 0; i < this.tlvs.length; i++) {
+            bh.consume(ChannelBufferUtil.readTlv(this.tlvBuffer));
+        }
+    }
+
+    @Benchmark
+    public ChannelBuffer writeTlvs() throws Exception {
+        this.writeBuffer.clear();
+        for (Tlv tlv : this.tlvs) {
+            ChannelBufferUtil.writeTlv(this.writeBuffer, tlv);
+        }
+        return this.writeBuffer;
+    }
+
+    static public void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .include(ChannelBufferUtilBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
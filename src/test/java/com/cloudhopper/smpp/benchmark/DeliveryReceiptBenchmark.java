@@ -0,0 +1,93 @@
+package com.cloudhopper.smpp.benchmark;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.util.DeliveryReceipt;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Parses the short message of a delivery receipt into a DeliveryReceipt and
+ * formats one back into a short message, once per receipt an SMSC delivers
+ * or an ESME receives.  Running main() adds the GC profiler so allocation
+ * rates are reported too.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliveryReceiptBenchmark {
+
+    private String shortMessage;
+    private DeliveryReceipt receipt;
+
+    @Setup
+    public void setup() throws Exception {
+        this.receipt = new DeliveryReceipt();
+        this.receipt.setMessageId("0123456789");
+        this.receipt.setSubmitCount(1);
+        this.receipt.setDeliveredCount(1);
+        this.receipt.setSubmitDate(new DateTime(2010, 5, 23, 20, 39, 0, 0, DateTimeZone.UTC));
+        this.receipt.setDoneDate(new DateTime(2010, 5, 24, 23, 39, 0, 0, DateTimeZone.UTC));
+        this.receipt.setState(SmppConstants.STATE_DELIVERED);
+        this.receipt.setErrorCode(12);
+        this.receipt.setText("This is a sample message that I want to have added to the delivery receipt");
+        this.shortMessage = this.receipt.toShortMessage();
+    }
+
+    @Benchmark
+    public DeliveryReceipt parseShortMessage() throws Exception {
+        return DeliveryReceipt.parseShortMessage(this.shortMessage, DateTimeZone.UTC);
+    }
+
+    @Benchmark
+    public String toShortMessage() {
+        return this.receipt.toShortMessage();
+    }
+
+    static public void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .include(DeliveryReceiptBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
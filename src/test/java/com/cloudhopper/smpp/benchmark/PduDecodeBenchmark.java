@@ -0,0 +1,213 @@
+package com.cloudhopper.smpp.benchmark;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.pdu.*;
+import com.cloudhopper.smpp.tlv.Tlv;
+import com.cloudhopper.smpp.transcoder.DefaultPduTranscoder;
+import com.cloudhopper.smpp.transcoder.DefaultPduTranscoderContext;
+import com.cloudhopper.smpp.transcoder.PduFactoryRegistry;
+import com.cloudhopper.smpp.type.Address;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Decodes one PDU of every command type supported by DefaultPduTranscoder
+ * (in a mixed order, like on a busy transceiver session).  Also compares
+ * creating the PDUs via the PduFactoryRegistry table lookup with the chain
+ * of if/else comparisons the transcoder previously used.  The receipt
+ * benchmarks decode a deliver_sm carrying receipted_message_id, message_state,
+ * sar_* and a vendor TLV and read each of them.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PduDecodeBenchmark {
+
+    private DefaultPduTranscoder transcoder;
+    private PduFactoryRegistry registry;
+    private byte[][] frames;
+    private int[] commandIds;
+    private byte[] receiptFrame;
+
+    @Setup
+    public void setup() throws Exception {
+        this.transcoder = new DefaultPduTranscoder(new DefaultPduTranscoderContext());
+        this.registry = new PduFactoryRegistry();
+
+        Pdu[] pdus = BenchmarkPdus.createAll();
+
+        this.frames = new byte[pdus.length][];
+        this.commandIds = new int[pdus.length];
+        for (int i = 0; i < pdus.length; i++) {
+            ChannelBuffer buffer = this.transcoder.encode(pdus[i]);
+            this.frames[i] = new byte[buffer.readableBytes()];
+            buffer.readBytes(this.frames[i]);
+            this.commandIds[i] = pdus[i].getCommandId();
+        }
+
+        DeliverSm receipt = new DeliverSm();
+        receipt.setSourceAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        receipt.setDestAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+        receipt.setEsmClass(SmppConstants.ESM_CLASS_MT_SMSC_DELIVERY_RECEIPT);
+        receipt.addOptionalParameter(new Tlv(SmppConstants.TAG_RECEIPTED_MSG_ID, "94258431594\0".getBytes()));
+        receipt.addOptionalParameter(new Tlv(SmppConstants.TAG_MSG_STATE, new byte[] { SmppConstants.STATE_DELIVERED }));
+        receipt.addOptionalParameter(new Tlv(SmppConstants.TAG_SAR_MSG_REF_NUM, new byte[] { 0x12, 0x34 }));
+        receipt.addOptionalParameter(new Tlv(SmppConstants.TAG_SAR_TOTAL_SEGMENTS, new byte[] { 0x02 }));
+        receipt.addOptionalParameter(new Tlv(SmppConstants.TAG_SAR_SEGMENT_SEQNUM, new byte[] { 0x01 }));
+        receipt.addOptionalParameter(new Tlv(VENDOR_TAG, new byte[] { 0x00, 0x00, 0x01, 0x00 }));
+        receipt.setSequenceNumber(1);
+        ChannelBuffer buffer = this.transcoder.encode(receipt);
+        this.receiptFrame = new byte[buffer.readableBytes()];
+        buffer.readBytes(this.receiptFrame);
+    }
+
+    static private final short VENDOR_TAG = (short)0x1400;
+
+    @Benchmark
+    public void decodeReceiptTlvs(Blackhole bh) throws Exception {
+        Pdu pdu = this.transcoder.decode(ChannelBuffers.wrappedBuffer(this.receiptFrame));
+        bh.consume(pdu.getOptionalParameter(SmppConstants.TAG_RECEIPTED_MSG_ID).getValueAsString());
+        bh.consume(pdu.getOptionalParameter(SmppConstants.TAG_MSG_STATE).getValueAsByte());
+        bh.consume(pdu.getOptionalParameter(SmppConstants.TAG_SAR_MSG_REF_NUM).getValueAsUnsignedShort());
+        bh.consume(pdu.getOptionalParameter(SmppConstants.TAG_SAR_TOTAL_SEGMENTS).getValueAsUnsignedByte());
+        bh.consume(pdu.getOptionalParameter(SmppConstants.TAG_SAR_SEGMENT_SEQNUM).getValueAsUnsignedByte());
+        bh.consume(pdu.getOptionalParameter(VENDOR_TAG).getValueAsInt());
+    }
+
+    @Benchmark
+    public void decodeReceiptTypedAccessors(Blackhole bh) throws Exception {
+        Pdu pdu = this.transcoder.decode(ChannelBuffers.wrappedBuffer(this.receiptFrame));
+        bh.consume(pdu.getOptionalParameterAsString(SmppConstants.TAG_RECEIPTED_MSG_ID));
+        bh.consume(pdu.getOptionalParameterAsByte(SmppConstants.TAG_MSG_STATE, (byte)0));
+        bh.consume(pdu.getOptionalParameterAsUnsignedShort(SmppConstants.TAG_SAR_MSG_REF_NUM, 0));
+        bh.consume(pdu.getOptionalParameterAsUnsignedByte(SmppConstants.TAG_SAR_TOTAL_SEGMENTS, (short)0));
+        bh.consume(pdu.getOptionalParameterAsUnsignedByte(SmppConstants.TAG_SAR_SEGMENT_SEQNUM, (short)0));
+        bh.consume(pdu.getOptionalParameterAsInt(VENDOR_TAG, 0));
+    }
+
+    @Benchmark
+    public void decodeAll(Blackhole bh) throws Exception {
+        for (byte[] frame : this.frames) {
+            bh.consume(this.transcoder.decode(ChannelBuffers.wrappedBuffer(frame)));
+        }
+    }
+
+    @Benchmark
+    public void registryNewPduAll(Blackhole bh) {
+        for (int commandId : this.commandIds) {
+            bh.consume(this.registry.newPdu(commandId));
+        }
+    }
+
+    @Benchmark
+    public void ifElseNewPduAll(Blackhole bh) {
+        for (int commandId : this.commandIds) {
+            bh.consume(ifElseNewPdu(commandId));
+        }
+    }
+
+    /**
+     * The chain of comparisons DefaultPduTranscoder previously used, kept as
+     * the baseline.
+     */
+    static public Pdu ifElseNewPdu(int commandId) {
+        if ((commandId & SmppConstants.PDU_CMD_ID_RESP_MASK) == 0) {
+            if (commandId == SmppConstants.CMD_ID_ENQUIRE_LINK) {
+                return new EnquireLink();
+            } else if (commandId == SmppConstants.CMD_ID_DELIVER_SM) {
+                return new DeliverSm();
+            } else if (commandId == SmppConstants.CMD_ID_SUBMIT_SM) {
+                return new SubmitSm();
+            } else if (commandId == SmppConstants.CMD_ID_DATA_SM) {
+                return new DataSm();
+            } else if (commandId == SmppConstants.CMD_ID_CANCEL_SM) {
+                return new CancelSm();
+            } else if (commandId == SmppConstants.CMD_ID_QUERY_SM) {
+                return new QuerySm();
+            } else if (commandId == SmppConstants.CMD_ID_BIND_TRANSCEIVER) {
+                return new BindTransceiver();
+            } else if (commandId == SmppConstants.CMD_ID_BIND_TRANSMITTER) {
+                return new BindTransmitter();
+            } else if (commandId == SmppConstants.CMD_ID_BIND_RECEIVER) {
+                return new BindReceiver();
+            } else if (commandId == SmppConstants.CMD_ID_UNBIND) {
+                return new Unbind();
+            } else {
+                return new PartialPdu(commandId);
+            }
+        } else {
+            if (commandId == SmppConstants.CMD_ID_SUBMIT_SM_RESP) {
+                return new SubmitSmResp();
+            } else if (commandId == SmppConstants.CMD_ID_DELIVER_SM_RESP) {
+                return new DeliverSmResp();
+            } else if (commandId == SmppConstants.CMD_ID_DATA_SM_RESP) {
+                return new DataSmResp();
+            } else if (commandId == SmppConstants.CMD_ID_CANCEL_SM_RESP) {
+                return new CancelSmResp();
+            } else if (commandId == SmppConstants.CMD_ID_QUERY_SM_RESP) {
+                return new QuerySmResp();
+            } else if (commandId == SmppConstants.CMD_ID_ENQUIRE_LINK_RESP) {
+                return new EnquireLinkResp();
+            } else if (commandId == SmppConstants.CMD_ID_BIND_TRANSCEIVER_RESP) {
+                return new BindTransceiverResp();
+            } else if (commandId == SmppConstants.CMD_ID_BIND_RECEIVER_RESP) {
+                return new BindReceiverResp();
+            } else if (commandId == SmppConstants.CMD_ID_BIND_TRANSMITTER_RESP) {
+                return new BindTransmitterResp();
+            } else if (commandId == SmppConstants.CMD_ID_UNBIND_RESP) {
+                return new UnbindResp();
+            } else if (commandId == SmppConstants.CMD_ID_GENERIC_NACK) {
+                return new GenericNack();
+            } else {
+                return new PartialPduResp(commandId);
+            }
+        }
+    }
+
+    static public void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .include(PduDecodeBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,170 @@
+package com.cloudhopper.smpp.benchmark;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.commons.util.HexUtil;
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.pdu.DeliverSm;
+import com.cloudhopper.smpp.pdu.Pdu;
+import com.cloudhopper.smpp.pdu.SubmitSm;
+import com.cloudhopper.smpp.pdu.SubmitSmTemplate;
+import com.cloudhopper.smpp.tlv.Tlv;
+import com.cloudhopper.smpp.transcoder.DefaultPduTranscoder;
+import com.cloudhopper.smpp.transcoder.DefaultPduTranscoderContext;
+import com.cloudhopper.smpp.type.Address;
+import com.cloudhopper.smpp.util.ChannelBufferPool;
+import com.cloudhopper.smpp.util.PooledChannelBuffer;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the legacy two-pass encode (calculate the length, then write into
+ * an exactly sized buffer) with the single-pass encode into a pooled buffer
+ * that back-patches the command length.  Pooled buffers are released right
+ * away, just like a successful channel write does.  The same submit_sm is
+ * also encoded from a SubmitSmTemplate, which only writes the destination
+ * address and short message per message.  The "all" benchmarks encode one
+ * PDU of every command type (see BenchmarkPdus).  Running main() adds the
+ * GC profiler so allocation rates (gc.alloc.rate.norm) are reported too.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PduEncodeBenchmark {
+
+    private DefaultPduTranscoder legacyTranscoder;
+    private DefaultPduTranscoder pooledTranscoder;
+    private SubmitSm submitSm;
+    private DeliverSm deliverSm;
+    private ChannelBufferPool templatePool;
+    private SubmitSmTemplate submitSmTemplate;
+    private byte[] shortMessage;
+    private Pdu[] pdus;
+
+    @Setup
+    public void setup() throws Exception {
+        DefaultPduTranscoderContext context = new DefaultPduTranscoderContext();
+        this.legacyTranscoder = new DefaultPduTranscoder(context);
+        this.pooledTranscoder = new DefaultPduTranscoder(context, new ChannelBufferPool(16));
+
+        this.submitSm = new SubmitSm();
+        this.submitSm.setSourceAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+        this.submitSm.setDestAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        this.submitSm.setRegisteredDelivery((byte)0x01);
+        this.submitSm.setShortMessage(HexUtil.toByteArray("4024232125262f3a"));
+
+        this.templatePool = new ChannelBufferPool(16);
+        this.submitSmTemplate = new SubmitSmTemplate(this.submitSm);
+        this.shortMessage = HexUtil.toByteArray("4024232125262f3a");
+
+        this.deliverSm = new DeliverSm();
+        this.deliverSm.setSourceAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        this.deliverSm.setDestAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+        this.deliverSm.setShortMessage(HexUtil.toByteArray("4024232125262f3a"));
+        this.deliverSm.addOptionalParameter(new Tlv(SmppConstants.TAG_SOURCE_NETWORK_TYPE, new byte[] { (byte)0x01 }));
+        this.deliverSm.addOptionalParameter(new Tlv(SmppConstants.TAG_DEST_NETWORK_TYPE, new byte[] { (byte)0x01 }));
+
+        this.pdus = BenchmarkPdus.createAll();
+    }
+
+    @Benchmark
+    public ChannelBuffer legacySubmitSm() throws Exception {
+        // legacy path only calculates the length once it's been cleared
+        this.submitSm.removeCommandLength();
+        return this.legacyTranscoder.encode(this.submitSm);
+    }
+
+    @Benchmark
+    public ChannelBuffer pooledSubmitSm() throws Exception {
+        this.submitSm.removeCommandLength();
+        ChannelBuffer buffer = this.pooledTranscoder.encode(this.submitSm);
+        ((PooledChannelBuffer)buffer).release();
+        return buffer;
+    }
+
+    @Benchmark
+    public ChannelBuffer templateSubmitSm() throws Exception {
+        PooledChannelBuffer buffer = this.templatePool.acquire();
+        this.submitSmTemplate.encode(1, "44951361920", this.shortMessage, buffer);
+        buffer.release();
+        return buffer;
+    }
+
+    @Benchmark
+    public ChannelBuffer legacyDeliverSm() throws Exception {
+        this.deliverSm.removeCommandLength();
+        return this.legacyTranscoder.encode(this.deliverSm);
+    }
+
+    @Benchmark
+    public ChannelBuffer pooledDeliverSm() throws Exception {
+        this.deliverSm.removeCommandLength();
+        ChannelBuffer buffer = this.pooledTranscoder.encode(this.deliverSm);
+        ((PooledChannelBuffer)buffer).release();
+        return buffer;
+    }
+
+    @Benchmark
+    public void legacyAll(Blackhole bh) throws Exception {
+        for (Pdu pdu : this.pdus) {
+            pdu.removeCommandLength();
+            bh.consume(this.legacyTranscoder.encode(pdu));
+        }
+    }
+
+    @Benchmark
+    public void pooledAll(Blackhole bh) throws Exception {
+        for (Pdu pdu : this.pdus) {
+            pdu.removeCommandLength();
+            ChannelBuffer buffer = this.pooledTranscoder.encode(pdu);
+            bh.consume(buffer);
+            ((PooledChannelBuffer)buffer).release();
+        }
+    }
+
+    static public void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .include(PduEncodeBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,98 @@
+package com.cloudhopper.smpp.benchmark;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.util.SequenceNumber;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the lock-free SequenceNumber with the previous implementation that
+ * synchronized on a monitor.  All threads share one instance, just like every
+ * sender thread on a session does.  Running main() repeats the benchmark with
+ * 1, 2, 4, 8, 16, 32, and 64 threads.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequenceNumberBenchmark {
+
+    private final SequenceNumber lockFree = new SequenceNumber();
+    private final MonitorSequenceNumber monitor = new MonitorSequenceNumber();
+
+    @Benchmark
+    public int lockFreeNext() {
+        return lockFree.next();
+    }
+
+    @Benchmark
+    public int lockFreeNextBlock() {
+        return lockFree.nextBlock(16);
+    }
+
+    @Benchmark
+    public int monitorNext() {
+        return monitor.next();
+    }
+
+    /**
+     * The previous synchronized implementation, kept as the baseline.
+     */
+    static public class MonitorSequenceNumber {
+        private int value = SequenceNumber.DEFAULT_VALUE;
+
+        synchronized public int next() {
+            int nextValue = this.value;
+            if (this.value == SequenceNumber.MAX_VALUE) {
+                this.value = SequenceNumber.DEFAULT_VALUE;
+            } else {
+                this.value++;
+            }
+            return nextValue;
+        }
+    }
+
+    static public void main(String[] args) throws Exception {
+        for (int threads : new int[] { 1, 2, 4, 8, 16, 32, 64 }) {
+            Options options = new OptionsBuilder()
+                .include(SequenceNumberBenchmark.class.getSimpleName())
+                .threads(threads)
+                .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.cloudhopper.smpp.benchmark;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.impl.DefaultSmppSessionCounters;
+import com.cloudhopper.smpp.util.ConcurrentCommandCounter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Updates the session counters the way DefaultSmppSession does for every
+ * submit_sm sent and submit_sm_resp received (and for a request it
+ * receives and responds to).  All threads share one instance, just like
+ * every sender thread and the I/O thread of a session do.  Running main()
+ * repeats the benchmark with 1, 2, 4, 8, and 16 threads.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionCountersBenchmark {
+
+    private final DefaultSmppSessionCounters counters = new DefaultSmppSessionCounters();
+
+    @Benchmark
+    public void txSubmitSm() {
+        ConcurrentCommandCounter counter = this.counters.getTxSubmitSM();
+        counter.incrementRequest();
+        counter.addRequestWaitTime(1);
+        counter.incrementResponse();
+        counter.addRequestResponseTime(10);
+        counter.addRequestEstimatedProcessingTime(8);
+        counter.getResponseCommandStatusCounter().increment(SmppConstants.STATUS_OK);
+    }
+
+    @Benchmark
+    public void rxDeliverSm() {
+        ConcurrentCommandCounter counter = this.counters.getRxDeliverSM();
+        counter.incrementRequest();
+        counter.incrementResponse();
+        counter.addRequestEstimatedProcessingTime(8);
+        counter.getResponseCommandStatusCounter().increment(SmppConstants.STATUS_OK);
+    }
+
+    static public void main(String[] args) throws Exception {
+        for (int threads : new int[] { 1, 2, 4, 8, 16 }) {
+            Options options = new OptionsBuilder()
+                .include(SessionCountersBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .threads(threads)
+                .build();
+            new Runner(options).run();
+        }
+    }
+}
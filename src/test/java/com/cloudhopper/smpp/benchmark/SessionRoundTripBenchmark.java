@@ -0,0 +1,154 @@
+package com.cloudhopper.smpp.benchmark;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.cloudhopper.smpp.SmppBindType;
+import com.cloudhopper.smpp.SmppServerConfiguration;
+import com.cloudhopper.smpp.SmppServerHandler;
+import com.cloudhopper.smpp.SmppServerSession;
+import com.cloudhopper.smpp.SmppSession;
+import com.cloudhopper.smpp.SmppSessionConfiguration;
+import com.cloudhopper.smpp.impl.DefaultSmppClient;
+import com.cloudhopper.smpp.impl.DefaultSmppServer;
+import com.cloudhopper.smpp.impl.DefaultSmppSessionHandler;
+import com.cloudhopper.smpp.pdu.BaseBind;
+import com.cloudhopper.smpp.pdu.BaseBindResp;
+import com.cloudhopper.smpp.pdu.SubmitSm;
+import com.cloudhopper.smpp.pdu.SubmitSmResp;
+import com.cloudhopper.smpp.type.Address;
+import com.cloudhopper.smpp.type.SmppProcessingException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures a synchronous submit_sm/submit_sm_resp round trip between a
+ * client session and a server session in the same JVM, either over a local
+ * (in-VM) address or over a loopback TCP connection.  The difference is the
+ * cost of the kernel networking and the I/O threads -- the local transport
+ * is left with only the cost of the protocol and session handlers.
+ * 
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionRoundTripBenchmark {
+
+    static private final int PORT = 9785;
+    static private final String LOCAL_ADDRESS = "SessionRoundTripBenchmark";
+
+    @Param({ "local", "tcp" })
+    private String transport;
+
+    private DefaultSmppServer server;
+    private DefaultSmppClient client;
+    private SmppSession session;
+    private SubmitSm submitSm;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        boolean local = "local".equals(transport);
+
+        SmppServerConfiguration serverConfiguration = new SmppServerConfiguration();
+        serverConfiguration.setPort(PORT);
+        if (local) {
+            serverConfiguration.setLocalAddress(LOCAL_ADDRESS);
+        }
+        this.server = new DefaultSmppServer(serverConfiguration, new RespondingSmppServerHandler());
+        this.server.start();
+
+        SmppSessionConfiguration configuration = new SmppSessionConfiguration();
+        configuration.setName("SessionRoundTripBenchmark.Session");
+        configuration.setType(SmppBindType.TRANSCEIVER);
+        configuration.setHost("localhost");
+        configuration.setPort(PORT);
+        if (local) {
+            configuration.setLocalAddress(LOCAL_ADDRESS);
+        }
+        configuration.setSystemId("benchmark");
+        configuration.setPassword("benchmark");
+        configuration.getLoggingOptions().setLogPdu(false);
+        this.client = new DefaultSmppClient();
+        this.session = this.client.bind(configuration);
+
+        this.submitSm = new SubmitSm();
+        this.submitSm.setSourceAddress(new Address((byte)0x03, (byte)0x00, "40404"));
+        this.submitSm.setDestAddress(new Address((byte)0x01, (byte)0x01, "44555519205"));
+        this.submitSm.setShortMessage("Test Short Message".getBytes());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.session.close();
+        this.client.destroy();
+        this.server.destroy();
+    }
+
+    @Benchmark
+    public SubmitSmResp submit() throws Exception {
+        return this.session.submit(this.submitSm, 10000);
+    }
+
+    /**
+     * Accepts every bind and responds to every request right away.
+     */
+    static public class RespondingSmppServerHandler implements SmppServerHandler {
+        @Override
+        public void sessionBindRequested(Long sessionId, SmppSessionConfiguration sessionConfiguration, BaseBind bindRequest) throws SmppProcessingException {
+            sessionConfiguration.getLoggingOptions().setLogPdu(false);
+        }
+
+        @Override
+        public void sessionCreated(Long sessionId, SmppServerSession session, BaseBindResp preparedBindResponse) throws SmppProcessingException {
+            session.serverReady(new DefaultSmppSessionHandler());
+        }
+
+        @Override
+        public void sessionDestroyed(Long sessionId, SmppServerSession session) {
+            session.destroy();
+        }
+    }
+
+    static public void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .include(SessionRoundTripBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
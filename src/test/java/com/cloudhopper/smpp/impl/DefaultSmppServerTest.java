@@ -30,11 +30,35 @@ import com.cloudhopper.smpp.SmppSession;
 import com.cloudhopper.smpp.SmppSessionConfiguration;
 import com.cloudhopper.smpp.pdu.BaseBind;
 import com.cloudhopper.smpp.pdu.BaseBindResp;
+import com.cloudhopper.smpp.pdu.DeliverSm;
+import com.cloudhopper.smpp.pdu.EnquireLink;
+import com.cloudhopper.smpp.pdu.EnquireLinkResp;
+import com.cloudhopper.smpp.pdu.PduRequest;
+import com.cloudhopper.smpp.pdu.PduResponse;
+import com.cloudhopper.smpp.pdu.SubmitSm;
+import com.cloudhopper.smpp.pdu.SubmitSmResp;
 import com.cloudhopper.smpp.tlv.Tlv;
+import com.cloudhopper.smpp.transcoder.PduFactoryRegistry;
+import com.cloudhopper.smpp.transcoder.PduFactoryRegistryTest;
+import com.cloudhopper.smpp.type.Address;
 import com.cloudhopper.smpp.type.SmppBindException;
 import com.cloudhopper.smpp.type.SmppChannelException;
 import com.cloudhopper.smpp.type.SmppProcessingException;
+import com.cloudhopper.smpp.type.SmppTimeoutException;
+import com.cloudhopper.smpp.util.ConcurrentCommandCounter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 import org.junit.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -146,6 +170,538 @@ public class DefaultSmppServerTest {
         }
     }
 
+    @Test
+    public void serverCountsTrafficOfEverySession() throws Exception {
+        SmppServerConfiguration configuration = createSmppServerConfiguration();
+        DefaultSmppServer server0 = new DefaultSmppServer(configuration, serverHandler);
+        server0.start();
+
+        try {
+            DefaultSmppClient client0 = new DefaultSmppClient();
+            SmppSession[] sessions = new SmppSession[3];
+            for (int i = 0; i < sessions.length; i++) {
+                SmppSessionConfiguration sessionConfig0 = createDefaultConfiguration();
+                sessionConfig0.setName("TrafficCounterTest.Session." + i);
+                sessions[i] = client0.bind(sessionConfig0);
+            }
+
+            Thread.sleep(100);
+
+            // the server sessions have no counters of their own
+            for (SmppServerSession serverSession : new ArrayList<SmppServerSession>(serverHandler.sessions)) {
+                Assert.assertEquals(false, serverSession.hasCounters());
+                serverSession.enquireLink(new EnquireLink(), 1000);
+                serverSession.enquireLink(new EnquireLink(), 1000);
+            }
+
+            ConcurrentCommandCounter txEnquireLink = server0.getCounters().getSessionCounters().getTxEnquireLink();
+            Assert.assertEquals(6, txEnquireLink.getRequest());
+            Assert.assertEquals(6, txEnquireLink.getResponse());
+            Assert.assertEquals(6, txEnquireLink.getResponseCommandStatusCounter().get(SmppConstants.STATUS_OK));
+            Assert.assertEquals(false, txEnquireLink.isLatencyHistogramsEnabled());
+            Assert.assertEquals(0, server0.getCounters().getSessionCounters().getRxEnquireLink().getRequest());
+            Assert.assertEquals(true, server0.getTxEnquireLinkCounter().startsWith("[request=6 expired=0 response=6 "));
+            Assert.assertNotNull(server0.getTxEnquireLinkRate());
+
+            server0.resetCounters();
+            Assert.assertEquals(0, txEnquireLink.getRequest());
+
+            for (SmppSession session : sessions) {
+                session.close();
+            }
+        } finally {
+            server0.destroy();
+        }
+    }
+
+    @Test
+    public void serverSessionsManagedBySingleMBean() throws Exception {
+        SmppServerConfiguration configuration = createSmppServerConfiguration();
+        configuration.setName("SessionsMBeanTest");
+        configuration.setJmxEnabled(true);
+        configuration.setSessionsMBeanEnabled(true);
+        DefaultSmppServer server0 = new DefaultSmppServer(configuration, serverHandler);
+        server0.start();
+
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName sessionsName = new ObjectName(configuration.getJmxDomain() + ":name=SessionsMBeanTest" + "Sessions");
+        try {
+            Assert.assertEquals(true, mbeanServer.isRegistered(sessionsName));
+            DefaultSmppServerSessions sessionsMBean = server0.getSessionsMBean();
+
+            DefaultSmppClient client0 = new DefaultSmppClient();
+            SmppSession[] sessions = new SmppSession[3];
+            for (int i = 0; i < sessions.length; i++) {
+                SmppSessionConfiguration sessionConfig0 = createDefaultConfiguration();
+                sessionConfig0.setName("SessionsMBeanTest.Session." + i);
+                sessions[i] = client0.bind(sessionConfig0);
+            }
+
+            Thread.sleep(100);
+
+            // no mbean registered per session
+            Assert.assertEquals(0, mbeanServer.queryNames(new ObjectName(configuration.getJmxDomain() + ":type=SessionsMBeanTestSessions,*"), null).size());
+            Assert.assertEquals(3, sessionsMBean.getSessionSize());
+            Assert.assertEquals(3, sessionsMBean.getSessionSizeBySystemId().get(SYSTEMID).intValue());
+            Assert.assertEquals(3, ((Integer)mbeanServer.getAttribute(sessionsName, "SessionSize")).intValue());
+
+            TabularData all = sessionsMBean.listSessions(null, 0, 0);
+            Assert.assertEquals(3, all.size());
+            Assert.assertEquals(3, sessionsMBean.listSessions(SYSTEMID, 0, 10).size());
+            Assert.assertEquals(0, sessionsMBean.listSessions("unknown", 0, 10).size());
+            // pages
+            TabularData page = sessionsMBean.listSessions(SYSTEMID, 1, 1);
+            Assert.assertEquals(1, page.size());
+            CompositeData row = (CompositeData)page.values().iterator().next();
+            Assert.assertEquals(SYSTEMID, row.get("systemId"));
+            Assert.assertEquals("TRANSCEIVER", row.get("bindType"));
+            Assert.assertEquals(row, sessionsMBean.findSession((Long)row.get("id")));
+            Assert.assertNull(sessionsMBean.findSession(-1));
+            Assert.assertEquals(2, sessionsMBean.listSessions(null, 1, 0).size());
+            // through the mbean server (the open types are valid)
+            TabularData viaJmx = (TabularData)mbeanServer.invoke(sessionsName, "listSessions", new Object[] { SYSTEMID, 0, 2 }, new String[] { String.class.getName(), int.class.getName(), int.class.getName() });
+            Assert.assertEquals(2, viaJmx.size());
+
+            Assert.assertEquals(3, sessionsMBean.resetCounters(null));
+            Assert.assertEquals(0, sessionsMBean.closeSessions("unknown"));
+            Assert.assertEquals(3, sessionsMBean.closeSessions(SYSTEMID));
+
+            Thread.sleep(200);
+            Assert.assertEquals(0, sessionsMBean.getSessionSize());
+            Assert.assertEquals(0, serverHandler.sessions.size());
+        } finally {
+            server0.destroy();
+        }
+        Assert.assertEquals(false, mbeanServer.isRegistered(sessionsName));
+    }
+
+    @Test
+    public void unbindSessionsWaitsOnce() throws Exception {
+        SmppServerConfiguration configuration = createSmppServerConfiguration();
+        configuration.setName("UnbindSessionsTest");
+        configuration.setJmxEnabled(true);
+        configuration.setSessionsMBeanEnabled(true);
+        DefaultSmppServer server0 = new DefaultSmppServer(configuration, serverHandler);
+        server0.start();
+
+        try {
+            DefaultSmppServerSessions sessionsMBean = server0.getSessionsMBean();
+
+            // the default handler of the client sessions never answers an unbind
+            DefaultSmppClient client0 = new DefaultSmppClient();
+            SmppSession[] sessions = new SmppSession[3];
+            for (int i = 0; i < sessions.length; i++) {
+                SmppSessionConfiguration sessionConfig0 = createDefaultConfiguration();
+                sessionConfig0.setName("UnbindSessionsTest.Session." + i);
+                sessions[i] = client0.bind(sessionConfig0);
+            }
+
+            Thread.sleep(100);
+            Assert.assertEquals(3, sessionsMBean.getSessionSize());
+
+            // one timeout for every session (not 3 of them one after the other)
+            long start = System.currentTimeMillis();
+            Assert.assertEquals(3, sessionsMBean.unbindSessions(SYSTEMID, 500));
+            long elapsed = System.currentTimeMillis() - start;
+            Assert.assertTrue("unbind took " + elapsed + " ms", elapsed < 1200);
+
+            Thread.sleep(200);
+            Assert.assertEquals(0, sessionsMBean.getSessionSize());
+            Assert.assertEquals(0, serverHandler.sessions.size());
+            for (SmppSession session : sessions) {
+                Assert.assertEquals(false, ((DefaultSmppSession)session).getChannel().isConnected());
+            }
+        } finally {
+            server0.destroy();
+        }
+    }
+
+    @Test
+    public void serverSessionOverLocalAddress() throws Exception {
+        SmppServerConfiguration configuration = createSmppServerConfiguration();
+        configuration.setLocalAddress("DefaultSmppServerTest");
+        DefaultSmppServer server0 = new DefaultSmppServer(configuration, serverHandler);
+        server0.start();
+
+        try {
+            DefaultSmppClient client0 = new DefaultSmppClient();
+            SmppSessionConfiguration sessionConfig0 = createDefaultConfiguration();
+            // no socket is involved (and nothing listens on the port)
+            sessionConfig0.setLocalAddress("DefaultSmppServerTest");
+            SmppSession session0 = client0.bind(sessionConfig0);
+
+            Thread.sleep(100);
+
+            SmppServerSession serverSession0 = serverHandler.sessions.iterator().next();
+            Assert.assertEquals(1, server0.getChannels().size());
+            Assert.assertEquals(true, serverSession0.isBound());
+            Assert.assertEquals(true, session0.isBound());
+
+            EnquireLinkResp enquireLinkResp = serverSession0.enquireLink(new EnquireLink(), 1000);
+            Assert.assertEquals(SmppConstants.STATUS_OK, enquireLinkResp.getCommandStatus());
+
+            session0.close();
+            Thread.sleep(200);
+            Assert.assertEquals(0, serverHandler.sessions.size());
+            Assert.assertEquals(0, server0.getChannels().size());
+        } finally {
+            server0.destroy();
+        }
+    }
+
+    @Test
+    public void pooledEncodeBuffersNotReusedOverLocalAddress() throws Exception {
+        // the server keeps every lazily decoded request until it responds
+        final DefaultSmppSessionTest.AsyncSessionHandler asyncHandler = new DefaultSmppSessionTest.AsyncSessionHandler();
+        SmppServerConfiguration configuration = createSmppServerConfiguration();
+        configuration.setLocalAddress("DefaultSmppServerTest.Pooled");
+        configuration.setLazyDecodeEnabled(true);
+        DefaultSmppServer server0 = new DefaultSmppServer(configuration, new TestSmppServerHandler() {
+            @Override
+            public void sessionCreated(Long sessionId, SmppServerSession session, BaseBindResp preparedBindResponse) {
+                session.serverReady(asyncHandler);
+            }
+        });
+        server0.start();
+
+        DefaultSmppClient client0 = new DefaultSmppClient();
+        try {
+            SmppSessionConfiguration sessionConfig0 = createDefaultConfiguration();
+            sessionConfig0.setLocalAddress("DefaultSmppServerTest.Pooled");
+            sessionConfig0.setWindowSize(3);
+            // a single pooled buffer would be reused for every request
+            sessionConfig0.setEncodeBufferPoolSize(1);
+            SmppSession session0 = client0.bind(sessionConfig0);
+
+            ArrayList<CompletableFuture<SubmitSmResp>> futures = new ArrayList<CompletableFuture<SubmitSmResp>>();
+            for (int i = 0; i < 3; i++) {
+                SubmitSm submit = new SubmitSm();
+                submit.setSourceAddress(new Address((byte)0x03, (byte)0x00, "40404"));
+                submit.setDestAddress(new Address((byte)0x01, (byte)0x01, "4495136192" + i));
+                futures.add(session0.submitAsync(submit, 1000));
+            }
+
+            ArrayList<SubmitSm> received = new ArrayList<SubmitSm>();
+            for (int i = 0; i < 3; i++) {
+                SubmitSm submit = (SubmitSm)asyncHandler.requests.poll(1000, TimeUnit.MILLISECONDS);
+                Assert.assertNotNull(submit);
+                received.add(submit);
+            }
+
+            // still intact once the client wrote the other requests
+            for (int i = 0; i < 3; i++) {
+                SubmitSm submit = received.get(i);
+                Assert.assertEquals("4495136192" + i, submit.getDestAddress().getAddress());
+                Assert.assertEquals("40404", submit.getSourceAddress().getAddress());
+                asyncHandler.responses.poll().complete(submit.createResponse());
+            }
+
+            for (CompletableFuture<SubmitSmResp> future : futures) {
+                Assert.assertEquals(SmppConstants.STATUS_OK, future.get(1000, TimeUnit.MILLISECONDS).getCommandStatus());
+            }
+
+            session0.close();
+        } finally {
+            client0.destroy();
+            server0.destroy();
+        }
+    }
+
+    @Test
+    public void handlerQueueBoundedOverLocalAddress() throws Exception {
+        SmppServerConfiguration configuration = createSmppServerConfiguration();
+        configuration.setLocalAddress("DefaultSmppServerTest.Bounded");
+        configuration.setDefaultWindowSize(10);
+        DefaultSmppServer server0 = new DefaultSmppServer(configuration, serverHandler);
+        server0.start();
+
+        // a client handler that blocks until released
+        final CountDownLatch releaseHandler = new CountDownLatch(1);
+        DefaultSmppSessionHandler sessionHandler = new DefaultSmppSessionHandler() {
+            @Override
+            public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                try {
+                    releaseHandler.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                return pduRequest.createResponse();
+            }
+        };
+
+        DefaultSmppClient client0 = new DefaultSmppClient();
+        try {
+            SmppSessionConfiguration sessionConfig0 = createDefaultConfiguration();
+            sessionConfig0.setLocalAddress("DefaultSmppServerTest.Bounded");
+            sessionConfig0.setHandlerDispatchEnabled(true);
+            sessionConfig0.setHandlerQueueHighWatermark(2);
+            sessionConfig0.setHandlerQueueLowWatermark(1);
+            sessionConfig0.setHandlerQueueMaxSize(4);
+            SmppSession session0 = client0.bind(sessionConfig0, sessionHandler);
+
+            Assert.assertEquals(1, serverHandler.sessions.size());
+            SmppServerSession serverSession = serverHandler.sessions.iterator().next();
+
+            // suspending reads has no effect on a local channel so only the hard bound holds
+            ArrayList<CompletableFuture<PduResponse>> futures = new ArrayList<CompletableFuture<PduResponse>>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(serverSession.sendRequestAsync(new EnquireLink(), 1000));
+            }
+
+            for (int i = 4; i < 10; i++) {
+                Assert.assertEquals(SmppConstants.STATUS_THROTTLED, futures.get(i).get(1000, TimeUnit.MILLISECONDS).getCommandStatus());
+            }
+            Assert.assertFalse(futures.get(0).isDone());
+
+            releaseHandler.countDown();
+
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals(SmppConstants.STATUS_OK, futures.get(i).get(1000, TimeUnit.MILLISECONDS).getCommandStatus());
+            }
+
+            session0.close();
+        } finally {
+            releaseHandler.countDown();
+            client0.destroy();
+            server0.destroy();
+        }
+    }
+
+    @Test
+    public void vendorPdusRegisteredViaConfiguration() throws Exception {
+        PduFactoryRegistry registry = new PduFactoryRegistry();
+        registry.register(PduFactoryRegistryTest.CMD_ID_VENDOR_PING, PduFactoryRegistryTest.VENDOR_PING_FACTORY);
+
+        // registered before the server or the client session exists
+        SmppServerConfiguration configuration = createSmppServerConfiguration();
+        configuration.setPduFactoryRegistry(registry);
+        DefaultSmppServer server0 = new DefaultSmppServer(configuration, serverHandler);
+        server0.start();
+
+        final BlockingQueue<PduRequest> received = new LinkedBlockingQueue<PduRequest>();
+        DefaultSmppSessionHandler clientHandler = new DefaultSmppSessionHandler() {
+            @Override
+            public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                received.add(pduRequest);
+                return pduRequest.createResponse();
+            }
+        };
+
+        DefaultSmppClient client0 = new DefaultSmppClient();
+        try {
+            SmppSessionConfiguration sessionConfig0 = createDefaultConfiguration();
+            sessionConfig0.setPduFactoryRegistry(registry);
+            SmppSession session0 = client0.bind(sessionConfig0, clientHandler);
+
+            Thread.sleep(100);
+            Assert.assertEquals(1, serverHandler.sessions.size());
+            SmppServerSession serverSession = serverHandler.sessions.iterator().next();
+
+            // decoded by the server
+            session0.sendRequestAsync(new PduFactoryRegistryTest.VendorPing(), 1000);
+            PduRequest request0 = serverHandler.sessionHandler.getReceivedPduRequests().poll(1000, TimeUnit.MILLISECONDS);
+            Assert.assertTrue(request0 instanceof PduFactoryRegistryTest.VendorPing);
+
+            // decoded by the client
+            PduResponse response = serverSession.sendRequestAsync(new PduFactoryRegistryTest.VendorPing(), 1000).get(1000, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(SmppConstants.STATUS_OK, response.getCommandStatus());
+            Assert.assertTrue(received.poll(1000, TimeUnit.MILLISECONDS) instanceof PduFactoryRegistryTest.VendorPing);
+
+            session0.close();
+        } finally {
+            client0.destroy();
+            server0.destroy();
+        }
+    }
+
+    @Test
+    public void clientBindToUnavailableLocalAddressThrowsException() throws Exception {
+        DefaultSmppClient client0 = new DefaultSmppClient();
+        SmppSessionConfiguration sessionConfig0 = createDefaultConfiguration();
+        sessionConfig0.setLocalAddress("DefaultSmppServerTest.Unavailable");
+
+        try {
+            client0.bind(sessionConfig0);
+            Assert.fail();
+        } catch (SmppChannelException e) {
+            // correct behavior
+        } finally {
+            client0.destroy();
+        }
+    }
+
+    @Test
+    public void broadcastEncodesOnceToEverySession() throws Exception {
+        DefaultSmppServer server0 = createSmppServer();
+        server0.start();
+
+        // clients respond to every deliver_sm
+        final BlockingQueue<DeliverSm> received = new LinkedBlockingQueue<DeliverSm>();
+        DefaultSmppSessionHandler clientHandler = new DefaultSmppSessionHandler() {
+            @Override
+            public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                received.add((DeliverSm)pduRequest);
+                return pduRequest.createResponse();
+            }
+        };
+
+        DefaultSmppClient client0 = new DefaultSmppClient();
+        try {
+            SmppSession session0 = client0.bind(createDefaultConfiguration(), clientHandler);
+            SmppSession session1 = client0.bind(createDefaultConfiguration(), clientHandler);
+
+            Thread.sleep(100);
+            Assert.assertEquals(2, serverHandler.sessions.size());
+
+            // advance the sequence number of one session so they differ
+            SmppServerSession serverSession0 = serverHandler.sessions.iterator().next();
+            ((DefaultSmppSession)serverSession0).getSequenceNumber().next();
+
+            DeliverSm deliver = new DeliverSm();
+            deliver.setSourceAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+            deliver.setDestAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+            deliver.setShortMessage("Test".getBytes("ISO-8859-1"));
+
+            DefaultPduBroadcastFuture future = server0.broadcastAsync(deliver, serverHandler.sessions, 0);
+            Assert.assertEquals(Integer.valueOf(2), future.get(1000, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(2, future.getFutures().size());
+            for (SmppServerSession serverSession : serverHandler.sessions) {
+                PduResponse response = future.getFuture(serverSession).get();
+                Assert.assertEquals(SmppConstants.CMD_ID_DELIVER_SM_RESP, response.getCommandId());
+                Assert.assertEquals(0, serverSession.getSendWindow().getSize());
+            }
+
+            // each session got the same body with its own sequence number
+            DeliverSm deliver0 = received.poll(1000, TimeUnit.MILLISECONDS);
+            DeliverSm deliver1 = received.poll(1000, TimeUnit.MILLISECONDS);
+            Assert.assertEquals("44951361920", deliver0.getDestAddress().getAddress());
+            Assert.assertEquals("44951361920", deliver1.getDestAddress().getAddress());
+            Assert.assertArrayEquals(deliver.getShortMessage(), deliver0.getShortMessage());
+            Assert.assertArrayEquals(deliver.getShortMessage(), deliver1.getShortMessage());
+            Assert.assertTrue(deliver0.getSequenceNumber() != deliver1.getSequenceNumber());
+
+            // a closed session only fails its own future
+            HashSet<SmppServerSession> sessions = new HashSet<SmppServerSession>(serverHandler.sessions);
+            session1.close();
+            Thread.sleep(200);
+            Assert.assertEquals(1, serverHandler.sessions.size());
+            future = server0.broadcastAsync(deliver, sessions, 0);
+            Assert.assertEquals(Integer.valueOf(1), future.get(1000, TimeUnit.MILLISECONDS));
+
+            session0.close();
+        } finally {
+            client0.destroy();
+            server0.destroy();
+        }
+    }
+
+    @Test
+    public void broadcastStopsOnceInterrupted() throws Exception {
+        SmppServerConfiguration configuration = createSmppServerConfiguration();
+        configuration.setDefaultWindowSize(1);
+        DefaultSmppServer server0 = new DefaultSmppServer(configuration, serverHandler);
+        server0.start();
+
+        // clients never respond so the window of each server session fills up
+        DefaultSmppSessionHandler clientHandler = new DefaultSmppSessionHandler() {
+            @Override
+            public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                return null;
+            }
+        };
+
+        DefaultSmppClient client0 = new DefaultSmppClient();
+        try {
+            SmppSession session0 = client0.bind(createDefaultConfiguration(), clientHandler);
+            SmppSession session1 = client0.bind(createDefaultConfiguration(), clientHandler);
+
+            Thread.sleep(100);
+            Assert.assertEquals(2, serverHandler.sessions.size());
+
+            DeliverSm deliver = new DeliverSm();
+            deliver.setSourceAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+            deliver.setDestAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+
+            ArrayList<SmppServerSession> sessions = new ArrayList<SmppServerSession>(serverHandler.sessions);
+            DefaultPduBroadcastFuture future = server0.broadcastAsync(deliver, sessions, 0);
+            Assert.assertFalse(future.isDone());
+
+            // waiting on the full window of the first session is interrupted
+            Thread.currentThread().interrupt();
+            future = server0.broadcastAsync(deliver, sessions, 1000);
+            Assert.assertTrue(Thread.interrupted());
+            Assert.assertEquals(Integer.valueOf(0), future.get(1000, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(2, future.getFutures().size());
+            for (SmppServerSession serverSession : sessions) {
+                Assert.assertTrue(future.getFuture(serverSession).isCompletedExceptionally());
+                // nothing more was added to the window of the second session
+                Assert.assertEquals(1, serverSession.getSendWindow().getSize());
+            }
+
+            session0.close();
+            session1.close();
+        } finally {
+            client0.destroy();
+            server0.destroy();
+        }
+    }
+
+    @Test
+    public void broadcastWaitsUnderOneDeadline() throws Exception {
+        SmppServerConfiguration configuration = createSmppServerConfiguration();
+        configuration.setDefaultWindowSize(1);
+        DefaultSmppServer server0 = new DefaultSmppServer(configuration, serverHandler);
+        server0.start();
+
+        // clients never respond so the window of each server session fills up
+        DefaultSmppSessionHandler clientHandler = new DefaultSmppSessionHandler() {
+            @Override
+            public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                return null;
+            }
+        };
+
+        DefaultSmppClient client0 = new DefaultSmppClient();
+        try {
+            SmppSession session0 = client0.bind(createDefaultConfiguration(), clientHandler);
+            SmppSession session1 = client0.bind(createDefaultConfiguration(), clientHandler);
+            SmppSession session2 = client0.bind(createDefaultConfiguration(), clientHandler);
+
+            Thread.sleep(100);
+            Assert.assertEquals(3, serverHandler.sessions.size());
+
+            DeliverSm deliver = new DeliverSm();
+            deliver.setSourceAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+            deliver.setDestAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+
+            ArrayList<SmppServerSession> sessions = new ArrayList<SmppServerSession>(serverHandler.sessions);
+            server0.broadcastAsync(deliver, sessions, 0);
+
+            // every window is full -- only the first session waits for the timeout
+            long start = System.currentTimeMillis();
+            DefaultPduBroadcastFuture future = server0.broadcastAsync(deliver, sessions, 300);
+            long elapsed = System.currentTimeMillis() - start;
+            Assert.assertTrue("broadcast took " + elapsed + " ms", elapsed < 600);
+            Assert.assertEquals(Integer.valueOf(0), future.get(1000, TimeUnit.MILLISECONDS));
+            for (SmppServerSession serverSession : sessions) {
+                try {
+                    future.getFuture(serverSession).get();
+                    Assert.fail();
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof SmppTimeoutException);
+                }
+                Assert.assertEquals(1, serverSession.getSendWindow().getSize());
+            }
+
+            session0.close();
+            session1.close();
+            session2.close();
+        } finally {
+            client0.destroy();
+            server0.destroy();
+        }
+    }
+
     @Test
     public void serverSessionBindRejectedWithInvalidSystemId() throws Exception {
         DefaultSmppServer server0 = createSmppServer();
@@ -28,28 +28,46 @@ import com.cloudhopper.smpp.PduAsyncResponse;
 import com.cloudhopper.smpp.SmppBindType;
 import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.SmppSession;
+import com.cloudhopper.smpp.SmppSessionAsyncHandler;
 import com.cloudhopper.smpp.SmppSessionConfiguration;
+import com.cloudhopper.smpp.channel.SmppChannelConstants;
+import com.cloudhopper.smpp.channel.SmppSessionHandlerDispatcher;
 import com.cloudhopper.smpp.pdu.BufferHelper;
+import com.cloudhopper.smpp.pdu.DeliverSm;
 import com.cloudhopper.smpp.pdu.EnquireLink;
 import com.cloudhopper.smpp.pdu.EnquireLinkResp;
 import com.cloudhopper.smpp.pdu.Pdu;
 import com.cloudhopper.smpp.pdu.PduRequest;
 import com.cloudhopper.smpp.pdu.PduResponse;
+import com.cloudhopper.smpp.pdu.SubmitSm;
 import com.cloudhopper.smpp.pdu.SubmitSmResp;
+import com.cloudhopper.smpp.pdu.SubmitSmTemplate;
 import com.cloudhopper.smpp.pdu.UnbindResp;
+import com.cloudhopper.smpp.type.Address;
 import com.cloudhopper.smpp.simulator.SmppSimulatorBindProcessor;
 import com.cloudhopper.smpp.simulator.SmppSimulatorPduProcessor;
 import com.cloudhopper.smpp.simulator.SmppSimulatorServer;
 import com.cloudhopper.smpp.simulator.SmppSimulatorSessionHandler;
 import com.cloudhopper.smpp.type.GenericNackException;
 import com.cloudhopper.smpp.type.SmppBindException;
+import com.cloudhopper.smpp.type.SmppChannelException;
 import com.cloudhopper.smpp.type.SmppChannelConnectException;
 import com.cloudhopper.smpp.type.SmppChannelConnectTimeoutException;
 import com.cloudhopper.smpp.type.SmppTimeoutException;
 import com.cloudhopper.smpp.type.TerminatingNullByteNotFoundException;
 import com.cloudhopper.smpp.type.UnexpectedPduResponseException;
 import com.cloudhopper.smpp.type.UnrecoverablePduException;
+import com.cloudhopper.smpp.transcoder.DefaultPduTranscoder;
+import com.cloudhopper.smpp.util.ChannelBufferPool;
 import com.cloudhopper.smpp.util.SmppSessionUtil;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.jboss.netty.channel.Channel;
 import org.junit.*;
@@ -513,6 +531,692 @@ public class DefaultSmppSessionTest {
     }
 
 
+    @Test
+    public void receivePduResponseViaNonBlockingSend() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        // bind and get the simulator session
+        PollableSmppSessionHandler sessionHandler = new PollableSmppSessionHandler();
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            EnquireLink el0 = new EnquireLink();
+            el0.setSequenceNumber(0x1000);
+            EnquireLinkResp el0Resp = el0.createResponse();
+
+            CompletableFuture<PduResponse> future0 = session.sendRequestAsync(el0, 2000);
+            Assert.assertEquals(false, future0.isDone());
+            Assert.assertEquals(1, session.getSendWindow().getSize());
+
+            // send the response back -- this should be routed to the future
+            simulator0.sendPdu(el0Resp);
+
+            PduResponse pdu0 = future0.get(1000, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(SmppConstants.CMD_ID_ENQUIRE_LINK_RESP, pdu0.getCommandId());
+            Assert.assertEquals(0x1000, pdu0.getSequenceNumber());
+            Assert.assertEquals(0, session.getSendWindow().getSize());
+            // the session handler should not have seen the response
+            Assert.assertEquals(0, sessionHandler.getReceivedExpectedPduResponses().size());
+            Assert.assertEquals(0, sessionHandler.getReceivedUnexpectedPduResponses().size());
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void submitAsyncWithGenericNackResponse() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        // bind and get the simulator session
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration);
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        // register a generic nack will come next
+        simulator0.setPduProcessor(new SmppSimulatorPduProcessor() {
+            @Override
+            public boolean process(SmppSimulatorSessionHandler session, Channel channel, Pdu pdu) throws Exception {
+                session.addPduToWriteOnNextPduReceived(((PduRequest)pdu).createGenericNack(SmppConstants.STATUS_SYSERR));
+                return true;
+            }
+        });
+
+        try {
+            try {
+                session.submitAsync(new SubmitSm(), 1000).get(1000, TimeUnit.MILLISECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                // correct behavior
+                Assert.assertTrue(e.getCause() instanceof GenericNackException);
+            }
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void nonBlockingSendFailsWhenChannelClosed() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        // bind and get the simulator session
+        PollableSmppSessionHandler sessionHandler = new PollableSmppSessionHandler();
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            CompletableFuture<PduResponse> future0 = session.sendRequestAsync(new EnquireLink(), 2000);
+
+            // a remote close should fail the request (nobody is waiting on it)
+            simulator0.getChannel().close().awaitUninterruptibly(1000);
+
+            try {
+                future0.get(1000, TimeUnit.MILLISECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                // correct behavior
+                Assert.assertTrue(e.getCause() instanceof SmppChannelException);
+            }
+            Assert.assertEquals(0, session.getSendWindow().getSize());
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void nonBlockingSendCancelledStopsTracking() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        // bind and get the simulator session
+        PollableSmppSessionHandler sessionHandler = new PollableSmppSessionHandler();
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            CompletableFuture<PduResponse> future0 = session.sendRequestAsync(new EnquireLink(), 2000);
+            Assert.assertEquals(1, session.getAsyncRequestSize());
+
+            Assert.assertTrue(future0.cancel(false));
+            // neither in the window nor tracked for a (late) response anymore
+            Assert.assertEquals(0, session.getSendWindow().getSize());
+            Assert.assertEquals(0, session.getAsyncRequestSize());
+            Assert.assertTrue(future0.isCancelled());
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void requestExpiredBySharedExpiryTimer() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setWindowSize(2);
+        configuration.setWindowMonitorInterval(1000);
+        configuration.setRequestExpiryTimeout(100);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        // a client with monitoring enabled will use its shared expiry timer
+        ScheduledExecutorService monitorExecutor = Executors.newSingleThreadScheduledExecutor();
+        DefaultSmppClient client0 = new DefaultSmppClient(DaemonExecutors.newCachedDaemonThreadPool(), 1, monitorExecutor);
+        PollableSmppSessionHandler sessionHandler = new PollableSmppSessionHandler();
+        DefaultSmppSession session = (DefaultSmppSession)client0.bind(configuration, sessionHandler);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            Assert.assertTrue(session.isWindowMonitorEnabled());
+            long start = System.currentTimeMillis();
+            CompletableFuture<PduResponse> future0 = session.sendRequestAsync(new EnquireLink(), 1000);
+            Assert.assertEquals(1, session.getSendWindow().getSize());
+
+            // expired well before the window monitor interval would have scanned
+            try {
+                future0.get(900, TimeUnit.MILLISECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                // correct behavior
+                Assert.assertTrue(e.getCause() instanceof SmppTimeoutException);
+            }
+            Assert.assertTrue(System.currentTimeMillis() - start < 900);
+            Assert.assertEquals(0, session.getSendWindow().getSize());
+        } finally {
+            SmppSessionUtil.close(session);
+            client0.destroy();
+            monitorExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void receivedPdusDispatchedInOrderWithBackpressure() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setHandlerDispatchEnabled(true);
+        configuration.setHandlerQueueHighWatermark(4);
+        configuration.setHandlerQueueLowWatermark(1);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        // a handler that blocks on the first request it receives
+        final CountDownLatch firstRequestReceived = new CountDownLatch(1);
+        final CountDownLatch releaseHandler = new CountDownLatch(1);
+        final BlockingQueue<Integer> receivedSequenceNumbers = new LinkedBlockingQueue<Integer>();
+        final BlockingQueue<String> handlerThreadNames = new LinkedBlockingQueue<String>();
+        DefaultSmppSessionHandler sessionHandler = new DefaultSmppSessionHandler() {
+            @Override
+            public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                handlerThreadNames.add(Thread.currentThread().getName());
+                receivedSequenceNumbers.add(pduRequest.getSequenceNumber());
+                firstRequestReceived.countDown();
+                try {
+                    releaseHandler.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                return pduRequest.createResponse();
+            }
+        };
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+        SmppSessionHandlerDispatcher dispatcher = (SmppSessionHandlerDispatcher)session.getChannel().getPipeline().get(SmppChannelConstants.PIPELINE_SESSION_HANDLER_DISPATCHER_NAME);
+        Assert.assertNotNull(dispatcher);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            for (int i = 1; i <= 20; i++) {
+                EnquireLink el = new EnquireLink();
+                el.setSequenceNumber(i);
+                simulator0.sendPdu(el);
+            }
+
+            // the blocked handler must cause reads to be suspended
+            Assert.assertTrue(firstRequestReceived.await(1000, TimeUnit.MILLISECONDS));
+            long start = System.currentTimeMillis();
+            while (!dispatcher.isReadSuspended() && (System.currentTimeMillis() - start) < 1000) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(dispatcher.isReadSuspended());
+            Assert.assertTrue(dispatcher.getQueueSize() >= 4);
+
+            releaseHandler.countDown();
+
+            // every request was processed in order and all responses were returned
+            for (int i = 1; i <= 20; i++) {
+                Assert.assertEquals(Integer.valueOf(i), receivedSequenceNumbers.poll(1000, TimeUnit.MILLISECONDS));
+                PduResponse response = (PduResponse)simulator0.getPduQueue().poll(1000, TimeUnit.MILLISECONDS);
+                Assert.assertNotNull(response);
+                Assert.assertEquals(i, response.getSequenceNumber());
+            }
+            Assert.assertFalse(dispatcher.isReadSuspended());
+            Assert.assertEquals(0, dispatcher.getQueueSize());
+            // the handler was called with the session name on a thread of the handler executor
+            Assert.assertEquals(configuration.getName(), handlerThreadNames.poll());
+        } finally {
+            releaseHandler.countDown();
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    static class AsyncSessionHandler extends DefaultSmppSessionHandler implements SmppSessionAsyncHandler {
+        final BlockingQueue<PduRequest> requests = new LinkedBlockingQueue<PduRequest>();
+        final BlockingQueue<CompletableFuture<PduResponse>> responses = new LinkedBlockingQueue<CompletableFuture<PduResponse>>();
+        final BlockingQueue<Throwable> throwables = new LinkedBlockingQueue<Throwable>();
+
+        @Override
+        public CompletionStage<PduResponse> firePduRequestReceivedAsync(PduRequest pduRequest) {
+            CompletableFuture<PduResponse> future = new CompletableFuture<PduResponse>();
+            requests.add(pduRequest);
+            responses.add(future);
+            return future;
+        }
+
+        @Override
+        public void fireUnknownThrowable(Throwable t) {
+            throwables.add(t);
+        }
+    }
+
+    @Test
+    public void asyncHandlerRespondsLater() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setCountersEnabled(true);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        AsyncSessionHandler sessionHandler = new AsyncSessionHandler();
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            // all 3 requests are in-flight at once without holding any thread
+            for (int i = 1; i <= 3; i++) {
+                EnquireLink el = new EnquireLink();
+                el.setSequenceNumber(i);
+                simulator0.sendPdu(el);
+            }
+            PduRequest[] requests = new PduRequest[3];
+            CompletableFuture[] futures = new CompletableFuture[3];
+            for (int i = 0; i < 3; i++) {
+                requests[i] = sessionHandler.requests.poll(1000, TimeUnit.MILLISECONDS);
+                futures[i] = sessionHandler.responses.poll(1000, TimeUnit.MILLISECONDS);
+                Assert.assertNotNull(requests[i]);
+            }
+            Assert.assertNull(simulator0.getPduQueue().poll(100, TimeUnit.MILLISECONDS));
+
+            // complete them out of order (and one exceptionally)
+            futures[2].complete(requests[2].createResponse());
+            futures[1].completeExceptionally(new IllegalStateException("test"));
+            futures[0].complete(requests[0].createResponse());
+
+            PduResponse response = (PduResponse)simulator0.getPduQueue().poll(1000, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(3, response.getSequenceNumber());
+            Assert.assertEquals(SmppConstants.STATUS_OK, response.getCommandStatus());
+            // the exceptionally completed request still gets a response
+            response = (PduResponse)simulator0.getPduQueue().poll(1000, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(2, response.getSequenceNumber());
+            Assert.assertEquals(SmppConstants.STATUS_SYSERR, response.getCommandStatus());
+            response = (PduResponse)simulator0.getPduQueue().poll(1000, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(1, response.getSequenceNumber());
+            Assert.assertNull(simulator0.getPduQueue().poll(100, TimeUnit.MILLISECONDS));
+
+            Assert.assertTrue(sessionHandler.throwables.poll(1000, TimeUnit.MILLISECONDS) instanceof IllegalStateException);
+            Assert.assertEquals(3, session.getCounters().getRxEnquireLink().getRequest());
+            Assert.assertEquals(3, session.getCounters().getRxEnquireLink().getResponse());
+            Assert.assertEquals(1, session.getCounters().getRxEnquireLink().getResponseCommandStatusCounter().get(SmppConstants.STATUS_SYSERR));
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void asyncHandlerCompletesAfterSessionDestroyed() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        AsyncSessionHandler sessionHandler = new AsyncSessionHandler();
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        EnquireLink el = new EnquireLink();
+        el.setSequenceNumber(1);
+        simulator0.sendPdu(el);
+        PduRequest request = sessionHandler.requests.poll(1000, TimeUnit.MILLISECONDS);
+        CompletableFuture<PduResponse> future = sessionHandler.responses.poll(1000, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull(request);
+
+        session.destroy();
+
+        // the callback must not call into the (released) handler
+        Assert.assertTrue(future.completeExceptionally(new IllegalStateException("test")));
+        Assert.assertNull(sessionHandler.throwables.poll(100, TimeUnit.MILLISECONDS));
+        Assert.assertNull(simulator0.getPduQueue().poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void lazyDecodedRequestsReleasedAfterHandler() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setLazyDecodeEnabled(true);
+        // logging a pdu would parse every field
+        configuration.getLoggingOptions().setLogPdu(false);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        // a handler that only inspects the dest address and keeps every other request
+        final BlockingQueue<DeliverSm> requests = new LinkedBlockingQueue<DeliverSm>();
+        final BlockingQueue<String> destAddresses = new LinkedBlockingQueue<String>();
+        DefaultSmppSessionHandler sessionHandler = new DefaultSmppSessionHandler() {
+            @Override
+            public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                DeliverSm deliverSm = (DeliverSm)pduRequest;
+                destAddresses.add(deliverSm.getDestAddress().getAddress());
+                if (deliverSm.getSequenceNumber() % 2 == 0) {
+                    deliverSm.detach();
+                }
+                requests.add(deliverSm);
+                return pduRequest.createResponse();
+            }
+        };
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            for (int i = 1; i <= 2; i++) {
+                DeliverSm deliverSm = new DeliverSm();
+                deliverSm.setSequenceNumber(i);
+                deliverSm.setSourceAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+                deliverSm.setDestAddress(new Address((byte)0x01, (byte)0x01, "4040" + i));
+                deliverSm.setShortMessage("Hello".getBytes());
+                simulator0.sendPdu(deliverSm);
+            }
+
+            for (int i = 1; i <= 2; i++) {
+                Assert.assertEquals("4040" + i, destAddresses.poll(1000, TimeUnit.MILLISECONDS));
+                Assert.assertNotNull(simulator0.getPduQueue().poll(1000, TimeUnit.MILLISECONDS));
+            }
+
+            // first request was released once the handler returned
+            DeliverSm deliverSm0 = requests.poll(1000, TimeUnit.MILLISECONDS);
+            Assert.assertEquals("40401", deliverSm0.getDestAddress().getAddress());
+            try {
+                deliverSm0.getShortMessage();
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                // correct behavior
+            }
+
+            // second request was detached by the handler
+            DeliverSm deliverSm1 = requests.poll(1000, TimeUnit.MILLISECONDS);
+            Assert.assertArrayEquals("Hello".getBytes(), deliverSm1.getShortMessage());
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void sendsWithPooledEncodeBuffers() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setEncodeBufferPoolSize(4);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        PollableSmppSessionHandler sessionHandler = new PollableSmppSessionHandler();
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+        ChannelBufferPool pool = ((DefaultPduTranscoder)session.getTranscoder()).getBufferPool();
+        Assert.assertNotNull(pool);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(new SmppSimulatorPduProcessor() {
+            @Override
+            public boolean process(SmppSimulatorSessionHandler session, Channel channel, Pdu pdu) throws Exception {
+                session.sendPdu(((PduRequest)pdu).createResponse());
+                return true;
+            }
+        });
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                EnquireLinkResp el0Resp = session.enquireLink(new EnquireLink(), 1000);
+                Assert.assertNotNull(el0Resp);
+            }
+            // buffers were returned to the pool once written (and reused)
+            Assert.assertEquals(1, pool.getSize());
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void pooledEncodeBufferReleasedWhenWindowFull() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setEncodeBufferPoolSize(4);
+        configuration.setWindowSize(1);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        PollableSmppSessionHandler sessionHandler = new PollableSmppSessionHandler();
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+        ChannelBufferPool pool = ((DefaultPduTranscoder)session.getTranscoder()).getBufferPool();
+
+        // the simulator never responds so the window stays full
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            session.sendRequestAsync(new EnquireLink(), 1000);
+            // the buffer is returned to the pool once written
+            long start = System.currentTimeMillis();
+            while (pool.getSize() == 0 && (System.currentTimeMillis() - start) < 1000) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, pool.getSize());
+
+            try {
+                session.sendRequestAsync(new EnquireLink(), 50);
+                Assert.fail();
+            } catch (SmppTimeoutException e) {
+                // correct behavior
+            }
+            // the buffer of the request that didn't fit in the window is returned as well
+            Assert.assertEquals(1, pool.getSize());
+
+            try {
+                session.sendRequestPdu(new EnquireLink(), 50, false);
+                Assert.fail();
+            } catch (SmppTimeoutException e) {
+                // correct behavior
+            }
+            Assert.assertEquals(1, pool.getSize());
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void submitAsyncFromTemplate() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setEncodeBufferPoolSize(4);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        PollableSmppSessionHandler sessionHandler = new PollableSmppSessionHandler();
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+
+        final BlockingQueue<Pdu> receivedPdus = new LinkedBlockingQueue<Pdu>();
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(new SmppSimulatorPduProcessor() {
+            @Override
+            public boolean process(SmppSimulatorSessionHandler session, Channel channel, Pdu pdu) throws Exception {
+                receivedPdus.add(pdu);
+                session.sendPdu(((PduRequest)pdu).createResponse());
+                return true;
+            }
+        });
+
+        try {
+            SubmitSm prototype = new SubmitSm();
+            prototype.setServiceType("CMT");
+            prototype.setSourceAddress(new Address((byte)0x03, (byte)0x00, "40404"));
+            prototype.setDestAddress(new Address((byte)0x01, (byte)0x01, null));
+            SubmitSmTemplate template = new SubmitSmTemplate(prototype);
+
+            for (int i = 0; i < 10; i++) {
+                SubmitSmResp submitResp = session.submitAsync(template, "4495136192" + i, new byte[] { (byte)i }, 1000).get(1000, TimeUnit.MILLISECONDS);
+                Assert.assertNotNull(submitResp);
+            }
+            Assert.assertEquals(0, session.getSendWindow().getSize());
+
+            // the simulator decoded exactly what the template encoded
+            SubmitSm submit0 = (SubmitSm)receivedPdus.poll(1000, TimeUnit.MILLISECONDS);
+            Assert.assertEquals("CMT", submit0.getServiceType());
+            Assert.assertEquals("40404", submit0.getSourceAddress().getAddress());
+            Assert.assertEquals("44951361920", submit0.getDestAddress().getAddress());
+            Assert.assertArrayEquals(new byte[] { (byte)0 }, submit0.getShortMessage());
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void nonBlockingSendsWithWriteAggregation() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setWindowSize(20);
+        configuration.setWriteAggregationEnabled(true);
+        configuration.setWriteAggregationMaxCount(8);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        // bind and get the simulator session
+        PollableSmppSessionHandler sessionHandler = new PollableSmppSessionHandler();
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(new SmppSimulatorPduProcessor() {
+            @Override
+            public boolean process(SmppSimulatorSessionHandler session, Channel channel, Pdu pdu) throws Exception {
+                session.sendPdu(((PduRequest)pdu).createResponse());
+                return true;
+            }
+        });
+
+        try {
+            // more than one batch (by count) plus a remainder flushed by the timer
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[20];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = session.sendRequestAsync(new EnquireLink(), 1000);
+            }
+
+            CompletableFuture.allOf(futures).get(2000, TimeUnit.MILLISECONDS);
+            for (CompletableFuture<?> future : futures) {
+                Assert.assertEquals(SmppConstants.CMD_ID_ENQUIRE_LINK_RESP, ((PduResponse)future.get()).getCommandId());
+            }
+            Assert.assertEquals(0, session.getSendWindow().getSize());
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void dispatchedResponsesNotHeldUpByWriteAggregation() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setHandlerDispatchEnabled(true);
+        configuration.setWriteAggregationEnabled(true);
+        configuration.setWriteAggregationMaxCount(64);
+        // each response would wait this long for the flush if the handler
+        // thread waited on its write
+        configuration.setWriteAggregationMaxDelay(200000);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        DefaultSmppSessionHandler sessionHandler = new DefaultSmppSessionHandler() {
+            @Override
+            public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                return pduRequest.createResponse();
+            }
+        };
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            long start = System.currentTimeMillis();
+            for (int i = 1; i <= 20; i++) {
+                EnquireLink el = new EnquireLink();
+                el.setSequenceNumber(i);
+                simulator0.sendPdu(el);
+            }
+            for (int i = 1; i <= 20; i++) {
+                PduResponse response = (PduResponse)simulator0.getPduQueue().poll(2000, TimeUnit.MILLISECONDS);
+                Assert.assertNotNull(response);
+                Assert.assertEquals(i, response.getSequenceNumber());
+            }
+            // all responses went out in one or two flushes rather than one per request
+            Assert.assertTrue(System.currentTimeMillis() - start < 1500);
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void responsesFlushedOnceReadDoneWithWriteAggregation() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setWriteAggregationEnabled(true);
+        configuration.setWriteAggregationMaxCount(64);
+        // far longer than the test takes -- only the end of a read flushes
+        configuration.setWriteAggregationMaxDelay(5000000);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        // the handler runs on the I/O thread
+        DefaultSmppSessionHandler sessionHandler = new DefaultSmppSessionHandler() {
+            @Override
+            public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                return pduRequest.createResponse();
+            }
+        };
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            for (int i = 1; i <= 20; i++) {
+                EnquireLink el = new EnquireLink();
+                el.setSequenceNumber(i);
+                simulator0.sendPdu(el);
+            }
+            for (int i = 1; i <= 20; i++) {
+                PduResponse response = (PduResponse)simulator0.getPduQueue().poll(2000, TimeUnit.MILLISECONDS);
+                Assert.assertNotNull(response);
+                Assert.assertEquals(i, response.getSequenceNumber());
+            }
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
+    @Test
+    public void waitingOnWriteWhileReadingWithWriteAggregation() throws Exception {
+        SmppSessionConfiguration configuration = createDefaultConfiguration();
+        configuration.setWriteAggregationEnabled(true);
+        configuration.setWriteAggregationMaxCount(64);
+        configuration.setWriteAggregationMaxDelay(5000000);
+        registerServerBindProcessor();
+        clearAllServerSessions();
+
+        // sends the response itself (waiting for the write) on the I/O thread
+        final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<Throwable>();
+        final DefaultSmppSession[] sessions = new DefaultSmppSession[1];
+        DefaultSmppSessionHandler sessionHandler = new DefaultSmppSessionHandler() {
+            @Override
+            public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                try {
+                    sessions[0].sendResponsePdu(pduRequest.createResponse());
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+                return null;
+            }
+        };
+        DefaultSmppSession session = (DefaultSmppSession)bootstrap.bind(configuration, sessionHandler);
+        sessions[0] = session;
+
+        SmppSimulatorSessionHandler simulator0 = server.pollNextSession(1000);
+        simulator0.setPduProcessor(null);
+
+        try {
+            EnquireLink el = new EnquireLink();
+            el.setSequenceNumber(1);
+            simulator0.sendPdu(el);
+
+            PduResponse response = (PduResponse)simulator0.getPduQueue().poll(2000, TimeUnit.MILLISECONDS);
+            Assert.assertNotNull(response);
+            Assert.assertEquals(1, response.getSequenceNumber());
+            Assert.assertNull(errors.poll());
+        } finally {
+            SmppSessionUtil.close(session);
+        }
+    }
+
     @Test
     public void impossiblePDULengthCausesUnrecoverablePduException() throws Exception {
         SmppSessionConfiguration configuration = createDefaultConfiguration();
@@ -0,0 +1,296 @@
+package com.cloudhopper.smpp.impl;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+// third party imports
+import com.cloudhopper.commons.util.windowing.DuplicateKeyException;
+import com.cloudhopper.commons.util.windowing.OfferTimeoutException;
+import com.cloudhopper.commons.util.windowing.WindowFuture;
+import com.cloudhopper.commons.util.windowing.WindowListener;
+import com.cloudhopper.smpp.pdu.EnquireLink;
+import com.cloudhopper.smpp.pdu.PduRequest;
+import com.cloudhopper.smpp.pdu.PduResponse;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class SendWindowTest {
+
+    private EnquireLink createRequest(int seq) {
+        EnquireLink request = new EnquireLink();
+        request.setSequenceNumber(seq);
+        return request;
+    }
+
+    @Test
+    public void offerAndComplete() throws Exception {
+        SendWindow window = new SendWindow(2);
+        Assert.assertEquals(2, window.getMaxSize());
+        Assert.assertEquals(0, window.getSize());
+
+        EnquireLink request0 = createRequest(1);
+        SendWindowFuture future0 = window.offer(1, request0, 100, -1, true);
+        Assert.assertEquals(1, window.getSize());
+        Assert.assertEquals(1, window.getFreeSize());
+        Assert.assertEquals(Integer.valueOf(1), future0.getKey());
+        Assert.assertSame(request0, future0.getRequest());
+        Assert.assertEquals(WindowFuture.CALLER_WAITING, future0.getCallerStateHint());
+        Assert.assertEquals(1, future0.getWindowSize());
+        Assert.assertFalse(future0.hasExpireTimestamp());
+        Assert.assertFalse(future0.isDone());
+        Assert.assertFalse(future0.hasDoneTimestamp());
+        Assert.assertTrue(window.containsKey(1));
+        Assert.assertSame(future0, window.get(1));
+
+        WindowFuture<Integer,PduRequest,PduResponse> future1 = window.offer(2, createRequest(2), 100, 1000, false);
+        Assert.assertEquals(WindowFuture.CALLER_NOT_WAITING, future1.getCallerStateHint());
+        Assert.assertEquals(2, future1.getWindowSize());
+        Assert.assertTrue(future1.hasExpireTimestamp());
+        Assert.assertEquals(0, window.getFreeSize());
+
+        // complete via the window
+        PduResponse response0 = request0.createResponse();
+        Assert.assertSame(future0, window.complete(1, response0));
+        Assert.assertTrue(future0.isDone());
+        Assert.assertTrue(future0.isSuccess());
+        Assert.assertSame(response0, future0.getResponse());
+        Assert.assertTrue(future0.hasDoneTimestamp());
+        Assert.assertTrue(future0.getAcceptToDoneTime() >= 0);
+        Assert.assertTrue(future0.await(0));
+        Assert.assertEquals(1, window.getSize());
+        Assert.assertFalse(window.containsKey(1));
+
+        // completing again does nothing
+        Assert.assertNull(window.complete(1, response0));
+
+        // cancel via the future
+        future1.cancel();
+        Assert.assertTrue(future1.isDone());
+        Assert.assertTrue(future1.isCancelled());
+        Assert.assertFalse(future1.isSuccess());
+        Assert.assertEquals(0, window.getSize());
+        Assert.assertNull(window.complete(2, response0));
+    }
+
+    @Test
+    public void offerDuplicateKey() throws Exception {
+        SendWindow window = new SendWindow(2);
+        window.offer(1, createRequest(1), 100, -1, false);
+        try {
+            window.offer(1, createRequest(1), 100, -1, false);
+            Assert.fail();
+        } catch (DuplicateKeyException e) {
+            // correct behavior
+        }
+        Assert.assertEquals(1, window.getSize());
+    }
+
+    @Test
+    public void offerTimesOutWhenFull() throws Exception {
+        SendWindow window = new SendWindow(1);
+        window.offer(1, createRequest(1), 100, -1, false);
+        long start = System.currentTimeMillis();
+        try {
+            window.offer(2, createRequest(2), 200, -1, false);
+            Assert.fail();
+        } catch (OfferTimeoutException e) {
+            // correct behavior
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 190);
+
+        // an offer waiting for a free slot is accepted once one opens up
+        final SendWindow finalWindow = window;
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    finalWindow.complete(1, createRequest(1).createResponse());
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }.start();
+        SendWindowFuture future = window.offer(2, createRequest(2), 1000, -1, false);
+        Assert.assertTrue(future.getOfferToAcceptTime() >= 50);
+        Assert.assertEquals(1, window.getSize());
+    }
+
+    @Test
+    public void awaitTimeoutSetsCallerStateHint() throws Exception {
+        SendWindow window = new SendWindow(1);
+        SendWindowFuture future = window.offer(1, createRequest(1), 100, -1, false);
+        Assert.assertEquals(WindowFuture.CALLER_NOT_WAITING, future.getCallerStateHint());
+        Assert.assertFalse(future.await(50));
+        Assert.assertEquals(WindowFuture.CALLER_WAITING_TIMEOUT, future.getCallerStateHint());
+        Assert.assertFalse(future.isDone());
+    }
+
+    @Test
+    public void collidingSequenceNumbers() throws Exception {
+        // slot array is 4 long, so 1, 5 and 9 all share a home slot
+        SendWindow window = new SendWindow(2);
+        window.offer(1, createRequest(1), 100, -1, false);
+        window.offer(5, createRequest(5), 100, -1, false);
+        Assert.assertTrue(window.containsKey(5));
+        Assert.assertNotNull(window.complete(1, createRequest(1).createResponse()));
+        window.offer(9, createRequest(9), 100, -1, false);
+        Assert.assertTrue(window.containsKey(5));
+        Assert.assertTrue(window.containsKey(9));
+
+        Map<Integer,WindowFuture<Integer,PduRequest,PduResponse>> snapshot = window.createSortedSnapshot();
+        Assert.assertArrayEquals(new Object[] { 5, 9 }, snapshot.keySet().toArray());
+
+        Assert.assertEquals(2, window.cancelAll().size());
+        Assert.assertEquals(0, window.getSize());
+    }
+
+    @Test
+    public void cancelAllExpired() throws Exception {
+        SendWindow window = new SendWindow(3);
+        window.offer(1, createRequest(1), 100, 50, false);
+        window.offer(2, createRequest(2), 100, -1, false);
+        Thread.sleep(100);
+        Assert.assertEquals(1, window.cancelAllExpired().size());
+        Assert.assertEquals(1, window.getSize());
+        Assert.assertTrue(window.containsKey(2));
+    }
+
+    @Test
+    public void expiredByTimer() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        final BlockingQueue<WindowFuture<Integer,PduRequest,PduResponse>> expired = new LinkedBlockingQueue<WindowFuture<Integer,PduRequest,PduResponse>>();
+        try {
+            SendWindow window = new SendWindow(3, timer, null, new WindowListener<Integer,PduRequest,PduResponse>() {
+                @Override
+                public void expired(WindowFuture<Integer,PduRequest,PduResponse> future) {
+                    expired.add(future);
+                }
+            }, null);
+            SendWindowFuture future0 = window.offer(1, createRequest(1), 100, 50, false);
+            SendWindowFuture future1 = window.offer(2, createRequest(2), 100, 50, false);
+            window.offer(3, createRequest(3), 100, -1, false);
+
+            // completed before expiring -- must never be reported as expired
+            Assert.assertNotNull(window.complete(2, createRequest(2).createResponse()));
+
+            WindowFuture<Integer,PduRequest,PduResponse> future = expired.poll(1000, TimeUnit.MILLISECONDS);
+            Assert.assertSame(future0, future);
+            Assert.assertTrue(future0.isCancelled());
+            Assert.assertTrue(future1.isSuccess());
+            Assert.assertNull(expired.poll(100, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(1, window.getSize());
+            Assert.assertTrue(window.containsKey(3));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void concurrentOfferAndComplete() throws Exception {
+        final SendWindow window = new SendWindow(16);
+        final int count = 10000;
+        final AtomicInteger completed = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(2);
+        Thread[] senders = new Thread[2];
+        for (int t = 0; t < senders.length; t++) {
+            final int offset = t;
+            senders[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = offset; i < count; i += 2) {
+                            SendWindowFuture future = window.offer(i, createRequest(i), 5000, -1, false);
+                            if (window.complete(i, createRequest(i).createResponse()) == future) {
+                                completed.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        // counted as a failure below
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            senders[t].start();
+        }
+        done.await();
+        Assert.assertEquals(count, completed.get());
+        Assert.assertEquals(0, window.getSize());
+    }
+
+    @Test
+    public void concurrentOfferOfSameKey() throws Exception {
+        final SendWindow window = new SendWindow(8);
+        final int rounds = 10000;
+        final int threads = 4;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final AtomicInteger[] accepted = new AtomicInteger[rounds];
+        for (int i = 0; i < rounds; i++) {
+            accepted[i] = new AtomicInteger(0);
+        }
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < rounds; i++) {
+                            barrier.await();
+                            try {
+                                // keys collide with an outstanding request every other round
+                                window.offer(i / 2, createRequest(i / 2), 5000, -1, false);
+                                accepted[i].incrementAndGet();
+                            } catch (DuplicateKeyException e) {
+                                // correct behavior for all but one offer
+                            }
+                            barrier.await();
+                            if (i % 2 == 1) {
+                                window.complete(i / 2, createRequest(i / 2).createResponse());
+                            }
+                        }
+                    } catch (Exception e) {
+                        // counted as a failure below
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        for (int i = 0; i < rounds; i++) {
+            Assert.assertEquals("round " + i, (i % 2 == 0 ? 1 : 0), accepted[i].get());
+        }
+        Assert.assertEquals(0, window.getSize());
+    }
+}
@@ -0,0 +1,270 @@
+package com.cloudhopper.smpp.impl;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+// third party imports
+import com.cloudhopper.smpp.SmppBindType;
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.SmppServerConfiguration;
+import com.cloudhopper.smpp.SmppServerHandler;
+import com.cloudhopper.smpp.SmppServerSession;
+import com.cloudhopper.smpp.SmppSession;
+import com.cloudhopper.smpp.SmppSessionConfiguration;
+import com.cloudhopper.smpp.pdu.BaseBind;
+import com.cloudhopper.smpp.pdu.BaseBindResp;
+import com.cloudhopper.smpp.pdu.EnquireLink;
+import com.cloudhopper.smpp.pdu.EnquireLinkResp;
+import com.cloudhopper.smpp.pdu.PduRequest;
+import com.cloudhopper.smpp.pdu.PduResponse;
+import com.cloudhopper.smpp.pdu.SubmitSm;
+import com.cloudhopper.smpp.pdu.SubmitSmResp;
+import com.cloudhopper.smpp.type.Address;
+import com.cloudhopper.smpp.type.SmppProcessingException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.*;
+
+// my imports
+
+/**
+ * Relays requests received on the server session of a proxy to the client
+ * session it has with an upstream server.
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class SmppRelaySessionHandlerTest {
+
+    public static final int UPSTREAM_PORT = 9786;
+    public static final int PROXY_PORT = 9787;
+    public static final String SYSTEMID = "smppclient1";
+    public static final String PASSWORD = "password";
+
+    // requests received by the upstream server
+    private final BlockingQueue<PduRequest> upstreamReceived = new LinkedBlockingQueue<PduRequest>();
+    // whether each request was still header-only decoded when routed
+    private final BlockingQueue<Boolean> routedRawBodies = new LinkedBlockingQueue<Boolean>();
+    private volatile boolean routeOnDestination;
+    private volatile SmppSession upstreamSession;
+
+    private DefaultSmppServer upstreamServer;
+    private DefaultSmppServer proxyServer;
+    private DefaultSmppClient client;
+
+    public SmppSessionConfiguration createDefaultConfiguration(int port) {
+        SmppSessionConfiguration configuration = new SmppSessionConfiguration();
+        configuration.setWindowSize(2);
+        configuration.setName("Tester.Session.0");
+        configuration.setType(SmppBindType.TRANSCEIVER);
+        configuration.setHost("localhost");
+        configuration.setPort(port);
+        configuration.setConnectTimeout(100);
+        configuration.setBindTimeout(100);
+        configuration.setSystemId(SYSTEMID);
+        configuration.setPassword(PASSWORD);
+        return configuration;
+    }
+
+    public SmppServerConfiguration createServerConfiguration(int port) {
+        SmppServerConfiguration configuration = new SmppServerConfiguration();
+        configuration.setPort(port);
+        configuration.setSystemId("cloudhopper");
+        return configuration;
+    }
+
+    /**
+     * Routes on the destination address of a request (once decoded) if
+     * routeOnDestination is set.
+     */
+    public class TestRelaySessionHandler extends SmppRelaySessionHandler {
+        public TestRelaySessionHandler() {
+            super(upstreamSession, 0);
+        }
+
+        @Override
+        protected SmppSession route(PduRequest request) {
+            routedRawBodies.add(request.hasRawBody());
+            if (routeOnDestination) {
+                try {
+                    request.decodeRawBody();
+                } catch (Exception e) {
+                    return null;
+                }
+                if ("0000".equals(((SubmitSm)request).getDestAddress().getAddress())) {
+                    return null;
+                }
+            }
+            return super.route(request);
+        }
+    }
+
+    public abstract class TestSmppServerHandler implements SmppServerHandler {
+        @Override
+        public void sessionBindRequested(Long sessionId, SmppSessionConfiguration sessionConfiguration, final BaseBind bindRequest) throws SmppProcessingException {
+            // always accepted
+        }
+
+        @Override
+        public void sessionDestroyed(Long sessionId, SmppServerSession session) {
+            // nothing to do
+        }
+    }
+
+    @Before
+    public void before() throws Exception {
+        // answers every submit_sm except those to "hold"
+        this.upstreamServer = new DefaultSmppServer(createServerConfiguration(UPSTREAM_PORT), new TestSmppServerHandler() {
+            @Override
+            public void sessionCreated(Long sessionId, SmppServerSession session, BaseBindResp preparedBindResponse) {
+                session.serverReady(new DefaultSmppSessionHandler() {
+                    @Override
+                    public PduResponse firePduRequestReceived(PduRequest pduRequest) {
+                        upstreamReceived.add(pduRequest);
+                        if (pduRequest instanceof SubmitSm && "hold".equals(((SubmitSm)pduRequest).getDestAddress().getAddress())) {
+                            return null;
+                        }
+                        PduResponse response = pduRequest.createResponse();
+                        if (response instanceof SubmitSmResp) {
+                            ((SubmitSmResp)response).setMessageId("MSG" + pduRequest.getSequenceNumber());
+                        }
+                        return response;
+                    }
+                });
+            }
+        });
+        this.upstreamServer.start();
+
+        SmppServerConfiguration proxyConfiguration = createServerConfiguration(PROXY_PORT);
+        proxyConfiguration.setHeaderOnlyDecodeEnabled(true);
+        this.proxyServer = new DefaultSmppServer(proxyConfiguration, new TestSmppServerHandler() {
+            @Override
+            public void sessionCreated(Long sessionId, SmppServerSession session, BaseBindResp preparedBindResponse) {
+                session.serverReady(new TestRelaySessionHandler());
+            }
+        });
+        this.proxyServer.start();
+
+        this.client = new DefaultSmppClient();
+        SmppSessionConfiguration upstreamConfiguration = createDefaultConfiguration(UPSTREAM_PORT);
+        upstreamConfiguration.setWindowSize(1);
+        upstreamConfiguration.setHeaderOnlyDecodeEnabled(true);
+        this.upstreamSession = this.client.bind(upstreamConfiguration, new DefaultSmppSessionHandler());
+        // the sequence numbers of the proxy and its customer differ
+        for (int i = 0; i < 10; i++) {
+            ((DefaultSmppSession)this.upstreamSession).getSequenceNumber().next();
+        }
+    }
+
+    @After
+    public void after() throws Exception {
+        this.client.destroy();
+        this.proxyServer.destroy();
+        this.upstreamServer.destroy();
+    }
+
+    private SubmitSm createSubmitSm(String destAddress) throws Exception {
+        SubmitSm submit = new SubmitSm();
+        submit.setSourceAddress(new Address((byte)0x03, (byte)0x00, "40404"));
+        submit.setDestAddress(new Address((byte)0x01, (byte)0x01, destAddress));
+        submit.setShortMessage("Test".getBytes("ISO-8859-1"));
+        return submit;
+    }
+
+    @Test
+    public void relayWithoutDecodingBody() throws Exception {
+        SmppSession session0 = this.client.bind(createDefaultConfiguration(PROXY_PORT), new DefaultSmppSessionHandler());
+
+        SubmitSm submit0 = createSubmitSm("44951361920");
+        SubmitSmResp submitResp0 = session0.submit(submit0, 1000);
+
+        // relayed with the next sequence number of the proxy session
+        SubmitSm upstream0 = (SubmitSm)this.upstreamReceived.poll(1000, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull(upstream0);
+        Assert.assertEquals(Boolean.TRUE, this.routedRawBodies.poll());
+        Assert.assertTrue(upstream0.getSequenceNumber() != submit0.getSequenceNumber());
+        Assert.assertEquals("44951361920", upstream0.getDestAddress().getAddress());
+        Assert.assertEquals("40404", upstream0.getSourceAddress().getAddress());
+        Assert.assertArrayEquals(submit0.getShortMessage(), upstream0.getShortMessage());
+
+        // the response is relayed back under the original sequence number
+        Assert.assertEquals(SmppConstants.STATUS_OK, submitResp0.getCommandStatus());
+        Assert.assertEquals(submit0.getSequenceNumber(), submitResp0.getSequenceNumber());
+        Assert.assertEquals("MSG" + upstream0.getSequenceNumber(), submitResp0.getMessageId());
+
+        // answered by the proxy itself
+        EnquireLinkResp enquireLinkResp0 = session0.enquireLink(new EnquireLink(), 1000);
+        Assert.assertEquals(SmppConstants.STATUS_OK, enquireLinkResp0.getCommandStatus());
+        Assert.assertNull(this.upstreamReceived.poll(100, TimeUnit.MILLISECONDS));
+
+        session0.unbind(1000);
+        Assert.assertNull(this.upstreamReceived.poll(100, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(this.upstreamSession.isBound());
+    }
+
+    @Test
+    public void relayRoutedOnDecodedBody() throws Exception {
+        this.routeOnDestination = true;
+        SmppSession session0 = this.client.bind(createDefaultConfiguration(PROXY_PORT), new DefaultSmppSessionHandler());
+
+        // decoded to be routed, then encoded from its fields when relayed
+        SubmitSm submit0 = createSubmitSm("44951361920");
+        SubmitSmResp submitResp0 = session0.submit(submit0, 1000);
+        Assert.assertEquals(SmppConstants.STATUS_OK, submitResp0.getCommandStatus());
+        Assert.assertEquals(submit0.getSequenceNumber(), submitResp0.getSequenceNumber());
+        SubmitSm upstream0 = (SubmitSm)this.upstreamReceived.poll(1000, TimeUnit.MILLISECONDS);
+        Assert.assertEquals("44951361920", upstream0.getDestAddress().getAddress());
+        Assert.assertArrayEquals(submit0.getShortMessage(), upstream0.getShortMessage());
+
+        // no route
+        SubmitSm submit1 = createSubmitSm("0000");
+        SubmitSmResp submitResp1 = session0.submit(submit1, 1000);
+        Assert.assertEquals(SmppConstants.STATUS_SYSERR, submitResp1.getCommandStatus());
+        Assert.assertEquals(submit1.getSequenceNumber(), submitResp1.getSequenceNumber());
+        Assert.assertNull(this.upstreamReceived.poll(100, TimeUnit.MILLISECONDS));
+
+        session0.close();
+    }
+
+    @Test
+    public void relayThrottledOnceUpstreamWindowFull() throws Exception {
+        SmppSession session0 = this.client.bind(createDefaultConfiguration(PROXY_PORT), new DefaultSmppSessionHandler());
+
+        // never answered so it fills the window of the proxy session
+        CompletableFuture<SubmitSmResp> future0 = session0.submitAsync(createSubmitSm("hold"), 1000);
+        Assert.assertNotNull(this.upstreamReceived.poll(1000, TimeUnit.MILLISECONDS));
+
+        SubmitSm submit1 = createSubmitSm("44951361920");
+        SubmitSmResp submitResp1 = session0.submit(submit1, 1000);
+        Assert.assertEquals(SmppConstants.STATUS_THROTTLED, submitResp1.getCommandStatus());
+        Assert.assertEquals(submit1.getSequenceNumber(), submitResp1.getSequenceNumber());
+        Assert.assertFalse(future0.isDone());
+
+        // the upstream session is gone -- nothing can be relayed anymore
+        this.upstreamSession.close();
+        SubmitSmResp future0Resp = future0.get(1000, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(SmppConstants.STATUS_SYSERR, future0Resp.getCommandStatus());
+        SubmitSmResp submitResp2 = session0.submit(createSubmitSm("44951361920"), 1000);
+        Assert.assertEquals(SmppConstants.STATUS_SYSERR, submitResp2.getCommandStatus());
+
+        session0.close();
+    }
+}
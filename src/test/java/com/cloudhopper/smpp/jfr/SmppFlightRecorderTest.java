@@ -0,0 +1,113 @@
+package com.cloudhopper.smpp.jfr;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+// third party imports
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.pdu.EnquireLink;
+import com.cloudhopper.smpp.transcoder.DefaultPduTranscoder;
+import com.cloudhopper.smpp.transcoder.DefaultPduTranscoderContext;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class SmppFlightRecorderTest {
+
+    static private List<RecordedEvent> readEvents(Recording recording, String name) throws Exception {
+        File file = File.createTempFile("SmppFlightRecorderTest", ".jfr");
+        try {
+            recording.dump(file.toPath());
+            List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                if (event.getEventType().getName().equals(name)) {
+                    events.add(event);
+                }
+            }
+            return events;
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void nothingBegunWithoutRecording() throws Exception {
+        Assert.assertEquals(true, SmppFlightRecorder.isAvailable());
+        Assert.assertNull(SmppFlightRecorder.beginPduEncoded());
+        Assert.assertNull(SmppFlightRecorder.beginPduWritten());
+        // a noop for an event that wasn't begun
+        SmppFlightRecorder.commitPduEncoded(null, 0, 0, 0);
+    }
+
+    @Test
+    public void pduEncoded() throws Exception {
+        DefaultPduTranscoder transcoder = new DefaultPduTranscoder(new DefaultPduTranscoderContext());
+        EnquireLink pdu0 = new EnquireLink();
+        pdu0.setSequenceNumber(171192033);
+
+        Recording recording = new Recording();
+        try {
+            recording.enable("com.cloudhopper.smpp.PduEncoded");
+            recording.start();
+            ChannelBuffer buffer = transcoder.encode(pdu0);
+            recording.stop();
+
+            List<RecordedEvent> events = readEvents(recording, "com.cloudhopper.smpp.PduEncoded");
+            Assert.assertEquals(1, events.size());
+            Assert.assertEquals(SmppConstants.CMD_ID_ENQUIRE_LINK, events.get(0).getInt("commandId"));
+            Assert.assertEquals(171192033, events.get(0).getInt("sequenceNumber"));
+            Assert.assertEquals(buffer.readableBytes(), events.get(0).getLong("size"));
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void requestExpired() throws Exception {
+        Recording recording = new Recording();
+        try {
+            recording.enable("com.cloudhopper.smpp.RequestExpired");
+            recording.start();
+            SmppFlightRecorder.requestExpired("Test.Session", SmppConstants.CMD_ID_SUBMIT_SM, 5, 30000);
+            recording.stop();
+
+            List<RecordedEvent> events = readEvents(recording, "com.cloudhopper.smpp.RequestExpired");
+            Assert.assertEquals(1, events.size());
+            Assert.assertEquals("Test.Session", events.get(0).getString("session"));
+            Assert.assertEquals(SmppConstants.CMD_ID_SUBMIT_SM, events.get(0).getInt("commandId"));
+            Assert.assertEquals(5, events.get(0).getInt("sequenceNumber"));
+            Assert.assertEquals(30000L, events.get(0).getDuration("requestExpiryTimeout").toMillis());
+        } finally {
+            recording.close();
+        }
+    }
+
+}
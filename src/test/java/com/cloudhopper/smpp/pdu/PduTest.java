@@ -21,6 +21,11 @@ package com.cloudhopper.smpp.pdu;
  */
 
 // third party imports
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.tlv.Tlv;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
 import org.junit.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,4 +64,64 @@ public class PduTest {
         Assert.assertEquals(true, pdu0.hasCommandLengthCalculated());
         Assert.assertEquals(16, pdu0.getCommandLength());
     }
+
+    @Test
+    public void optionalParametersDetachedSnapshot() throws Exception {
+        Pdu pdu0 = new SubmitSm();
+        pdu0.addOptionalParameter(new Tlv(SmppConstants.TAG_SOURCE_NETWORK_TYPE, new byte[] { 0x01 }));
+        pdu0.addOptionalParameter(new Tlv(SmppConstants.TAG_DEST_NETWORK_TYPE, new byte[] { 0x02, 0x03 }));
+
+        // the returned list is a copy -- modifying it doesn't change the pdu
+        ArrayList<Tlv> tlvs = pdu0.getOptionalParameters();
+        Assert.assertNotSame(tlvs, pdu0.getOptionalParameters());
+        tlvs.add(new Tlv(SmppConstants.TAG_MSG_STATE, new byte[] { 0x02 }));
+        tlvs.remove(0);
+        Assert.assertEquals(2, pdu0.getOptionalParameterCount());
+        Assert.assertEquals(2, pdu0.getOptionalParameters().size());
+        Assert.assertEquals(SmppConstants.TAG_SOURCE_NETWORK_TYPE, pdu0.getOptionalParameters().get(0).getTag());
+
+        // index into the list of optional parameters vs. byte offset
+        Assert.assertEquals(1, pdu0.findOptionalParameter(SmppConstants.TAG_DEST_NETWORK_TYPE));
+        Assert.assertEquals(SmppConstants.TAG_DEST_NETWORK_TYPE, pdu0.getOptionalParameters().get(1).getTag());
+        Assert.assertEquals(5, pdu0.offsetOfOptionalParameter(SmppConstants.TAG_DEST_NETWORK_TYPE));
+        Assert.assertEquals(-1, pdu0.findOptionalParameter(SmppConstants.TAG_MSG_STATE));
+    }
+
+    @Test
+    public void headerFieldsDoNotAllocate() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        Pdu pdu0 = new SubmitSm();
+        long threadId = Thread.currentThread().getId();
+        int count = 100000;
+
+        // warm up first
+        long sum = setAndGetHeaderFields(pdu0, count);
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        sum += setAndGetHeaderFields(pdu0, count);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        // boxed header fields used to allocate at least 2 objects per pdu
+        logger.debug("Allocated {} bytes for {} pdus (sum {})", allocated, count, sum);
+        Assert.assertTrue("Allocated [" + allocated + "] bytes for [" + count + "] pdus", allocated < count);
+    }
+
+    private long setAndGetHeaderFields(Pdu pdu, int count) {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            // values outside the range of the Integer cache
+            pdu.removeSequenceNumber();
+            pdu.removeCommandLength();
+            pdu.setSequenceNumber(1000000 + i);
+            pdu.setCommandLength(1000000 + i);
+            if (pdu.hasSequenceNumberAssigned() && pdu.hasCommandLengthCalculated()) {
+                sum += pdu.getSequenceNumber() + pdu.getCommandLength();
+            }
+        }
+        return sum;
+    }
 }
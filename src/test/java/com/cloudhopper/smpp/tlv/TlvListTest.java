@@ -0,0 +1,166 @@
+package com.cloudhopper.smpp.tlv;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+// third party imports
+import com.cloudhopper.commons.util.HexUtil;
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.type.NotEnoughDataInBufferException;
+import com.cloudhopper.smpp.pdu.BufferHelper;
+import java.util.ArrayList;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class TlvListTest {
+
+    @Test
+    public void readAndWrite() throws Exception {
+        // receipted_message_id, message_state, sar_msg_ref_num, vendor tlv
+        String hex = "001E00083338363031666100" + "0427000102" + "020C0002C000" + "200B000401020304";
+        ChannelBuffer buffer = BufferHelper.createBuffer(hex);
+
+        TlvList tlvs = new TlvList(buffer.readableBytes());
+        tlvs.read(buffer);
+
+        Assert.assertEquals(0, buffer.readableBytes());
+        Assert.assertEquals(4, tlvs.getCount());
+        Assert.assertEquals(hex.length()/2, tlvs.getByteSize());
+        Assert.assertEquals("38601fa", tlvs.getValueAsString(SmppConstants.TAG_RECEIPTED_MSG_ID));
+        Assert.assertEquals(SmppConstants.STATE_DELIVERED, tlvs.getValueAsByte(SmppConstants.TAG_MSG_STATE, (byte)0));
+        Assert.assertEquals(0xC000, tlvs.getValueAsUnsignedShort(SmppConstants.TAG_SAR_MSG_REF_NUM, -1));
+        Assert.assertEquals((short)0xC000, tlvs.getValueAsShort(SmppConstants.TAG_SAR_MSG_REF_NUM, (short)0));
+        Assert.assertEquals(0x01020304, tlvs.getValueAsInt((short)0x200B, 0));
+        Assert.assertEquals(4, tlvs.getValueLength((short)0x200B));
+        Assert.assertEquals(-1, tlvs.getValueLength(SmppConstants.TAG_SAR_TOTAL_SEGMENTS));
+        Assert.assertEquals(-1, tlvs.offsetOf(SmppConstants.TAG_SAR_TOTAL_SEGMENTS));
+        Assert.assertEquals(12, tlvs.offsetOf(SmppConstants.TAG_MSG_STATE));
+        Assert.assertEquals(1, tlvs.indexOf(SmppConstants.TAG_MSG_STATE));
+        Assert.assertEquals(3, tlvs.indexOf((short)0x200B));
+        Assert.assertEquals(-1, tlvs.indexOf(SmppConstants.TAG_SAR_TOTAL_SEGMENTS));
+
+        ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+        tlvs.write(out);
+        Assert.assertArrayEquals(HexUtil.toByteArray(hex), BufferHelper.createByteArray(out));
+    }
+
+    @Test
+    public void readTruncatedTlv() throws Exception {
+        TlvList tlvs = new TlvList();
+        tlvs.add(SmppConstants.TAG_MSG_STATE, new byte[] { 0x02 });
+        try {
+            tlvs.read(BufferHelper.createBuffer("001E000833383630"));
+            Assert.fail();
+        } catch (NotEnoughDataInBufferException e) {
+            // correct behavior
+        }
+        // the list is unchanged
+        Assert.assertEquals(1, tlvs.getCount());
+        Assert.assertEquals(5, tlvs.getByteSize());
+        Assert.assertFalse(tlvs.contains(SmppConstants.TAG_RECEIPTED_MSG_ID));
+        Assert.assertTrue(tlvs.contains(SmppConstants.TAG_MSG_STATE));
+    }
+
+    @Test
+    public void typedAccessors() throws Exception {
+        TlvList tlvs = new TlvList(0);
+        tlvs.add((short)0x0001, new byte[] { (byte)0xFF });
+        tlvs.add((short)0x0002, new byte[] { (byte)0xFF, (byte)0xFE });
+        tlvs.add((short)0x0003, new byte[] { (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFE });
+        tlvs.add((short)0x0004, new byte[] { 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08 });
+        tlvs.add((short)0x0005, new byte[] { 0x41, 0x42, 0x00, 0x43 });
+        tlvs.add((short)0x0006, null);
+
+        Assert.assertEquals((byte)0xFF, tlvs.getValueAsByte((short)0x0001, (byte)0));
+        Assert.assertEquals(255, tlvs.getValueAsUnsignedByte((short)0x0001, (short)0));
+        Assert.assertEquals((short)0xFFFE, tlvs.getValueAsShort((short)0x0002, (short)0));
+        Assert.assertEquals(0xFFFE, tlvs.getValueAsUnsignedShort((short)0x0002, 0));
+        Assert.assertEquals(-2, tlvs.getValueAsInt((short)0x0003, 0));
+        Assert.assertEquals(0xFFFFFFFEL, tlvs.getValueAsUnsignedInt((short)0x0003, 0));
+        Assert.assertEquals(0x0102030405060708L, tlvs.getValueAsLong((short)0x0004, 0));
+        Assert.assertEquals("AB", tlvs.getValueAsString((short)0x0005));
+        Assert.assertEquals("", tlvs.getValueAsString((short)0x0006));
+        // default values if missing
+        Assert.assertEquals(7, tlvs.getValueAsInt((short)0x0007, 7));
+        Assert.assertNull(tlvs.getValueAsString((short)0x0007));
+
+        try {
+            tlvs.getValueAsInt((short)0x0002, 0);
+            Assert.fail();
+        } catch (TlvConvertException e) {
+            // correct behavior
+        }
+    }
+
+    @Test
+    public void setAndRemove() throws Exception {
+        TlvList tlvs = new TlvList(4);
+        tlvs.add((short)0x0001, new byte[] { 0x01 });
+        tlvs.add((short)0x0002, new byte[] { 0x02 });
+        tlvs.add((short)0x0001, new byte[] { 0x03 });
+
+        // duplicates are allowed, lookups return the first one
+        Assert.assertEquals(3, tlvs.getCount());
+        Assert.assertEquals(0x01, tlvs.getValueAsByte((short)0x0001, (byte)0));
+
+        // replacing w/ a longer value keeps its position
+        Tlv replaced = tlvs.set(new Tlv((short)0x0002, new byte[] { 0x04, 0x05 }));
+        Assert.assertArrayEquals(new byte[] { 0x02 }, replaced.getValue());
+        Assert.assertEquals(0x0405, tlvs.getValueAsUnsignedShort((short)0x0002, 0));
+        Assert.assertNull(tlvs.set(new Tlv((short)0x0003, new byte[0])));
+
+        ArrayList<Tlv> list = tlvs.toList();
+        Assert.assertEquals(4, list.size());
+        Assert.assertEquals((short)0x0001, list.get(0).getTag());
+        Assert.assertEquals((short)0x0002, list.get(1).getTag());
+        Assert.assertEquals((short)0x0001, list.get(2).getTag());
+        Assert.assertEquals((short)0x0003, list.get(3).getTag());
+
+        // removing the first duplicate exposes the next one
+        Tlv removed = tlvs.remove((short)0x0001);
+        Assert.assertArrayEquals(new byte[] { 0x01 }, removed.getValue());
+        Assert.assertEquals(0x03, tlvs.getValueAsByte((short)0x0001, (byte)0));
+        Assert.assertEquals(0x0405, tlvs.getValueAsUnsignedShort((short)0x0002, 0));
+        Assert.assertNull(tlvs.remove((short)0x0009));
+        Assert.assertEquals(3, tlvs.getCount());
+        Assert.assertEquals(6 + 5 + 4, tlvs.getByteSize());
+    }
+
+    @Test
+    public void manyTags() throws Exception {
+        // forces the index to grow a few times
+        TlvList tlvs = new TlvList();
+        for (int i = 0; i < 200; i++) {
+            tlvs.add((short)(0x1400 + i), new byte[] { (byte)i });
+        }
+        Assert.assertEquals(200, tlvs.getCount());
+        for (int i = 0; i < 200; i++) {
+            Assert.assertEquals((short)(i & 0xFF), tlvs.getValueAsUnsignedByte((short)(0x1400 + i), (short)-1));
+        }
+        Assert.assertFalse(tlvs.contains((short)0x1300));
+    }
+}
@@ -0,0 +1,108 @@
+package com.cloudhopper.smpp.transcoder;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+// third party imports
+import com.cloudhopper.smpp.SmppConstants;
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class DefaultPduTranscoderContextTest {
+
+    static public class CountingContext implements PduTranscoderContext {
+        public int resultMessageLookups;
+        public int tlvTagNameLookups;
+
+        @Override
+        public String lookupResultMessage(int commandStatus) {
+            resultMessageLookups++;
+            if (commandStatus == 0x0400) {
+                return "Vendor error";
+            }
+            return null;
+        }
+
+        @Override
+        public String lookupTlvTagName(short tag) {
+            tlvTagNameLookups++;
+            if (tag == (short)0x1400) {
+                return "vendor_tag";
+            }
+            return null;
+        }
+    }
+
+    @Test
+    public void lookupWithoutOverride() throws Exception {
+        DefaultPduTranscoderContext context = new DefaultPduTranscoderContext();
+        Assert.assertEquals("OK", context.lookupResultMessage(SmppConstants.STATUS_OK));
+        Assert.assertEquals("Throttling error", context.lookupResultMessage(SmppConstants.STATUS_THROTTLED));
+        Assert.assertNull(context.lookupResultMessage(0x0400));
+        Assert.assertEquals("message_state", context.lookupTlvTagName(SmppConstants.TAG_MSG_STATE));
+        Assert.assertNull(context.lookupTlvTagName((short)0x1400));
+    }
+
+    @Test
+    public void overrideResultsAreCached() throws Exception {
+        CountingContext override = new CountingContext();
+        DefaultPduTranscoderContext context = new DefaultPduTranscoderContext(override);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("Vendor error", context.lookupResultMessage(0x0400));
+            Assert.assertEquals("OK", context.lookupResultMessage(SmppConstants.STATUS_OK));
+            Assert.assertEquals("vendor_tag", context.lookupTlvTagName((short)0x1400));
+            Assert.assertEquals("message_state", context.lookupTlvTagName(SmppConstants.TAG_MSG_STATE));
+        }
+
+        // override context only asked once per key (even if it returned null)
+        Assert.assertEquals(2, override.resultMessageLookups);
+        Assert.assertEquals(2, override.tlvTagNameLookups);
+    }
+
+    @Test
+    public void overrideCachesNotShared() throws Exception {
+        CountingContext override0 = new CountingContext();
+        DefaultPduTranscoderContext context0 = new DefaultPduTranscoderContext(override0);
+        DefaultPduTranscoderContext context1 = new DefaultPduTranscoderContext(new PduTranscoderContext() {
+            @Override
+            public String lookupResultMessage(int commandStatus) {
+                return null;
+            }
+
+            @Override
+            public String lookupTlvTagName(short tag) {
+                return null;
+            }
+        });
+
+        // the default tables are shared, but not what one override returned
+        Assert.assertEquals("Vendor error", context0.lookupResultMessage(0x0400));
+        Assert.assertNull(context1.lookupResultMessage(0x0400));
+        Assert.assertEquals("vendor_tag", context0.lookupTlvTagName((short)0x1400));
+        Assert.assertNull(context1.lookupTlvTagName((short)0x1400));
+        Assert.assertEquals("OK", context1.lookupResultMessage(SmppConstants.STATUS_OK));
+    }
+}
@@ -28,6 +28,8 @@ import com.cloudhopper.smpp.type.TerminatingNullByteNotFoundException;
 import com.cloudhopper.commons.util.HexUtil;
 import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.tlv.Tlv;
+import com.cloudhopper.smpp.type.Address;
+import com.cloudhopper.smpp.util.COctetStringCache;
 import org.junit.*;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -112,6 +114,29 @@ public class PduDecoderTest {
         Assert.assertEquals(0, buffer.readableBytes());
     }
 
+    @Test
+    public void decodeRegisteredVendorCommandId() throws Exception {
+        DefaultPduTranscoder transcoder0 = new DefaultPduTranscoder(this.context);
+        transcoder0.getPduFactoryRegistry().register(PduFactoryRegistryTest.CMD_ID_VENDOR_PING, PduFactoryRegistryTest.VENDOR_PING_FACTORY);
+
+        ChannelBuffer buffer = BufferHelper.createBuffer("00000010000102010000000000000001");
+
+        PduFactoryRegistryTest.VendorPing pdu0 = (PduFactoryRegistryTest.VendorPing)transcoder0.decode(buffer);
+        Assert.assertEquals(16, pdu0.getCommandLength());
+        Assert.assertEquals(PduFactoryRegistryTest.CMD_ID_VENDOR_PING, pdu0.getCommandId());
+        Assert.assertEquals(1, pdu0.getSequenceNumber());
+        Assert.assertEquals(0, buffer.readableBytes());
+
+        // still unknown to other transcoders
+        buffer = BufferHelper.createBuffer("00000010000102010000000000000001");
+        try {
+            transcoder.decode(buffer);
+            Assert.fail();
+        } catch (UnknownCommandIdException e) {
+            // correct behavior
+        }
+    }
+
     @Test
     public void decodeBadPduButSkipAllDataInBuffer() throws Exception {
         ChannelBuffer buffer = BufferHelper.createBuffer("0000001100000110000000000a342ee70F0000001000000015000000000a342ee7");
@@ -282,6 +307,8 @@ public class PduDecoderTest {
         Assert.assertEquals(true, pdu0.isResponse());
         // messageId 94258431594
         Assert.assertEquals("94258431594", pdu0.getMessageId());
+        // result message is looked up on first access
+        Assert.assertEquals("OK", pdu0.getResultMessage());
 
         Assert.assertEquals(0, buffer.readableBytes());
     }
@@ -680,6 +707,14 @@ public class PduDecoderTest {
         Assert.assertEquals("38601fa", tlv2.getValueAsString());
         Tlv tlv3 = pdu0.getOptionalParameter(SmppConstants.TAG_MSG_STATE);
         Assert.assertEquals(SmppConstants.STATE_DELIVERED, tlv3.getValueAsByte());
+        // typed accessors read the same values w/o creating any TLVs
+        Assert.assertEquals(0x01, pdu0.getOptionalParameterAsByte(SmppConstants.TAG_SOURCE_NETWORK_TYPE, (byte)0));
+        Assert.assertEquals("38601fa", pdu0.getOptionalParameterAsString(SmppConstants.TAG_RECEIPTED_MSG_ID));
+        Assert.assertEquals(SmppConstants.STATE_DELIVERED, pdu0.getOptionalParameterAsByte(SmppConstants.TAG_MSG_STATE, (byte)0));
+        Assert.assertEquals(-1, pdu0.getOptionalParameterAsUnsignedShort(SmppConstants.TAG_SAR_MSG_REF_NUM, -1));
+        Assert.assertNull(pdu0.getOptionalParameterAsString(SmppConstants.TAG_SAR_MSG_REF_NUM));
+        // tag names are looked up when logged
+        Assert.assertTrue(pdu0.toString().contains("(receipted_message_id: 0x001E 0x0008 [3338363031666100])"));
 
         // interesting -- this example has optional parameters it happened to skip...
         Assert.assertEquals(0, buffer.readableBytes());
@@ -1312,4 +1347,177 @@ public class PduDecoderTest {
 
         Assert.assertEquals(0, buffer.readableBytes());
     }
+
+    @Test
+    public void decodeDeliverSmLazily() throws Exception {
+        String hex = "000000640000000500000000000547EB0002013434393531333631393200040934303430340000000000000000000000000E000101000600010104240026404D616964656E6D616E363634207761732069742073617070793F2026526F6D616E7469633F";
+        ChannelBuffer buffer = BufferHelper.createBuffer(hex);
+        DefaultPduTranscoder lazyTranscoder = new DefaultPduTranscoder(this.context, null, true);
+
+        DeliverSm pdu0 = (DeliverSm)lazyTranscoder.decode(buffer);
+
+        Assert.assertEquals(0, buffer.readableBytes());
+        Assert.assertEquals(100, pdu0.getCommandLength());
+        Assert.assertEquals(346091, pdu0.getSequenceNumber());
+        // tlvs can be checked without parsing them
+        Assert.assertEquals(3, pdu0.getOptionalParameterCount());
+        Assert.assertTrue(pdu0.hasOptionalParameter(SmppConstants.TAG_MESSAGE_PAYLOAD));
+        Assert.assertFalse(pdu0.hasOptionalParameter(SmppConstants.TAG_RECEIPTED_MSG_ID));
+        Assert.assertEquals("40404", pdu0.getDestAddress().getAddress());
+        Assert.assertEquals(0x04, pdu0.getDestAddress().getTon());
+        Assert.assertEquals(0x09, pdu0.getDestAddress().getNpi());
+        Assert.assertEquals(0, pdu0.getShortMessageLength());
+
+        // unchanged pdu is encoded back to the exact same bytes
+        pdu0.removeCommandLength();
+        Assert.assertArrayEquals(HexUtil.toByteArray(hex), BufferHelper.createByteArray(transcoder.encode(pdu0)));
+
+        // every field matches what's parsed eagerly
+        Assert.assertEquals("", pdu0.getServiceType());
+        Assert.assertEquals("4495136192", pdu0.getSourceAddress().getAddress());
+        Assert.assertEquals("", pdu0.getScheduleDeliveryTime());
+        Assert.assertEquals("", pdu0.getValidityPeriod());
+        Assert.assertArrayEquals(HexUtil.toByteArray(""), pdu0.getShortMessage());
+        Tlv tlv2 = pdu0.getOptionalParameter(SmppConstants.TAG_MESSAGE_PAYLOAD);
+        Assert.assertArrayEquals(HexUtil.toByteArray("404d616964656e6d616e363634207761732069742073617070793f2026526f6d616e7469633f"), tlv2.getValue());
+        Assert.assertEquals(3, pdu0.getOptionalParameters().size());
+    }
+
+    @Test
+    public void decodeSubmitSmLazilyAndRelease() throws Exception {
+        ChannelBuffer buffer = BufferHelper.createBuffer("00000039000000040000000000004FE80001013430343034000101343439353133363139323000000000000001000000084024232125262F3A");
+        DefaultPduTranscoder lazyTranscoder = new DefaultPduTranscoder(this.context, null, true);
+
+        SubmitSm pdu0 = (SubmitSm)lazyTranscoder.decode(buffer);
+        Assert.assertEquals("44951361920", pdu0.getDestAddress().getAddress());
+        Assert.assertEquals(0x01, pdu0.getRegisteredDelivery());
+        pdu0.setSourceAddress(new Address((byte)0x01, (byte)0x01, "40405"));
+
+        pdu0.release();
+        Assert.assertTrue(pdu0.isReleased());
+        // logging a released pdu must not fail
+        Assert.assertTrue(pdu0.toString().endsWith(" (released)"));
+
+        // fields accessed (or set) before the release are still available
+        Assert.assertEquals("44951361920", pdu0.getDestAddress().getAddress());
+        Assert.assertEquals("40405", pdu0.getSourceAddress().getAddress());
+        Assert.assertEquals(0, pdu0.getOptionalParameterCount());
+        try {
+            pdu0.getShortMessage();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // correct behavior
+        }
+
+        // a detached pdu can be released without losing any fields
+        buffer = BufferHelper.createBuffer("00000039000000040000000000004FE80001013430343034000101343439353133363139323000000000000001000000084024232125262F3A");
+        SubmitSm pdu1 = (SubmitSm)lazyTranscoder.decode(buffer);
+        pdu1.detach();
+        pdu1.release();
+        Assert.assertFalse(pdu1.isReleased());
+        Assert.assertTrue(pdu1.toString().contains("(body: "));
+        Assert.assertEquals("40404", pdu1.getSourceAddress().getAddress());
+        Assert.assertArrayEquals(HexUtil.toByteArray("4024232125262f3a"), pdu1.getShortMessage());
+    }
+
+    @Test
+    public void decodeSubmitSmThroughInternCacheOfTranscoder() throws Exception {
+        String hex = "00000039000000040000000000004FE80001013430343034000101343439353133363139323000000000000001000000084024232125262F3A";
+        COctetStringCache cache = new COctetStringCache();
+        DefaultPduTranscoder internTranscoder = new DefaultPduTranscoder(this.context, null, false, false, null, cache);
+        DefaultPduTranscoder lazyInternTranscoder = new DefaultPduTranscoder(this.context, null, true, false, null, cache);
+
+        SubmitSm pdu0 = (SubmitSm)internTranscoder.decode(BufferHelper.createBuffer(hex));
+        SubmitSm pdu1 = (SubmitSm)lazyInternTranscoder.decode(BufferHelper.createBuffer(hex));
+        Assert.assertSame(cache, pdu0.getInternCache());
+        Assert.assertEquals("40404", pdu0.getSourceAddress().getAddress());
+        // the transcoders share the cache
+        Assert.assertSame(pdu0.getSourceAddress().getAddress(), pdu1.getSourceAddress().getAddress());
+        // destination addresses are never interned
+        Assert.assertNotSame(pdu0.getDestAddress().getAddress(), pdu1.getDestAddress().getAddress());
+
+        // any other transcoder is unaffected
+        SubmitSm pdu2 = (SubmitSm)this.transcoder.decode(BufferHelper.createBuffer(hex));
+        Assert.assertNull(pdu2.getInternCache());
+        Assert.assertEquals("40404", pdu2.getSourceAddress().getAddress());
+        Assert.assertNotSame(pdu0.getSourceAddress().getAddress(), pdu2.getSourceAddress().getAddress());
+    }
+
+    @Test
+    public void decodeSubmitSmLazilyWithNoNullByte() throws Exception {
+        // dest address is missing its null byte
+        ChannelBuffer buffer = BufferHelper.createBuffer("0000001F000000040000000000004FE8000101343034303400010134343935");
+        DefaultPduTranscoder lazyTranscoder = new DefaultPduTranscoder(this.context, null, true);
+
+        try {
+            lazyTranscoder.decode(buffer);
+            Assert.fail();
+        } catch (TerminatingNullByteNotFoundException e) {
+            // correct behavior
+            Assert.assertNotNull(e.getPartialPdu());
+        }
+    }
+
+    @Test
+    public void decodeSubmitSmHeaderOnly() throws Exception {
+        String hex = "00000039000000040000000000004FE80001013430343034000101343439353133363139323000000000000001000000084024232125262F3A";
+        DefaultPduTranscoder headerOnlyTranscoder = new DefaultPduTranscoder(this.context, null, false, true);
+
+        SubmitSm pdu0 = (SubmitSm)headerOnlyTranscoder.decode(BufferHelper.createBuffer(hex));
+        Assert.assertEquals(57, pdu0.getCommandLength());
+        Assert.assertEquals(SmppConstants.CMD_ID_SUBMIT_SM, pdu0.getCommandId());
+        Assert.assertEquals(0x4FE8, pdu0.getSequenceNumber());
+        Assert.assertTrue(pdu0.hasRawBody());
+        Assert.assertEquals(41, pdu0.getRawBody().readableBytes());
+        // none of the fields of the body are parsed
+        Assert.assertNull(pdu0.getSourceAddress());
+        Assert.assertNull(pdu0.getShortMessage());
+
+        // written back out as-is (with a new header)
+        pdu0.setSequenceNumber(0x20);
+        ChannelBuffer encoded = headerOnlyTranscoder.encode(pdu0);
+        Assert.assertTrue(encoded instanceof CompositeChannelBuffer);
+        Assert.assertArrayEquals(HexUtil.toByteArray("00000039000000040000000000000020" + hex.substring(32)), BufferHelper.createByteArray(encoded));
+
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        headerOnlyTranscoder.encode(pdu0, buffer);
+        Assert.assertArrayEquals(HexUtil.toByteArray("00000039000000040000000000000020" + hex.substring(32)), BufferHelper.createByteArray(buffer));
+
+        // fully decoded on demand
+        pdu0.decodeRawBody();
+        Assert.assertFalse(pdu0.hasRawBody());
+        Assert.assertEquals("40404", pdu0.getSourceAddress().getAddress());
+        Assert.assertEquals("44951361920", pdu0.getDestAddress().getAddress());
+        Assert.assertEquals(0x01, pdu0.getRegisteredDelivery());
+        Assert.assertArrayEquals(HexUtil.toByteArray("4024232125262f3a"), pdu0.getShortMessage());
+        Assert.assertArrayEquals(HexUtil.toByteArray("00000039000000040000000000000020" + hex.substring(32)), BufferHelper.createByteArray(headerOnlyTranscoder.encode(pdu0)));
+
+        // the body of a released pdu is no longer available unless detached
+        SubmitSm pdu1 = (SubmitSm)headerOnlyTranscoder.decode(BufferHelper.createBuffer(hex));
+        pdu1.release();
+        Assert.assertTrue(pdu1.toString().endsWith(" (released)"));
+        try {
+            pdu1.getRawBody();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // correct behavior
+        }
+
+        SubmitSm pdu2 = (SubmitSm)headerOnlyTranscoder.decode(BufferHelper.createBuffer(hex));
+        pdu2.detach();
+        pdu2.release();
+        Assert.assertArrayEquals(HexUtil.toByteArray(hex), BufferHelper.createByteArray(headerOnlyTranscoder.encode(pdu2)));
+    }
+
+    @Test
+    public void decodeBindHeaderOnly() throws Exception {
+        // binds are always fully decoded since the session needs their fields
+        ChannelBuffer buffer = BufferHelper.createBuffer("00000023000000090000000000039951414c4c5f545700414c4c5f5457000034010200");
+        DefaultPduTranscoder headerOnlyTranscoder = new DefaultPduTranscoder(this.context, null, false, true);
+
+        BindTransceiver pdu0 = (BindTransceiver)headerOnlyTranscoder.decode(buffer);
+        Assert.assertFalse(pdu0.hasRawBody());
+        Assert.assertEquals("ALL_TW", pdu0.getSystemId());
+        Assert.assertEquals("ALL_TW", pdu0.getPassword());
+    }
 }
@@ -30,7 +30,10 @@ import com.cloudhopper.smpp.tlv.Tlv;
 import com.cloudhopper.smpp.type.SmppInvalidArgumentException;
 import java.io.UnsupportedEncodingException;
 import org.junit.*;
+import com.cloudhopper.smpp.util.ChannelBufferPool;
+import com.cloudhopper.smpp.util.PooledChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -493,4 +496,183 @@ public class PduEncoderTest {
 //        logger.debug("{}", HexUtil.toHexString(BufferHelper.createByteArray(buffer)));
         Assert.assertArrayEquals(HexUtil.toByteArray("00000019800000030000000000004FE8313233343500000600"), BufferHelper.createByteArray(buffer));
     }
+
+    @Test
+    public void encodeIntoPooledBuffers() throws Exception {
+        ChannelBufferPool pool = new ChannelBufferPool(2);
+        DefaultPduTranscoder pooledTranscoder = new DefaultPduTranscoder(this.context, pool);
+
+        SubmitSm pdu0 = new SubmitSm();
+        pdu0.setSequenceNumber(20456);
+        pdu0.setSourceAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+        pdu0.setDestAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        pdu0.setRegisteredDelivery((byte)0x01);
+        pdu0.setShortMessage(HexUtil.toByteArray("4024232125262f3a"));
+
+        ChannelBuffer buffer = pooledTranscoder.encode(pdu0);
+        Assert.assertTrue(buffer instanceof PooledChannelBuffer);
+        // command length is assigned as well
+        Assert.assertEquals(0x39, pdu0.getCommandLength());
+        Assert.assertArrayEquals(HexUtil.toByteArray("00000039000000040000000000004FE80001013430343034000101343439353133363139323000000000000001000000084024232125262F3A"), BufferHelper.createByteArray(buffer));
+
+        // released buffer is handed out again (empty)
+        ((PooledChannelBuffer)buffer).release();
+        Assert.assertEquals(1, pool.getSize());
+
+        SubmitSmResp pdu1 = new SubmitSmResp();
+        pdu1.setSequenceNumber(171192033);
+        pdu1.setCommandStatus(0x30);
+        pdu1.setCommandLength(16);
+
+        ChannelBuffer buffer1 = pooledTranscoder.encode(pdu1);
+        Assert.assertSame(buffer, buffer1);
+        Assert.assertEquals(0, pool.getSize());
+        Assert.assertArrayEquals(HexUtil.toByteArray("0000001080000004000000300a342ee1"), BufferHelper.createByteArray(buffer1));
+
+        SubmitSmResp pdu2 = new SubmitSmResp();
+        pdu2.setSequenceNumber(171192033);
+        ChannelBuffer buffer2 = pooledTranscoder.encode(pdu2);
+        Assert.assertArrayEquals(HexUtil.toByteArray("0000001180000004000000000a342ee100"), BufferHelper.createByteArray(buffer2));
+    }
+
+    @Test
+    public void encodeLargerThanPooledBuffer() throws Exception {
+        ChannelBufferPool pool = new ChannelBufferPool(2, 32);
+        DefaultPduTranscoder pooledTranscoder = new DefaultPduTranscoder(this.context, pool);
+
+        SubmitSm pdu0 = new SubmitSm();
+        pdu0.setSequenceNumber(20456);
+        pdu0.setSourceAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+        pdu0.setDestAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        pdu0.setRegisteredDelivery((byte)0x01);
+        pdu0.setShortMessage(HexUtil.toByteArray("4024232125262f3a"));
+
+        // falls back to a buffer of the exact size
+        ChannelBuffer buffer = pooledTranscoder.encode(pdu0);
+        Assert.assertFalse(buffer instanceof PooledChannelBuffer);
+        Assert.assertEquals(0x39, pdu0.getCommandLength());
+        Assert.assertArrayEquals(HexUtil.toByteArray("00000039000000040000000000004FE80001013430343034000101343439353133363139323000000000000001000000084024232125262F3A"), BufferHelper.createByteArray(buffer));
+        // the pooled buffer it didn't fit in was released again
+        Assert.assertEquals(1, pool.getSize());
+
+        // an assigned command length larger than a pooled buffer skips the pool
+        pool.acquire();
+        Assert.assertEquals(0, pool.getSize());
+        ChannelBuffer buffer0 = pooledTranscoder.encode(pdu0);
+        Assert.assertFalse(buffer0 instanceof PooledChannelBuffer);
+        Assert.assertArrayEquals(HexUtil.toByteArray("00000039000000040000000000004FE80001013430343034000101343439353133363139323000000000000001000000084024232125262F3A"), BufferHelper.createByteArray(buffer0));
+        Assert.assertEquals(0, pool.getSize());
+
+        // a wrong command length is a bug in the pdu and must not be hidden by a fallback
+        SubmitSm pdu1 = new SubmitSm();
+        pdu1.setSourceAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+        pdu1.setDestAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        pdu1.setCommandLength(20);
+        try {
+            pooledTranscoder.encode(pdu1);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+            // correct behavior
+        }
+        // pooled buffer was released again
+        Assert.assertEquals(1, pool.getSize());
+    }
+
+    @Test
+    public void encodeMultiplePdusIntoOneBuffer() throws Exception {
+        DefaultPduTranscoder transcoder0 = new DefaultPduTranscoder(this.context);
+
+        EnquireLink pdu0 = new EnquireLink();
+        pdu0.setSequenceNumber(171192039);
+        DeliverSm pdu1 = new DeliverSm();
+        pdu1.setSequenceNumber(2);
+        pdu1.setSourceAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        pdu1.setDestAddress(new Address((byte)0x01, (byte)0x01, "40404"));
+        pdu1.addOptionalParameter(new Tlv(SmppConstants.TAG_SOURCE_NETWORK_TYPE, new byte[] { (byte)0x01 }));
+
+        // a small buffer must grow as needed
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(8);
+        transcoder0.encode(pdu0, buffer);
+        transcoder0.encode(pdu1, buffer);
+
+        Assert.assertEquals(16 + pdu1.getCommandLength(), buffer.readableBytes());
+        Assert.assertArrayEquals(BufferHelper.createByteArray(transcoder.encode(pdu1)), BufferHelper.createByteArray(buffer.slice(16, pdu1.getCommandLength())));
+        Assert.assertArrayEquals(HexUtil.toByteArray("0000001000000015000000000a342ee7"), BufferHelper.createByteArray(buffer.slice(0, 16)));
+    }
+
+    @Test
+    public void encodeFromSubmitSmTemplate() throws Exception {
+        SubmitSm prototype = new SubmitSm();
+        prototype.setServiceType("CMT");
+        prototype.setSourceAddress(new Address((byte)0x03, (byte)0x00, "40404"));
+        prototype.setDestAddress(new Address((byte)0x01, (byte)0x01, "ignored"));
+        prototype.setEsmClass((byte)0x40);
+        prototype.setRegisteredDelivery((byte)0x01);
+        prototype.setDataCoding((byte)0x08);
+        prototype.setValidityPeriod("000001000000000R");
+        prototype.addOptionalParameter(new Tlv(SmppConstants.TAG_SOURCE_NETWORK_TYPE, new byte[] { (byte)0x01 }));
+        SubmitSmTemplate template = new SubmitSmTemplate(prototype);
+
+        // changes to the prototype after the template was created are ignored
+        prototype.setServiceType("WAP");
+
+        byte[] shortMessage = "Test".getBytes("ISO-8859-1");
+        ChannelBuffer buffer = template.encode(0x20, "44951361920", shortMessage);
+
+        // must match a submit_sm with the same fields encoded the normal way
+        SubmitSm pdu0 = new SubmitSm();
+        pdu0.setSequenceNumber(0x20);
+        pdu0.setServiceType("CMT");
+        pdu0.setSourceAddress(new Address((byte)0x03, (byte)0x00, "40404"));
+        pdu0.setDestAddress(new Address((byte)0x01, (byte)0x01, "44951361920"));
+        pdu0.setEsmClass((byte)0x40);
+        pdu0.setRegisteredDelivery((byte)0x01);
+        pdu0.setDataCoding((byte)0x08);
+        pdu0.setValidityPeriod("000001000000000R");
+        pdu0.setShortMessage(shortMessage);
+        pdu0.addOptionalParameter(new Tlv(SmppConstants.TAG_SOURCE_NETWORK_TYPE, new byte[] { (byte)0x01 }));
+
+        Assert.assertArrayEquals(BufferHelper.createByteArray(transcoder.encode(pdu0)), BufferHelper.createByteArray(buffer));
+        Assert.assertEquals(pdu0.getCommandLength(), template.getEncodedLength("44951361920", shortMessage));
+
+        // the submit_sm standing for the encoded message
+        SubmitSm pdu1 = template.createSubmitSm(0x20, "44951361920", shortMessage);
+        Assert.assertEquals(0x20, pdu1.getSequenceNumber());
+        Assert.assertEquals(pdu0.getCommandLength(), pdu1.getCommandLength());
+        Assert.assertEquals("CMT", pdu1.getServiceType());
+        Assert.assertEquals("44951361920", pdu1.getDestAddress().getAddress());
+        Assert.assertEquals(0x01, pdu1.getDestAddress().getTon());
+        Assert.assertArrayEquals(shortMessage, pdu1.getShortMessage());
+        Assert.assertEquals("40404", pdu1.getSourceAddress().getAddress());
+        Assert.assertEquals(0x40, pdu1.getEsmClass());
+        Assert.assertEquals("000001000000000R", pdu1.getValidityPeriod());
+        // carries the optional parameters of the template too
+        Assert.assertEquals(1, pdu1.getOptionalParameterCount());
+        Assert.assertEquals(0x01, pdu1.getOptionalParameterAsByte(SmppConstants.TAG_SOURCE_NETWORK_TYPE, (byte)0));
+        Assert.assertArrayEquals(BufferHelper.createByteArray(buffer), BufferHelper.createByteArray(transcoder.encode(pdu1)));
+
+        // every submit_sm has its own addresses and optional parameters
+        SubmitSm pdu2 = template.createSubmitSm(0x21, "44951361921", shortMessage);
+        pdu1.getSourceAddress().setAddress("50505");
+        pdu1.removeOptionalParameter(SmppConstants.TAG_SOURCE_NETWORK_TYPE);
+        Assert.assertEquals("40404", pdu2.getSourceAddress().getAddress());
+        Assert.assertEquals("44951361921", pdu2.getDestAddress().getAddress());
+        Assert.assertEquals(1, pdu2.getOptionalParameterCount());
+        Assert.assertEquals(0x01, pdu2.getOptionalParameterAsByte(SmppConstants.TAG_SOURCE_NETWORK_TYPE, (byte)0));
+
+        // several messages appended into one buffer
+        ChannelBuffer buffer1 = ChannelBuffers.dynamicBuffer(8);
+        template.encode(1, "1", null, buffer1);
+        template.encode(2, null, shortMessage, buffer1);
+        Assert.assertEquals(template.getEncodedLength("1", null) + template.getEncodedLength(null, shortMessage), buffer1.readableBytes());
+        Assert.assertEquals(template.getEncodedLength("1", null), buffer1.getInt(0));
+        Assert.assertEquals(2, buffer1.getInt(template.getEncodedLength("1", null) + 12));
+
+        try {
+            template.encode(3, "1", new byte[256]);
+            Assert.fail();
+        } catch (SmppInvalidArgumentException e) {
+            // correct behavior
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package com.cloudhopper.smpp.transcoder;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+// third party imports
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.pdu.*;
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class PduFactoryRegistryTest {
+
+    static public final int CMD_ID_VENDOR_PING = 0x00010201;
+
+    static public class VendorPing extends EmptyBody<EnquireLinkResp> {
+        public VendorPing() {
+            super(CMD_ID_VENDOR_PING, "vendor_ping");
+        }
+
+        @Override
+        public EnquireLinkResp createResponse() {
+            EnquireLinkResp resp = new EnquireLinkResp();
+            resp.setSequenceNumber(this.getSequenceNumber());
+            return resp;
+        }
+
+        @Override
+        public Class<EnquireLinkResp> getResponseClass() {
+            return EnquireLinkResp.class;
+        }
+    }
+
+    static public final PduFactory VENDOR_PING_FACTORY = new PduFactory() {
+        @Override
+        public Pdu newPdu(int commandId) {
+            return new VendorPing();
+        }
+    };
+
+    @Test
+    public void defaultsRegistered() throws Exception {
+        PduFactoryRegistry registry = new PduFactoryRegistry();
+        int[] commandIds = new int[] {
+            SmppConstants.CMD_ID_BIND_RECEIVER, SmppConstants.CMD_ID_BIND_TRANSMITTER, SmppConstants.CMD_ID_BIND_TRANSCEIVER,
+            SmppConstants.CMD_ID_QUERY_SM, SmppConstants.CMD_ID_SUBMIT_SM, SmppConstants.CMD_ID_DELIVER_SM,
+            SmppConstants.CMD_ID_UNBIND, SmppConstants.CMD_ID_CANCEL_SM, SmppConstants.CMD_ID_ENQUIRE_LINK,
+            SmppConstants.CMD_ID_DATA_SM, SmppConstants.CMD_ID_GENERIC_NACK,
+            SmppConstants.CMD_ID_BIND_RECEIVER_RESP, SmppConstants.CMD_ID_BIND_TRANSMITTER_RESP, SmppConstants.CMD_ID_BIND_TRANSCEIVER_RESP,
+            SmppConstants.CMD_ID_QUERY_SM_RESP, SmppConstants.CMD_ID_SUBMIT_SM_RESP, SmppConstants.CMD_ID_DELIVER_SM_RESP,
+            SmppConstants.CMD_ID_UNBIND_RESP, SmppConstants.CMD_ID_CANCEL_SM_RESP, SmppConstants.CMD_ID_ENQUIRE_LINK_RESP,
+            SmppConstants.CMD_ID_DATA_SM_RESP
+        };
+        for (int commandId : commandIds) {
+            Pdu pdu = registry.newPdu(commandId);
+            Assert.assertNotNull(pdu);
+            Assert.assertEquals(commandId, pdu.getCommandId());
+            Assert.assertEquals((commandId >= 0), pdu.isRequest());
+        }
+
+        // not supported
+        Assert.assertNull(registry.newPdu(SmppConstants.CMD_ID_REPLACE_SM));
+        Assert.assertNull(registry.newPdu(SmppConstants.CMD_ID_REPLACE_SM_RESP));
+        Assert.assertNull(registry.newPdu(CMD_ID_VENDOR_PING));
+        Assert.assertNull(registry.newPdu(0x7FFFFFFF));
+        Assert.assertNull(registry.newPdu(0xFFFFFFFF));
+    }
+
+    @Test
+    public void registerAndUnregister() throws Exception {
+        PduFactoryRegistry registry0 = new PduFactoryRegistry();
+        PduFactoryRegistry registry1 = new PduFactoryRegistry();
+
+        // a vendor specific command id (outside the range of the tables)
+        registry0.register(CMD_ID_VENDOR_PING, VENDOR_PING_FACTORY);
+        Assert.assertTrue(registry0.newPdu(CMD_ID_VENDOR_PING) instanceof VendorPing);
+        Assert.assertSame(VENDOR_PING_FACTORY, registry0.get(CMD_ID_VENDOR_PING));
+
+        // replace a default one
+        registry0.register(SmppConstants.CMD_ID_ENQUIRE_LINK, VENDOR_PING_FACTORY);
+        Assert.assertTrue(registry0.newPdu(SmppConstants.CMD_ID_ENQUIRE_LINK) instanceof VendorPing);
+
+        // other registries are never affected
+        Assert.assertNull(registry1.newPdu(CMD_ID_VENDOR_PING));
+        Assert.assertTrue(registry1.newPdu(SmppConstants.CMD_ID_ENQUIRE_LINK) instanceof EnquireLink);
+        Assert.assertTrue(new PduFactoryRegistry().newPdu(SmppConstants.CMD_ID_ENQUIRE_LINK) instanceof EnquireLink);
+
+        registry0.register(CMD_ID_VENDOR_PING, null);
+        registry0.register(SmppConstants.CMD_ID_ENQUIRE_LINK, null);
+        Assert.assertNull(registry0.newPdu(CMD_ID_VENDOR_PING));
+        Assert.assertNull(registry0.newPdu(SmppConstants.CMD_ID_ENQUIRE_LINK));
+        // response with the same low bits is a different entry
+        Assert.assertTrue(registry0.newPdu(SmppConstants.CMD_ID_ENQUIRE_LINK_RESP) instanceof EnquireLinkResp);
+    }
+}
@@ -0,0 +1,141 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+// third party imports
+import com.cloudhopper.commons.util.HexUtil;
+import com.cloudhopper.smpp.pdu.BufferHelper;
+import com.cloudhopper.smpp.type.TerminatingNullByteNotFoundException;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class COctetStringCodecTest {
+
+    @Test
+    public void read() throws Exception {
+        ChannelBuffer buffer = BufferHelper.createBuffer("0034303430340041E90000");
+        Assert.assertEquals("", COctetStringCodec.read(buffer));
+        Assert.assertEquals("40404", COctetStringCodec.read(buffer));
+        Assert.assertEquals("A\u00E9", COctetStringCodec.read(buffer));
+        Assert.assertEquals("", COctetStringCodec.read(buffer));
+        Assert.assertEquals(0, buffer.readableBytes());
+        Assert.assertNull(COctetStringCodec.read(buffer));
+    }
+
+    @Test
+    public void readWithoutNullByte() throws Exception {
+        ChannelBuffer buffer = BufferHelper.createBuffer("3430343034");
+        try {
+            COctetStringCodec.read(buffer);
+            Assert.fail();
+        } catch (TerminatingNullByteNotFoundException e) {
+            // correct behavior
+        }
+        Assert.assertEquals(5, buffer.readableBytes());
+    }
+
+    @Test
+    public void readFromBufferWithoutArray() throws Exception {
+        // a composite buffer isn't backed by a single array
+        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(BufferHelper.createBuffer("343034"), BufferHelper.createBuffer("303400343200"));
+        Assert.assertFalse(buffer.hasArray());
+        Assert.assertEquals("40404", COctetStringCodec.read(buffer, new COctetStringCache()));
+        Assert.assertEquals("42", COctetStringCodec.read(buffer));
+        Assert.assertEquals(0, buffer.readableBytes());
+
+        buffer = ChannelBuffers.wrappedBuffer(BufferHelper.createBuffer("3430"), BufferHelper.createBuffer("3430"));
+        try {
+            COctetStringCodec.read(buffer);
+            Assert.fail();
+        } catch (TerminatingNullByteNotFoundException e) {
+            // correct behavior
+        }
+    }
+
+    @Test
+    public void write() throws Exception {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(2);
+        COctetStringCodec.write(buffer, null);
+        COctetStringCodec.write(buffer, "");
+        COctetStringCodec.write(buffer, "40404");
+        // chars that aren't ISO-8859-1 are written as '?'
+        COctetStringCodec.write(buffer, "A\u00E9\u20AC");
+        Assert.assertArrayEquals(HexUtil.toByteArray("0000343034303400" + "41E93F00"), BufferHelper.createByteArray(buffer));
+    }
+
+    @Test
+    public void writeIntoSlice() throws Exception {
+        ChannelBuffer buffer = ChannelBuffers.buffer(16).slice(4, 8);
+        buffer.writerIndex(0);
+        buffer.writeByte(0x01);
+        COctetStringCodec.write(buffer, "40404");
+        Assert.assertArrayEquals(HexUtil.toByteArray("01343034303400"), BufferHelper.createByteArray(buffer));
+        // not enough room left for the string and its null byte
+        try {
+            COctetStringCodec.write(buffer, "42");
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+            // correct behavior
+        }
+    }
+
+    @Test
+    public void readInterned() throws Exception {
+        COctetStringCache cache = new COctetStringCache(4, 5);
+        Assert.assertEquals(4, cache.getSize());
+        Assert.assertEquals(5, cache.getMaxLength());
+        ChannelBuffer buffer = BufferHelper.createBuffer("434D5400" + "434D5400" + "3434393531333631393230" + "00" + "3434393531333631393230" + "00");
+
+        String value0 = COctetStringCodec.read(buffer, cache);
+        String value1 = COctetStringCodec.read(buffer, cache);
+        Assert.assertEquals("CMT", value0);
+        Assert.assertSame(value0, value1);
+
+        // longer than the max length is never cached
+        String value2 = COctetStringCodec.read(buffer, cache);
+        String value3 = COctetStringCodec.read(buffer, cache);
+        Assert.assertEquals("44951361920", value2);
+        Assert.assertEquals(value2, value3);
+        Assert.assertNotSame(value2, value3);
+    }
+
+    @Test
+    public void onlyAddressesReadThroughCacheAreInterned() throws Exception {
+        COctetStringCache cache = new COctetStringCache();
+        String value0 = ChannelBufferUtil.readAddress(BufferHelper.createBuffer("0101434D5400"), cache).getAddress();
+        String value1 = ChannelBufferUtil.readAddress(BufferHelper.createBuffer("0101434D5400"), cache).getAddress();
+        Assert.assertEquals("CMT", value0);
+        Assert.assertSame(value0, value1);
+        // destination addresses (the default) never go through the cache
+        String value2 = ChannelBufferUtil.readAddress(BufferHelper.createBuffer("0101434D5400")).getAddress();
+        String value3 = ChannelBufferUtil.readAddress(BufferHelper.createBuffer("0101434D5400")).getAddress();
+        Assert.assertEquals("CMT", value2);
+        Assert.assertNotSame(value0, value2);
+        Assert.assertNotSame(value2, value3);
+    }
+}
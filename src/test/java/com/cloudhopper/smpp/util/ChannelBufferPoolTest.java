@@ -0,0 +1,69 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+// third party imports
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class ChannelBufferPoolTest {
+
+    @Test
+    public void acquireAndRelease() throws Exception {
+        ChannelBufferPool pool = new ChannelBufferPool(2, 16);
+        Assert.assertEquals(0, pool.getSize());
+
+        PooledChannelBuffer buffer0 = pool.acquire();
+        PooledChannelBuffer buffer1 = pool.acquire();
+        PooledChannelBuffer buffer2 = pool.acquire();
+        Assert.assertNotSame(buffer0, buffer1);
+        Assert.assertSame(pool, buffer0.getPool());
+        Assert.assertEquals(16, buffer0.capacity());
+
+        buffer0.writeInt(1);
+        buffer0.readByte();
+        buffer0.release();
+        buffer1.release();
+        // pool is full
+        buffer2.release();
+        Assert.assertEquals(2, pool.getSize());
+
+        // released buffers are cleared
+        PooledChannelBuffer buffer3 = pool.acquire();
+        Assert.assertTrue(buffer3 == buffer0 || buffer3 == buffer1);
+        Assert.assertEquals(0, buffer3.readerIndex());
+        Assert.assertEquals(0, buffer3.writerIndex());
+        Assert.assertEquals(1, pool.getSize());
+    }
+
+    @Test
+    public void buffersFromOtherPoolsAreNotRetained() throws Exception {
+        ChannelBufferPool pool0 = new ChannelBufferPool(2);
+        ChannelBufferPool pool1 = new ChannelBufferPool(2);
+        pool1.release(pool0.acquire());
+        Assert.assertEquals(0, pool1.getSize());
+    }
+}
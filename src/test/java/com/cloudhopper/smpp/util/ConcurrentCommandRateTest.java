@@ -0,0 +1,108 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+// third party imports
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class ConcurrentCommandRateTest {
+
+    static private final long SECOND = 1000000000L;
+
+    static private void request(ConcurrentCommandCounter counter, int count) {
+        for (int i = 0; i < count; i++) {
+            counter.incrementRequest();
+        }
+    }
+
+    @Test
+    public void movingAverages() throws Exception {
+        ConcurrentCommandCounter counter = new ConcurrentCommandCounter();
+        // ticked by hand from a start in the future, so reading the rates
+        // (with the actual time) never ticks
+        long start = System.nanoTime() + 3600 * SECOND;
+        ConcurrentCommandRate rate = new ConcurrentCommandRate(counter, start);
+        Assert.assertEquals(0.0, rate.getOneSecondRate(), 0.0);
+
+        // less than a second: not ticked yet
+        request(counter, 100);
+        rate.update(start + SECOND / 2);
+        Assert.assertEquals(0.0, rate.getOneSecondRate(), 0.0);
+
+        rate.update(start + SECOND);
+        Assert.assertEquals(100 * (1 - Math.exp(-1.0)), rate.getOneSecondRate(), 0.001);
+        Assert.assertEquals(100 * (1 - Math.exp(-1.0/10)), rate.getTenSecondRate(), 0.001);
+        Assert.assertEquals(100 * (1 - Math.exp(-1.0/60)), rate.getSixtySecondRate(), 0.001);
+
+        // a steady 100/s for 5 minutes (read once at the end)
+        double sixtySecondRate = rate.getSixtySecondRate();
+        request(counter, 30000);
+        rate.update(start + 301 * SECOND);
+        Assert.assertEquals(100.0, rate.getOneSecondRate(), 0.001);
+        Assert.assertEquals(100.0, rate.getTenSecondRate(), 0.001);
+        Assert.assertEquals(100 + (sixtySecondRate - 100) * Math.exp(-300.0/60), rate.getSixtySecondRate(), 0.001);
+
+        // nothing for a minute
+        rate.update(start + 361 * SECOND);
+        Assert.assertEquals(0.0, rate.getOneSecondRate(), 0.001);
+        Assert.assertEquals(100 * Math.exp(-6.0), rate.getTenSecondRate(), 0.01);
+        Assert.assertEquals(true, rate.toString().startsWith("[1s="));
+    }
+
+    @Test
+    public void counterReset() throws Exception {
+        ConcurrentCommandCounter counter = new ConcurrentCommandCounter();
+        request(counter, 1000);
+        long start = System.nanoTime() + 3600 * SECOND;
+        // only requests counted after the rate was created count
+        ConcurrentCommandRate rate = new ConcurrentCommandRate(counter, start);
+        request(counter, 10);
+        rate.update(start + SECOND);
+        Assert.assertEquals(10 * (1 - Math.exp(-1.0)), rate.getOneSecondRate(), 0.001);
+
+        // counter reset between two ticks: its count is what was counted since
+        counter.reset();
+        request(counter, 10);
+        rate.update(start + 2 * SECOND);
+        Assert.assertEquals(10 - 10 * Math.exp(-2.0), rate.getOneSecondRate(), 0.001);
+    }
+
+    @Test
+    public void countBeyondIntRange() throws Exception {
+        ConcurrentCommandCounter counter = new ConcurrentCommandCounter(Integer.MAX_VALUE, 0, 0, 0, 0, 0, new ConcurrentCommandStatusCounter());
+        long start = System.nanoTime() + 3600 * SECOND;
+        ConcurrentCommandRate rate = new ConcurrentCommandRate(counter, start);
+        // the int count wraps here, the long count doesn't
+        request(counter, 10);
+        Assert.assertEquals(Integer.MAX_VALUE + 10L, counter.getRequestCount());
+        Assert.assertEquals(Integer.MAX_VALUE + 10L, counter.createSnapshot().getRequestCount());
+        rate.update(start + SECOND);
+        Assert.assertEquals(10 * (1 - Math.exp(-1.0)), rate.getOneSecondRate(), 0.001);
+    }
+
+}
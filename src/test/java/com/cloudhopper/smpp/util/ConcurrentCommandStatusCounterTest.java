@@ -0,0 +1,140 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+// third party imports
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class ConcurrentCommandStatusCounterTest {
+
+    @Test
+    public void incrementAndGet() throws Exception {
+        ConcurrentCommandStatusCounter counter = new ConcurrentCommandStatusCounter();
+        Assert.assertEquals(-1, counter.get(0));
+        Assert.assertEquals("", counter.toString());
+
+        counter.increment(0);
+        Assert.assertEquals(2, counter.incrementAndGet(0));
+        counter.increment(0x58);
+        // vendor specific statuses (and negative ones) go to the map
+        counter.increment(0x400);
+        counter.increment(0x400);
+        counter.increment(-1);
+
+        Assert.assertEquals(2, counter.get(0));
+        Assert.assertEquals(1, counter.get(0x58));
+        Assert.assertEquals(2, counter.get(0x400));
+        Assert.assertEquals(1, counter.get(-1));
+        Assert.assertEquals(-1, counter.get(0xFF));
+        Assert.assertEquals(-1, counter.get(0x100));
+        Assert.assertEquals("-1=1 0=2 88=1 1024=2", counter.toString());
+
+        SortedMap<Integer,Integer> snapshot = counter.createSortedMapSnapshot();
+        Assert.assertEquals(4, snapshot.size());
+        Assert.assertEquals(2, snapshot.get(0x400).intValue());
+
+        counter.reset();
+        Assert.assertEquals(-1, counter.get(0));
+        Assert.assertEquals(-1, counter.get(0x400));
+        Assert.assertEquals("", counter.toString());
+
+        // the adders are kept and reused after a reset
+        counter.increment(0);
+        counter.increment(0x400);
+        Assert.assertEquals(1, counter.get(0));
+        Assert.assertEquals(1, counter.get(0x400));
+        Assert.assertEquals("0=1 1024=1", counter.toString());
+        Assert.assertEquals(2, counter.copy().createSortedMapSnapshot().size());
+    }
+
+    @Test
+    public void copy() throws Exception {
+        ConcurrentCommandStatusCounter counter = new ConcurrentCommandStatusCounter();
+        counter.increment(0);
+        counter.increment(0x14);
+        counter.increment(0x14);
+        counter.increment(0x1000);
+
+        ConcurrentCommandStatusCounter copy = counter.copy();
+        Assert.assertEquals(1, copy.get(0));
+        Assert.assertEquals(2, copy.get(0x14));
+        Assert.assertEquals(1, copy.get(0x1000));
+
+        // the copy and the original are independent
+        counter.increment(0);
+        copy.increment(0x1000);
+        Assert.assertEquals(2, counter.get(0));
+        Assert.assertEquals(1, copy.get(0));
+        Assert.assertEquals(1, counter.get(0x1000));
+        Assert.assertEquals(2, copy.get(0x1000));
+    }
+
+    @Test
+    public void concurrentIncrementsAreNeverLost() throws Exception {
+        final ConcurrentCommandStatusCounter counter = new ConcurrentCommandStatusCounter();
+        final ConcurrentCommandCounter commandCounter = new ConcurrentCommandCounter();
+        final int threadCount = 8;
+        final int iterations = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // every thread races to create the same statuses
+                    for (int j = 0; j < iterations; j++) {
+                        counter.increment(j % 4);
+                        counter.increment(0x400 + (j % 4));
+                        commandCounter.incrementResponse();
+                        commandCounter.addRequestResponseTime(2);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int status = 0; status < 4; status++) {
+            Assert.assertEquals(threadCount * iterations / 4, counter.get(status));
+            Assert.assertEquals(threadCount * iterations / 4, counter.get(0x400 + status));
+        }
+        Assert.assertEquals(threadCount * iterations, commandCounter.getResponse());
+        Assert.assertEquals(threadCount * iterations * 2L, commandCounter.getRequestResponseTime());
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+// third party imports
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class ConcurrentLatencyHistogramTest {
+
+    @Test
+    public void buckets() throws Exception {
+        // every value falls in a bucket whose bounds are within 1/16 of it
+        int lastIndex = -1;
+        for (long value = 0; value < 1000000; value++) {
+            int index = ConcurrentLatencyHistogram.bucketIndex(value);
+            Assert.assertTrue(index == lastIndex || index == lastIndex + 1);
+            Assert.assertTrue(ConcurrentLatencyHistogram.lowestEquivalentValue(index) <= value);
+            Assert.assertTrue(ConcurrentLatencyHistogram.highestEquivalentValue(index) >= value);
+            Assert.assertTrue(ConcurrentLatencyHistogram.highestEquivalentValue(index) - value <= value / 16);
+            lastIndex = index;
+        }
+        // values below 32 are exact
+        Assert.assertEquals(31, ConcurrentLatencyHistogram.bucketIndex(31));
+        Assert.assertEquals(31, ConcurrentLatencyHistogram.highestEquivalentValue(31));
+        Assert.assertEquals(ConcurrentLatencyHistogram.BUCKET_COUNT - 1, ConcurrentLatencyHistogram.bucketIndex(ConcurrentLatencyHistogram.MAX_TRACKABLE_VALUE));
+    }
+
+    @Test
+    public void percentiles() throws Exception {
+        ConcurrentLatencyHistogram histogram = new ConcurrentLatencyHistogram();
+        LatencyHistogramSnapshot snapshot = histogram.createSnapshot();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getMax());
+        Assert.assertEquals(0, snapshot.getMedian());
+
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        snapshot = histogram.createSnapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(1000, snapshot.getMax());
+        Assert.assertEquals(1000, snapshot.getValueAtPercentile(100.0));
+        Assert.assertEquals(1, snapshot.getValueAtPercentile(0.0));
+        Assert.assertTrue(snapshot.getMedian() >= 500 && snapshot.getMedian() <= 500 + 500/16);
+        Assert.assertTrue(snapshot.get99thPercentile() >= 990 && snapshot.get99thPercentile() <= 1000);
+        Assert.assertTrue(snapshot.get999thPercentile() >= 999 && snapshot.get999thPercentile() <= 1000);
+        Assert.assertEquals(500.5, snapshot.getMean(), 500.5/16);
+        Assert.assertEquals("[count=1000 p50=" + snapshot.getMedian() + "ms p99=" + snapshot.get99thPercentile() + "ms p99.9=" + snapshot.get999thPercentile() + "ms max=1000ms]", snapshot.toString());
+    }
+
+    @Test
+    public void snapshotAndReset() throws Exception {
+        ConcurrentLatencyHistogram histogram = new ConcurrentLatencyHistogram();
+        histogram.record(10);
+        histogram.record(-5);   // recorded as 0
+        histogram.record(ConcurrentLatencyHistogram.MAX_TRACKABLE_VALUE * 4);
+
+        LatencyHistogramSnapshot snapshot = histogram.createSnapshotAndReset();
+        Assert.assertEquals(3, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(10.0));
+        Assert.assertEquals(10, snapshot.getMedian());
+        // the max is tracked exactly even beyond the trackable range
+        Assert.assertEquals(ConcurrentLatencyHistogram.MAX_TRACKABLE_VALUE * 4, snapshot.getMax());
+
+        // the next interval starts empty
+        snapshot = histogram.createSnapshotAndReset();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getMax());
+
+        histogram.record(7);
+        ConcurrentLatencyHistogram copy = histogram.copy();
+        histogram.reset();
+        Assert.assertEquals(0, histogram.createSnapshot().getCount());
+        Assert.assertEquals(1, copy.createSnapshot().getCount());
+        Assert.assertEquals(7, copy.createSnapshot().getMax());
+    }
+
+    @Test
+    public void recordFromManyThreads() throws Exception {
+        final ConcurrentLatencyHistogram histogram = new ConcurrentLatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final long value = i + 1;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(value);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // merged across the stripes of every thread
+        LatencyHistogramSnapshot snapshot = histogram.createSnapshotAndReset();
+        Assert.assertEquals(80000, snapshot.getCount());
+        Assert.assertEquals(8, snapshot.getMax());
+        Assert.assertEquals(0, histogram.createSnapshot().getCount());
+    }
+
+    @Test
+    public void recordedByCommandCounter() throws Exception {
+        ConcurrentCommandCounter counter = new ConcurrentCommandCounter();
+        counter.addRequestWaitTimeAndGet(1);
+        counter.addRequestResponseTimeAndGet(20);
+        counter.addRequestResponseTimeAndGet(40);
+        counter.addRequestEstimatedProcessingTimeAndGet(15);
+
+        Assert.assertEquals(1, counter.getRequestWaitTimeHistogram().createSnapshot().getCount());
+        Assert.assertEquals(2, counter.getRequestResponseTimeHistogram().createSnapshot().getCount());
+        Assert.assertEquals(40, counter.getRequestResponseTimeHistogram().createSnapshot().getMax());
+        Assert.assertEquals(1, counter.getRequestEstimatedProcessingTimeHistogram().createSnapshot().getCount());
+
+        ConcurrentCommandCounter snapshot = counter.createSnapshot();
+        counter.resetLatencyHistograms();
+        Assert.assertEquals(0, counter.getRequestResponseTimeHistogram().createSnapshot().getCount());
+        Assert.assertEquals(60, counter.getRequestResponseTime());
+        Assert.assertEquals(2, snapshot.getRequestResponseTimeHistogram().createSnapshot().getCount());
+    }
+}
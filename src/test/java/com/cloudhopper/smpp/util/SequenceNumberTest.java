@@ -54,4 +54,71 @@ public class SequenceNumberTest {
         Assert.assertEquals(2, seqNum.next());
         Assert.assertEquals(3, seqNum.next());
     }
+
+    @Test
+    public void startAtZero() throws Exception {
+        // AT&T Wireless starts at zero
+        SequenceNumber seqNum = new SequenceNumber(SequenceNumber.MIN_VALUE);
+        Assert.assertEquals(0, seqNum.next());
+        Assert.assertEquals(1, seqNum.next());
+    }
+
+    @Test
+    public void nextBlock() throws Exception {
+        SequenceNumber seqNum = new SequenceNumber();
+        Assert.assertEquals(1, seqNum.nextBlock(10));
+        Assert.assertEquals(11, seqNum.next());
+        Assert.assertEquals(12, seqNum.nextBlock(1));
+        Assert.assertEquals(13, seqNum.peek());
+
+        // a block that ends right on the max value
+        seqNum = new SequenceNumber(0x7FFFFFFE);
+        Assert.assertEquals(0x7FFFFFFE, seqNum.nextBlock(2));
+        Assert.assertEquals(1, seqNum.next());
+
+        // a block that would run past the max value starts back at 1
+        seqNum = new SequenceNumber(0x7FFFFFFE);
+        Assert.assertEquals(1, seqNum.nextBlock(3));
+        Assert.assertEquals(4, seqNum.next());
+
+        try {
+            seqNum.nextBlock(0);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // correct behavior
+        }
+    }
+
+    @Test
+    public void concurrentNextIsUnique() throws Exception {
+        final SequenceNumber seqNum = new SequenceNumber();
+        final int threadCount = 8;
+        final int perThread = 10000;
+        final int[][] results = new int[threadCount][perThread];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int[] result = results[i];
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        result[j] = seqNum.next();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        boolean[] seen = new boolean[threadCount*perThread+1];
+        for (int[] result : results) {
+            for (int value : result) {
+                Assert.assertFalse("Duplicate sequence number " + value, seen[value]);
+                seen[value] = true;
+            }
+        }
+        Assert.assertEquals(threadCount*perThread+1, seqNum.peek());
+    }
 }
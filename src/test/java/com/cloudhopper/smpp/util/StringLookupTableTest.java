@@ -0,0 +1,90 @@
+package com.cloudhopper.smpp.util;
+
+/*
+ * #%L
+ * ch-smpp
+ * %%
+ * Copyright (C) 2009 - 2012 Cloudhopper by Twitter
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+// third party imports
+import com.cloudhopper.smpp.SmppConstants;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.*;
+
+// my imports
+
+/**
+ *
+ * @author joelauer (twitter: @jjlauer or <a href="http://twitter.com/jjlauer" target=window>http://twitter.com/jjlauer</a>)
+ */
+public class StringLookupTableTest {
+
+    @Test
+    public void copyOfStatusMessages() throws Exception {
+        StringLookupTable table = new StringLookupTable(SmppConstants.STATUS_MESSAGE_MAP, 0x100);
+        Assert.assertEquals(SmppConstants.STATUS_MESSAGE_MAP.size(), table.getSize());
+        for (Map.Entry<Integer,String> entry : SmppConstants.STATUS_MESSAGE_MAP.entrySet()) {
+            Assert.assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+        Assert.assertEquals("OK", table.get(SmppConstants.STATUS_OK));
+        Assert.assertNull(table.get(0x0400));
+        Assert.assertNull(table.get(-1));
+    }
+
+    @Test
+    public void copyOfTagNames() throws Exception {
+        StringLookupTable table = new StringLookupTable(SmppConstants.TAG_NAME_MAP, 0);
+        Assert.assertEquals(SmppConstants.TAG_NAME_MAP.size(), table.getSize());
+        for (Map.Entry<Short,String> entry : SmppConstants.TAG_NAME_MAP.entrySet()) {
+            Assert.assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+        Assert.assertEquals("receipted_message_id", table.get(SmppConstants.TAG_RECEIPTED_MSG_ID));
+        Assert.assertNull(table.get((short)0x1400));
+    }
+
+    @Test
+    public void with() throws Exception {
+        Map<Integer,String> map = new HashMap<Integer,String>();
+        map.put(1, "one");
+        map.put(1000, "thousand");
+        StringLookupTable table0 = new StringLookupTable(map, 16);
+
+        StringLookupTable table1 = table0.with(2, "two").with(-5, "minus five").with(1000, "grand");
+
+        // original table is unchanged
+        Assert.assertEquals(2, table0.getSize());
+        Assert.assertNull(table0.get(2));
+        Assert.assertEquals("thousand", table0.get(1000));
+
+        Assert.assertEquals(4, table1.getSize());
+        Assert.assertEquals("one", table1.get(1));
+        Assert.assertEquals("two", table1.get(2));
+        Assert.assertEquals("minus five", table1.get(-5));
+        Assert.assertEquals("grand", table1.get(1000));
+
+        // many entries force the hash to grow
+        StringLookupTable table2 = new StringLookupTable(0);
+        for (int i = 0; i < 100; i++) {
+            table2 = table2.with(i * 31, "v" + i);
+        }
+        Assert.assertEquals(100, table2.getSize());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("v" + i, table2.get(i * 31));
+        }
+    }
+}